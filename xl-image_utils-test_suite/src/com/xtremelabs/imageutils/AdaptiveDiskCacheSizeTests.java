@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.test.AndroidTestCase;
+
+public class AdaptiveDiskCacheSizeTests extends AndroidTestCase {
+	private static final long MEGABYTE = 1024 * 1024;
+
+	public void testSizeIsFractionOfFreeSpace() {
+		AdaptiveDiskCacheSize adaptiveDiskCacheSize = new AdaptiveDiskCacheSize(0.25f, 10 * MEGABYTE, 500 * MEGABYTE);
+		assertEquals(100 * MEGABYTE, adaptiveDiskCacheSize.calculateMaximumSize(400 * MEGABYTE, 0));
+	}
+
+	public void testSpaceUsedByCacheCountsAsFree() {
+		AdaptiveDiskCacheSize adaptiveDiskCacheSize = new AdaptiveDiskCacheSize(0.25f, 10 * MEGABYTE, 500 * MEGABYTE);
+		assertEquals(100 * MEGABYTE, adaptiveDiskCacheSize.calculateMaximumSize(300 * MEGABYTE, 100 * MEGABYTE));
+	}
+
+	public void testSizeIsBounded() {
+		AdaptiveDiskCacheSize adaptiveDiskCacheSize = new AdaptiveDiskCacheSize(0.25f, 10 * MEGABYTE, 500 * MEGABYTE);
+		assertEquals(10 * MEGABYTE, adaptiveDiskCacheSize.calculateMaximumSize(20 * MEGABYTE, 0));
+		assertEquals(500 * MEGABYTE, adaptiveDiskCacheSize.calculateMaximumSize(64 * 1024 * MEGABYTE, 0));
+	}
+
+	public void testInvalidArguments() {
+		try {
+			new AdaptiveDiskCacheSize(0f, 0, MEGABYTE);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try {
+			new AdaptiveDiskCacheSize(0.1f, 2 * MEGABYTE, MEGABYTE);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -66,6 +66,22 @@ public class AdvancedMemoryCacherTests extends AndroidTestCase {
 		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url2", 1, mBitmapConfig)));
 	}
 
+	public void testGetLargerVariant() {
+		Bitmap bitmap = getBitmap();
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 2, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 8, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, Bitmap.Config.RGB_565));
+
+		assertEquals(new DecodeSignature("url1", 2, mBitmapConfig), mMemCache.getLargerVariant(new DecodeSignature("url1", 4, mBitmapConfig)));
+		assertEquals(new DecodeSignature("url1", 1, mBitmapConfig), mMemCache.getLargerVariant(new DecodeSignature("url1", 2, mBitmapConfig)));
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url1", 1, mBitmapConfig)));
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url2", 4, mBitmapConfig)));
+
+		mMemCache.removeAllImagesForUri("url1");
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url1", 4, mBitmapConfig)));
+	}
+
 	private Bitmap getBitmap() {
 		return ((BitmapDrawable) getContext().getResources().getDrawable(android.R.drawable.ic_input_add)).getBitmap();
 	}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.test.AndroidTestCase;
+
+public class BitmapPoolTests extends AndroidTestCase {
+	private static final int WIDTH = 100;
+	private static final int HEIGHT = 50;
+
+	private BitmapPool mBitmapPool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mBitmapPool = new BitmapPool();
+		mBitmapPool.setMaximumPoolSize(WIDTH * HEIGHT * 4 * 2);
+	}
+
+	public void testDisabledByDefault() {
+		BitmapPool bitmapPool = new BitmapPool();
+		assertFalse(bitmapPool.isEnabled());
+		assertFalse(bitmapPool.put(createBitmap()));
+		assertEquals(0, bitmapPool.getNumBitmapsInPool());
+	}
+
+	public void testImmutableBitmapsAreRejected() {
+		Bitmap bitmap = ((BitmapDrawable) getContext().getResources().getDrawable(android.R.drawable.ic_input_add)).getBitmap();
+		assertFalse(mBitmapPool.put(bitmap));
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+	}
+
+	public void testHitsAndMisses() {
+		Dimensions dimensions = new Dimensions(WIDTH, HEIGHT);
+		assertNull(mBitmapPool.get(dimensions, 1, Bitmap.Config.ARGB_8888));
+		assertEquals(0, mBitmapPool.getHitCount());
+		assertEquals(1, mBitmapPool.getMissCount());
+
+		Bitmap bitmap = createBitmap();
+		assertTrue(mBitmapPool.put(bitmap));
+		assertEquals(1, mBitmapPool.getNumBitmapsInPool());
+
+		assertNull(mBitmapPool.get(dimensions, 1, Bitmap.Config.RGB_565));
+		assertEquals(2, mBitmapPool.getMissCount());
+
+		assertSame(bitmap, mBitmapPool.get(dimensions, 1, null));
+		assertEquals(1, mBitmapPool.getHitCount());
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+		assertEquals(0, mBitmapPool.getSize());
+	}
+
+	public void testEvictionsRespectBudget() {
+		Bitmap first = createBitmap();
+		mBitmapPool.put(first);
+		mBitmapPool.put(createBitmap());
+		mBitmapPool.put(createBitmap());
+
+		assertEquals(2, mBitmapPool.getNumBitmapsInPool());
+		assertEquals(WIDTH * HEIGHT * 4 * 2, mBitmapPool.getSize());
+
+		mBitmapPool.setMaximumPoolSize(WIDTH * HEIGHT * 4);
+		assertEquals(1, mBitmapPool.getNumBitmapsInPool());
+		assertNotSame(first, mBitmapPool.get(new Dimensions(WIDTH, HEIGHT), 1, Bitmap.Config.ARGB_8888));
+
+		mBitmapPool.put(createBitmap());
+		mBitmapPool.clear();
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+		assertEquals(0, mBitmapPool.getSize());
+	}
+
+	public void testHeldBitmapIsPooledOnceReleased() {
+		Bitmap bitmap = createBitmap();
+		mBitmapPool.retain(bitmap);
+		mBitmapPool.retain(bitmap);
+		assertFalse(mBitmapPool.put(bitmap));
+
+		assertFalse(mBitmapPool.onBitmapEvicted(bitmap));
+		assertFalse(mBitmapPool.release(bitmap));
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+
+		assertTrue(mBitmapPool.release(bitmap));
+		assertEquals(1, mBitmapPool.getNumBitmapsInPool());
+	}
+
+	public void testReleasedBitmapIsPooledOnceEvicted() {
+		Bitmap bitmap = createBitmap();
+		mBitmapPool.retain(bitmap);
+		assertFalse(mBitmapPool.release(bitmap));
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+
+		assertTrue(mBitmapPool.onBitmapEvicted(bitmap));
+		assertEquals(1, mBitmapPool.getNumBitmapsInPool());
+	}
+
+	public void testRetainingPooledBitmapTakesItBack() {
+		Bitmap bitmap = createBitmap();
+		assertTrue(mBitmapPool.onBitmapEvicted(bitmap));
+
+		mBitmapPool.retain(bitmap);
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+	}
+
+	private static Bitmap createBitmap() {
+		return Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.AsyncOperationsMaps.AsyncOperationState;
+import com.xtremelabs.imageutils.AsyncOperationsMaps.OperationsObserver;
+import com.xtremelabs.imageutils.ImageCacher.ImageCacherListener;
+
+public class CacheStatsTests extends AndroidTestCase {
+	private static final String TEST_URI = "http://some.url/image.jpg";
+
+	private ImageCacher mImageCacher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mImageCacher = ImageCacher.getInstance(getContext());
+		mImageCacher.stubMemCache(new MemCacheStub());
+		mImageCacher.stubNetwork(new NetworkStub());
+		mImageCacher.stubDiskCache(new DiskCacheStub() {
+			@Override
+			public boolean isCached(CacheRequest cacheRequest) {
+				return true;
+			}
+		});
+		mImageCacher.stubAsynchOperationsMaps(new AsyncOperationsMaps(mImageCacher) {
+			@Override
+			public synchronized AsyncOperationState queueListenerIfRequestPending(CacheRequest cacheRequest, ImageCacherListener imageCacherListener) {
+				return AsyncOperationState.NOT_QUEUED;
+			}
+		});
+	}
+
+	public void testMemoryHitsAndMissesAreCounted() {
+		final Bitmap bitmap = Bitmap.createBitmap(10, 10, Config.ARGB_8888);
+		mImageCacher.stubMemCache(new MemCacheStub() {
+			@Override
+			public Bitmap getBitmap(DecodeSignature decodeSignature) {
+				return decodeSignature.uri.equals(TEST_URI) ? bitmap : null;
+			}
+		});
+
+		CacheStats before = mImageCacher.getCacheStats();
+		mImageCacher.getBitmapSynchronouslyFromDiskOrMemory(createRequest(TEST_URI), new BlankImageCacherListener());
+		mImageCacher.getBitmapSynchronouslyFromDiskOrMemory(createRequest(TEST_URI + "?other"), new BlankImageCacherListener());
+		CacheStats after = mImageCacher.getCacheStats();
+
+		assertEquals(1, after.getMemoryHitCount() - before.getMemoryHitCount());
+		assertEquals(1, after.getMemoryMissCount() - before.getMemoryMissCount());
+		assertEquals(1, after.getDiskHitCount() - before.getDiskHitCount());
+	}
+
+	public void testSnapshotIsImmutable() {
+		CacheStats before = mImageCacher.getCacheStats();
+		long evictions = before.getMemoryEvictionCount();
+
+		mImageCacher.onBitmapEvicted(new DecodeSignature(TEST_URI, 1, null), Bitmap.createBitmap(10, 10, Config.ARGB_8888));
+
+		assertEquals(evictions, before.getMemoryEvictionCount());
+		assertEquals(evictions + 1, mImageCacher.getCacheStats().getMemoryEvictionCount());
+	}
+
+	public void testCoalescedRequestsAreCounted() {
+		AsyncOperationsMaps asyncOperationsMaps = new AsyncOperationsMaps(new IdleOperationsObserver());
+		CacheRequest cacheRequest = new CacheRequest(TEST_URI);
+
+		asyncOperationsMaps.registerNetworkRequest(cacheRequest, new BlankImageCacherListener());
+		assertEquals(1, asyncOperationsMaps.getNumPendingNetworkOperations());
+		assertEquals(0, asyncOperationsMaps.getCoalescedRequestCount());
+
+		assertEquals(AsyncOperationState.QUEUED_FOR_NETWORK_REQUEST, asyncOperationsMaps.queueListenerIfRequestPending(cacheRequest, new BlankImageCacherListener()));
+		assertEquals(1, asyncOperationsMaps.getNumPendingNetworkOperations());
+		assertEquals(1, asyncOperationsMaps.getCoalescedRequestCount());
+
+		asyncOperationsMaps.onDownloadFailed(TEST_URI, "Failed.");
+		assertEquals(0, asyncOperationsMaps.getNumPendingNetworkOperations());
+	}
+
+	private static CacheRequest createRequest(String uri) {
+		ScalingInfo scalingInfo = new ScalingInfo();
+		scalingInfo.sampleSize = 1;
+		return new CacheRequest(uri, scalingInfo);
+	}
+
+	/**
+	 * Hands out operations that never complete, so that they stay pending until the test completes or fails them.
+	 */
+	private static class IdleOperationsObserver implements OperationsObserver {
+		@Override
+		public Prioritizable getNetworkRunnable(CacheRequest cacheRequest) {
+			return createIdlePrioritizable(cacheRequest);
+		}
+
+		@Override
+		public Prioritizable getDecodeRunnable(CacheRequest cacheRequest, DecodeSignature decodeSignature, ImageReturnedFrom imageReturnedFrom) {
+			return createIdlePrioritizable(cacheRequest);
+		}
+
+		@Override
+		public Prioritizable getDetailsRunnable(CacheRequest cacheRequest) {
+			return createIdlePrioritizable(cacheRequest);
+		}
+
+		@Override
+		public int getSampleSize(CacheRequest cacheRequest) {
+			return 1;
+		}
+
+		@Override
+		public void onBitmapDelivered(Bitmap bitmap) {
+		}
+
+		@Override
+		public void onDecodeCancelled(DecodeSignature decodeSignature) {
+		}
+
+		private static Prioritizable createIdlePrioritizable(CacheRequest cacheRequest) {
+			return new DefaultPrioritizable(cacheRequest, new Request<String>(cacheRequest.getUri())) {
+				@Override
+				public void execute() {
+				}
+			};
+		}
+	}
+}
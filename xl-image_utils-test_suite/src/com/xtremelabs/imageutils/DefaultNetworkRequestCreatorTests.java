@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.CachingNetworkRequestCreator.CachingInputStreamListener;
+import com.xtremelabs.imageutils.testutils.LocalHttpServer;
+
+public class DefaultNetworkRequestCreatorTests extends AndroidTestCase {
+	private static final byte[] IMAGE_V1 = { 1, 2, 3, 4 };
+	private static final byte[] IMAGE_V2 = { 5, 6, 7 };
+
+	private LocalHttpServer mServer;
+	private DefaultNetworkRequestCreator mNetworkRequestCreator;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mServer = new LocalHttpServer(IMAGE_V1, "\"v1\"", "public, max-age=600");
+		mNetworkRequestCreator = new DefaultNetworkRequestCreator();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mServer.shutdown();
+		super.tearDown();
+	}
+
+	public void testResponseHeadersAreReported() {
+		RecordingListener listener = request(null);
+
+		assertNull(listener.failure);
+		assertFalse(listener.notModified);
+		assertEquals(IMAGE_V1.length, listener.body.length);
+		assertEquals("\"v1\"", listener.cacheHeaders.getETag());
+		assertEquals(600, listener.cacheHeaders.getMaxAge());
+		assertFalse(mServer.getRequestHeaders().get(0).containsKey("if-none-match"));
+	}
+
+	public void testConditionalRequestIsNotModified() {
+		HttpCacheHeaders validators = request(null).cacheHeaders;
+		RecordingListener listener = request(validators);
+
+		assertNull(listener.failure);
+		assertTrue(listener.notModified);
+		assertNull(listener.body);
+		assertEquals("\"v1\"", mServer.getRequestHeaders().get(1).get("if-none-match"));
+	}
+
+	public void testConditionalRequestReturnsNewVersion() {
+		HttpCacheHeaders validators = request(null).cacheHeaders;
+		mServer.setImage(IMAGE_V2, "\"v2\"");
+		RecordingListener listener = request(validators);
+
+		assertFalse(listener.notModified);
+		assertEquals(IMAGE_V2.length, listener.body.length);
+		assertEquals("\"v2\"", listener.cacheHeaders.getETag());
+	}
+
+	public void testMaxAgeParsing() {
+		assertEquals(HttpCacheHeaders.NO_MAX_AGE, new HttpCacheHeaders(null, null, null).getMaxAge());
+		assertEquals(HttpCacheHeaders.NO_MAX_AGE, new HttpCacheHeaders(null, null, "public").getMaxAge());
+		assertEquals(60, new HttpCacheHeaders(null, null, "public, MAX-AGE=60").getMaxAge());
+		assertEquals(0, new HttpCacheHeaders(null, null, "max-age=60, no-cache").getMaxAge());
+		assertEquals(HttpCacheHeaders.NO_MAX_AGE, new HttpCacheHeaders(null, null, "max-age=soon").getMaxAge());
+		assertFalse(new HttpCacheHeaders("", null, null).hasValidators());
+	}
+
+	private RecordingListener request(HttpCacheHeaders validators) {
+		RecordingListener listener = new RecordingListener();
+		mNetworkRequestCreator.getInputStream(mServer.getUrl("/kitten.jpg"), validators, listener);
+		return listener;
+	}
+
+	private static class RecordingListener implements CachingInputStreamListener {
+		byte[] body;
+		HttpCacheHeaders cacheHeaders;
+		boolean notModified;
+		String failure;
+
+		@Override
+		public void onInputStreamReady(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
+			this.cacheHeaders = cacheHeaders;
+			try {
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				int b;
+				while ((b = inputStream.read()) != -1) {
+					outputStream.write(b);
+				}
+				body = outputStream.toByteArray();
+			} catch (IOException e) {
+				failure = e.getMessage();
+			}
+		}
+
+		@Override
+		public void onNotModified(HttpCacheHeaders cacheHeaders) {
+			notModified = true;
+			this.cacheHeaders = cacheHeaders;
+		}
+
+		@Override
+		public void onFailure(String errorMessage) {
+			failure = errorMessage;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+public class DerivativeDiskCacheTests extends AndroidTestCase {
+	private DiskManager mDiskManager;
+	private DerivativeDiskCache mDerivativeDiskCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mDiskManager = new DiskManager("derivativetests", getContext());
+		mDiskManager.clearDirectory();
+		mDerivativeDiskCache = new DerivativeDiskCache(mDiskManager);
+		mDerivativeDiskCache.setMaximumSize(1024 * 1024);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDiskManager.clearDirectory();
+
+		super.tearDown();
+	}
+
+	public void testPutAndGet() {
+		mDerivativeDiskCache.put("key1", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+
+		File file = mDerivativeDiskCache.get("key1");
+		assertNotNull(file);
+		assertNull(mDerivativeDiskCache.get("key2"));
+		assertEquals(1, mDerivativeDiskCache.getHitCount());
+		assertEquals(1, mDerivativeDiskCache.getMissCount());
+		assertEquals(file.length(), mDerivativeDiskCache.getSize());
+
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+		assertEquals(60, bitmap.getWidth());
+		assertEquals(40, bitmap.getHeight());
+	}
+
+	public void testEntriesSurviveRestart() {
+		mDerivativeDiskCache.put("key1", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+
+		DerivativeDiskCache derivativeDiskCache = new DerivativeDiskCache(mDiskManager);
+		derivativeDiskCache.setMaximumSize(1024 * 1024);
+		assertNotNull(derivativeDiskCache.get("key1"));
+		assertEquals(mDerivativeDiskCache.getSize(), derivativeDiskCache.getSize());
+	}
+
+	public void testEvictions() {
+		mDerivativeDiskCache.put("key1", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+		long size = mDerivativeDiskCache.getSize();
+		mDerivativeDiskCache.setMaximumSize(size * 2);
+
+		mDerivativeDiskCache.put("key2", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+		assertNotNull(mDerivativeDiskCache.get("key1"));
+		mDerivativeDiskCache.put("key3", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+
+		assertNotNull(mDerivativeDiskCache.get("key1"));
+		assertNull(mDerivativeDiskCache.get("key2"));
+		assertNotNull(mDerivativeDiskCache.get("key3"));
+	}
+
+	public void testDisablingDeletesDerivatives() {
+		mDerivativeDiskCache.put("key1", Bitmap.createBitmap(60, 40, Bitmap.Config.RGB_565));
+		mDerivativeDiskCache.setMaximumSize(0);
+
+		assertFalse(mDerivativeDiskCache.isEnabled());
+		assertEquals(0, mDerivativeDiskCache.getSize());
+		mDerivativeDiskCache.setMaximumSize(1024 * 1024);
+		assertNull(mDerivativeDiskCache.get("key1"));
+	}
+}
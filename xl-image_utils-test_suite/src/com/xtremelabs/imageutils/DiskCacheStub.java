@@ -24,10 +24,23 @@ import java.net.URISyntaxException;
 import android.graphics.Bitmap;
 
 import com.xtremelabs.imageutils.DiskLRUCacher.FileFormatException;
+import com.xtremelabs.imageutils.ImageLoader.DiskIndexType;
 
 public class DiskCacheStub implements ImageDiskCacherInterface {
 	@Override
-	public void downloadImageFromInputStream(String uri, InputStream inputStream) throws IOException {
+	public void downloadImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+	}
+
+	@Override
+	public void replaceImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+	}
+
+	@Override
+	public void onImageNotModified(CacheRequest cacheRequest, HttpCacheHeaders cacheHeaders) {
+	}
+
+	@Override
+	public void onRevalidationFailed(CacheRequest cacheRequest) {
 	}
 
 	@Override
@@ -38,6 +51,72 @@ public class DiskCacheStub implements ImageDiskCacherInterface {
 	public void setDiskCacheSize(long sizeInBytes) {
 	}
 
+	@Override
+	public void setDiskCacheSize(String partitionName, long sizeInBytes) {
+	}
+
+	@Override
+	public void setDiskIndexType(DiskIndexType diskIndexType) {
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public long getSizeOnDisk() {
+		return 0;
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return 0;
+	}
+
+	@Override
+	public long getOrphanedFileCount() {
+		return 0;
+	}
+
+	@Override
+	public long getDanglingEntryCount() {
+		return 0;
+	}
+
+	@Override
+	public void setDiskCacheScanListener(DiskCacheScanListener diskCacheScanListener) {
+	}
+
+	@Override
+	public void setAdaptiveDiskCacheSize(String partitionName, AdaptiveDiskCacheSize adaptiveDiskCacheSize) {
+	}
+
+	@Override
+	public void setPackedImageThreshold(int maximumSizeInBytes) {
+	}
+
+	@Override
+	public void setInternalStorageHotImageCount(int count) {
+	}
+
+	@Override
+	public void onStorageStateChanged() {
+	}
+
+	@Override
+	public boolean isIndexLoaded(CacheRequest cacheRequest) {
+		return true;
+	}
+
+	@Override
+	public void revalidateIfExpired(CacheRequest cacheRequest) {
+	}
+
+	@Override
+	public long getIndexLoadTime() {
+		return 0;
+	}
+
 	@Override
 	public void invalidateFileSystemUri(String uri) {
 	}
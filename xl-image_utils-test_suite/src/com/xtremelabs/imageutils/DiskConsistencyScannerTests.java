@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.DiskIndex.DiskIndexObserver;
+
+public class DiskConsistencyScannerTests extends AndroidTestCase {
+	private DiskManager mDiskManager;
+	private File mJournalFile;
+	private JournalDiskIndex mDiskIndex;
+	private ScheduledThreadPoolExecutor mExecutor;
+
+	private final CountDownLatch mScanCompleteLatch = new CountDownLatch(1);
+	private int mOrphanedFileCount;
+	private int mDanglingEntryCount;
+
+	private final DiskConsistencyScanner.ScanObserver mScanObserver = new DiskConsistencyScanner.ScanObserver() {
+		@Override
+		public void onScanComplete(int orphanedFileCount, int danglingEntryCount) {
+			mOrphanedFileCount = orphanedFileCount;
+			mDanglingEntryCount = danglingEntryCount;
+			mScanCompleteLatch.countDown();
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mDiskManager = new DiskManager("scantests", getContext());
+		mDiskManager.clearDirectory();
+		mJournalFile = new File(getContext().getCacheDir(), "scanTestJournal");
+		mJournalFile.delete();
+		mDiskIndex = new JournalDiskIndex(mJournalFile, new DiskIndexObserver() {
+			@Override
+			public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris) {
+				return Collections.emptyList();
+			}
+
+			@Override
+			public void onImageEvicted(String uri) {
+			}
+		});
+		mExecutor = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mExecutor.shutdownNow();
+		mDiskManager.clearDirectory();
+		mJournalFile.delete();
+		super.tearDown();
+	}
+
+	public void testScanRemovesOrphansAndDanglingEntries() throws IOException, InterruptedException {
+		PackedBlobStore packedBlobStore = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+
+		addImageFile("url1", 0);
+		mDiskIndex.addOrUpdateFile("url1", 100, 10, 10);
+		packedBlobStore.put("url2", new byte[100]);
+		mDiskIndex.addOrUpdateFile("url2", 100, 10, 10);
+		mDiskIndex.addOrUpdateFile("url3", 100, 10, 10);
+
+		File orphanedFile = addImageFile("url4", DiskConsistencyScanner.ORPHAN_MINIMUM_AGE_MS * 2);
+		File recentFile = addImageFile("url5", 0);
+
+		int numEntries = DiskConsistencyScanner.CHUNK_SIZE * 2;
+		for (int i = 0; i < numEntries; i++) {
+			mDiskIndex.addOrUpdateFile("missing" + i, 100, 10, 10);
+		}
+
+		new DiskConsistencyScanner(mDiskManager, packedBlobStore, mExecutor, mScanObserver, 0, "packs", DiskManager.TEMPORARY_DIRECTORY).scan(mDiskIndex, 0);
+		assertTrue(mScanCompleteLatch.await(10, TimeUnit.SECONDS));
+
+		assertEquals(1, mOrphanedFileCount);
+		assertEquals(numEntries + 1, mDanglingEntryCount);
+		assertFalse(orphanedFile.exists());
+		assertTrue(recentFile.exists());
+		assertTrue(mDiskManager.isOnDisk(DiskManager.getShardedFileName("url1")));
+		assertTrue(mDiskIndex.isCached("url1"));
+		assertTrue(mDiskIndex.isCached("url2"));
+		assertTrue(packedBlobStore.contains("url2"));
+		assertFalse(mDiskIndex.isCached("url3"));
+		assertEquals(200, mDiskIndex.getTotalSizeOnDisk());
+	}
+
+	private File addImageFile(String uri, long age) throws IOException {
+		String fileName = DiskManager.getShardedFileName(uri);
+		mDiskManager.loadStreamToFile(new ByteArrayInputStream(new byte[100]), fileName);
+		File file = mDiskManager.getFile(fileName);
+		file.setLastModified(System.currentTimeMillis() - age);
+		return file;
+	}
+}
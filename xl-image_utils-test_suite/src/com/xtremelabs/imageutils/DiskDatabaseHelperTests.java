@@ -16,8 +16,11 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
 import com.xtremelabs.imageutils.DiskDatabaseHelper.DiskDatabaseHelperObserver;
@@ -25,6 +28,9 @@ import com.xtremelabs.imageutils.testutils.DelayedLoop;
 
 public class DiskDatabaseHelperTests extends AndroidTestCase {
 	private DiskDatabaseHelper mDatabaseHelper;
+	private final List<String> mEvictedUris = new ArrayList<String>();
+	private final List<FileEntry> mRebuiltEntries = new ArrayList<FileEntry>();
+	private Collection<String> mRebuildUris;
 
 	@Override
 	protected void setUp() throws Exception {
@@ -32,14 +38,20 @@ public class DiskDatabaseHelperTests extends AndroidTestCase {
 
 		mDatabaseHelper = new DiskDatabaseHelper(getContext(), new DiskDatabaseHelperObserver() {
 			@Override
-			public void onDatabaseWiped() {
+			public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris) {
+				mRebuildUris = knownUris;
+				return mRebuiltEntries;
 			}
 
 			@Override
 			public void onImageEvicted(String uri) {
+				mEvictedUris.add(uri);
 			}
 		});
 		mDatabaseHelper.resetTable(mDatabaseHelper.getWritableDatabase());
+		mEvictedUris.clear();
+		mRebuiltEntries.clear();
+		mRebuildUris = null;
 	}
 
 	public void testClearingDatabase() {
@@ -111,6 +123,106 @@ public class DiskDatabaseHelperTests extends AndroidTestCase {
 		assertEquals("url4", entry);
 	}
 
+	public void testQueuedWritesReachDatabase() {
+		mDatabaseHelper.addOrUpdateFile("url1", 100, 10, 20);
+		mDatabaseHelper.addOrUpdateFile("url2", 200, 10, 20);
+		sleep(2);
+		mDatabaseHelper.updateFile("url1");
+		long lastAccessTime = mDatabaseHelper.getFileEntryFromCache("url1").getLastAccessTime();
+		mDatabaseHelper.deleteEntry("url2");
+
+		FileEntry entry = mDatabaseHelper.getFileEntryFromDatabase("url1");
+		assertNotNull(entry);
+		assertEquals(100, entry.getSize());
+		assertEquals(20, entry.getDimensions().height.intValue());
+		assertEquals(lastAccessTime, entry.getLastAccessTime());
+		assertNull(mDatabaseHelper.getFileEntryFromDatabase("url2"));
+	}
+
+	public void testEvictionRemovesBatchDownToTarget() {
+		for (int i = 1; i <= 5; i++) {
+			addOrUpdateAndVerifyEntry("url" + i, 100, 10, 20);
+			sleep(1);
+		}
+
+		mDatabaseHelper.removeLeastUsedFileFromCache(250);
+
+		assertEquals(200, mDatabaseHelper.getTotalSizeOnDisk());
+		assertEquals(3, mEvictedUris.size());
+		assertEquals("url1", mEvictedUris.get(0));
+		assertEquals("url3", mEvictedUris.get(2));
+		assertNull(mDatabaseHelper.getFileEntryFromDatabase("url3"));
+		assertNotNull(mDatabaseHelper.getFileEntryFromDatabase("url4"));
+	}
+
+	public void testMigrationKeepsEntries() {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.execSQL("DROP TABLE img_cache");
+		db.execSQL("CREATE TABLE img_cache (url VARCHAR PRIMARY KEY, sizeondisk INTEGER, width INTEGER, height INTEGER, lastaccess INTEGER);");
+		db.execSQL("INSERT INTO img_cache VALUES ('url1', 100, 10, 20, 5)");
+
+		mDatabaseHelper.migrate(db, 2);
+		mDatabaseHelper.migrate(db, 3);
+
+		FileEntry entry = mDatabaseHelper.getFileEntryFromDatabase("url1");
+		assertNotNull(entry);
+		assertEquals(100, entry.getSize());
+		assertEquals(5, entry.getLastAccessTime());
+		assertNull(entry.getETag());
+		assertEquals(0, entry.getExpirationTime());
+		assertNull(mRebuildUris);
+	}
+
+	public void testMigrationFromVersion3KeepsCacheHeaders() {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.execSQL("DROP TABLE img_cache");
+		db.execSQL("CREATE TABLE img_cache (url VARCHAR PRIMARY KEY, sizeondisk INTEGER, width INTEGER, height INTEGER, lastaccess INTEGER, etag VARCHAR, lastmodified VARCHAR, expires INTEGER);");
+		db.execSQL("INSERT INTO img_cache VALUES ('url1', 100, 10, 20, 5, 'v1', NULL, 1234)");
+
+		mDatabaseHelper.migrate(db, 3);
+
+		FileEntry entry = mDatabaseHelper.getFileEntryFromDatabase("url1");
+		assertEquals("v1", entry.getETag());
+		assertEquals(1234, entry.getExpirationTime());
+		// Images indexed before volumes were recorded are looked up on the current volume.
+		assertNull(entry.getStorageRoot());
+	}
+
+	public void testStorageRootReachesDatabase() {
+		mDatabaseHelper.addOrUpdateFile("url1", 100, 10, 10);
+		mDatabaseHelper.setStorageRoot("url1", StorageRoot.INTERNAL);
+
+		assertEquals(StorageRoot.INTERNAL, mDatabaseHelper.getFileEntryFromDatabase("url1").getStorageRoot());
+	}
+
+	public void testUnknownVersionIsRebuilt() {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.execSQL("DROP TABLE img_cache");
+		db.execSQL("CREATE TABLE img_cache (url VARCHAR PRIMARY KEY, size INTEGER);");
+		db.execSQL("INSERT INTO img_cache VALUES ('url1', 100)");
+		db.execSQL("INSERT INTO img_cache VALUES ('url2', 100)");
+
+		// Only the image of "url1" is still on disk.
+		mRebuiltEntries.add(new FileEntry("url1", 300, 10, 20, 5));
+		mDatabaseHelper.onUpgrade(db, 1, 3);
+
+		assertEquals(2, mRebuildUris.size());
+		assertEquals(300, mDatabaseHelper.getFileEntryFromDatabase("url1").getSize());
+		assertNull(mDatabaseHelper.getFileEntryFromDatabase("url2"));
+	}
+
+	public void testUpgradeFromOldestMigratableVersionKeepsEntries() {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.execSQL("DROP TABLE img_cache");
+		db.execSQL("CREATE TABLE img_cache (url VARCHAR PRIMARY KEY, sizeondisk INTEGER, width INTEGER, height INTEGER, lastaccess INTEGER);");
+		db.execSQL("INSERT INTO img_cache VALUES ('url1', 100, 10, 20, 5)");
+
+		mDatabaseHelper.onUpgrade(db, 2, db.getVersion());
+
+		assertNull(mRebuildUris);
+		assertNotNull(mDatabaseHelper.getFileEntryFromDatabase("url1"));
+	}
+
 	private void addOrUpdateAndVerifyEntry(String url, long size, int width, int height) {
 		mDatabaseHelper.addOrUpdateFile(url, size, width, height);
 		FileEntry entry = mDatabaseHelper.getFileEntryFromCache(url);
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.test.R;
+
+public class DiskIndexRebuilderTests extends AndroidTestCase {
+	private DiskManager mDiskManager;
+	private PackedBlobStore mPackedBlobStore;
+	private UriLog mUriLog;
+	private ExecutorService mExecutor;
+	private byte[] mImageBytes;
+	private int mImageWidth;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mDiskManager = new DiskManager("rebuildtests", getContext());
+		mDiskManager.clearDirectory();
+		mExecutor = Executors.newSingleThreadExecutor();
+		mPackedBlobStore = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		mUriLog = new UriLog(mDiskManager, "uris");
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		Bitmap bitmap = ((BitmapDrawable) getContext().getResources().getDrawable(R.drawable.cute_kitten)).getBitmap();
+		bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+		mImageBytes = outputStream.toByteArray();
+		mImageWidth = bitmap.getWidth();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mExecutor.shutdownNow();
+		mDiskManager.clearDirectory();
+		super.tearDown();
+	}
+
+	public void testEntriesAreRebuiltFromImagesOnDisk() throws IOException {
+		writeFile(DiskManager.getShardedFileName("url1"), mImageBytes, 1000);
+		writeFile(DiskManager.getUnshardedFileName("http://www.example.com/url2.jpg"), mImageBytes, 2000);
+		mPackedBlobStore.put("url3", mImageBytes);
+		writeFile(DiskManager.getShardedFileName("url4"), new byte[100], 3000);
+
+		List<FileEntry> entries = new DiskIndexRebuilder(mDiskManager, mPackedBlobStore, mUriLog).rebuild(Arrays.asList("url1", "url4", "url5"));
+
+		// The image of "url4" cannot be decoded, and there is no image for "url5".
+		assertEquals(3, entries.size());
+		assertEquals("url3", entries.get(0).getUri());
+		assertEquals("http://www.example.com/url2.jpg", entries.get(1).getUri());
+		assertEquals("url1", entries.get(2).getUri());
+
+		FileEntry entry = entries.get(2);
+		assertEquals(mImageBytes.length, entry.getSize());
+		assertEquals(mImageWidth, entry.getDimensions().width.intValue());
+		assertEquals(mDiskManager.getFile(DiskManager.getShardedFileName("url1")).lastModified(), entry.getLastAccessTime());
+	}
+
+	public void testShardedImagesAreRecoveredFromTheUriLog() throws IOException {
+		writeFile(DiskManager.getShardedFileName("url1"), mImageBytes, 1000);
+		mUriLog.add("url1");
+		writeFile(DiskManager.getShardedFileName("url2"), mImageBytes, 2000);
+
+		List<FileEntry> entries = new DiskIndexRebuilder(mDiskManager, mPackedBlobStore, mUriLog).rebuild(Arrays.<String> asList());
+
+		// The URI of "url2" was never recorded, so its file cannot be mapped back to it.
+		assertEquals(1, entries.size());
+		assertEquals("url1", entries.get(0).getUri());
+	}
+
+	private void writeFile(String fileName, byte[] bytes, long age) throws IOException {
+		mDiskManager.loadStreamToFile(new ByteArrayInputStream(bytes), fileName);
+		mDiskManager.getFile(fileName).setLastModified(System.currentTimeMillis() - age);
+	}
+}
@@ -82,6 +82,10 @@ public class DiskLRUCacherTests extends AndroidTestCase {
 			@Override
 			public void onImageDecodeFailed(DecodeSignature decodeSignature, String error) {
 			}
+
+			@Override
+			public void onCachedImageExpired(CacheRequest cacheRequest, HttpCacheHeaders validators) {
+			}
 		});
 		mDiskCacher.cacheImageDetails(mCacheRequest);
 		delayedLoop.startLoop();
@@ -111,6 +115,12 @@ public class DiskLRUCacherTests extends AndroidTestCase {
 		assertTrue(mDiskCacher.isCached(mCacheRequest));
 	}
 
+	public void testIndexRequestsWaitForIndexToLoad() {
+		assertFalse(mDiskCacher.isCached(new CacheRequest("http://www.example.com/not_cached.jpg")));
+		assertTrue(mDiskCacher.isIndexLoaded());
+		assertTrue(mDiskCacher.getIndexLoadTime() >= 0);
+	}
+
 	public void testGettingPermanentStorageBitmap() {
 		Bitmap bitmap = null;
 		try {
@@ -162,5 +172,9 @@ public class DiskLRUCacherTests extends AndroidTestCase {
 		@Override
 		public void onImageDecodeFailed(DecodeSignature decodeSignature, String error) {
 		}
+
+		@Override
+		public void onCachedImageExpired(CacheRequest cacheRequest, HttpCacheHeaders validators) {
+		}
 	}
 }
@@ -17,6 +17,7 @@
 package com.xtremelabs.imageutils;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import android.test.AndroidTestCase;
 
@@ -53,4 +54,59 @@ public class DiskManagerTests extends AndroidTestCase {
 		mDiskManager.clearDirectory();
 		assertFalse(mDiskManager.isOnDisk(file1));
 	}
+
+	public void testShardedFileNames() {
+		String uri = "http://www.example.com/images/image.jpg?signature=" + new String(new char[500]).replace('\0', 'a');
+		String fileName = DiskManager.getShardedFileName(uri);
+
+		assertEquals(fileName, DiskManager.getShardedFileName(uri));
+		assertFalse(fileName.equals(DiskManager.getShardedFileName(uri + "b")));
+
+		String[] parts = fileName.split("/");
+		assertEquals(3, parts.length);
+		assertEquals(40, parts[2].length());
+		assertTrue(parts[2].startsWith(parts[0] + parts[1]));
+
+		try {
+			mDiskManager.loadStreamToFile(new OneKilobyteStream(), fileName);
+		} catch (IOException e) {
+			fail();
+		}
+		assertTrue(mDiskManager.isOnDisk(fileName));
+		assertFalse(mDiskManager.hasUnshardedFiles());
+
+		mDiskManager.clearDirectory();
+		assertFalse(mDiskManager.isOnDisk(fileName));
+	}
+
+	public void testFailedWriteLeavesNoFile() {
+		String file1 = "file1";
+		InputStream failingStream = new OneKilobyteStream() {
+			private boolean mHasRead = false;
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				if (mHasRead) {
+					throw new IOException("Connection lost.");
+				}
+				mHasRead = true;
+				return super.read(buffer, offset, Math.min(length, 512));
+			}
+		};
+
+		try {
+			mDiskManager.loadStreamToFile(failingStream, file1);
+			fail();
+		} catch (IOException e) {
+		}
+		assertFalse(mDiskManager.isOnDisk(file1));
+
+		try {
+			assertEquals(1024, mDiskManager.loadStreamToFile(new OneKilobyteStream(), file1));
+		} catch (IOException e) {
+			fail();
+		}
+		assertEquals(1024, mDiskManager.getFile(file1).length());
+		mDiskManager.clearDirectory();
+	}
 }
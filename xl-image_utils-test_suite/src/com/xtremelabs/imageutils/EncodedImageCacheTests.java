@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.EncodedImageCache.CapturingInputStream;
+
+public class EncodedImageCacheTests extends AndroidTestCase {
+	private EncodedImageCache mEncodedImageCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mEncodedImageCache = new EncodedImageCache();
+		mEncodedImageCache.setMaximumSize(400);
+	}
+
+	public void testDisabledByDefault() {
+		EncodedImageCache encodedImageCache = new EncodedImageCache();
+		assertFalse(encodedImageCache.isEnabled());
+		encodedImageCache.put("url1", new byte[] { 1, 2, 3 });
+		assertNull(encodedImageCache.get("url1"));
+	}
+
+	public void testPutAndGet() {
+		byte[] bytes = getBytes(100);
+		mEncodedImageCache.put("url1", bytes);
+
+		assertTrue(Arrays.equals(bytes, mEncodedImageCache.get("url1")));
+		assertNull(mEncodedImageCache.get("url2"));
+		assertEquals(1, mEncodedImageCache.getHitCount());
+		assertEquals(1, mEncodedImageCache.getMissCount());
+	}
+
+	public void testDirectBuffers() {
+		mEncodedImageCache.setUseDirectBuffers(true);
+		byte[] bytes = getBytes(100);
+		mEncodedImageCache.put("url1", bytes);
+
+		assertTrue(Arrays.equals(bytes, mEncodedImageCache.get("url1")));
+	}
+
+	public void testEvictions() {
+		for (int i = 0; i < 5; i++) {
+			mEncodedImageCache.put("url" + i, getBytes(100));
+		}
+
+		assertEquals(400, mEncodedImageCache.getSize());
+		assertNull(mEncodedImageCache.get("url0"));
+		assertNotNull(mEncodedImageCache.get("url4"));
+	}
+
+	public void testLargeEntriesAreRejected() {
+		mEncodedImageCache.put("url1", getBytes(101));
+		assertNull(mEncodedImageCache.get("url1"));
+		assertEquals(0, mEncodedImageCache.getSize());
+	}
+
+	public void testCapturingInputStream() throws IOException {
+		byte[] bytes = getBytes(100);
+		CapturingInputStream inputStream = mEncodedImageCache.capture(new ByteArrayInputStream(bytes));
+		byte[] buffer = new byte[30];
+		while (inputStream.read(buffer) > 0) {
+		}
+
+		assertTrue(Arrays.equals(bytes, inputStream.getCapturedBytes()));
+	}
+
+	public void testCapturingInputStreamGivesUpOnLargeImages() throws IOException {
+		CapturingInputStream inputStream = mEncodedImageCache.capture(new ByteArrayInputStream(getBytes(101)));
+		byte[] buffer = new byte[30];
+		while (inputStream.read(buffer) > 0) {
+		}
+
+		assertNull(inputStream.getCapturedBytes());
+	}
+
+	private static byte[] getBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.test.AndroidTestCase;
+
+public class FileDimensionsIndexTests extends AndroidTestCase {
+	private static final String URI = "file:///test/image.jpg";
+
+	private File mSnapshotFile;
+	private File mImageFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mSnapshotFile = new File(getContext().getCacheDir(), "testDimensions");
+		mSnapshotFile.delete();
+		mImageFile = new File(getContext().getCacheDir(), "testDimensionsImage");
+		writeBytes(10, false);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mSnapshotFile.delete();
+		mImageFile.delete();
+		super.tearDown();
+	}
+
+	public void testPutAndGet() {
+		FileDimensionsIndex index = new FileDimensionsIndex(mSnapshotFile);
+		assertFalse(index.contains(URI));
+
+		index.put(URI, mImageFile, new Dimensions(100, 200));
+		assertTrue(index.contains(URI));
+		assertEquals(100, (int) index.get(URI).width);
+		assertEquals(200, (int) index.get(URI).height);
+		assertTrue(index.validate(URI, mImageFile));
+	}
+
+	public void testChangedFileIsInvalidated() throws IOException {
+		FileDimensionsIndex index = new FileDimensionsIndex(mSnapshotFile);
+		index.put(URI, mImageFile, new Dimensions(100, 200));
+
+		writeBytes(1, true);
+		assertFalse(index.validate(URI, mImageFile));
+		assertFalse(index.contains(URI));
+	}
+
+	public void testEntriesSurviveRestart() {
+		FileDimensionsIndex index = new FileDimensionsIndex(mSnapshotFile);
+		index.put(URI, mImageFile, new Dimensions(100, 200));
+		index.saveAndWait();
+
+		FileDimensionsIndex restoredIndex = new FileDimensionsIndex(mSnapshotFile);
+		restoredIndex.saveAndWait();
+		assertEquals(100, (int) restoredIndex.get(URI).width);
+		assertTrue(restoredIndex.validate(URI, mImageFile));
+	}
+
+	private void writeBytes(int numBytes, boolean append) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(mImageFile, append);
+		try {
+			outputStream.write(new byte[numBytes]);
+		} finally {
+			outputStream.close();
+		}
+	}
+}
@@ -16,6 +16,9 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.test.AndroidTestCase;
@@ -241,6 +244,56 @@ public class ImageCacherTests extends AndroidTestCase {
 		assertEquals(ImageResponseStatus.SUCCESS, imageResponse.getImageResponseStatus());
 	}
 
+	public void testMemoryHitIsCheckedForExpiry() {
+		final String networkUri = "http://www.example.com/image.jpg";
+		final List<String> revalidatedUris = new ArrayList<String>();
+
+		mImageCacher.stubAsynchOperationsMaps(new AsyncOperationsMaps(mImageCacher) {
+			@Override
+			public synchronized AsyncOperationState queueListenerIfRequestPending(CacheRequest imageRequest, ImageCacherListener imageCacherListener) {
+				return AsyncOperationState.NOT_QUEUED;
+			}
+		});
+
+		mImageCacher.stubDiskCache(new DiskCacheStub() {
+			@Override
+			public int getSampleSize(CacheRequest imageRequest) {
+				return 1;
+			}
+
+			@Override
+			public boolean isCached(CacheRequest cacheRequest) {
+				return true;
+			}
+
+			@Override
+			public void revalidateIfExpired(CacheRequest cacheRequest) {
+				revalidatedUris.add(cacheRequest.getUri());
+			}
+		});
+
+		mImageCacher.stubMemCache(new MemCacheStub() {
+			@Override
+			public Bitmap getBitmap(DecodeSignature decodeSignature) {
+				return Bitmap.createBitmap(100, 100, Config.RGB_565);
+			}
+		});
+
+		ImageResponse imageResponse = mImageCacher.getBitmap(new CacheRequest(networkUri, new ScalingInfo()), new ImageCacherListener() {
+			@Override
+			public void onImageAvailable(ImageResponse imageResponse) {
+			}
+
+			@Override
+			public void onFailure(String message) {
+			}
+		});
+
+		assertEquals(ImageReturnedFrom.MEMORY, imageResponse.getImageReturnedFrom());
+		assertEquals(1, revalidatedUris.size());
+		assertEquals(networkUri, revalidatedUris.get(0));
+	}
+
 	// public void testPrecacheImageToDisk() {
 	// final DelayedLoop delayedLoop = new DelayedLoop(2000);
 	// mCallComplete = false;
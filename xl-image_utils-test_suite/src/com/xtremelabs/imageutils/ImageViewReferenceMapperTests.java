@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.test.AndroidTestCase;
+import android.widget.ImageView;
+
+public class ImageViewReferenceMapperTests extends AndroidTestCase {
+	private ImageViewReferenceMapper mMapper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mMapper = new ImageViewReferenceMapper();
+	}
+
+	public void testRebindingReturnsThePreviousBitmap() {
+		ImageView imageView = new ImageView(getContext());
+		Bitmap first = Bitmap.createBitmap(1, 1, Config.ARGB_8888);
+		Bitmap second = Bitmap.createBitmap(1, 1, Config.ARGB_8888);
+
+		assertNull(mMapper.bindBitmap(imageView, first));
+		assertSame(first, mMapper.bindBitmap(imageView, second));
+		assertSame(second, mMapper.unbindBitmap(imageView));
+		assertNull(mMapper.unbindBitmap(imageView));
+	}
+
+	public void testUnbindAllBitmaps() {
+		Bitmap first = Bitmap.createBitmap(1, 1, Config.ARGB_8888);
+		Bitmap second = Bitmap.createBitmap(1, 1, Config.ARGB_8888);
+		ImageView firstView = new ImageView(getContext());
+		ImageView secondView = new ImageView(getContext());
+		mMapper.bindBitmap(firstView, first);
+		mMapper.bindBitmap(secondView, second);
+
+		assertEquals(2, mMapper.unbindAllBitmaps().size());
+		assertNull(mMapper.unbindBitmap(firstView));
+		assertNull(mMapper.unbindBitmap(secondView));
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.DiskIndex.DiskIndexObserver;
+
+public class JournalDiskIndexTests extends AndroidTestCase {
+	private File mJournalFile;
+	private final List<String> mEvictedUris = new ArrayList<String>();
+	private final List<FileEntry> mRebuiltEntries = new ArrayList<FileEntry>();
+	private Collection<String> mRebuildUris;
+
+	private final DiskIndexObserver mObserver = new DiskIndexObserver() {
+		@Override
+		public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris) {
+			mRebuildUris = knownUris;
+			return mRebuiltEntries;
+		}
+
+		@Override
+		public void onImageEvicted(String uri) {
+			mEvictedUris.add(uri);
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mJournalFile = new File(getContext().getCacheDir(), "testJournal");
+		mJournalFile.delete();
+		mEvictedUris.clear();
+		mRebuiltEntries.clear();
+		mRebuildUris = null;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mJournalFile.delete();
+		super.tearDown();
+	}
+
+	public void testEntriesAreRebuiltFromJournal() {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 20);
+		index.addOrUpdateFile("url2", 200, 30, 40);
+		index.addOrUpdateFile("url3", 300, 50, 60);
+		index.deleteEntry("url2");
+		index.flushAndWait();
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		assertTrue(rebuiltIndex.isCached("url1"));
+		assertFalse(rebuiltIndex.isCached("url2"));
+		assertTrue(rebuiltIndex.isCached("url3"));
+		assertEquals(400, rebuiltIndex.getTotalSizeOnDisk());
+
+		Dimensions dimensions = rebuiltIndex.getFileEntryFromCache("url3").getDimensions();
+		assertEquals(50, dimensions.width.intValue());
+		assertEquals(60, dimensions.height.intValue());
+	}
+
+	public void testReadsAreReplayedInOrder() {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+		index.addOrUpdateFile("url2", 100, 10, 10);
+		index.addOrUpdateFile("url3", 100, 10, 10);
+		index.updateFile("url1");
+		index.flushAndWait();
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		rebuiltIndex.removeLeastUsedFileFromCache(200);
+		assertEquals(1, mEvictedUris.size());
+		assertEquals("url2", mEvictedUris.get(0));
+		assertTrue(rebuiltIndex.isCached("url1"));
+	}
+
+	public void testPartialRecordIsDiscarded() throws IOException {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+		// The journal is written out from a snapshot of the entries when it is created, so "url2" is added afterwards to make it the last record.
+		index.flushAndWait();
+		index.addOrUpdateFile("url2", 100, 10, 10);
+		index.flushAndWait();
+
+		RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+		file.setLength(file.length() - 1);
+		file.close();
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		assertTrue(rebuiltIndex.isCached("url1"));
+		assertFalse(rebuiltIndex.isCached("url2"));
+		assertNull(mRebuildUris);
+
+		rebuiltIndex.addOrUpdateFile("url3", 100, 10, 10);
+		rebuiltIndex.flushAndWait();
+		assertTrue(new JournalDiskIndex(mJournalFile, mObserver).isCached("url3"));
+	}
+
+	public void testUnrecognizedJournalIsRebuilt() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+		file.writeLong(0);
+		file.close();
+
+		mRebuiltEntries.add(new FileEntry("url1", 100, 10, 10, 1));
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		assertEquals(0, mRebuildUris.size());
+		assertEquals(1, index.getAllEntries().size());
+		assertTrue(index.isCached("url1"));
+	}
+
+	public void testCorruptJournalIsRebuiltFromKnownUris() throws IOException {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+		index.addOrUpdateFile("url2", 100, 10, 10);
+		index.flushAndWait();
+
+		RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+		file.seek(file.length());
+		file.writeByte(99);
+		file.writeUTF("url3");
+		file.close();
+
+		// Only the image of "url2" is still on disk.
+		mRebuiltEntries.add(new FileEntry("url2", 100, 10, 10, 1));
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		assertTrue(mRebuildUris.contains("url1"));
+		assertTrue(mRebuildUris.contains("url2"));
+		assertFalse(rebuiltIndex.isCached("url1"));
+		assertTrue(rebuiltIndex.isCached("url2"));
+
+		// The rebuilt index is written out in place of the corrupt journal.
+		rebuiltIndex.flushAndWait();
+		mRebuiltEntries.clear();
+		mRebuildUris = null;
+		assertTrue(new JournalDiskIndex(mJournalFile, mObserver).isCached("url2"));
+		assertNull(mRebuildUris);
+	}
+
+	public void testJournalIsCompacted() {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+
+		int numReads = 10000;
+		for (int i = 0; i < numReads; i++) {
+			index.updateFile("url1");
+		}
+		index.flushAndWait();
+
+		// Each READ record for "url1" takes 15 bytes.
+		assertTrue(mJournalFile.length() < numReads * 15 / 2);
+		assertTrue(new JournalDiskIndex(mJournalFile, mObserver).isCached("url1"));
+	}
+
+	public void testCacheHeadersAreRebuiltFromJournal() {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+		index.addOrUpdateFile("url2", 100, 10, 10);
+		index.setCacheHeaders("url1", "\"v1\"", null, 1234);
+		index.updateFile("url1");
+		index.flushAndWait();
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		FileEntry entry = rebuiltIndex.getFileEntryFromCache("url1");
+		assertEquals("\"v1\"", entry.getETag());
+		assertNull(entry.getLastModified());
+		assertEquals(1234, entry.getExpirationTime());
+		assertFalse(rebuiltIndex.getFileEntryFromCache("url2").hasCacheHeaders());
+
+		// A new download of the image replaces its headers.
+		rebuiltIndex.addOrUpdateFile("url1", 100, 10, 10);
+		rebuiltIndex.flushAndWait();
+		assertFalse(new JournalDiskIndex(mJournalFile, mObserver).getFileEntryFromCache("url1").hasCacheHeaders());
+	}
+
+	public void testStorageRootsAreRebuiltFromJournal() {
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url1", 100, 10, 10);
+		index.addOrUpdateFile("url2", 100, 10, 10);
+		index.setStorageRoot("url1", StorageRoot.EXTERNAL);
+		index.setStorageRoot("url1", StorageRoot.INTERNAL);
+		index.flushAndWait();
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		assertEquals(StorageRoot.INTERNAL, rebuiltIndex.getFileEntryFromCache("url1").getStorageRoot());
+		assertNull(rebuiltIndex.getFileEntryFromCache("url2").getStorageRoot());
+	}
+
+	public void testReplaceAllEntries() {
+		List<FileEntry> entries = new ArrayList<FileEntry>();
+		entries.add(new FileEntry("url1", 100, 10, 10, 2));
+		entries.add(new FileEntry("url2", 100, 10, 10, 1));
+
+		JournalDiskIndex index = new JournalDiskIndex(mJournalFile, mObserver);
+		index.addOrUpdateFile("url3", 100, 10, 10);
+		index.replaceAllEntries(entries);
+		assertFalse(index.isCached("url3"));
+
+		JournalDiskIndex rebuiltIndex = new JournalDiskIndex(mJournalFile, mObserver);
+		assertEquals(2, rebuiltIndex.getAllEntries().size());
+		rebuiltIndex.removeLeastUsedFileFromCache(100);
+		assertEquals("url2", mEvictedUris.get(0));
+	}
+}
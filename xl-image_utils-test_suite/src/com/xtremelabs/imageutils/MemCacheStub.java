@@ -16,10 +16,17 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.Collection;
+
 import android.graphics.Bitmap;
 
 public class MemCacheStub implements ImageMemoryCacherInterface {
 
+	@Override
+	public Bitmap removeBitmap(DecodeSignature decodeSignature) {
+		return null;
+	}
+
 	@Override
 	public void clearCache() {
 	}
@@ -28,6 +35,16 @@ public class MemCacheStub implements ImageMemoryCacherInterface {
 	public void setMaximumCacheSize(long size) {
 	}
 
+	@Override
+	public long getMaximumCacheSize() {
+		return 0;
+	}
+
+	@Override
+	public long getSize() {
+		return 0;
+	}
+
 	@Override
 	public Bitmap getBitmap(DecodeSignature decodeSignature) {
 		return null;
@@ -40,4 +57,17 @@ public class MemCacheStub implements ImageMemoryCacherInterface {
 	@Override
 	public void removeAllImagesForUri(String uri) {
 	}
+
+	@Override
+	public void removeAllImagesForUris(Collection<String> uris) {
+	}
+
+	@Override
+	public DecodeSignature getLargerVariant(DecodeSignature decodeSignature) {
+		return null;
+	}
+
+	@Override
+	public void setEvictionObserver(EvictionObserver evictionObserver) {
+	}
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+public class MemoryCacheQuotasTests extends AndroidTestCase {
+	private MemoryCacheQuotas mQuotas;
+	private final Object mKey = new Object();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mQuotas = new MemoryCacheQuotas();
+	}
+
+	public void testKeysWithoutQuotaAreNotTracked() {
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, null);
+		mQuotas.onDecodeScheduled(decodeSignature, mKey);
+		assertTrue(mQuotas.onBitmapCached(decodeSignature, 100).isEmpty());
+		assertEquals(0, mQuotas.getSize(mKey));
+	}
+
+	public void testOldestBitmapsAreRemovedWhenOverQuota() {
+		mQuotas.setQuota(mKey, 250);
+		cache("url1", 100);
+		cache("url2", 100);
+		assertEquals(200, mQuotas.getSize(mKey));
+
+		List<DecodeSignature> removed = cache("url3", 100);
+		assertEquals(1, removed.size());
+		assertEquals(new DecodeSignature("url1", 1, null), removed.get(0));
+		assertEquals(200, mQuotas.getSize(mKey));
+	}
+
+	public void testNewBitmapIsNeverRemoved() {
+		mQuotas.setQuota(mKey, 50);
+		assertTrue(cache("url1", 100).isEmpty());
+		assertEquals(100, mQuotas.getSize(mKey));
+	}
+
+	public void testEvictedBitmapsAreNoLongerCharged() {
+		mQuotas.setQuota(mKey, 1000);
+		cache("url1", 100);
+		mQuotas.onBitmapRemoved(new DecodeSignature("url1", 1, null));
+		assertEquals(0, mQuotas.getSize(mKey));
+	}
+
+	public void testRemoveAllForUriRemovesEveryVariant() {
+		mQuotas.setQuota(mKey, 1000);
+		cache("url1", 100);
+		DecodeSignature variant = new DecodeSignature("url1", 2, null);
+		mQuotas.onDecodeScheduled(variant, mKey);
+		mQuotas.onBitmapCached(variant, 50);
+		cache("url2", 100);
+
+		mQuotas.removeAllForUri("url1");
+		assertEquals(100, mQuotas.getSize(mKey));
+
+		// The removed variants are no longer tracked, so removing them again must not change the size.
+		mQuotas.onBitmapRemoved(variant);
+		mQuotas.removeAllForUri("url1");
+		assertEquals(100, mQuotas.getSize(mKey));
+	}
+
+	public void testLoweringQuotaTrims() {
+		mQuotas.setQuota(mKey, 1000);
+		cache("url1", 100);
+		cache("url2", 100);
+		assertEquals(1, mQuotas.setQuota(mKey, 150).size());
+		assertEquals(100, mQuotas.getSize(mKey));
+	}
+
+	public void testCancelledDecodeIsNotCharged() {
+		mQuotas.setQuota(mKey, 1000);
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, null);
+		mQuotas.onDecodeScheduled(decodeSignature, mKey);
+		mQuotas.onDecodeCancelled(decodeSignature);
+		assertEquals(0, mQuotas.getNumPendingOwners());
+
+		mQuotas.onBitmapCached(decodeSignature, 100);
+		assertEquals(0, mQuotas.getSize(mKey));
+	}
+
+	public void testPendingOwnersAreBounded() {
+		mQuotas.setQuota(mKey, Long.MAX_VALUE);
+		for (int i = 0; i < 1000; i++) {
+			mQuotas.onDecodeScheduled(new DecodeSignature("url" + i, 1, null), mKey);
+		}
+		assertTrue(mQuotas.getNumPendingOwners() < 1000);
+
+		mQuotas.onBitmapCached(new DecodeSignature("url999", 1, null), 100);
+		assertEquals(100, mQuotas.getSize(mKey));
+	}
+
+	public void testPendingOwnersAreDroppedWithTheirQuota() {
+		mQuotas.setQuota(mKey, 1000);
+		mQuotas.onDecodeScheduled(new DecodeSignature("url1", 1, null), mKey);
+		mQuotas.removeQuota(mKey);
+		assertEquals(0, mQuotas.getNumPendingOwners());
+	}
+
+	public void testCalculateMemoryCacheSize() {
+		// A small heap is capped at a quarter, even though three screens would not fit.
+		assertEquals(4 * 1024 * 1024, MemoryCacheSizeCalculationUtility.calculateMemoryCacheSize(16, 480 * 800));
+		// A large heap with a small screen gets an eighth of the heap.
+		assertEquals(32 * 1024 * 1024, MemoryCacheSizeCalculationUtility.calculateMemoryCacheSize(256, 480 * 800));
+		// A tablet screen raises the size to three screens.
+		assertEquals(3L * 2560 * 1600 * 4, MemoryCacheSizeCalculationUtility.calculateMemoryCacheSize(256, 2560 * 1600));
+	}
+
+	private List<DecodeSignature> cache(String uri, long size) {
+		DecodeSignature decodeSignature = new DecodeSignature(uri, 1, null);
+		mQuotas.onDecodeScheduled(decodeSignature, mKey);
+		return mQuotas.onBitmapCached(decodeSignature, size);
+	}
+}
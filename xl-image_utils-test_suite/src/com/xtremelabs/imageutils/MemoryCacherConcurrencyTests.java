@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+/**
+ * Runs several decode threads that insert bitmaps alongside threads that, like the UI thread, read cached bitmaps, and checks that the memory cachers stay consistent while doing so. {@link MemoryCacherContentionBenchmark} times the same load.
+ */
+public class MemoryCacherConcurrencyTests extends AndroidTestCase {
+	private static final int NUM_READER_THREADS = 2;
+	private static final int NUM_WRITER_THREADS = 2;
+	private static final int OPERATIONS_PER_THREAD = 20000;
+	private static final int NUM_URIS = 200;
+	private static final int NUM_CACHED_URIS = 100;
+
+	private final List<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+	private int mBitmapSize;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		for (int i = 0; i < NUM_URIS; i++) {
+			mBitmaps.add(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+		}
+		mBitmapSize = BitmapPool.getAllocationSize(mBitmaps.get(0));
+	}
+
+	public void testAdvancedMemoryLRUCacher() throws InterruptedException {
+		runConcurrently(new AdvancedMemoryLRUCacher());
+	}
+
+	public void testStripedMemoryLRUCacher() throws InterruptedException {
+		runConcurrently(new StripedMemoryLRUCacher());
+	}
+
+	public void testTinyLfuMemoryCacher() throws InterruptedException {
+		runConcurrently(new TinyLfuMemoryCacher());
+	}
+
+	/**
+	 * Every read must return either nothing or the bitmap that was cached for that signature. Once all threads are done, the cache must be within its maximum size, and its size must match the bitmaps it actually holds.
+	 */
+	private void runConcurrently(final ImageMemoryCacherInterface memoryCache) throws InterruptedException {
+		memoryCache.setMaximumCacheSize(mBitmapSize * NUM_CACHED_URIS);
+		for (int i = 0; i < NUM_CACHED_URIS; i++) {
+			memoryCache.cacheBitmap(mBitmaps.get(i), getDecodeSignature(i));
+		}
+
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(NUM_READER_THREADS + NUM_WRITER_THREADS);
+		final List<String> errors = new ArrayList<String>();
+
+		for (int i = 0; i < NUM_READER_THREADS + NUM_WRITER_THREADS; i++) {
+			final boolean isWriter = i < NUM_WRITER_THREADS;
+			final Random random = new Random(i);
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+							int index = random.nextInt(NUM_URIS);
+							if (isWriter) {
+								memoryCache.cacheBitmap(mBitmaps.get(index), getDecodeSignature(index));
+							} else {
+								Bitmap bitmap = memoryCache.getBitmap(getDecodeSignature(index));
+								if (bitmap != null && bitmap != mBitmaps.get(index)) {
+									synchronized (errors) {
+										errors.add("Wrong bitmap returned for url" + index);
+									}
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+					} catch (RuntimeException e) {
+						synchronized (errors) {
+							errors.add(e.toString());
+						}
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+
+		startLatch.countDown();
+		doneLatch.await();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertTrue(memoryCache.getSize() <= memoryCache.getMaximumCacheSize());
+
+		int numCachedBitmaps = 0;
+		for (int i = 0; i < NUM_URIS; i++) {
+			Bitmap bitmap = memoryCache.getBitmap(getDecodeSignature(i));
+			if (bitmap != null) {
+				assertSame(mBitmaps.get(i), bitmap);
+				numCachedBitmaps++;
+			}
+		}
+		assertEquals((long) numCachedBitmaps * mBitmapSize, memoryCache.getSize());
+	}
+
+	private static DecodeSignature getDecodeSignature(int index) {
+		return new DecodeSignature("url" + index, 1, null);
+	}
+}
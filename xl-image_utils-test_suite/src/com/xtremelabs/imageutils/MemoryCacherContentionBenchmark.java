@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Compares the throughput of the memory cachers when several decode threads insert bitmaps while other threads (standing in for the UI thread) read cached bitmaps. Results are written to the log under the
+ * "BENCHMARK" tag. Nothing is asserted, as the numbers depend on the device. The correctness of the cachers under the same load is checked by {@link MemoryCacherConcurrencyTests}.
+ */
+public class MemoryCacherContentionBenchmark extends AndroidTestCase {
+	private static final int NUM_READER_THREADS = 2;
+	private static final int NUM_WRITER_THREADS = 2;
+	private static final int OPERATIONS_PER_THREAD = 20000;
+	private static final int NUM_URIS = 200;
+	private static final int NUM_CACHED_URIS = 100;
+
+	private final Bitmap mBitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+
+	public void testContention() throws InterruptedException {
+		// The first run warms up the JIT for both cachers.
+		runBenchmark(new AdvancedMemoryLRUCacher());
+		runBenchmark(new StripedMemoryLRUCacher());
+
+		long advancedTime = runBenchmark(new AdvancedMemoryLRUCacher());
+		long stripedTime = runBenchmark(new StripedMemoryLRUCacher());
+
+		Log.d("BENCHMARK", "AdvancedMemoryLRUCacher getBitmap: " + advancedTime + "ms for " + NUM_READER_THREADS * OPERATIONS_PER_THREAD + " reads");
+		Log.d("BENCHMARK", "StripedMemoryLRUCacher getBitmap: " + stripedTime + "ms for " + NUM_READER_THREADS * OPERATIONS_PER_THREAD + " reads");
+	}
+
+	/**
+	 * @return The time it took the reader threads to finish their reads while the writer threads were inserting bitmaps.
+	 */
+	private long runBenchmark(final ImageMemoryCacherInterface memoryCache) throws InterruptedException {
+		memoryCache.setMaximumCacheSize(BitmapPool.getAllocationSize(mBitmap) * NUM_CACHED_URIS);
+		for (int i = 0; i < NUM_CACHED_URIS; i++) {
+			memoryCache.cacheBitmap(mBitmap, getDecodeSignature(i));
+		}
+
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch readersDoneLatch = new CountDownLatch(NUM_READER_THREADS);
+		final CountDownLatch doneLatch = new CountDownLatch(NUM_READER_THREADS + NUM_WRITER_THREADS);
+
+		for (int i = 0; i < NUM_READER_THREADS + NUM_WRITER_THREADS; i++) {
+			final boolean isWriter = i < NUM_WRITER_THREADS;
+			final Random random = new Random(i);
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+							DecodeSignature decodeSignature = getDecodeSignature(random.nextInt(NUM_URIS));
+							if (isWriter) {
+								memoryCache.cacheBitmap(mBitmap, decodeSignature);
+							} else {
+								memoryCache.getBitmap(decodeSignature);
+							}
+						}
+					} catch (InterruptedException e) {
+					} finally {
+						if (!isWriter) {
+							readersDoneLatch.countDown();
+						}
+						doneLatch.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long startTime = System.currentTimeMillis();
+		startLatch.countDown();
+		readersDoneLatch.await();
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		doneLatch.await();
+
+		memoryCache.clearCache();
+		return elapsedTime;
+	}
+
+	private static DecodeSignature getDecodeSignature(int index) {
+		return new DecodeSignature("url" + index, 1, null);
+	}
+}
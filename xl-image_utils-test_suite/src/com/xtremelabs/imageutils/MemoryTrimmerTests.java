@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.MemoryTrimmer.TrimObserver;
+
+public class MemoryTrimmerTests extends AndroidTestCase {
+	private MemoryTrimmer mMemoryTrimmer;
+	private float mObservedFraction;
+	private int mTrimCount;
+	private int mObservedTrimCount;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mObservedFraction = 1f;
+		mTrimCount = 0;
+		mObservedTrimCount = 0;
+		mMemoryTrimmer = new MemoryTrimmer(new TrimObserver() {
+			@Override
+			public void onTrimFractionChanged(float fraction) {
+				mObservedFraction = fraction;
+			}
+
+			@Override
+			public void onTrimMemory(int level) {
+				mObservedTrimCount++;
+			}
+		});
+		mMemoryTrimmer.setMemoryTrimListener(new MemoryTrimListener() {
+			@Override
+			public void onMemoryTrimmed(int level, float fraction) {
+				mTrimCount++;
+			}
+
+			@Override
+			public void onMemoryRegrown(float fraction) {
+			}
+		});
+	}
+
+	public void testTrimsOnlyLowerTheFraction() {
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+		assertEquals(0.25f, mObservedFraction);
+		assertEquals(0.25f, mMemoryTrimmer.getFraction());
+
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+		assertEquals(0.25f, mMemoryTrimmer.getFraction());
+		assertEquals(1, mTrimCount);
+
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		assertEquals(0f, mObservedFraction);
+		assertEquals(2, mTrimCount);
+	}
+
+	public void testEveryTrimIsObserved() {
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+		assertEquals(1, mTrimCount);
+		assertEquals(2, mObservedTrimCount);
+	}
+
+	public void testUnknownLevelsUseTheClosestLowerLevel() {
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND + 1);
+		assertEquals(0.25f, mMemoryTrimmer.getFraction());
+	}
+
+	public void testCustomFraction() {
+		mMemoryTrimmer.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 0.8f);
+		mMemoryTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+		assertEquals(0.8f, mObservedFraction);
+	}
+
+	public void testInvalidFractionIsRejected() {
+		try {
+			mMemoryTrimmer.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 1.5f);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -26,4 +26,8 @@ public class NetworkStub implements ImageNetworkInterface {
 	public Prioritizable getNetworkPrioritizable(CacheRequest imageRequest) {
 		return null;
 	}
+
+	@Override
+	public void revalidate(CacheRequest cacheRequest, HttpCacheHeaders validators) {
+	}
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.test.AndroidTestCase;
+
+public class PackedBlobStoreTests extends AndroidTestCase {
+	private DiskManager mDiskManager;
+	private ExecutorService mExecutor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mDiskManager = new DiskManager("packtests", getContext());
+		mDiskManager.clearDirectory();
+		mExecutor = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mExecutor.shutdownNow();
+		mDiskManager.clearDirectory();
+		super.tearDown();
+	}
+
+	public void testPutAndGet() throws IOException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		byte[] bytes1 = getBytes(100, 1);
+		byte[] bytes2 = getBytes(200, 2);
+		store.put("url1", bytes1);
+		store.put("url2", bytes2);
+
+		assertTrue(Arrays.equals(bytes1, store.get("url1")));
+		assertTrue(Arrays.equals(bytes2, store.get("url2")));
+		assertEquals(200, store.getLength("url2"));
+		assertNull(store.get("url3"));
+		assertEquals(-1, store.getLength("url3"));
+
+		store.remove("url1");
+		assertFalse(store.contains("url1"));
+		assertNull(store.get("url1"));
+	}
+
+	public void testEntriesSurviveRestart() throws IOException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		byte[] bytes = getBytes(100, 1);
+		store.put("url1", getBytes(100, 7));
+		store.put("url1", bytes);
+		store.put("url2", getBytes(100, 2));
+		store.remove("url2");
+
+		PackedBlobStore restoredStore = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		assertTrue(Arrays.equals(bytes, restoredStore.get("url1")));
+		assertFalse(restoredStore.contains("url2"));
+	}
+
+	public void testRetainAll() throws IOException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		store.put("url1", getBytes(100, 1));
+		store.put("url2", getBytes(100, 2));
+
+		store.retainAll(Arrays.asList("url2", "url3"));
+		assertFalse(store.contains("url1"));
+		assertTrue(store.contains("url2"));
+	}
+
+	public void testRemovedImagesAreCompacted() throws IOException, InterruptedException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		int numImages = 500;
+		for (int i = 0; i < numImages; i++) {
+			store.put("url" + i, getBytes(20 * 1024, i));
+		}
+		long fullSize = store.getSizeOnDisk();
+
+		for (int i = 0; i < numImages - 10; i++) {
+			store.remove("url" + i);
+		}
+		Thread.sleep(2000);
+
+		assertTrue(store.getSizeOnDisk() < fullSize / 2);
+		assertTrue(Arrays.equals(getBytes(20 * 1024, numImages - 1), store.get("url" + (numImages - 1))));
+	}
+
+	public void testLongUrisAreRejected() throws IOException {
+		StringBuilder builder = new StringBuilder("http://www.example.com/");
+		while (builder.length() <= Short.MAX_VALUE) {
+			builder.append("image");
+		}
+		String longUri = builder.toString();
+		assertFalse(PackedBlobStore.canStore(longUri));
+		assertTrue(PackedBlobStore.canStore("url1"));
+
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		try {
+			store.put(longUri, getBytes(100, 1));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertFalse(store.contains(longUri));
+	}
+
+	public void testTornRecordEndsSegment() throws IOException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		byte[] bytes = getBytes(100, 1);
+		store.put("url1", bytes);
+
+		// A record whose length was only partly written.
+		File segmentFile = mDiskManager.getFile("packs/segment0");
+		long intactLength = segmentFile.length();
+		RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+		file.seek(intactLength);
+		file.writeShort(4);
+		file.write("url2".getBytes("UTF-8"));
+		file.writeInt(-7);
+		file.write(getBytes(100, 2));
+		file.close();
+
+		PackedBlobStore restoredStore = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		assertTrue(Arrays.equals(bytes, restoredStore.get("url1")));
+		assertFalse(restoredStore.contains("url2"));
+		assertEquals(intactLength, segmentFile.length());
+
+		restoredStore.put("url3", bytes);
+		PackedBlobStore reopenedStore = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		assertTrue(reopenedStore.contains("url1"));
+		assertTrue(reopenedStore.contains("url3"));
+	}
+
+	public void testRemovalOfFullSegmentStartsNewSegment() throws IOException {
+		PackedBlobStore store = new PackedBlobStore(mDiskManager, "packs", mExecutor);
+		int recordOverhead = 2 + "url1".length() + 4;
+		store.put("url1", getBytes((int) PackedBlobStore.MAXIMUM_SEGMENT_SIZE - PackedBlobStore.HEADER_SIZE - recordOverhead, 1));
+		assertEquals(PackedBlobStore.MAXIMUM_SEGMENT_SIZE, mDiskManager.getFile("packs/segment0").length());
+
+		store.remove("url1");
+		assertTrue(mDiskManager.getFile("packs/segment1").exists());
+		assertFalse(new PackedBlobStore(mDiskManager, "packs", mExecutor).contains("url1"));
+	}
+
+	private static byte[] getBytes(int length, int seed) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i + seed);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.ImageLoader.Options;
+import com.xtremelabs.imageutils.test.R;
+import com.xtremelabs.imageutils.testutils.DelayedLoop;
+
+public class PartitionedDiskCacherTests extends AndroidTestCase {
+	private static final String AVATARS = "testavatars";
+	private static final String FEED = "testfeed";
+
+	private PartitionedDiskCacher mDiskCacher;
+	private byte[] mImageBytes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		clearPartitions();
+		mDiskCacher = new PartitionedDiskCacher(getContext().getApplicationContext(), new BlankImageDiskObserver(), new BitmapPool(), new EncodedImageCache(), new DerivativeDiskCache(getContext()));
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		Bitmap bitmap = ((BitmapDrawable) getContext().getResources().getDrawable(R.drawable.cute_kitten)).getBitmap();
+		bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+		mImageBytes = outputStream.toByteArray();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		clearPartitions();
+		super.tearDown();
+	}
+
+	public void testImagesAreSavedToTheirPartition() throws IOException, URISyntaxException {
+		CacheRequest avatarRequest = createRequest("http://www.example.com/avatar.jpg", AVATARS);
+		download(avatarRequest);
+
+		assertTrue(mDiskCacher.isCached(avatarRequest));
+		assertTrue(mDiskCacher.getPartition(AVATARS).isCached(avatarRequest));
+		assertFalse(mDiskCacher.getPartition(FEED).isCached(avatarRequest));
+		assertFalse(mDiskCacher.getPartition(null).isCached(avatarRequest));
+
+		// The image is found in the partition it was saved to, rather than being downloaded again.
+		assertTrue(mDiskCacher.isCached(createRequest(avatarRequest.getUri(), FEED)));
+		assertNotNull(mDiskCacher.getImageDimensions(createRequest(avatarRequest.getUri(), null)));
+	}
+
+	public void testPartitionsAreEvictedIndependently() throws IOException, URISyntaxException {
+		mDiskCacher.setDiskCacheSize(FEED, mImageBytes.length * 3 / 2);
+
+		CacheRequest avatarRequest = createRequest("http://www.example.com/avatar.jpg", AVATARS);
+		download(avatarRequest);
+		download(createRequest("http://www.example.com/feed1.jpg", FEED));
+		download(createRequest("http://www.example.com/feed2.jpg", FEED));
+		mDiskCacher.getPartition(FEED).waitForEvictions();
+
+		assertEquals(1, mDiskCacher.getPartition(FEED).getEvictionCount());
+		assertFalse(mDiskCacher.isCached(createRequest("http://www.example.com/feed1.jpg", FEED)));
+		assertTrue(mDiskCacher.isCached(createRequest("http://www.example.com/feed2.jpg", FEED)));
+		assertTrue(mDiskCacher.isCached(avatarRequest));
+		assertEquals(0, mDiskCacher.getPartition(AVATARS).getEvictionCount());
+	}
+
+	public void testShrinkingAdaptiveSizeEvicts() throws IOException, URISyntaxException {
+		download(createRequest("http://www.example.com/feed1.jpg", FEED));
+		download(createRequest("http://www.example.com/feed2.jpg", FEED));
+
+		// With equal bounds the size does not depend on the free space of the device.
+		long size = mImageBytes.length * 3 / 2;
+		DiskLRUCacher partition = mDiskCacher.getPartition(FEED);
+		mDiskCacher.setAdaptiveDiskCacheSize(FEED, new AdaptiveDiskCacheSize(0.5f, size, size));
+		partition.updateAdaptiveDiskCacheSize();
+		partition.waitForEvictions();
+
+		assertEquals(size, partition.getMaximumCacheSize());
+		assertEquals(1, partition.getEvictionCount());
+		assertTrue(mDiskCacher.isCached(createRequest("http://www.example.com/feed2.jpg", FEED)));
+
+		// A fixed size turns the adaptive size off.
+		mDiskCacher.setDiskCacheSize(FEED, size * 2);
+		partition.updateAdaptiveDiskCacheSize();
+		assertEquals(size * 2, partition.getMaximumCacheSize());
+	}
+
+	public void testUnopenedPartitionIsOpenedInBackground() {
+		CacheRequest avatarRequest = createRequest("http://www.example.com/avatar.jpg", AVATARS);
+		assertFalse(mDiskCacher.isIndexLoaded(avatarRequest));
+
+		long startTime = System.currentTimeMillis();
+		while (!mDiskCacher.isIndexLoaded(avatarRequest) && System.currentTimeMillis() - startTime < 2000) {
+			DelayedLoop.sleep(10);
+		}
+		assertTrue(mDiskCacher.isIndexLoaded(avatarRequest));
+	}
+
+	public void testInvalidPartitionName() {
+		try {
+			mDiskCacher.isCached(createRequest("http://www.example.com/image.jpg", "../images"));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try {
+			mDiskCacher.isIndexLoaded(createRequest("http://www.example.com/image.jpg", "../images"));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private void download(CacheRequest cacheRequest) throws IOException, URISyntaxException {
+		mDiskCacher.downloadImageFromInputStream(cacheRequest, new ByteArrayInputStream(mImageBytes), null);
+		mDiskCacher.calculateAndSaveImageDetails(cacheRequest);
+	}
+
+	private static CacheRequest createRequest(String uri, String partitionName) {
+		Options options = new Options();
+		options.diskCachePartition = partitionName;
+		return new CacheRequest(uri, null, options);
+	}
+
+	private void clearPartitions() {
+		for (String partitionName : new String[] { AVATARS, FEED }) {
+			new DiskManager("img-" + partitionName, getContext()).clearDirectory();
+			getContext().deleteDatabase("imageCacheDatabase-" + partitionName);
+		}
+	}
+
+	private static class BlankImageDiskObserver implements ImageDiskObserver {
+		@Override
+		public void onImageDetailsRetrieved(String uri) {
+		}
+
+		@Override
+		public void onImageDetailsRequestFailed(String uri, String errorMessage) {
+		}
+
+		@Override
+		public void onImageDecoded(DecodeSignature decodeSignature, Bitmap bitmap, ImageReturnedFrom returnedFrom) {
+		}
+
+		@Override
+		public void onImageDecodeFailed(DecodeSignature decodeSignature, String error) {
+		}
+
+		@Override
+		public void onCachedImageExpired(CacheRequest cacheRequest, HttpCacheHeaders validators) {
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class SizeEstimatingMemoryLRUCacherTests extends AndroidTestCase {
+	public void testRecachingASignatureReplacesItsSize() {
+		SizeEstimatingMemoryLRUCacher cacher = new SizeEstimatingMemoryLRUCacher();
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, Bitmap.Config.ARGB_8888);
+
+		cacher.cacheBitmap(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888), decodeSignature);
+		long size = cacher.getSize();
+		cacher.cacheBitmap(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888), decodeSignature);
+		assertEquals(size, cacher.getSize());
+
+		cacher.removeBitmap(decodeSignature);
+		assertEquals(0, cacher.getSize());
+	}
+}
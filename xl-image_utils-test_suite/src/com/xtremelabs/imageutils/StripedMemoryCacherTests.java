@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class StripedMemoryCacherTests extends AndroidTestCase {
+	private StripedMemoryLRUCacher mMemCache;
+	private Bitmap.Config mBitmapConfig;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mMemCache = new StripedMemoryLRUCacher();
+	}
+
+	public void testClearingCache() {
+		assertEquals(0, mMemCache.getNumImagesInCache());
+		mMemCache.cacheBitmap(getBitmap(), new DecodeSignature("url1", 1, mBitmapConfig));
+		assertEquals(1, mMemCache.getNumImagesInCache());
+		mMemCache.cacheBitmap(getBitmap(), new DecodeSignature("url2", 1, mBitmapConfig));
+		assertEquals(2, mMemCache.getNumImagesInCache());
+		mMemCache.clearCache();
+		assertEquals(0, mMemCache.getNumImagesInCache());
+		assertEquals(0, mMemCache.getSize());
+	}
+
+	public void testReplacingEntryDoesNotDoubleCount() {
+		Bitmap bitmap = getBitmap();
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		assertEquals(1, mMemCache.getNumImagesInCache());
+		assertEquals(BitmapPool.getAllocationSize(bitmap), mMemCache.getSize());
+	}
+
+	public void testRemoveAllImagesForUri() {
+		Bitmap bitmap = getBitmap();
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 2, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url2", 1, mBitmapConfig));
+
+		mMemCache.removeAllImagesForUri("url1");
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url1", 1, mBitmapConfig)));
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url1", 2, mBitmapConfig)));
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url2", 1, mBitmapConfig)));
+		assertEquals(BitmapPool.getAllocationSize(bitmap), mMemCache.getSize());
+	}
+
+	public void testRemoveAllImagesForUris() {
+		Bitmap bitmap = getBitmap();
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 2, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url2", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url3", 1, mBitmapConfig));
+
+		mMemCache.removeAllImagesForUris(Arrays.asList("url1", "url2", "url4"));
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url1", 1, mBitmapConfig)));
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url1", 2, mBitmapConfig)));
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url2", 1, mBitmapConfig)));
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url3", 1, mBitmapConfig)));
+		assertEquals(1, mMemCache.getNumImagesInCache());
+		assertEquals(BitmapPool.getAllocationSize(bitmap), mMemCache.getSize());
+	}
+
+	public void testEvictionsRespectMaximumSize() {
+		Bitmap bitmap = getBitmap();
+		int bitmapSize = BitmapPool.getAllocationSize(bitmap);
+		mMemCache.setMaximumCacheSize(bitmapSize * 5);
+
+		for (int i = 0; i < 20; i++) {
+			mMemCache.cacheBitmap(bitmap, new DecodeSignature("url" + i, 1, mBitmapConfig));
+			assertTrue(mMemCache.getSize() <= bitmapSize * 5);
+		}
+		assertEquals(5, mMemCache.getNumImagesInCache());
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url19", 1, mBitmapConfig)));
+	}
+
+	public void testRecentlyUsedEntriesSurviveEviction() {
+		Bitmap bitmap = getBitmap();
+		int bitmapSize = BitmapPool.getAllocationSize(bitmap);
+		mMemCache = new StripedMemoryLRUCacher(1);
+		mMemCache.setMaximumCacheSize(bitmapSize * 3);
+
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url2", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url3", 1, mBitmapConfig));
+
+		// The first eviction clears every referenced flag, so url2 only survives the second eviction because it is read in between.
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url4", 1, mBitmapConfig));
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url1", 1, mBitmapConfig)));
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url2", 1, mBitmapConfig)));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url5", 1, mBitmapConfig));
+
+		assertNull(mMemCache.getBitmap(new DecodeSignature("url3", 1, mBitmapConfig)));
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url2", 1, mBitmapConfig)));
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url5", 1, mBitmapConfig)));
+		assertEquals(3, mMemCache.getNumImagesInCache());
+	}
+
+	public void testEvictsLeastRecentlyUsedAcrossSegments() {
+		Bitmap bitmap = getBitmap();
+		int bitmapSize = BitmapPool.getAllocationSize(bitmap);
+		mMemCache.setMaximumCacheSize(bitmapSize * 8);
+
+		for (int i = 0; i < 24; i++) {
+			mMemCache.cacheBitmap(bitmap, new DecodeSignature("url" + i, 1, mBitmapConfig));
+		}
+		for (int i = 0; i < 16; i++) {
+			assertNull(mMemCache.getBitmap(new DecodeSignature("url" + i, 1, mBitmapConfig)));
+		}
+		for (int i = 16; i < 24; i++) {
+			assertNotNull(mMemCache.getBitmap(new DecodeSignature("url" + i, 1, mBitmapConfig)));
+		}
+	}
+
+	public void testReadEntriesSurviveEvictionAcrossSegments() {
+		Bitmap bitmap = getBitmap();
+		int bitmapSize = BitmapPool.getAllocationSize(bitmap);
+		mMemCache.setMaximumCacheSize(bitmapSize * 8);
+
+		for (int i = 0; i < 9; i++) {
+			mMemCache.cacheBitmap(bitmap, new DecodeSignature("url" + i, 1, mBitmapConfig));
+		}
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url1", 1, mBitmapConfig)));
+		for (int i = 9; i < 15; i++) {
+			mMemCache.cacheBitmap(bitmap, new DecodeSignature("url" + i, 1, mBitmapConfig));
+		}
+
+		assertNotNull(mMemCache.getBitmap(new DecodeSignature("url1", 1, mBitmapConfig)));
+		for (int i = 2; i < 8; i++) {
+			assertNull(mMemCache.getBitmap(new DecodeSignature("url" + i, 1, mBitmapConfig)));
+		}
+		assertEquals(8, mMemCache.getNumImagesInCache());
+	}
+
+	public void testGetLargerVariant() {
+		Bitmap bitmap = getBitmap();
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 2, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 8, mBitmapConfig));
+		mMemCache.cacheBitmap(bitmap, new DecodeSignature("url1", 1, Bitmap.Config.RGB_565));
+
+		assertEquals(new DecodeSignature("url1", 2, mBitmapConfig), mMemCache.getLargerVariant(new DecodeSignature("url1", 4, mBitmapConfig)));
+		assertEquals(new DecodeSignature("url1", 1, mBitmapConfig), mMemCache.getLargerVariant(new DecodeSignature("url1", 2, mBitmapConfig)));
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url1", 1, mBitmapConfig)));
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url2", 4, mBitmapConfig)));
+
+		mMemCache.removeAllImagesForUri("url1");
+		assertNull(mMemCache.getLargerVariant(new DecodeSignature("url1", 4, mBitmapConfig)));
+	}
+
+	private static Bitmap getBitmap() {
+		return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+	}
+}
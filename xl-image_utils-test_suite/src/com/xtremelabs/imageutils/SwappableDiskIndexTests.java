@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+import com.xtremelabs.imageutils.DiskIndex.DiskIndexObserver;
+
+public class SwappableDiskIndexTests extends AndroidTestCase {
+	private File mOldJournalFile;
+	private File mNewJournalFile;
+	private final List<String> mEvictedUris = new ArrayList<String>();
+
+	private final DiskIndexObserver mObserver = new DiskIndexObserver() {
+		@Override
+		public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris) {
+			return new ArrayList<FileEntry>();
+		}
+
+		@Override
+		public void onImageEvicted(String uri) {
+			mEvictedUris.add(uri);
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mOldJournalFile = new File(getContext().getCacheDir(), "testOldJournal");
+		mNewJournalFile = new File(getContext().getCacheDir(), "testNewJournal");
+		mOldJournalFile.delete();
+		mNewJournalFile.delete();
+		mEvictedUris.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mOldJournalFile.delete();
+		mNewJournalFile.delete();
+		super.tearDown();
+	}
+
+	public void testChangesMadeDuringMigrationAreCarriedOver() {
+		final SwappableDiskIndex diskIndex = new SwappableDiskIndex(new JournalDiskIndex(mOldJournalFile, mObserver));
+		diskIndex.addOrUpdateFile("url1", 100, 10, 10);
+		diskIndex.addOrUpdateFile("url2", 100, 10, 10);
+
+		JournalDiskIndex newIndex = new JournalDiskIndex(mNewJournalFile, mObserver) {
+			@Override
+			public void replaceAllEntries(Collection<FileEntry> entries) {
+				super.replaceAllEntries(entries);
+
+				// Made after the entries were copied, as another thread could.
+				diskIndex.deleteEntry("url1");
+				diskIndex.addOrUpdateFile("url3", 100, 10, 10);
+				diskIndex.setCacheHeaders("url2", "etag", null, 0);
+			}
+		};
+		diskIndex.migrateTo(newIndex);
+
+		assertSame(newIndex, diskIndex.getDiskIndex());
+		assertFalse(newIndex.isCached("url1"));
+		assertTrue(newIndex.isCached("url2"));
+		assertTrue(newIndex.isCached("url3"));
+		assertEquals("etag", newIndex.getFileEntryFromCache("url2").getETag());
+	}
+
+	public void testEvictionsAreSkippedDuringMigration() {
+		final SwappableDiskIndex diskIndex = new SwappableDiskIndex(new JournalDiskIndex(mOldJournalFile, mObserver));
+		diskIndex.addOrUpdateFile("url1", 100, 10, 10);
+		diskIndex.addOrUpdateFile("url2", 100, 10, 10);
+
+		JournalDiskIndex newIndex = new JournalDiskIndex(mNewJournalFile, mObserver) {
+			@Override
+			public void replaceAllEntries(Collection<FileEntry> entries) {
+				super.replaceAllEntries(entries);
+				diskIndex.removeLeastUsedFileFromCache(0);
+			}
+		};
+		diskIndex.migrateTo(newIndex);
+
+		assertTrue(mEvictedUris.isEmpty());
+		assertEquals(2, newIndex.getAllEntries().size());
+
+		diskIndex.removeLeastUsedFileFromCache(0);
+		assertEquals(2, mEvictedUris.size());
+	}
+}
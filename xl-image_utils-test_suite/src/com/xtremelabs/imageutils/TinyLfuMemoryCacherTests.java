@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class TinyLfuMemoryCacherTests extends AndroidTestCase {
+	private static final int CACHE_SIZE_IN_BITMAPS = 20;
+
+	private TinyLfuMemoryCacher mMemCache;
+	private Bitmap.Config mBitmapConfig;
+	private final Bitmap mBitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mMemCache = new TinyLfuMemoryCacher();
+	}
+
+	public void testClearingCache() {
+		assertEquals(0, mMemCache.getNumImagesInCache());
+		mMemCache.cacheBitmap(mBitmap, new DecodeSignature("url1", 1, mBitmapConfig));
+		mMemCache.cacheBitmap(mBitmap, new DecodeSignature("url2", 1, mBitmapConfig));
+		assertEquals(2, mMemCache.getNumImagesInCache());
+		mMemCache.clearCache();
+		assertEquals(0, mMemCache.getNumImagesInCache());
+		assertEquals(0, mMemCache.getSize());
+	}
+
+	public void testEvictionsRespectMaximumSize() {
+		int bitmapSize = BitmapPool.getAllocationSize(mBitmap);
+		mMemCache.setMaximumCacheSize(bitmapSize * 5);
+
+		for (int i = 0; i < 50; i++) {
+			DecodeSignature decodeSignature = new DecodeSignature("url" + i, 1, mBitmapConfig);
+			mMemCache.getBitmap(decodeSignature);
+			mMemCache.cacheBitmap(mBitmap, decodeSignature);
+			assertTrue(mMemCache.getSize() <= bitmapSize * 5);
+		}
+	}
+
+	public void testFrequentlyUsedImagesSurviveScan() {
+		mMemCache.setMaximumCacheSize(BitmapPool.getAllocationSize(mBitmap) * CACHE_SIZE_IN_BITMAPS);
+		DecodeSignature avatar = new DecodeSignature("avatar", 1, mBitmapConfig);
+		for (int i = 0; i < 5; i++) {
+			replay(mMemCache, avatar);
+		}
+
+		for (int i = 0; i < 100; i++) {
+			replay(mMemCache, new DecodeSignature("scan" + i, 1, mBitmapConfig));
+		}
+
+		assertNotNull(mMemCache.getBitmap(avatar));
+	}
+
+	public void testCandidateIsComparedWithTheLeastRecentlyUsedBitmapOnly() {
+		int bitmapSize = BitmapPool.getAllocationSize(mBitmap);
+		mMemCache.setMaximumCacheSize(bitmapSize * 10);
+
+		// The window holds two bitmaps, so the first eight move on to the main area. Only the first of them is never requested again.
+		List<DecodeSignature> signatures = new ArrayList<DecodeSignature>();
+		for (int i = 0; i < 10; i++) {
+			DecodeSignature decodeSignature = new DecodeSignature("url" + i, 1, mBitmapConfig);
+			signatures.add(decodeSignature);
+			mMemCache.cacheBitmap(mBitmap, decodeSignature);
+		}
+		for (int i = 1; i < 8; i++) {
+			for (int j = 0; j < 5; j++) {
+				mMemCache.getBitmap(signatures.get(i));
+			}
+		}
+
+		// The large bitmap is requested more often than the least recently used bitmap of the main area, but less often than the bitmaps behind it.
+		DecodeSignature large = new DecodeSignature("large", 1, mBitmapConfig);
+		mMemCache.getBitmap(large);
+		mMemCache.cacheBitmap(Bitmap.createBitmap(10, 30, Bitmap.Config.ARGB_8888), large);
+
+		assertNotNull(mMemCache.getBitmap(large));
+		assertNull(mMemCache.getBitmap(signatures.get(0)));
+		assertTrue(mMemCache.getSize() <= bitmapSize * 10);
+	}
+
+	public void testFrequencySketch() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment(42);
+		}
+		sketch.increment(7);
+
+		assertEquals(15, sketch.getFrequency(42));
+		assertTrue(sketch.getFrequency(7) >= 1);
+		assertTrue(sketch.getFrequency(7) < 15);
+
+		sketch.clear();
+		assertEquals(0, sketch.getFrequency(42));
+	}
+
+	/**
+	 * Replays the same trace against plain LRU and TinyLFU, and checks that TinyLFU hits more often. The trace mimics a feed: every screen shows a handful of images that are reused throughout the app (avatars, headers), mixed with
+	 * images that are only ever shown once.
+	 */
+	public void testHitRatioAgainstLru() {
+		List<DecodeSignature> trace = generateTrace(new Random(0));
+
+		AdvancedMemoryLRUCacher lruCache = new AdvancedMemoryLRUCacher();
+		lruCache.setMaximumCacheSize(BitmapPool.getAllocationSize(mBitmap) * CACHE_SIZE_IN_BITMAPS);
+		mMemCache.setMaximumCacheSize(BitmapPool.getAllocationSize(mBitmap) * CACHE_SIZE_IN_BITMAPS);
+
+		double lruHitRatio = replay(lruCache, trace);
+		double tinyLfuHitRatio = replay(mMemCache, trace);
+
+		assertTrue("LRU hit ratio: " + lruHitRatio + ", TinyLFU hit ratio: " + tinyLfuHitRatio, tinyLfuHitRatio > lruHitRatio);
+	}
+
+	private static List<DecodeSignature> generateTrace(Random random) {
+		final int numScreens = 50;
+		final int numReusedImages = 10;
+		final int numOneTimeImagesPerScreen = 30;
+
+		List<DecodeSignature> trace = new ArrayList<DecodeSignature>();
+		int oneTimeImageCount = 0;
+		for (int screen = 0; screen < numScreens; screen++) {
+			for (int i = 0; i < numReusedImages + numOneTimeImagesPerScreen; i++) {
+				if (random.nextInt(numReusedImages + numOneTimeImagesPerScreen) < numReusedImages) {
+					trace.add(new DecodeSignature("reused" + random.nextInt(numReusedImages), 1, null));
+				} else {
+					trace.add(new DecodeSignature("oneTime" + oneTimeImageCount++, 1, null));
+				}
+			}
+		}
+		return trace;
+	}
+
+	private double replay(ImageMemoryCacherInterface memoryCache, List<DecodeSignature> trace) {
+		int hits = 0;
+		for (DecodeSignature decodeSignature : trace) {
+			if (replay(memoryCache, decodeSignature)) {
+				hits++;
+			}
+		}
+		return (double) hits / trace.size();
+	}
+
+	/**
+	 * Requests the image the same way ImageCacher does, caching it on a miss as if it had been decoded.
+	 * 
+	 * @return True on a hit.
+	 */
+	private boolean replay(ImageMemoryCacherInterface memoryCache, DecodeSignature decodeSignature) {
+		if (memoryCache.getBitmap(decodeSignature) != null) {
+			return true;
+		}
+		memoryCache.cacheBitmap(mBitmap, decodeSignature);
+		return false;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+public class UriLogTests extends AndroidTestCase {
+	private DiskManager mDiskManager;
+	private UriLog mUriLog;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mDiskManager = new DiskManager("urilogtests", getContext());
+		mDiskManager.clearDirectory();
+		mUriLog = new UriLog(mDiskManager, "uris");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDiskManager.clearDirectory();
+		super.tearDown();
+	}
+
+	public void testUrisAreRecorded() {
+		assertTrue(mUriLog.getUris().isEmpty());
+
+		mUriLog.add("url1");
+		mUriLog.add("url2");
+		mUriLog.add("url1");
+
+		assertEquals(Arrays.asList("url1", "url2"), new ArrayList<String>(mUriLog.getUris()));
+		assertEquals(Arrays.asList("url1", "url2"), new ArrayList<String>(new UriLog(mDiskManager, "uris").getUris()));
+	}
+
+	public void testPartialRecordIsIgnored() throws IOException {
+		mUriLog.add("url1");
+		mUriLog.add("url2");
+
+		File file = new File(mDiskManager.getFile("uris"), "uris");
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(file.length() - 1);
+		randomAccessFile.close();
+
+		assertEquals(Arrays.asList("url1"), new ArrayList<String>(mUriLog.getUris()));
+	}
+
+	public void testCompactionKeepsIndexedAndRecentUris() throws IOException {
+		mUriLog.add("url1");
+		mUriLog.add("url2");
+		mUriLog.add("url3");
+
+		// The image of "url3" has just been saved, and may not have been added to the index yet.
+		String fileName = DiskManager.getShardedFileName("url3");
+		mDiskManager.loadStreamToFile(new ByteArrayInputStream(new byte[10]), fileName);
+
+		List<String> indexedUris = Arrays.asList("url1");
+		mUriLog.compact(indexedUris);
+
+		assertEquals(Arrays.asList("url1", "url3"), new ArrayList<String>(mUriLog.getUris()));
+	}
+
+	public void testLongUrisAreSkipped() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 70000; i++) {
+			builder.append('a');
+		}
+
+		mUriLog.add(builder.toString());
+		mUriLog.add("url1");
+
+		assertEquals(Arrays.asList("url1"), new ArrayList<String>(mUriLog.getUris()));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class WeakBitmapCacheTests extends AndroidTestCase {
+	private BitmapPool mBitmapPool;
+	private WeakBitmapCache mWeakBitmapCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mBitmapPool = new BitmapPool();
+		mWeakBitmapCache = new WeakBitmapCache(mBitmapPool);
+	}
+
+	public void testReferencedBitmapIsReturned() {
+		Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, null);
+		mWeakBitmapCache.put(decodeSignature, bitmap);
+
+		assertSame(bitmap, mWeakBitmapCache.remove(decodeSignature));
+		assertNull(mWeakBitmapCache.remove(decodeSignature));
+		assertEquals(1, mWeakBitmapCache.getHitCount());
+		assertEquals(1, mWeakBitmapCache.getMissCount());
+	}
+
+	public void testPooledBitmapIsReclaimedFromPool() {
+		mBitmapPool.setMaximumPoolSize(1024 * 1024);
+		Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, null);
+		assertTrue(mBitmapPool.put(bitmap));
+		mWeakBitmapCache.put(decodeSignature, bitmap);
+
+		assertSame(bitmap, mWeakBitmapCache.remove(decodeSignature));
+		assertEquals(0, mBitmapPool.getNumBitmapsInPool());
+	}
+
+	public void testBitmapTakenByDecoderIsNotReturned() {
+		mBitmapPool.setMaximumPoolSize(1024 * 1024);
+		Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+		DecodeSignature decodeSignature = new DecodeSignature("url1", 1, null);
+		mWeakBitmapCache.put(decodeSignature, bitmap);
+		mBitmapPool.put(bitmap);
+		assertSame(bitmap, mBitmapPool.get(new Dimensions(10, 10), 1, Bitmap.Config.ARGB_8888));
+
+		// The decoder has returned the bitmap to the pool under a different image. Its old pixels are gone.
+		mBitmapPool.put(bitmap);
+		assertNull(mWeakBitmapCache.remove(decodeSignature));
+		assertEquals(0, mWeakBitmapCache.getHitCount());
+	}
+
+	public void testRemoveAllForUri() {
+		Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+		mWeakBitmapCache.put(new DecodeSignature("url1", 1, null), bitmap);
+		mWeakBitmapCache.put(new DecodeSignature("url1", 2, null), bitmap);
+		mWeakBitmapCache.put(new DecodeSignature("url2", 1, null), bitmap);
+
+		mWeakBitmapCache.removeAllForUri("url1");
+		assertEquals(1, mWeakBitmapCache.getNumReferences());
+		assertNotNull(mWeakBitmapCache.remove(new DecodeSignature("url2", 1, null)));
+	}
+}
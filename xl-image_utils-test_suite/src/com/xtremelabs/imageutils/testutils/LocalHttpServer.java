@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils.testutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal HTTP server on the loopback interface that serves a single image. It answers conditional requests whose If-None-Match matches its ETag with "304 Not Modified", and records the headers of every request.
+ */
+public class LocalHttpServer {
+	private final ServerSocket mServerSocket;
+	private final List<Map<String, String>> mRequestHeaders = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+	private volatile byte[] mBody;
+	private volatile String mETag;
+	private volatile String mCacheControl;
+
+	public LocalHttpServer(byte[] body, String eTag, String cacheControl) throws IOException {
+		mBody = body;
+		mETag = eTag;
+		mCacheControl = cacheControl;
+		mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!mServerSocket.isClosed()) {
+					try {
+						handle(mServerSocket.accept());
+					} catch (IOException e) {
+					}
+				}
+			}
+		}, "LocalHttpServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+	}
+
+	/**
+	 * Changes the image that is served, as if it had been updated on the server.
+	 */
+	public void setImage(byte[] body, String eTag) {
+		mBody = body;
+		mETag = eTag;
+	}
+
+	/**
+	 * @return The headers of each request so far, with lower case names.
+	 */
+	public List<Map<String, String>> getRequestHeaders() {
+		synchronized (mRequestHeaders) {
+			return new ArrayList<Map<String, String>>(mRequestHeaders);
+		}
+	}
+
+	public void shutdown() {
+		try {
+			mServerSocket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			reader.readLine();
+
+			Map<String, String> headers = new HashMap<String, String>();
+			String line;
+			while ((line = reader.readLine()) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+				}
+			}
+			mRequestHeaders.add(headers);
+
+			byte[] body = mBody;
+			String eTag = mETag;
+			boolean notModified = eTag != null && eTag.equals(headers.get("if-none-match"));
+
+			StringBuilder response = new StringBuilder();
+			response.append(notModified ? "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n");
+			if (eTag != null) {
+				response.append("ETag: ").append(eTag).append("\r\n");
+			}
+			if (mCacheControl != null) {
+				response.append("Cache-Control: ").append(mCacheControl).append("\r\n");
+			}
+			response.append("Content-Length: ").append(notModified ? 0 : body.length).append("\r\n");
+			response.append("Connection: close\r\n\r\n");
+
+			OutputStream outputStream = socket.getOutputStream();
+			outputStream.write(response.toString().getBytes("ISO-8859-1"));
+			if (!notModified) {
+				outputStream.write(body);
+			}
+			outputStream.flush();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * Sizes a disk cache partition as a fraction of the free space on the volume that holds it, within fixed bounds. The cache grows on devices with plenty of free space, and shrinks as the device fills up so that
+ * it does not contribute to low storage warnings.
+ */
+class AdaptiveDiskCacheSize {
+	private final float mFractionOfFreeSpace;
+	private final long mMinimumSizeInBytes;
+	private final long mMaximumSizeInBytes;
+
+	/**
+	 * @param fractionOfFreeSpace
+	 *            A value greater than 0 and no greater than 1.
+	 */
+	public AdaptiveDiskCacheSize(float fractionOfFreeSpace, long minimumSizeInBytes, long maximumSizeInBytes) {
+		if (fractionOfFreeSpace <= 0f || fractionOfFreeSpace > 1f) {
+			throw new IllegalArgumentException("The fraction of free space must be greater than 0 and no greater than 1.");
+		}
+		if (minimumSizeInBytes < 0 || minimumSizeInBytes > maximumSizeInBytes) {
+			throw new IllegalArgumentException("The minimum size must not be negative, and must not exceed the maximum size.");
+		}
+
+		mFractionOfFreeSpace = fractionOfFreeSpace;
+		mMinimumSizeInBytes = minimumSizeInBytes;
+		mMaximumSizeInBytes = maximumSizeInBytes;
+	}
+
+	/**
+	 * The space the cache already takes up is counted as free. Otherwise the limit would shrink every time the cache grew, and a cache that filled up would evict itself down towards the minimum.
+	 * 
+	 * @param availableBytes
+	 *            The free space on the volume that holds the cache.
+	 * @param sizeOnDisk
+	 *            The space the cache currently takes up.
+	 */
+	public long calculateMaximumSize(long availableBytes, long sizeOnDisk) {
+		long size = (long) ((availableBytes + sizeOnDisk) * (double) mFractionOfFreeSpace);
+		size = Math.max(size, mMinimumSizeInBytes);
+		size = Math.min(size, mMaximumSizeInBytes);
+		return size;
+	}
+}
@@ -16,11 +16,9 @@
 
 package com.xtremelabs.imageutils;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -35,6 +33,8 @@ class AdvancedMemoryLRUCacher implements ImageMemoryCacherInterface {
 
 	private final Map<DecodeSignature, Bitmap> mCache = new HashMap<DecodeSignature, Bitmap>();
 	private final Set<DecodeSignature> mEvictionSet = new LinkedHashSet<DecodeSignature>();
+	private final VariantIndex mVariantIndex = new VariantIndex();
+	private EvictionObserver mEvictionObserver;
 
 	@Override
 	public synchronized Bitmap getBitmap(DecodeSignature decodeSignature) {
@@ -48,29 +48,46 @@ class AdvancedMemoryLRUCacher implements ImageMemoryCacherInterface {
 
 	@Override
 	public synchronized void cacheBitmap(Bitmap bitmap, DecodeSignature decodeSignature) {
-		mCache.put(decodeSignature, bitmap);
+		Bitmap previous = mCache.put(decodeSignature, bitmap);
+		if (previous != null) {
+			mSize -= previous.getByteCount();
+		}
+		mVariantIndex.add(decodeSignature);
 		mSize += bitmap.getByteCount();
 		onEntryHit(decodeSignature);
 	}
 
+	@Override
+	public synchronized Bitmap removeBitmap(DecodeSignature decodeSignature) {
+		Bitmap bitmap = mCache.remove(decodeSignature);
+		if (bitmap != null) {
+			mSize -= bitmap.getByteCount();
+			mEvictionSet.remove(decodeSignature);
+			mVariantIndex.remove(decodeSignature);
+		}
+		return bitmap;
+	}
+
 	@Override
 	public synchronized void clearCache() {
 		mSize = 0;
 		mCache.clear();
 		mEvictionSet.clear();
+		mVariantIndex.clear();
 	}
 
 	@Override
 	public synchronized void setMaximumCacheSize(long size) {
 		mMaximumSizeInBytes = size;
-		performEvictions();
+		performEvictions(null);
 	}
 
 	public synchronized int getNumImagesInCache() {
 		return mCache.size();
 	}
 
-	public synchronized long getSize() {
+	@Override
+	public long getSize() {
 		return mSize;
 	}
 
@@ -84,39 +101,63 @@ class AdvancedMemoryLRUCacher implements ImageMemoryCacherInterface {
 	}
 
 	@Override
-	public synchronized void removeAllImagesForUri(String uri) {
-		Set<DecodeSignature> set = mCache.keySet();
-		List<DecodeSignature> listToRemove = new ArrayList<DecodeSignature>();
+	public synchronized long getMaximumCacheSize() {
+		return mMaximumSizeInBytes;
+	}
 
-		for (DecodeSignature signature : set) {
-			if (signature.uri.equals(uri)) {
-				listToRemove.add(signature);
+	@Override
+	public synchronized void removeAllImagesForUri(String uri) {
+		for (DecodeSignature signature : mVariantIndex.removeAll(uri)) {
+			Bitmap bitmap = mCache.remove(signature);
+			if (bitmap != null) {
+				mSize -= bitmap.getByteCount();
 			}
+			mEvictionSet.remove(signature);
 		}
+	}
 
-		for (DecodeSignature signature : listToRemove) {
-			Bitmap bitmap = mCache.remove(signature);
-			mSize -= bitmap.getByteCount();
-			mEvictionSet.remove(signature);
+	@Override
+	public synchronized void removeAllImagesForUris(Collection<String> uris) {
+		for (String uri : uris) {
+			removeAllImagesForUri(uri);
 		}
 	}
 
+	@Override
+	public synchronized DecodeSignature getLargerVariant(DecodeSignature decodeSignature) {
+		return mVariantIndex.getLargerVariant(decodeSignature);
+	}
+
+	@Override
+	public synchronized void setEvictionObserver(EvictionObserver evictionObserver) {
+		mEvictionObserver = evictionObserver;
+	}
+
 	private synchronized void onEntryHit(DecodeSignature decodeSignature) {
 		if (mEvictionSet.contains(decodeSignature)) {
 			mEvictionSet.remove(decodeSignature);
 			mEvictionSet.add(decodeSignature);
 		} else {
 			mEvictionSet.add(decodeSignature);
-			performEvictions();
+			performEvictions(decodeSignature);
 		}
 	}
 
-	private synchronized void performEvictions() {
+	/**
+	 * @param cachedSignature
+	 *            The signature of the bitmap that is currently being cached, if any. That bitmap is about to be handed back to the caller, so its eviction is not reported to the {@link EvictionObserver}.
+	 */
+	private synchronized void performEvictions(DecodeSignature cachedSignature) {
 		while (mSize > mMaximumSizeInBytes) {
 			try {
 				DecodeSignature decodeSignature = getLRU();
 				Bitmap bitmap = mCache.remove(decodeSignature);
+				mVariantIndex.remove(decodeSignature);
 				mSize -= bitmap.getByteCount();
+
+				if (mEvictionObserver != null && !decodeSignature.equals(cachedSignature)) {
+					mEvictionObserver.onBitmapEvicted(decodeSignature, bitmap);
+				}
 			} catch (NoSuchElementException e) {
 				mSize = 0;
 			}
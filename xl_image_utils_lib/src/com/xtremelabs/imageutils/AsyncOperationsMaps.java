@@ -18,6 +18,7 @@ package com.xtremelabs.imageutils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.graphics.Bitmap;
 
@@ -39,6 +40,8 @@ class AsyncOperationsMaps {
 	private final OperationTracker<String, RequestParameters, ImageCacherListener> mDetailsOperationTracker = new OperationTracker<String, RequestParameters, ImageCacherListener>();
 	private final OperationTracker<DecodeSignature, RequestParameters, ImageCacherListener> mDecodeOperationTracker = new OperationTracker<DecodeSignature, RequestParameters, ImageCacherListener>();
 
+	private final AtomicLong mCoalescedRequestCount = new AtomicLong(0);
+
 	private final OperationsObserver mObserver;
 
 	private final AuxiliaryExecutor mNetworkExecutor;
@@ -98,6 +101,9 @@ class AsyncOperationsMaps {
 			state = AsyncOperationState.QUEUED_FOR_DECODE_REQUEST;
 		}
 
+		if (state != AsyncOperationState.NOT_QUEUED) {
+			mCoalescedRequestCount.incrementAndGet();
+		}
 		return state;
 	}
 
@@ -255,6 +261,9 @@ class AsyncOperationsMaps {
 
 		if (requestParametersList != null) {
 			for (RequestParameters params : requestParametersList) {
+				if (!params.cacheRequest.isPrecacheRequest()) {
+					mObserver.onBitmapDelivered(bitmap);
+				}
 				params.imageCacherListener.onImageAvailable(new ImageResponse(bitmap, returnedFrom, ImageResponseStatus.SUCCESS));
 			}
 		}
@@ -329,6 +338,10 @@ class AsyncOperationsMaps {
 						return false;
 				}
 			}, keyReferenceProvider);
+
+			if (cancelledRequest instanceof DecodeSignature && !tracker.hasPendingOperation(cancelledRequest)) {
+				mObserver.onDecodeCancelled((DecodeSignature) cancelledRequest);
+			}
 		}
 	}
 
@@ -392,10 +405,39 @@ class AsyncOperationsMaps {
 			if (cacheRequest.getImageRequestType() == ImageRequestType.ADAPTER_REQUEST) {
 				cacheRequest.setImageRequestType(ImageRequestType.DEPRIORITIZED);
 				mDiskExecutor.execute(mObserver.getDecodeRunnable(requestParameters.cacheRequest, requestParameters.decodeSignature, requestParameters.imageReturnedFrom));
+			} else if (!mDecodeOperationTracker.hasPendingOperation(requestParameters.decodeSignature)) {
+				mObserver.onDecodeCancelled(requestParameters.decodeSignature);
 			}
 		}
 	}
 
+	/*
+	 * *****************************************
+	 * 
+	 * Statistics. These never take the lock.
+	 * 
+	 * *****************************************
+	 */
+
+	/**
+	 * @return The number of requests that were attached to an operation already in progress for the same image, rather than starting their own.
+	 */
+	long getCoalescedRequestCount() {
+		return mCoalescedRequestCount.get();
+	}
+
+	int getNumPendingNetworkOperations() {
+		return mNetworkOperationTracker.getNumPendingOperations();
+	}
+
+	int getNumPendingDetailsOperations() {
+		return mDetailsOperationTracker.getNumPendingOperations();
+	}
+
+	int getNumPendingDecodeOperations() {
+		return mDecodeOperationTracker.getNumPendingOperations();
+	}
+
 	private synchronized DecodeSignature getDecodeSignature(CacheRequest cacheRequest) {
 		int sampleSize = mObserver.getSampleSize(cacheRequest);
 		return new DecodeSignature(cacheRequest.getUri(), sampleSize, cacheRequest.getOptions().preferedConfig);
@@ -409,6 +451,16 @@ class AsyncOperationsMaps {
 		public Prioritizable getDetailsRunnable(CacheRequest cacheRequest);
 
 		public int getSampleSize(CacheRequest cacheRequest);
+
+		/**
+		 * Called before a decoded bitmap is handed to each listener that was waiting for it, except for those of precache requests, which drop the bitmap.
+		 */
+		public void onBitmapDelivered(Bitmap bitmap);
+
+		/**
+		 * Called once a decode has been cancelled and no other request is waiting for it.
+		 */
+		public void onDecodeCancelled(DecodeSignature decodeSignature);
 	}
 
 	private class RequestParameters {
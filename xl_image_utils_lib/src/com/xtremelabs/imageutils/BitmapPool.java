@@ -0,0 +1,382 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Holds on to bitmaps that have been evicted from the memory cache so that their pixel buffers can be reused by the decoder via {@link BitmapFactory.Options#inBitmap}.
+ *
+ * Bitmaps are bucketed by their allocation size in bytes. The pool has its own byte budget, separate from the memory cache, and evicts the oldest bitmaps first once that budget has been exceeded.
+ *
+ * Bitmap reuse is only possible on Honeycomb and above. Prior to KitKat, the reused bitmap must exactly match the dimensions and config of the image being decoded, and the sample size must be 1.
+ *
+ * A bitmap that has been handed to a caller may still be drawn after it leaves the memory cache, and reusing it would overwrite the image on screen. The pool therefore counts the callers holding each bitmap,
+ * and only takes a bitmap once it has left the memory cache and every caller has released it.
+ */
+@SuppressLint("NewApi")
+class BitmapPool {
+	private long mMaximumSizeInBytes = 0; // Disabled by default.
+	/*
+	 * Only written while holding the pool's lock, but volatile so that the statistics can be read without it.
+	 */
+	private volatile long mSize = 0;
+	private volatile long mHitCount = 0;
+	private volatile long mMissCount = 0;
+
+	private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+	private final Set<Bitmap> mEvictionSet = new LinkedHashSet<Bitmap>();
+
+	/*
+	 * Weakly keyed, so that bitmaps that are never released do not leak. Bitmaps do not override equals, so these compare by identity.
+	 */
+	private final WeakHashMap<Bitmap, Integer> mHolderCounts = new WeakHashMap<Bitmap, Integer>();
+	private final WeakHashMap<Bitmap, Boolean> mEvictedHeldBitmaps = new WeakHashMap<Bitmap, Boolean>();
+	private final WeakHashMap<Bitmap, Integer> mReuseCounts = new WeakHashMap<Bitmap, Integer>();
+
+	public static boolean isBitmapReuseSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	/**
+	 * Records that the bitmap has been handed to a caller, who must call {@link #release(Bitmap)} once it is no longer drawn. Also used to pin a bitmap while the library itself is still reading it.
+	 */
+	public synchronized void retain(Bitmap bitmap) {
+		Integer holderCount = mHolderCounts.get(bitmap);
+		mHolderCounts.put(bitmap, holderCount == null ? 1 : holderCount + 1);
+
+		// A bitmap is only handed out again from the memory cache, so it has not been evicted. It may have been pooled by another thread between the lookup and this call.
+		mEvictedHeldBitmaps.remove(bitmap);
+		remove(bitmap);
+	}
+
+	/**
+	 * Releases one hold on the bitmap. Releasing a bitmap that is not held does nothing.
+	 *
+	 * @return True if the pool took the bitmap, because it had already left the memory cache and this was the last hold on it.
+	 */
+	public synchronized boolean release(Bitmap bitmap) {
+		Integer holderCount = mHolderCounts.get(bitmap);
+		if (holderCount == null) {
+			return false;
+		}
+
+		if (holderCount > 1) {
+			mHolderCounts.put(bitmap, holderCount - 1);
+			return false;
+		}
+
+		mHolderCounts.remove(bitmap);
+		return mEvictedHeldBitmaps.remove(bitmap) != null && put(bitmap);
+	}
+
+	/**
+	 * Called when a bitmap leaves the memory cache. The pool takes it right away if no caller holds it, and otherwise once the last holder releases it.
+	 *
+	 * @return True if the pool has taken ownership of the bitmap.
+	 */
+	public synchronized boolean onBitmapEvicted(Bitmap bitmap) {
+		if (mHolderCounts.containsKey(bitmap)) {
+			mEvictedHeldBitmaps.put(bitmap, Boolean.TRUE);
+			return false;
+		}
+		return put(bitmap);
+	}
+
+	/**
+	 * @return The number of times the bitmap has been handed to the decoder for reuse. The pixels of a bitmap are only those of the image it was cached as while this number is unchanged.
+	 */
+	public synchronized int getReuseCount(Bitmap bitmap) {
+		Integer reuseCount = mReuseCounts.get(bitmap);
+		return reuseCount == null ? 0 : reuseCount;
+	}
+
+	/**
+	 * Takes the bitmap back out of the pool, if its pixels have not been overwritten since the given reuse count was read.
+	 *
+	 * @return True if the bitmap still holds the pixels it had when the reuse count was read.
+	 */
+	public synchronized boolean reclaim(Bitmap bitmap, int reuseCount) {
+		if (getReuseCount(bitmap) != reuseCount) {
+			return false;
+		}
+		remove(bitmap);
+		return true;
+	}
+
+	/**
+	 * Offers a bitmap to the pool. The bitmap will be rejected if a caller still holds it, if it cannot be reused by the decoder, or if it does not fit inside the pool's budget.
+	 *
+	 * @return True if the pool has taken ownership of the bitmap.
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		if (!isBitmapReuseSupported() || bitmap == null || !bitmap.isMutable() || bitmap.isRecycled() || bitmap.getConfig() == null || mHolderCounts.containsKey(bitmap)) {
+			return false;
+		}
+
+		int size = getAllocationSize(bitmap);
+		if (size > mMaximumSizeInBytes || mEvictionSet.contains(bitmap)) {
+			return false;
+		}
+
+		LinkedList<Bitmap> bucket = mBuckets.get(size);
+		if (bucket == null) {
+			bucket = new LinkedList<Bitmap>();
+			mBuckets.put(size, bucket);
+		}
+		bucket.addLast(bitmap);
+		mEvictionSet.add(bitmap);
+		mSize += size;
+
+		performEvictions();
+		return true;
+	}
+
+	/**
+	 * Removes and returns a bitmap that can be used as the {@link BitmapFactory.Options#inBitmap} for the described decode.
+	 *
+	 * @param dimensions
+	 *            The dimensions of the image on disk.
+	 * @param sampleSize
+	 *            The sample size the image will be decoded with.
+	 * @param config
+	 *            The config the image will be decoded with. A null config is treated as {@link Bitmap.Config#ARGB_8888}.
+	 * @return A reusable bitmap, or null if none is available.
+	 */
+	public synchronized Bitmap get(Dimensions dimensions, int sampleSize, Bitmap.Config config) {
+		if (mEvictionSet.isEmpty() || dimensions == null || dimensions.width == null || dimensions.height == null) {
+			mMissCount++;
+			return null;
+		}
+
+		if (config == null) {
+			config = Bitmap.Config.ARGB_8888;
+		}
+
+		Bitmap bitmap;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			bitmap = removeBitmapWithCapacity(dimensions, sampleSize, config);
+		} else {
+			bitmap = removeExactMatch(dimensions, sampleSize, config);
+		}
+
+		if (bitmap != null) {
+			mHitCount++;
+			mReuseCounts.put(bitmap, getReuseCount(bitmap) + 1);
+		} else {
+			mMissCount++;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Prepares the options for a decode, pulling a reusable bitmap from the pool if one is available. The returned options always produce a mutable bitmap when reuse is supported, so that the decoded bitmap can later
+	 * be returned to the pool.
+	 */
+	public BitmapFactory.Options getDecodeOptions(Dimensions dimensions, int sampleSize, Bitmap.Config config) {
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inSampleSize = sampleSize;
+		opts.inPreferredConfig = config;
+
+		if (isBitmapReuseSupported() && isEnabled()) {
+			opts.inMutable = true;
+			opts.inBitmap = get(dimensions, sampleSize, config);
+		}
+		return opts;
+	}
+
+	/**
+	 * Takes a specific bitmap back out of the pool, so that it will not be handed to the decoder.
+	 * 
+	 * @return True if the bitmap was in the pool.
+	 */
+	public synchronized boolean remove(Bitmap bitmap) {
+		if (!mEvictionSet.remove(bitmap)) {
+			return false;
+		}
+
+		int size = getAllocationSize(bitmap);
+		LinkedList<Bitmap> bucket = mBuckets.get(size);
+		if (bucket != null) {
+			bucket.remove(bitmap);
+			if (bucket.isEmpty()) {
+				mBuckets.remove(size);
+			}
+		}
+		mSize -= size;
+		return true;
+	}
+
+	public synchronized boolean isEnabled() {
+		return mMaximumSizeInBytes > 0;
+	}
+
+	public synchronized void setMaximumPoolSize(long size) {
+		mMaximumSizeInBytes = size;
+		performEvictions();
+	}
+
+	public synchronized long getMaximumPoolSize() {
+		return mMaximumSizeInBytes;
+	}
+
+	public synchronized void clear() {
+		mBuckets.clear();
+		mEvictionSet.clear();
+		mSize = 0;
+	}
+
+	public long getSize() {
+		return mSize;
+	}
+
+	public synchronized int getNumBitmapsInPool() {
+		return mEvictionSet.size();
+	}
+
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	private Bitmap removeBitmapWithCapacity(Dimensions dimensions, int sampleSize, Bitmap.Config config) {
+		int requiredSize = getDecodedDimension(dimensions.width, sampleSize) * getDecodedDimension(dimensions.height, sampleSize) * getBytesPerPixel(config);
+
+		/*
+		 * Only look at buckets up to twice the required size. Reusing a much larger bitmap would leave most of its buffer wasted while it sits in the memory cache.
+		 */
+		long maximumSize = Math.min(Integer.MAX_VALUE, 2L * requiredSize);
+		for (Map.Entry<Integer, LinkedList<Bitmap>> entry : mBuckets.subMap(requiredSize, true, (int) maximumSize, true).entrySet()) {
+			Iterator<Bitmap> iterator = entry.getValue().iterator();
+			while (iterator.hasNext()) {
+				Bitmap bitmap = iterator.next();
+				if (bitmap.getConfig() == config) {
+					iterator.remove();
+					onBitmapRemoved(entry.getKey(), bitmap);
+					return bitmap;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Bitmap removeExactMatch(Dimensions dimensions, int sampleSize, Bitmap.Config config) {
+		if (sampleSize > 1) {
+			return null;
+		}
+
+		int width = dimensions.width;
+		int height = dimensions.height;
+		int size = width * height * getBytesPerPixel(config);
+		LinkedList<Bitmap> bucket = mBuckets.get(size);
+		if (bucket == null) {
+			return null;
+		}
+
+		Iterator<Bitmap> iterator = bucket.iterator();
+		while (iterator.hasNext()) {
+			Bitmap bitmap = iterator.next();
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+				iterator.remove();
+				onBitmapRemoved(size, bitmap);
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	private void onBitmapRemoved(int size, Bitmap bitmap) {
+		LinkedList<Bitmap> bucket = mBuckets.get(size);
+		if (bucket != null && bucket.isEmpty()) {
+			mBuckets.remove(size);
+		}
+		mEvictionSet.remove(bitmap);
+		mSize -= size;
+	}
+
+	private void performEvictions() {
+		Iterator<Bitmap> iterator = mEvictionSet.iterator();
+		while (mSize > mMaximumSizeInBytes && iterator.hasNext()) {
+			Bitmap bitmap = iterator.next();
+			iterator.remove();
+
+			int size = getAllocationSize(bitmap);
+			LinkedList<Bitmap> bucket = mBuckets.get(size);
+			if (bucket != null) {
+				bucket.remove(bitmap);
+				if (bucket.isEmpty()) {
+					mBuckets.remove(size);
+				}
+			}
+			mSize -= size;
+		}
+	}
+
+	private static int getDecodedDimension(int dimension, int sampleSize) {
+		int powerOfTwoSampleSize = getPowerOfTwoSampleSize(sampleSize);
+		return (dimension + powerOfTwoSampleSize - 1) / powerOfTwoSampleSize;
+	}
+
+	/**
+	 * The decoder rounds the sample size down to the nearest power of two.
+	 */
+	static int getPowerOfTwoSampleSize(int sampleSize) {
+		if (sampleSize <= 1) {
+			return 1;
+		}
+		return Integer.highestOneBit(sampleSize);
+	}
+
+	static int getBytesPerPixel(Bitmap.Config config) {
+		if (config == null) {
+			return 4;
+		}
+
+		switch (config) {
+		case ALPHA_8:
+			return 1;
+		case ARGB_4444:
+		case RGB_565:
+			return 2;
+		case ARGB_8888:
+		default:
+			return 4;
+		}
+	}
+
+	static int getAllocationSize(Bitmap bitmap) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return bitmap.getAllocationByteCount();
+		} else {
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	}
+}
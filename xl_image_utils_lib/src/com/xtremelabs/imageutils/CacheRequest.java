@@ -16,6 +16,8 @@
 
 package com.xtremelabs.imageutils;
 
+import java.lang.ref.WeakReference;
+
 import com.xtremelabs.imageutils.ImageLoader.Options;
 
 class CacheRequest {
@@ -31,6 +33,7 @@ class CacheRequest {
 	private ImageRequestType mImageRequestType = ImageRequestType.DEFAULT;
 	private final Options mOptions;
 	private CacheKey mCacheKey;
+	private WeakReference<Object> mLifecycleKey;
 
 	public CacheRequest(String uri) {
 		this(uri, null);
@@ -98,6 +101,17 @@ class CacheRequest {
 		mCacheKey = cacheKey;
 	}
 
+	/**
+	 * @return The key (usually an Activity or Fragment) that made this request, or null if it is unknown or has been garbage collected.
+	 */
+	public Object getLifecycleKey() {
+		return mLifecycleKey != null ? mLifecycleKey.get() : null;
+	}
+
+	public void setLifecycleKey(Object lifecycleKey) {
+		mLifecycleKey = new WeakReference<Object>(lifecycleKey);
+	}
+
 	public boolean isFileSystemRequest() {
 		return mLocationOfImage == LocationOfImage.LOCAL_FILE_SYSTEM;
 	}
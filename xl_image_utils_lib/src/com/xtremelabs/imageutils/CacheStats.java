@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * An immutable snapshot of the image system's cache statistics, obtained through {@link ImageLoader#getCacheStats(android.content.Context)}.
+ * 
+ * Taking a snapshot never blocks the threads that load images: every value is read from an atomic counter or a volatile field. As a result, values that are read one after the other are not guaranteed to be
+ * consistent with each other while images are being loaded.
+ */
+public class CacheStats {
+	private final long mMemoryHitCount;
+	private final long mMemoryMissCount;
+	private final long mLargerVariantHitCount;
+	private final long mEvictedBitmapHitCount;
+	private final long mMemoryEvictionCount;
+	private final long mMemoryCacheSize;
+	private final long mMaximumMemoryCacheSize;
+
+	private final long mBitmapPoolHitCount;
+	private final long mBitmapPoolMissCount;
+	private final long mBitmapPoolSize;
+
+	private final long mEncodedImageCacheHitCount;
+	private final long mEncodedImageCacheMissCount;
+	private final long mEncodedImageCacheSize;
+
+	private final long mDiskHitCount;
+	private final long mDiskMissCount;
+	private final long mDiskEvictionCount;
+	private final long mDiskCacheSize;
+	private final long mDiskIndexLoadTime;
+	private final long mOrphanedFileCount;
+	private final long mDanglingEntryCount;
+
+	private final long mDerivativeCacheHitCount;
+	private final long mDerivativeCacheMissCount;
+	private final long mDerivativeCacheSize;
+	private final long mDecodeFailureCount;
+
+	private final long mDownloadCount;
+	private final long mDownloadFailureCount;
+
+	private final int mPendingNetworkOperations;
+	private final int mPendingDetailsOperations;
+	private final int mPendingDecodeOperations;
+	private final long mCoalescedRequestCount;
+
+	CacheStats(CacheStatsRecorder recorder, ImageMemoryCacherInterface memoryCache, WeakBitmapCache weakBitmapCache, BitmapPool bitmapPool, EncodedImageCache encodedImageCache, ImageDiskCacherInterface diskCache,
+			DerivativeDiskCache derivativeDiskCache, AsyncOperationsMaps asyncOperationsMaps) {
+		mMemoryHitCount = recorder.memoryHitCount.get();
+		mMemoryMissCount = recorder.memoryMissCount.get();
+		mLargerVariantHitCount = recorder.largerVariantHitCount.get();
+		mEvictedBitmapHitCount = weakBitmapCache.getHitCount();
+		mMemoryEvictionCount = recorder.memoryEvictionCount.get();
+		mMemoryCacheSize = memoryCache.getSize();
+		mMaximumMemoryCacheSize = memoryCache.getMaximumCacheSize();
+
+		mBitmapPoolHitCount = bitmapPool.getHitCount();
+		mBitmapPoolMissCount = bitmapPool.getMissCount();
+		mBitmapPoolSize = bitmapPool.getSize();
+
+		mEncodedImageCacheHitCount = encodedImageCache.getHitCount();
+		mEncodedImageCacheMissCount = encodedImageCache.getMissCount();
+		mEncodedImageCacheSize = encodedImageCache.getSize();
+
+		mDiskHitCount = recorder.diskHitCount.get();
+		mDiskMissCount = recorder.diskMissCount.get();
+		mDiskEvictionCount = diskCache.getEvictionCount();
+		mDiskCacheSize = diskCache.getSizeOnDisk();
+		mDiskIndexLoadTime = diskCache.getIndexLoadTime();
+		mOrphanedFileCount = diskCache.getOrphanedFileCount();
+		mDanglingEntryCount = diskCache.getDanglingEntryCount();
+
+		mDerivativeCacheHitCount = derivativeDiskCache.getHitCount();
+		mDerivativeCacheMissCount = derivativeDiskCache.getMissCount();
+		mDerivativeCacheSize = derivativeDiskCache.getSize();
+		mDecodeFailureCount = recorder.decodeFailureCount.get();
+
+		mDownloadCount = recorder.downloadCount.get();
+		mDownloadFailureCount = recorder.downloadFailureCount.get();
+
+		mPendingNetworkOperations = asyncOperationsMaps.getNumPendingNetworkOperations();
+		mPendingDetailsOperations = asyncOperationsMaps.getNumPendingDetailsOperations();
+		mPendingDecodeOperations = asyncOperationsMaps.getNumPendingDecodeOperations();
+		mCoalescedRequestCount = asyncOperationsMaps.getCoalescedRequestCount();
+	}
+
+	/**
+	 * @return The number of memory lookups that found a bitmap, including larger variants and evicted bitmaps.
+	 */
+	public long getMemoryHitCount() {
+		return mMemoryHitCount;
+	}
+
+	/**
+	 * @return The number of memory lookups that found nothing. Memory is only searched once an image's dimensions are known, and a request made on the UI thread that misses is searched again in the background.
+	 */
+	public long getMemoryMissCount() {
+		return mMemoryMissCount;
+	}
+
+	/**
+	 * @return The number of memory hits that were answered with a higher resolution variant of the requested image.
+	 */
+	public long getLargerVariantHitCount() {
+		return mLargerVariantHitCount;
+	}
+
+	/**
+	 * @return The number of memory hits that were answered with a bitmap that had been evicted from the memory cache but was still in use.
+	 */
+	public long getEvictedBitmapHitCount() {
+		return mEvictedBitmapHitCount;
+	}
+
+	public long getMemoryEvictionCount() {
+		return mMemoryEvictionCount;
+	}
+
+	/**
+	 * @return The number of bytes held by the memory cache.
+	 */
+	public long getMemoryCacheSize() {
+		return mMemoryCacheSize;
+	}
+
+	/**
+	 * @return The maximum size of the memory cache currently in effect. This is smaller than the configured size while the cache is trimmed.
+	 */
+	public long getMaximumMemoryCacheSize() {
+		return mMaximumMemoryCacheSize;
+	}
+
+	public long getBitmapPoolHitCount() {
+		return mBitmapPoolHitCount;
+	}
+
+	public long getBitmapPoolMissCount() {
+		return mBitmapPoolMissCount;
+	}
+
+	public long getBitmapPoolSize() {
+		return mBitmapPoolSize;
+	}
+
+	public long getEncodedImageCacheHitCount() {
+		return mEncodedImageCacheHitCount;
+	}
+
+	public long getEncodedImageCacheMissCount() {
+		return mEncodedImageCacheMissCount;
+	}
+
+	public long getEncodedImageCacheSize() {
+		return mEncodedImageCacheSize;
+	}
+
+	/**
+	 * @return The number of decodes that were started for images already in the disk cache.
+	 */
+	public long getDiskHitCount() {
+		return mDiskHitCount;
+	}
+
+	/**
+	 * @return The number of network requests that were started because an image was not in the disk cache.
+	 */
+	public long getDiskMissCount() {
+		return mDiskMissCount;
+	}
+
+	public long getDiskEvictionCount() {
+		return mDiskEvictionCount;
+	}
+
+	/**
+	 * @return The number of milliseconds it took to load the disk cache index on startup, or -1 if it is still loading.
+	 */
+	public long getDiskIndexLoadTime() {
+		return mDiskIndexLoadTime;
+	}
+
+	/**
+	 * @return The number of files in the disk cache directory that were deleted because the index did not know about them.
+	 */
+	public long getOrphanedFileCount() {
+		return mOrphanedFileCount;
+	}
+
+	/**
+	 * @return The number of disk cache index entries that were dropped because their images were missing from the disk.
+	 */
+	public long getDanglingEntryCount() {
+		return mDanglingEntryCount;
+	}
+
+	/**
+	 * @return The number of decodes that read a previously saved downsampled copy of an image instead of the original.
+	 */
+	public long getDerivativeCacheHitCount() {
+		return mDerivativeCacheHitCount;
+	}
+
+	public long getDerivativeCacheMissCount() {
+		return mDerivativeCacheMissCount;
+	}
+
+	/**
+	 * @return The number of bytes held by the cache of downsampled images, or 0 if it has not been used yet.
+	 */
+	public long getDerivativeCacheSize() {
+		return mDerivativeCacheSize;
+	}
+
+	/**
+	 * @return The number of bytes held by the disk cache.
+	 */
+	public long getDiskCacheSize() {
+		return mDiskCacheSize;
+	}
+
+	public long getDecodeFailureCount() {
+		return mDecodeFailureCount;
+	}
+
+	public long getDownloadCount() {
+		return mDownloadCount;
+	}
+
+	public long getDownloadFailureCount() {
+		return mDownloadFailureCount;
+	}
+
+	/**
+	 * @return The number of distinct images currently being downloaded, or queued for download.
+	 */
+	public int getPendingNetworkOperations() {
+		return mPendingNetworkOperations;
+	}
+
+	/**
+	 * @return The number of distinct images whose dimensions are currently being read, or queued to be read.
+	 */
+	public int getPendingDetailsOperations() {
+		return mPendingDetailsOperations;
+	}
+
+	/**
+	 * @return The number of distinct decodes currently running, or queued to run.
+	 */
+	public int getPendingDecodeOperations() {
+		return mPendingDecodeOperations;
+	}
+
+	/**
+	 * @return The number of requests that were attached to a download, details request or decode that was already pending for the same image, instead of starting their own.
+	 */
+	public long getCoalescedRequestCount() {
+		return mCoalescedRequestCount;
+	}
+
+	/**
+	 * @return The fraction of memory lookups that were hits, or 0 if there have been no lookups.
+	 */
+	public float getMemoryHitRate() {
+		long lookups = mMemoryHitCount + mMemoryMissCount;
+		return lookups == 0 ? 0 : (float) mMemoryHitCount / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [memory hits=" + mMemoryHitCount + ", misses=" + mMemoryMissCount + ", larger variant hits=" + mLargerVariantHitCount + ", evicted bitmap hits=" + mEvictedBitmapHitCount
+				+ ", evictions=" + mMemoryEvictionCount + ", size=" + mMemoryCacheSize + "/" + mMaximumMemoryCacheSize + "; bitmap pool hits=" + mBitmapPoolHitCount + ", misses=" + mBitmapPoolMissCount + ", size="
+				+ mBitmapPoolSize + "; encoded hits=" + mEncodedImageCacheHitCount + ", misses=" + mEncodedImageCacheMissCount + ", size=" + mEncodedImageCacheSize + "; disk hits=" + mDiskHitCount + ", misses="
+				+ mDiskMissCount + ", evictions=" + mDiskEvictionCount + ", size=" + mDiskCacheSize + ", index load time=" + mDiskIndexLoadTime + "ms, orphaned files=" + mOrphanedFileCount + ", dangling entries=" + mDanglingEntryCount + ", decode failures=" + mDecodeFailureCount + "; derivative hits=" + mDerivativeCacheHitCount + ", misses="
+				+ mDerivativeCacheMissCount + ", size=" + mDerivativeCacheSize + "; downloads=" + mDownloadCount + ", download failures="
+				+ mDownloadFailureCount + "; pending network=" + mPendingNetworkOperations + ", details=" + mPendingDetailsOperations + ", decode=" + mPendingDecodeOperations + ", coalesced="
+				+ mCoalescedRequestCount + "]";
+	}
+}
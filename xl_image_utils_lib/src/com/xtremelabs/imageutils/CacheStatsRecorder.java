@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters behind {@link CacheStats} that are not already kept by the caches themselves. Every counter is atomic, so recording an event never takes a lock.
+ */
+class CacheStatsRecorder {
+	final AtomicLong memoryHitCount = new AtomicLong(0);
+	final AtomicLong memoryMissCount = new AtomicLong(0);
+	final AtomicLong largerVariantHitCount = new AtomicLong(0);
+	final AtomicLong memoryEvictionCount = new AtomicLong(0);
+	final AtomicLong diskHitCount = new AtomicLong(0);
+	final AtomicLong diskMissCount = new AtomicLong(0);
+	final AtomicLong decodeFailureCount = new AtomicLong(0);
+	final AtomicLong downloadCount = new AtomicLong(0);
+	final AtomicLong downloadFailureCount = new AtomicLong(0);
+}
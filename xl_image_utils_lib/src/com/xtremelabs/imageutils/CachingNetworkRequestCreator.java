@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.InputStream;
+
+/**
+ * A {@link NetworkRequestCreator} that exposes the caching headers of its responses, and that can make conditional requests. When the {@link NetworkRequestCreator} passed to
+ * {@link ImageLoader#setNetworkRequestCreator(android.content.Context, NetworkRequestCreator)} implements this interface, the disk cache remembers when each image expires. Expired images are still returned from the
+ * disk cache, and are revalidated in the background: a "304 Not Modified" response only renews the image, while any other successful response replaces it.<br>
+ * <br>
+ * The default network implementation implements this interface.
+ */
+public interface CachingNetworkRequestCreator extends NetworkRequestCreator {
+	/**
+	 * <b>IMPORTANT:</b> As with {@link #getInputStream(String, InputStreamListener)}, all implementations of this method must <b><i>always report back to the listener</i></b>.
+	 * 
+	 * @param url
+	 *            The URL from which we are fetching an image.
+	 * @param validators
+	 *            The headers of the cached copy of the image, to be sent as If-None-Match and If-Modified-Since. Null if there is no cached copy.
+	 * @param listener
+	 *            On success, "onInputStreamReady" must be called with the input stream and the caching headers of the response. If the server responded with "304 Not Modified", "onNotModified" must be called
+	 *            instead. On failure, including error statuses, "onFailure" must be called.
+	 */
+	public void getInputStream(String url, HttpCacheHeaders validators, CachingInputStreamListener listener);
+
+	public static interface CachingInputStreamListener {
+		/**
+		 * @param cacheHeaders
+		 *            The caching headers of the response. May be null.
+		 */
+		public void onInputStreamReady(InputStream inputStream, HttpCacheHeaders cacheHeaders);
+
+		/**
+		 * @param cacheHeaders
+		 *            The caching headers of the 304 response, which may extend how long the cached copy can be used for. May be null.
+		 */
+		public void onNotModified(HttpCacheHeaders cacheHeaders);
+
+		public void onFailure(String errorMessage);
+	}
+}
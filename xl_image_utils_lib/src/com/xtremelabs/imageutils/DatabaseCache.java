@@ -16,14 +16,16 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class DatabaseCache {
 	private final Map<String, FileEntry> mUriToFileEntry = new HashMap<String, FileEntry>();
 	private final HashedQueue<String> hashedUriQueue = new HashedQueue<String>();
-	private long totalSizeOnDisk = 0;
+	private volatile long totalSizeOnDisk = 0;
 
 	public synchronized void put(String uri, FileEntry fileEntry) {
 		if (mUriToFileEntry.containsKey(uri)) {
@@ -55,13 +57,19 @@ class DatabaseCache {
 		return hashedUriQueue.peek();
 	}
 
-	public synchronized String removeLRU(long maximumCacheSize) {
-		if (totalSizeOnDisk > maximumCacheSize) {
-			String uri = getLRU();
+	/**
+	 * Removes the least recently used entries until the total size is no larger than the target size.
+	 * 
+	 * @return The URIs of the removed entries, from the least to the most recently used.
+	 */
+	public synchronized List<String> removeLRUs(long targetSize) {
+		List<String> uris = new ArrayList<String>();
+		String uri;
+		while (totalSizeOnDisk > targetSize && (uri = getLRU()) != null) {
 			remove(uri);
-			return uri;
+			uris.add(uri);
 		}
-		return null;
+		return uris;
 	}
 
 	public synchronized void updateTime(String uri, long updateTime) {
@@ -72,11 +80,39 @@ class DatabaseCache {
 		}
 	}
 
-	public synchronized long getTotalSizeOnDisk() {
+	/**
+	 * @return A copy of the updated entry, or null if there is no entry for the URI.
+	 */
+	public synchronized FileEntry setCacheHeaders(String uri, String eTag, String lastModified, long expirationTime) {
+		FileEntry entry = mUriToFileEntry.get(uri);
+		if (entry == null) {
+			return null;
+		}
+		entry.setCacheHeaders(eTag, lastModified, expirationTime);
+		return entry.copy(entry.getLastAccessTime());
+	}
+
+	/**
+	 * @return A copy of the updated entry, or null if there is no entry for the URI.
+	 */
+	public synchronized FileEntry setStorageRoot(String uri, StorageRoot storageRoot) {
+		FileEntry entry = mUriToFileEntry.get(uri);
+		if (entry == null) {
+			return null;
+		}
+		entry.setStorageRoot(storageRoot);
+		return entry.copy(entry.getLastAccessTime());
+	}
+
+	public long getTotalSizeOnDisk() {
 		return totalSizeOnDisk;
 	}
 
-	public Collection<FileEntry> getAllEntries() {
-		return mUriToFileEntry.values();
+	public synchronized Collection<FileEntry> getAllEntries() {
+		return new ArrayList<FileEntry>(mUriToFileEntry.values());
+	}
+
+	public synchronized int size() {
+		return mUriToFileEntry.size();
 	}
 }
@@ -22,8 +22,10 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
@@ -31,9 +33,30 @@ import org.apache.http.impl.client.DefaultHttpClient;
 
 import android.util.Log;
 
-class DefaultNetworkRequestCreator implements NetworkRequestCreator {
+class DefaultNetworkRequestCreator implements CachingNetworkRequestCreator {
 	@Override
-	public void getInputStream(String url, InputStreamListener listener) {
+	public void getInputStream(String url, final InputStreamListener listener) {
+		getInputStream(url, null, new CachingInputStreamListener() {
+			@Override
+			public void onInputStreamReady(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
+				listener.onInputStreamReady(inputStream);
+			}
+
+			@Override
+			public void onNotModified(HttpCacheHeaders cacheHeaders) {
+				// Not possible, as no validators were sent.
+				listener.onFailure("Unexpected 304 response for an unconditional request.");
+			}
+
+			@Override
+			public void onFailure(String errorMessage) {
+				listener.onFailure(errorMessage);
+			}
+		});
+	}
+
+	@Override
+	public void getInputStream(String url, HttpCacheHeaders validators, CachingInputStreamListener listener) {
 		HttpEntity entity = null;
 		InputStream inputStream = null;
 
@@ -52,18 +75,32 @@ class DefaultNetworkRequestCreator implements NetworkRequestCreator {
 				return;
 			}
 		}
+
+		if (validators != null) {
+			if (validators.getETag() != null) {
+				request.setHeader("If-None-Match", validators.getETag());
+			}
+			if (validators.getLastModified() != null) {
+				request.setHeader("If-Modified-Since", validators.getLastModified());
+			}
+		}
+
 		HttpResponse response;
 		try {
 			response = client.execute(request);
 
 			entity = response.getEntity();
-			if (entity == null) {
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+				listener.onNotModified(getCacheHeaders(response));
+			} else if (statusCode >= 400) {
+				listener.onFailure("The server responded with status " + statusCode + ". URL: " + url);
+			} else if (entity == null) {
 				listener.onFailure("Was unable to retrieve an HttpEntity for the image!");
-				return;
+			} else {
+				inputStream = new BufferedInputStream(entity.getContent());
+				listener.onInputStreamReady(inputStream, getCacheHeaders(response));
 			}
-
-			inputStream = new BufferedInputStream(entity.getContent());
-			listener.onInputStreamReady(inputStream);
 		} catch (IOException e) {
 			listener.onFailure("IOException caught when attempting to download an image! Stack trace below. URL: " + url + ", Message: " + e.getMessage());
 			e.printStackTrace();
@@ -78,4 +115,13 @@ class DefaultNetworkRequestCreator implements NetworkRequestCreator {
 
 		client.getConnectionManager().closeExpiredConnections();
 	}
+
+	private static HttpCacheHeaders getCacheHeaders(HttpResponse response) {
+		return new HttpCacheHeaders(getHeaderValue(response, "ETag"), getHeaderValue(response, "Last-Modified"), getHeaderValue(response, "Cache-Control"));
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * An LRU cache on disk of images that have already been decoded and downsampled. The downsampled bitmap is re-encoded and written to its own file, so a later decode for the same {@link DecodeSignature} reads a small
+ * file instead of decoding the full original again.
+ * 
+ * Entries are keyed by the decode signature and by the length and modification time of the original file, so a derivative is never used once its original has changed. The LRU order is kept in memory. When the
+ * process starts, it is rebuilt from the modification times of the files the first time the cache is used.
+ */
+class DerivativeDiskCache {
+	private static final int JPEG_QUALITY = 85;
+
+	private final DiskManager mDiskManager;
+	private long mMaximumSizeInBytes = 0; // Disabled by default.
+	private volatile long mSize = 0;
+	private boolean mIsLoaded = false;
+
+	/*
+	 * Maps file names to file sizes, from the least to the most recently used.
+	 */
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	private volatile long mHitCount = 0;
+	private volatile long mMissCount = 0;
+
+	public DerivativeDiskCache(Context appContext) {
+		this(new DiskManager("derivatives", appContext));
+	}
+
+	DerivativeDiskCache(DiskManager diskManager) {
+		mDiskManager = diskManager;
+	}
+
+	/**
+	 * @param originalLength
+	 *            The length of the original image, in bytes.
+	 * @param originalLastModified
+	 *            The modification time of the original file, or 0 if the original is not stored in a file of its own.
+	 */
+	public static String getKey(DecodeSignature decodeSignature, long originalLength, long originalLastModified) {
+		return decodeSignature.uri + '\n' + decodeSignature.sampleSize + '\n' + decodeSignature.bitmapConfig + '\n' + originalLength + '\n' + originalLastModified;
+	}
+
+	/**
+	 * @return The file holding the derivative, or null if there is none.
+	 */
+	public synchronized File get(String key) {
+		loadIfNeeded();
+		String fileName = DiskManager.getShardedFileName(key);
+		if (mEntries.get(fileName) == null) {
+			mMissCount++;
+			return null;
+		}
+
+		mHitCount++;
+		return mDiskManager.getFile(fileName);
+	}
+
+	/**
+	 * Re-encodes the bitmap and writes it to disk. Opaque bitmaps are stored as JPEGs, and bitmaps with transparency as PNGs. Must be called before the bitmap can be handed to anything that may recycle or reuse it.
+	 */
+	public void put(String key, Bitmap bitmap) {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		boolean compressed;
+		if (bitmap.hasAlpha()) {
+			compressed = bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+		} else {
+			compressed = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+		}
+		if (!compressed) {
+			return;
+		}
+
+		String fileName = DiskManager.getShardedFileName(key);
+		long size;
+		try {
+			size = mDiskManager.loadStreamToFile(new ByteArrayInputStream(outputStream.toByteArray()), fileName);
+		} catch (IOException e) {
+			return;
+		}
+
+		synchronized (this) {
+			loadIfNeeded();
+			Long previousSize = mEntries.put(fileName, size);
+			if (previousSize != null) {
+				mSize -= previousSize;
+			}
+			mSize += size;
+			performEvictions();
+		}
+	}
+
+	public synchronized void remove(String key) {
+		String fileName = DiskManager.getShardedFileName(key);
+		Long size = mEntries.remove(fileName);
+		if (size != null) {
+			mSize -= size;
+		}
+		mDiskManager.deleteFile(fileName);
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+		mSize = 0;
+		mDiskManager.clearDirectory();
+	}
+
+	/**
+	 * Setting the size to 0 disables the cache and deletes all derivatives.
+	 */
+	public synchronized void setMaximumSize(long maxSizeInBytes) {
+		mMaximumSizeInBytes = maxSizeInBytes;
+		if (maxSizeInBytes <= 0) {
+			clear();
+		} else if (mIsLoaded) {
+			performEvictions();
+		}
+	}
+
+	public synchronized long getMaximumSize() {
+		return mMaximumSizeInBytes;
+	}
+
+	public synchronized boolean isEnabled() {
+		return mMaximumSizeInBytes > 0;
+	}
+
+	public long getSize() {
+		return mSize;
+	}
+
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	private void loadIfNeeded() {
+		if (mIsLoaded) {
+			return;
+		}
+		mIsLoaded = true;
+
+		List<File> files = new ArrayList<File>();
+		mDiskManager.collectFiles(files);
+		List<FileEntry> entries = new ArrayList<FileEntry>(files.size());
+		for (File file : files) {
+			entries.add(new FileEntry(mDiskManager.getFileName(file), file.length(), 0, 0, file.lastModified()));
+		}
+		Collections.sort(entries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
+
+		for (FileEntry entry : entries) {
+			mEntries.put(entry.getUri(), entry.getSize());
+			mSize += entry.getSize();
+		}
+		performEvictions();
+	}
+
+	private void performEvictions() {
+		Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+		while (mSize > mMaximumSizeInBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			mSize -= entry.getValue();
+			iterator.remove();
+			mDiskManager.deleteFile(entry.getKey());
+		}
+	}
+}
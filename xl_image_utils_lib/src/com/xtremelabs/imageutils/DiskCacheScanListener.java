@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * Notified whenever a background scan has reconciled the disk cache with its index. See {@link ImageLoader#setDiskCacheScanListener(android.content.Context, DiskCacheScanListener)}.
+ */
+public interface DiskCacheScanListener {
+	/**
+	 * Called on a background thread.
+	 * 
+	 * @param orphanedFileCount
+	 *            The number of files that were deleted because the index did not know about them.
+	 * @param danglingEntryCount
+	 *            The number of index entries that were dropped because their images were missing from the disk.
+	 */
+	public void onDiskCacheScanned(int orphanedFileCount, int danglingEntryCount);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciles the files in the disk cache with its index. Files can be left behind when a delete fails, and the index can list images whose files have been deleted by something outside of the cache, such as the
+ * system clearing the external cache directory. The first waste space that the size limit does not account for, and the second fail every decode and then fall back to the network.<br>
+ * <br>
+ * A scan first checks the entries of the index, dropping those whose images are missing, and then walks the cache directory one shard at a time, deleting files that the index does not know about. Each step handles
+ * a small chunk and then reschedules itself, so that a scan of a large cache never holds the disk for long.
+ */
+class DiskConsistencyScanner {
+	static final int CHUNK_SIZE = 50;
+	private static final long DEFAULT_CHUNK_DELAY_MS = 250;
+
+	/*
+	 * A file is written before its entry is added to the index. Recent files are left alone so that a download that is still being saved is not mistaken for an orphan.
+	 */
+	static final long ORPHAN_MINIMUM_AGE_MS = 60 * 1000;
+
+	private final DiskManager mDiskManager;
+	private final PackedBlobStore mPackedBlobStore;
+	private final Set<String> mExcludedDirectories = new HashSet<String>();
+	private final ScheduledExecutorService mExecutor;
+	private final ScanObserver mScanObserver;
+	private final long mChunkDelayMs;
+
+	public DiskConsistencyScanner(DiskManager diskManager, PackedBlobStore packedBlobStore, ScheduledExecutorService executor, ScanObserver scanObserver, String... excludedDirectories) {
+		this(diskManager, packedBlobStore, executor, scanObserver, DEFAULT_CHUNK_DELAY_MS, excludedDirectories);
+	}
+
+	DiskConsistencyScanner(DiskManager diskManager, PackedBlobStore packedBlobStore, ScheduledExecutorService executor, ScanObserver scanObserver, long chunkDelayMs, String... excludedDirectories) {
+		mDiskManager = diskManager;
+		mPackedBlobStore = packedBlobStore;
+		mExecutor = executor;
+		mScanObserver = scanObserver;
+		mChunkDelayMs = chunkDelayMs;
+		for (String directory : excludedDirectories) {
+			mExcludedDirectories.add(directory);
+		}
+	}
+
+	/**
+	 * Starts a scan of the given index after the given delay. The scan works from a copy of the entries, so images that are added while it runs are left alone.
+	 */
+	public void scan(DiskIndex diskIndex, long delayMs) {
+		mExecutor.schedule(new Scan(diskIndex), delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private class Scan implements Runnable {
+		private final DiskIndex mDiskIndex;
+		private final long mStartTime = System.currentTimeMillis();
+		private final Set<String> mIndexedFileNames = new HashSet<String>();
+		private List<FileEntry> mEntries;
+		private int mEntryPosition = 0;
+		private File[] mDirectoryChildren;
+		private int mChildPosition = 0;
+		private int mOrphanedFileCount = 0;
+		private int mDanglingEntryCount = 0;
+
+		Scan(DiskIndex diskIndex) {
+			mDiskIndex = diskIndex;
+		}
+
+		@Override
+		public void run() {
+			boolean isComplete;
+			try {
+				isComplete = scanNextChunk();
+			} catch (RuntimeException e) {
+				// The cache directory may have become unavailable. The rest of the scan is abandoned.
+				e.printStackTrace();
+				isComplete = true;
+			}
+
+			if (isComplete) {
+				mScanObserver.onScanComplete(mOrphanedFileCount, mDanglingEntryCount);
+			} else {
+				mExecutor.schedule(this, mChunkDelayMs, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * @return True once the scan is complete.
+		 */
+		private boolean scanNextChunk() {
+			if (mEntries == null) {
+				Collection<FileEntry> entries = mDiskIndex.getAllEntries();
+				mEntries = new ArrayList<FileEntry>(entries);
+			}
+
+			if (mEntryPosition < mEntries.size()) {
+				int end = Math.min(mEntryPosition + CHUNK_SIZE, mEntries.size());
+				for (; mEntryPosition < end; mEntryPosition++) {
+					checkEntry(mEntries.get(mEntryPosition));
+				}
+				return false;
+			}
+
+			if (mDirectoryChildren == null) {
+				File[] children = mDiskManager.listFiles();
+				mDirectoryChildren = children != null ? children : new File[0];
+			}
+
+			// Each top-level directory of the sharded layout holds a small fraction of the files, so one is scanned per chunk. Loose files are checked in chunks of their own.
+			List<File> files = new ArrayList<File>();
+			while (mChildPosition < mDirectoryChildren.length && files.size() < CHUNK_SIZE) {
+				File child = mDirectoryChildren[mChildPosition++];
+				if (child.isDirectory()) {
+					if (!mExcludedDirectories.contains(child.getName())) {
+						DiskManager.collectFiles(child, files);
+						break;
+					}
+				} else {
+					files.add(child);
+				}
+			}
+
+			for (File file : files) {
+				checkFile(file);
+			}
+			return mChildPosition >= mDirectoryChildren.length;
+		}
+
+		private void checkEntry(FileEntry entry) {
+			String uri = entry.getUri();
+			String shardedFileName = DiskManager.getShardedFileName(uri);
+			String unshardedFileName = DiskManager.getUnshardedFileName(uri);
+			mIndexedFileNames.add(shardedFileName);
+			mIndexedFileNames.add(unshardedFileName);
+
+			// The files of images on a volume that is not mounted cannot be checked, and must not be forgotten.
+			StorageRoot storageRoot = entry.getStorageRoot();
+			if (storageRoot != null && !mDiskManager.isAvailable(storageRoot)) {
+				return;
+			}
+
+			File file = mDiskManager.getFile(shardedFileName, storageRoot);
+			if (!mPackedBlobStore.contains(uri) && (file == null || !file.exists()) && !mDiskManager.isOnDisk(unshardedFileName)) {
+				mDiskIndex.deleteEntry(uri);
+				mDanglingEntryCount++;
+			}
+		}
+
+		private void checkFile(File file) {
+			if (mIndexedFileNames.contains(mDiskManager.getFileName(file))) {
+				return;
+			}
+
+			if (mStartTime - file.lastModified() >= ORPHAN_MINIMUM_AGE_MS && file.delete()) {
+				mOrphanedFileCount++;
+			}
+		}
+	}
+
+	interface ScanObserver {
+		/**
+		 * Called on the scanning thread once a scan has finished.
+		 */
+		void onScanComplete(int orphanedFileCount, int danglingEntryCount);
+	}
+}
@@ -19,66 +19,181 @@ package com.xtremelabs.imageutils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
-class DiskDatabaseHelper extends SQLiteOpenHelper {
+/**
+ * A disk cache index that is persisted to a SQLite database.
+ * 
+ * Writes to the database are queued in memory, and are written out in a single transaction once a second or once {@link #MAXIMUM_PENDING_WRITES} have been queued, whichever comes first. Writes to the same
+ * image are coalesced, so bumping an image several times between flushes results in a single UPDATE.
+ * 
+ * Schema changes are applied one version at a time by {@link #migrate(SQLiteDatabase, int)}, so that upgrading the library keeps the images that are already cached. An index that cannot be migrated is rebuilt from
+ * the images on disk.
+ */
+class DiskDatabaseHelper extends SQLiteOpenHelper implements DiskIndex {
 	// TODO: Map columns to indices (Bug Josh).
-	private final String[] columns = { "url", "sizeondisk", "width", "height", "lastaccess" };
+	private final String[] columns = { "url", "sizeondisk", "width", "height", "lastaccess", "etag", "lastmodified", "expires", "storageroot" };
 
-	private final static int DATABASE_VERSION = 2;
+	private final static int DATABASE_VERSION = 4;
+	/*
+	 * Databases older than this are rebuilt rather than migrated, as their schema is not known.
+	 */
+	private final static int OLDEST_MIGRATABLE_VERSION = 2;
 	private final String DICTIONARY_TABLE_NAME = "img_cache";
 	private final String DICTIONARY_TABLE_CREATE = "CREATE TABLE IF NOT EXISTS " + DICTIONARY_TABLE_NAME + " (" + columns[0] + " VARCHAR PRIMARY KEY, " + columns[1] + " INTEGER, " + columns[2] + " INTEGER, " + columns[3] + " INTEGER, "
-			+ columns[4] + " INTEGER);";
+			+ columns[4] + " INTEGER, " + columns[5] + " VARCHAR, " + columns[6] + " VARCHAR, " + columns[7] + " INTEGER DEFAULT 0, " + columns[8] + " INTEGER DEFAULT 0);";
 	private final static String DATABASE_NAME = "imageCacheDatabase";
+	private final static long FLUSH_DELAY_MS = 1000;
+	private final static int MAXIMUM_PENDING_WRITES = 64;
 	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
-	private DiskDatabaseHelperObserver mObserver;
+	private final Context mContext;
+	private final String mDatabaseName;
+	private DiskIndexObserver mObserver;
+
+	/*
+	 * Set once the index has been migrated away from. Requests that were already in flight must not recreate the database.
+	 */
+	private volatile boolean mDeleted = false;
+
+	/*
+	 * Keyed by URI. Guarded by its own monitor.
+	 */
+	private final Map<String, PendingWrite> mPendingWrites = new LinkedHashMap<String, PendingWrite>();
+	private boolean mFlushScheduled = false;
+	private final Object mFlushLock = new Object();
 
 	private DatabaseCache mDatabaseCache = new DatabaseCache();
 
-	public DiskDatabaseHelper(Context context, DiskDatabaseHelperObserver observer) {
-		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	public DiskDatabaseHelper(Context context, DiskIndexObserver observer) {
+		this(context, null, observer);
+	}
+
+	/**
+	 * @param partitionName
+	 *            The disk cache partition that the index belongs to, or null for the default partition. Each partition is kept in a database of its own.
+	 */
+	public DiskDatabaseHelper(Context context, String partitionName, DiskIndexObserver observer) {
+		super(context, getDatabaseName(partitionName), null, DATABASE_VERSION);
+		mContext = context;
+		mDatabaseName = getDatabaseName(partitionName);
 		mObserver = observer;
 
 		List<FileEntry> entries = getAllEntriesFromDatabase();
-		Comparator<FileEntry> comparator = new Comparator<FileEntry>() {
-			@Override
-			public int compare(FileEntry lhs, FileEntry rhs) {
-				long difference = lhs.getLastAccessTime() - rhs.getLastAccessTime();
-				if (difference < 0) {
-					return -1;
-				} else if (difference > 0) {
-					return 1;
-				} else {
-					return 0;
-				}
-			}
-		};
-		Collections.sort(entries, comparator);
+		Collections.sort(entries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
 		for (FileEntry entry : entries) {
 			mDatabaseCache.put(entry.getUri(), entry);
 		}
 	}
 
+	private static String getDatabaseName(String partitionName) {
+		return partitionName == null ? DATABASE_NAME : DATABASE_NAME + "-" + partitionName;
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(DICTIONARY_TABLE_CREATE);
 	}
 
+	/**
+	 * A migration that fails part of the way through leaves a table that matches neither version, so it is dropped by the rebuild that follows.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion >= OLDEST_MIGRATABLE_VERSION) {
+			try {
+				for (int version = oldVersion; version < newVersion; version++) {
+					migrate(db, version);
+				}
+				return;
+			} catch (SQLException e) {
+				Log.w(ImageLoader.TAG, "Unable to migrate the disk cache index from version " + oldVersion + ". It will be rebuilt from the images on disk. Message: " + e.getMessage());
+			}
+		}
+
+		rebuildTable(db);
+	}
+
+	/**
+	 * The columns of a newer version are not known, so a downgrade always rebuilds the index. Only called on API level 11 and above. Older versions of Android fail to open the database instead.
+	 */
+	@Override
+	public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		rebuildTable(db);
+	}
+
+	/**
+	 * Upgrades the schema from the given version to the next one. Every increase of {@link #DATABASE_VERSION} needs a case here.
+	 * 
+	 * @throws SQLException
+	 *             If there is no migration from the given version, or if it failed.
+	 */
+	void migrate(SQLiteDatabase db, int fromVersion) {
+		switch (fromVersion) {
+		case 2:
+			// Version 3 added the HTTP caching headers. Existing images never expire.
+			db.execSQL("ALTER TABLE " + DICTIONARY_TABLE_NAME + " ADD COLUMN " + columns[5] + " VARCHAR");
+			db.execSQL("ALTER TABLE " + DICTIONARY_TABLE_NAME + " ADD COLUMN " + columns[6] + " VARCHAR");
+			db.execSQL("ALTER TABLE " + DICTIONARY_TABLE_NAME + " ADD COLUMN " + columns[7] + " INTEGER DEFAULT 0");
+			break;
+		case 3:
+			// Version 4 added the storage volume. Existing images are looked up on the current volume, as before.
+			db.execSQL("ALTER TABLE " + DICTIONARY_TABLE_NAME + " ADD COLUMN " + columns[8] + " INTEGER DEFAULT 0");
+			break;
+		default:
+			throw new SQLException("There is no migration from version " + fromVersion + " of the disk cache index.");
+		}
+	}
+
+	/**
+	 * Replaces the table with one rebuilt from the images on disk. Whatever URIs can still be read from the old table are used to find the images.
+	 */
+	void rebuildTable(SQLiteDatabase db) {
+		List<String> uris = readUris(db);
 		resetTable(db);
-		mObserver.onDatabaseWiped();
+
+		Collection<FileEntry> entries = mObserver.onIndexRebuildRequired(uris);
+		for (FileEntry entry : entries) {
+			insertEntry(db, entry);
+		}
+	}
+
+	/**
+	 * Only the URI column is read, as it is the only column that every version has had.
+	 */
+	private List<String> readUris(SQLiteDatabase db) {
+		List<String> uris = new ArrayList<String>();
+		Cursor cursor = null;
+		try {
+			cursor = db.query(DICTIONARY_TABLE_NAME, null, null, null, null, null, null);
+			int uriColumn = cursor.getColumnIndex(columns[0]);
+			while (uriColumn >= 0 && cursor.moveToNext()) {
+				uris.add(cursor.getString(uriColumn));
+			}
+		} catch (SQLException e) {
+			Log.w(ImageLoader.TAG, "Unable to read the URIs of the old disk cache index.");
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return uris;
 	}
 
 	public FileEntry getFileEntryFromDatabase(String uri) {
+		writePendingWrites();
 		Cursor cursor = getReadableDatabase().query(DICTIONARY_TABLE_NAME, columns, columns[0] + " = ?", new String[] { uri }, null, null, null);
 		if (cursor.getCount() == 0) {
 			return null;
@@ -90,12 +205,13 @@ class DiskDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	@Override
 	public FileEntry getFileEntryFromCache(String uri) {
 		return mDatabaseCache.getFileEntry(uri);
 	}
 
 	private List<FileEntry> getAllEntriesFromDatabase() {
-		Cursor cursor = getReadableDatabase().query(DICTIONARY_TABLE_NAME, null, null, null, null, null, null);
+		Cursor cursor = getReadableDatabase().query(DICTIONARY_TABLE_NAME, columns, null, null, null, null, null);
 		List<FileEntry> list = new ArrayList<FileEntry>();
 		while (cursor.moveToNext()) {
 			list.add(createFileEntry(cursor));
@@ -104,86 +220,292 @@ class DiskDatabaseHelper extends SQLiteOpenHelper {
 		return list;
 	}
 
+	@Override
 	public void addOrUpdateFile(String url, long size, int width, int height) {
 		if (GeneralUtils.isStringBlank(url)) {
 			throw new IllegalArgumentException("Cannot add a null URL to the database.");
 		}
 
 		long updateTime = System.currentTimeMillis();
-
-		ContentValues values = new ContentValues();
-		values.put(columns[0], url);
-		values.put(columns[1], size);
-		values.put(columns[2], width);
-		values.put(columns[3], height);
-		values.put(columns[4], updateTime);
-
 		mDatabaseCache.put(url, new FileEntry(url, size, width, height, updateTime));
-		getWritableDatabase().insertWithOnConflict(DICTIONARY_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		queueWrite(url, WriteType.INSERT, new FileEntry(url, size, width, height, updateTime));
 	}
 
-	private boolean removeFileFromDatabase(String uri) {
-		String[] args = { uri };
-		return 1 == getWritableDatabase().delete(DICTIONARY_TABLE_NAME, columns[0] + " = ?", args);
+	private void removeFileFromDatabase(String uri) {
+		queueWrite(uri, WriteType.DELETE, null);
 	}
 
-	/*
-	 * TODO: Have the LRU information cached in memory. The database updates can take time.
-	 */
-	public void updateFile(final String uri) {
+	@Override
+	public void updateFile(String uri) {
 		if (GeneralUtils.isStringBlank(uri)) {
 			throw new IllegalArgumentException("Cannot add a null URL to the database.");
 		}
-		executor.execute(new Runnable() {
-			@Override
-			public void run() {
-				ContentValues values = new ContentValues(1);
-				long updateTime = System.currentTimeMillis();
-				values.put(columns[4], System.currentTimeMillis());
-				mDatabaseCache.updateTime(uri, updateTime);
-				getWritableDatabase().update(DICTIONARY_TABLE_NAME, values, columns[0] + " = ?", new String[] { uri });
+
+		FileEntry entry = mDatabaseCache.getFileEntry(uri);
+		if (entry == null) {
+			return;
+		}
+
+		long updateTime = System.currentTimeMillis();
+		mDatabaseCache.updateTime(uri, updateTime);
+		// The copy keeps the caching headers, in case the update is coalesced into a pending INSERT.
+		queueWrite(uri, WriteType.UPDATE_ACCESS_TIME, entry.copy(updateTime));
+	}
+
+	@Override
+	public void setCacheHeaders(String uri, String eTag, String lastModified, long expirationTime) {
+		FileEntry entry = mDatabaseCache.setCacheHeaders(uri, eTag, lastModified, expirationTime);
+		if (entry != null) {
+			queueWrite(uri, WriteType.INSERT, entry);
+		}
+	}
+
+	@Override
+	public void setStorageRoot(String uri, StorageRoot storageRoot) {
+		FileEntry entry = mDatabaseCache.setStorageRoot(uri, storageRoot);
+		if (entry != null) {
+			queueWrite(uri, WriteType.INSERT, entry);
+		}
+	}
+
+	/**
+	 * Writes the queued changes out in the background right away, rather than waiting for the next scheduled flush.
+	 */
+	@Override
+	public void flush() {
+		executor.execute(mFlushRunnable);
+	}
+
+	private void queueWrite(String uri, WriteType writeType, FileEntry entry) {
+		if (mDeleted) {
+			return;
+		}
+
+		boolean flushNow;
+		synchronized (mPendingWrites) {
+			PendingWrite previousWrite = mPendingWrites.get(uri);
+			if (previousWrite != null && writeType == WriteType.UPDATE_ACCESS_TIME) {
+				if (previousWrite.writeType == WriteType.DELETE) {
+					return;
+				} else if (previousWrite.writeType == WriteType.INSERT) {
+					// The row has not been inserted yet. Insert it with the new access time instead.
+					writeType = WriteType.INSERT;
+				}
+			}
+			mPendingWrites.put(uri, new PendingWrite(uri, writeType, entry));
+
+			flushNow = mPendingWrites.size() >= MAXIMUM_PENDING_WRITES;
+			if (!flushNow && !mFlushScheduled) {
+				mFlushScheduled = true;
+				executor.schedule(mFlushRunnable, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		if (flushNow) {
+			flush();
+		}
+	}
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			writePendingWrites();
+		}
+	};
+
+	/**
+	 * Writes all queued changes to the database in a single transaction. Flushes are serialized, so that a later change to an image is never overwritten by an earlier one.
+	 */
+	void writePendingWrites() {
+		synchronized (mFlushLock) {
+			List<PendingWrite> pendingWrites;
+			synchronized (mPendingWrites) {
+				mFlushScheduled = false;
+				if (mPendingWrites.isEmpty()) {
+					return;
+				}
+				pendingWrites = new ArrayList<PendingWrite>(mPendingWrites.values());
+				mPendingWrites.clear();
+			}
+
+			if (mDeleted) {
+				return;
+			}
+
+			SQLiteDatabase db = getWritableDatabase();
+			SQLiteStatement insertStatement = db.compileStatement("INSERT OR REPLACE INTO " + DICTIONARY_TABLE_NAME + " (" + columns[0] + ", " + columns[1] + ", " + columns[2] + ", " + columns[3] + ", " + columns[4]
+					+ ", " + columns[5] + ", " + columns[6] + ", " + columns[7] + ", " + columns[8] + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			SQLiteStatement updateStatement = db.compileStatement("UPDATE " + DICTIONARY_TABLE_NAME + " SET " + columns[4] + " = ? WHERE " + columns[0] + " = ?");
+			SQLiteStatement deleteStatement = db.compileStatement("DELETE FROM " + DICTIONARY_TABLE_NAME + " WHERE " + columns[0] + " = ?");
+
+			db.beginTransaction();
+			try {
+				for (PendingWrite pendingWrite : pendingWrites) {
+					switch (pendingWrite.writeType) {
+					case INSERT:
+						Dimensions dimensions = pendingWrite.entry.getDimensions();
+						insertStatement.bindString(1, pendingWrite.uri);
+						insertStatement.bindLong(2, pendingWrite.entry.getSize());
+						insertStatement.bindLong(3, dimensions.width);
+						insertStatement.bindLong(4, dimensions.height);
+						insertStatement.bindLong(5, pendingWrite.entry.getLastAccessTime());
+						bindStringOrNull(insertStatement, 6, pendingWrite.entry.getETag());
+						bindStringOrNull(insertStatement, 7, pendingWrite.entry.getLastModified());
+						insertStatement.bindLong(8, pendingWrite.entry.getExpirationTime());
+						insertStatement.bindLong(9, StorageRoot.toCode(pendingWrite.entry.getStorageRoot()));
+						insertStatement.execute();
+						break;
+					case UPDATE_ACCESS_TIME:
+						updateStatement.bindLong(1, pendingWrite.entry.getLastAccessTime());
+						updateStatement.bindString(2, pendingWrite.uri);
+						updateStatement.execute();
+						break;
+					case DELETE:
+						deleteStatement.bindString(1, pendingWrite.uri);
+						deleteStatement.execute();
+						break;
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+				insertStatement.close();
+				updateStatement.close();
+				deleteStatement.close();
 			}
-		});
+		}
+	}
+
+	private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+		if (value != null) {
+			statement.bindString(index, value);
+		} else {
+			statement.bindNull(index);
+		}
+	}
+
+	@Override
+	public void replaceAllEntries(Collection<FileEntry> entries) {
+		List<FileEntry> sortedEntries = new ArrayList<FileEntry>(entries);
+		Collections.sort(sortedEntries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
+
+		synchronized (mFlushLock) {
+			SQLiteDatabase db = getWritableDatabase();
+			db.beginTransaction();
+			try {
+				resetTable(db);
+				for (FileEntry entry : sortedEntries) {
+					insertEntry(db, entry);
+					mDatabaseCache.put(entry.getUri(), entry);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	private void insertEntry(SQLiteDatabase db, FileEntry entry) {
+		Dimensions dimensions = entry.getDimensions();
+		ContentValues values = new ContentValues();
+		values.put(columns[0], entry.getUri());
+		values.put(columns[1], entry.getSize());
+		values.put(columns[2], dimensions.width);
+		values.put(columns[3], dimensions.height);
+		values.put(columns[4], entry.getLastAccessTime());
+		values.put(columns[5], entry.getETag());
+		values.put(columns[6], entry.getLastModified());
+		values.put(columns[7], entry.getExpirationTime());
+		values.put(columns[8], StorageRoot.toCode(entry.getStorageRoot()));
+		db.insertWithOnConflict(DICTIONARY_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	@Override
+	public void deleteIndex() {
+		mDeleted = true;
+		synchronized (mFlushLock) {
+			synchronized (mPendingWrites) {
+				mPendingWrites.clear();
+			}
+			close();
+			mContext.deleteDatabase(mDatabaseName);
+		}
 	}
 
 	void resetTable(SQLiteDatabase db) {
-		db.execSQL("DROP TABLE " + DICTIONARY_TABLE_NAME);
+		db.execSQL("DROP TABLE IF EXISTS " + DICTIONARY_TABLE_NAME);
 		db.execSQL(DICTIONARY_TABLE_CREATE);
 		mDatabaseCache = new DatabaseCache();
+		synchronized (mPendingWrites) {
+			mPendingWrites.clear();
+		}
 	}
 
 	private static FileEntry createFileEntry(Cursor cursor) {
 		FileEntry fileEntry = new FileEntry(cursor.getString(0), cursor.getLong(1), cursor.getInt(2), cursor.getInt(3), cursor.getLong(4));
+		fileEntry.setCacheHeaders(cursor.isNull(5) ? null : cursor.getString(5), cursor.isNull(6) ? null : cursor.getString(6), cursor.getLong(7));
+		fileEntry.setStorageRoot(StorageRoot.fromCode(cursor.getInt(8)));
 		return fileEntry;
 	}
 
-	public static interface DiskDatabaseHelperObserver {
-		public void onDatabaseWiped();
+	public static interface DiskDatabaseHelperObserver extends DiskIndexObserver {
+	}
 
-		public void onImageEvicted(String uri);
+	private static enum WriteType {
+		INSERT, UPDATE_ACCESS_TIME, DELETE
 	}
 
+	private static class PendingWrite {
+		final String uri;
+		final WriteType writeType;
+		final FileEntry entry;
+
+		PendingWrite(String uri, WriteType writeType, FileEntry entry) {
+			this.uri = uri;
+			this.writeType = writeType;
+			this.entry = entry;
+		}
+	}
+
+	@Override
 	public boolean isCached(String uri) {
 		return mDatabaseCache.isCached(uri);
 	}
 
-	public void removeLeastUsedFileFromCache(long maximumCacheSize) {
-		String uri;
-		while ((uri = mDatabaseCache.removeLRU(maximumCacheSize)) != null) {
-			removeFileFromDatabase(uri);
+	@Override
+	public void removeLeastUsedFileFromCache(long targetSize) {
+		List<String> uris = mDatabaseCache.removeLRUs(targetSize);
+		if (uris.isEmpty()) {
+			return;
+		}
+
+		if (!mDeleted) {
+			synchronized (mPendingWrites) {
+				for (String uri : uris) {
+					mPendingWrites.put(uri, new PendingWrite(uri, WriteType.DELETE, null));
+				}
+			}
+			// Any other queued changes are written in the same transaction.
+			writePendingWrites();
+		}
+
+		for (String uri : uris) {
 			mObserver.onImageEvicted(uri);
 		}
 	}
 
+	@Override
 	public void deleteEntry(String uri) {
 		mDatabaseCache.remove(uri);
 		removeFileFromDatabase(uri);
 	}
 
+	@Override
 	public long getTotalSizeOnDisk() {
 		return mDatabaseCache.getTotalSizeOnDisk();
 	}
 
+	@Override
 	public Collection<FileEntry> getAllEntries() {
 		return mDatabaseCache.getAllEntries();
 	}
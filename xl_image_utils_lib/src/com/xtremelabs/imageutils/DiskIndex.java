@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Collection;
+
+/**
+ * Keeps track of the images in the disk cache: their sizes, dimensions, last access times, HTTP caching headers and the volumes they are stored on. The entries are held in memory by a {@link DatabaseCache}, and persisted by the implementation so that they survive a
+ * restart.
+ */
+interface DiskIndex {
+	boolean isCached(String uri);
+
+	FileEntry getFileEntryFromCache(String uri);
+
+	void addOrUpdateFile(String url, long size, int width, int height);
+
+	/**
+	 * Marks the image as having just been accessed.
+	 */
+	void updateFile(String uri);
+
+	/**
+	 * Records the validators of the image and when it expires. Does nothing if the image is not in the index.
+	 * 
+	 * @param expirationTime
+	 *            The time at which the image has to be revalidated, or 0 if it never expires.
+	 */
+	void setCacheHeaders(String uri, String eTag, String lastModified, long expirationTime);
+
+	/**
+	 * Records the volume that the image is stored on. Does nothing if the image is not in the index.
+	 */
+	void setStorageRoot(String uri, StorageRoot storageRoot);
+
+	void deleteEntry(String uri);
+
+	/**
+	 * Removes the least recently used entries until the total size is no larger than the target size. The removals are persisted as a single batch, after which each removed entry is reported to
+	 * {@link DiskIndexObserver#onImageEvicted(String)}. May do disk I/O on the calling thread.
+	 */
+	void removeLeastUsedFileFromCache(long targetSize);
+
+	long getTotalSizeOnDisk();
+
+	/**
+	 * @return A copy of the entries, in no particular order.
+	 */
+	Collection<FileEntry> getAllEntries();
+
+	/**
+	 * Starts writing any changes that are waiting to be persisted, without waiting for them to be written. Called when the app may be about to be killed.
+	 */
+	void flush();
+
+	/**
+	 * Discards the current entries and replaces them with the given ones, keeping their last access times. Used to migrate from one index to another.
+	 */
+	void replaceAllEntries(Collection<FileEntry> entries);
+
+	/**
+	 * Deletes the persisted index. The index must not be used afterwards.
+	 */
+	void deleteIndex();
+
+	static interface DiskIndexObserver {
+		/**
+		 * Called while the index is being created if the persisted index could neither be read nor migrated. The index is rebuilt from the returned entries rather than discarding the images on disk.
+		 * 
+		 * @param knownUris
+		 *            The URIs that could still be read from the persisted index. Their other columns may not have been readable.
+		 * @return The entries of the images that are still on disk.
+		 */
+		public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris);
+
+		public void onImageEvicted(String uri);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rebuilds the entries of a disk cache index from the images on disk, for when the persisted index can no longer be read or migrated. Sizes come from the file lengths, dimensions from the image headers, and access
+ * times from the modification times of the files.
+ * 
+ * Image files are named after a hash of their URI, so the URIs themselves have to come from elsewhere: whatever could still be read from the old index, the {@link UriLog}, the packed image store, and the names of
+ * files stored before the sharded layout was introduced. Files whose URI cannot be recovered can never be looked up again, and are left to the consistency scan.
+ */
+class DiskIndexRebuilder {
+	private final DiskManager mDiskManager;
+	private final PackedBlobStore mPackedBlobStore;
+	private final UriLog mUriLog;
+
+	public DiskIndexRebuilder(DiskManager diskManager, PackedBlobStore packedBlobStore, UriLog uriLog) {
+		mDiskManager = diskManager;
+		mPackedBlobStore = packedBlobStore;
+		mUriLog = uriLog;
+	}
+
+	/**
+	 * Does disk I/O, and decodes the header of every image.
+	 * 
+	 * @param knownUris
+	 *            The URIs that could be read from the old index.
+	 * @return An entry for each image that is still on disk and can be decoded, from the least to the most recently accessed.
+	 */
+	public List<FileEntry> rebuild(Collection<String> knownUris) {
+		Set<String> uris = new LinkedHashSet<String>(knownUris);
+		uris.addAll(mUriLog.getUris());
+		uris.addAll(mPackedBlobStore.getUris());
+		addUnshardedUris(uris);
+
+		List<FileEntry> entries = new ArrayList<FileEntry>();
+		for (String uri : uris) {
+			FileEntry entry = rebuildEntry(uri);
+			if (entry != null) {
+				entries.add(entry);
+			}
+		}
+
+		Collections.sort(entries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
+		return entries;
+	}
+
+	private void addUnshardedUris(Set<String> uris) {
+		File[] files = mDiskManager.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.isFile()) {
+				try {
+					uris.add(URLDecoder.decode(file.getName(), "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalArgumentException e) {
+					// Not a file that the cache named.
+				}
+			}
+		}
+	}
+
+	private FileEntry rebuildEntry(String uri) {
+		byte[] packedBytes = mPackedBlobStore.get(uri);
+		if (packedBytes != null) {
+			Dimensions dimensions = DiskLRUCacher.getImageDimensionsFromBytes(packedBytes);
+			// Packed images share their segment files, so their access order is lost. They are treated as the least recently used.
+			return createEntry(uri, packedBytes.length, dimensions, 0);
+		}
+
+		String shardedFileName = DiskManager.getShardedFileName(uri);
+		StorageRoot storageRoot = mDiskManager.findStorageRoot(shardedFileName);
+		File file;
+		if (storageRoot != null) {
+			file = mDiskManager.getFile(shardedFileName, storageRoot);
+		} else {
+			file = mDiskManager.getFile(DiskManager.getUnshardedFileName(uri));
+			if (!file.isFile()) {
+				return null;
+			}
+		}
+
+		try {
+			FileEntry entry = createEntry(uri, file.length(), DiskLRUCacher.getImageDimensionsFromDisk(file), file.lastModified());
+			if (entry != null) {
+				entry.setStorageRoot(storageRoot);
+			}
+			return entry;
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The entry, or null if the image could not be decoded.
+	 */
+	private static FileEntry createEntry(String uri, long size, Dimensions dimensions, long lastAccessTime) {
+		if (dimensions.width == null || dimensions.height == null || dimensions.width <= 0 || dimensions.height <= 0) {
+			return null;
+		}
+		return new FileEntry(uri, size, dimensions.width, dimensions.height, lastAccessTime);
+	}
+}
@@ -16,41 +16,394 @@
 
 package com.xtremelabs.imageutils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
-import com.xtremelabs.imageutils.DiskDatabaseHelper.DiskDatabaseHelperObserver;
+import com.xtremelabs.imageutils.DiskIndex.DiskIndexObserver;
+import com.xtremelabs.imageutils.EncodedImageCache.CapturingInputStream;
+import com.xtremelabs.imageutils.ImageLoader.DiskIndexType;
 
 class DiskLRUCacher implements ImageDiskCacherInterface {
-	private static final int MAX_PERMANENT_STORAGE_IMAGE_DIMENSIONS_CACHED = 25; // TODO Optimize this value, or allow for API access to modify it.
+	/*
+	 * Evictions start once the cache grows past its maximum size, and then remove enough files to bring it down to this fraction of the maximum. Evicting in batches keeps the eviction thread from waking up for
+	 * every download.
+	 */
+	private static final float EVICTION_LOW_WATERMARK = 0.9f;
+	private static final String PACKED_IMAGES_DIRECTORY = "packs";
+	private static final String URI_LOG_DIRECTORY = "uris";
 
-	private long mMaximumCacheSizeInBytes = 50 * 1024 * 1024; // 50MB
+	/*
+	 * The consistency scan waits until the images that are shown at startup have been loaded.
+	 */
+	private static final long CONSISTENCY_SCAN_DELAY_MS = 30 * 1000;
+
+	/*
+	 * Images are never revalidated more often than this, however short their max-age is, so that a list of images with a max-age of 0 does not cause a request per image every time it is scrolled.
+	 */
+	private static final long MINIMUM_FRESHNESS_MS = 60 * 1000;
+	private static final int MAXIMUM_PENDING_CACHE_HEADERS = 64;
+	private static final int MAXIMUM_PENDING_BUMPS = 256;
+	private static final int MAXIMUM_REVALIDATION_BACKOFFS = 256;
+
+	/*
+	 * An image whose revalidation failed is not revalidated again for this long.
+	 */
+	private static final long REVALIDATION_RETRY_DELAY_MS = 60 * 1000;
+
+	/*
+	 * A failed index load is retried by the requests that need the index, but no more often than this, so that an index that cannot be read does not hold up every request.
+	 */
+	private static final long INDEX_LOAD_RETRY_INTERVAL_MS = 10 * 1000;
+
+	/*
+	 * How often the most recently used images are moved to internal storage, when that policy is enabled.
+	 */
+	private static final long HOT_IMAGE_CHECK_INTERVAL_MS = 10 * 60 * 1000;
+
+	/*
+	 * How often the free space is read again when the partition is sized adaptively. Each check is a single statfs call.
+	 */
+	private static final long ADAPTIVE_SIZE_CHECK_INTERVAL_MS = 5 * 60 * 1000;
+
+	private volatile long mMaximumCacheSizeInBytes = 50 * 1024 * 1024; // 50MB
+	private final String mPartitionName;
 	private final DiskManager mDiskManager;
-	private final DiskDatabaseHelper mDatabaseHelper;
+
+	/*
+	 * Set to false once the index has loaded if no files remain from the old, URL-encoded naming scheme. Those files are moved into the sharded layout as they are accessed.
+	 */
+	private volatile boolean mMayHaveUnshardedFiles = true;
+	private final Context mAppContext;
+
+	/*
+	 * The index is loaded on mIndexExecutor, and is null until it has been loaded. Tasks that replace the index also run on mIndexExecutor, so they are queued behind the load.
+	 */
+	private volatile SwappableDiskIndex mDiskIndex;
+	private final ExecutorService mIndexExecutor = Executors.newSingleThreadExecutor();
+	private final CountDownLatch mIndexLoadedLatch = new CountDownLatch(1);
+	private volatile long mIndexLoadTime = -1;
+	private final Object mIndexLoadLock = new Object();
+	private long mIndexLoadFailureTime; // Guarded by mIndexLoadLock.
+	/*
+	 * Evictions, consistency scans and the compaction of packed images share a single low priority thread, so that they never delete files at the same time.
+	 */
+	private final ScheduledExecutorService mMaintenanceExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+					runnable.run();
+				}
+			}, "DiskCacheMaintenance");
+		}
+	});
+	private final AtomicBoolean mEvictionScheduled = new AtomicBoolean(false);
+	private final BitmapPool mBitmapPool;
+	private final EncodedImageCache mEncodedImageCache;
+	private final DerivativeDiskCache mDerivativeDiskCache;
 	private ImageDiskObserver mImageDiskObserver;
-	private final Map<String, Dimensions> mPermanentStorageMap = new LRUMap<String, Dimensions>(34, MAX_PERMANENT_STORAGE_IMAGE_DIMENSIONS_CACHED);
+	private final AtomicLong mEvictionCount = new AtomicLong(0);
+	private final FileDimensionsIndex mFileDimensionsIndex;
+	private final PackedBlobStore mPackedBlobStore;
+	private final UriLog mUriLog;
+	private volatile int mPackedImageThreshold = 0;
+	private final DiskConsistencyScanner mConsistencyScanner;
+	private final AtomicLong mOrphanedFileCount = new AtomicLong(0);
+	private final AtomicLong mDanglingEntryCount = new AtomicLong(0);
+	private volatile DiskCacheScanListener mDiskCacheScanListener;
+	private volatile int mInternalStorageHotImageCount = 0;
+	private final AtomicBoolean mHotImageCheckScheduled = new AtomicBoolean(false);
+	private volatile AdaptiveDiskCacheSize mAdaptiveDiskCacheSize;
+	private ScheduledFuture<?> mAdaptiveSizeCheckFuture; // Guarded by "this".
+
+	/*
+	 * The caching headers of images that have been downloaded but whose details have not been saved yet. Bounded, as the details of an image that fails to download are never saved. Guarded by its own monitor.
+	 */
+	private final Map<String, HttpCacheHeaders> mPendingCacheHeaders = new LinkedHashMap<String, HttpCacheHeaders>() {
+		private static final long serialVersionUID = 5281462932731617834L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, HttpCacheHeaders> eldest) {
+			return size() > MAXIMUM_PENDING_CACHE_HEADERS;
+		}
+	};
+
+	/*
+	 * The times before which images whose revalidation failed are not revalidated again. Bounded, as the oldest back-offs are the most likely to have passed already. Guarded by its own monitor.
+	 */
+	private final Map<String, Long> mRevalidationRetryTimes = new LinkedHashMap<String, Long>() {
+		private static final long serialVersionUID = 2760839251404893711L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAXIMUM_REVALIDATION_BACKOFFS;
+		}
+	};
+
+	/*
+	 * The images that were accessed while the index was loading, from the least to the most recently accessed. They are bumped once the index has loaded. Guarded by its own monitor.
+	 */
+	private final Map<String, Boolean> mPendingBumps = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = -4023357950386519702L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAXIMUM_PENDING_BUMPS;
+		}
+	};
 
 	public DiskLRUCacher(Context appContext, ImageDiskObserver imageDecodeObserver) {
+		this(appContext, null, imageDecodeObserver, new BitmapPool(), new EncodedImageCache(), new DerivativeDiskCache(appContext), new FileDimensionsIndex(appContext));
+	}
+
+	/**
+	 * @param partitionName
+	 *            The name of the partition whose images this cacher holds, or null for the default partition. Each partition has its own directory and index.
+	 */
+	public DiskLRUCacher(Context appContext, String partitionName, ImageDiskObserver imageDecodeObserver, BitmapPool bitmapPool, EncodedImageCache encodedImageCache, DerivativeDiskCache derivativeDiskCache,
+			FileDimensionsIndex fileDimensionsIndex) {
 		/*
 		 * WARNING: Increasing the number of threads for image decoding will lag the UI thread.
 		 * 
 		 * It is highly recommended to leave the number of decode threads at one. Increasing this number too high will cause performance problems.
 		 */
-		mDiskManager = new DiskManager("img", appContext);
-		mDatabaseHelper = new DiskDatabaseHelper(appContext, mDiskDatabaseHelperObserver);
+		mAppContext = appContext;
+		mPartitionName = partitionName;
+		mDiskManager = new DiskManager(partitionName == null ? "img" : "img-" + partitionName, appContext);
 		mImageDiskObserver = imageDecodeObserver;
+		mBitmapPool = bitmapPool;
+		mEncodedImageCache = encodedImageCache;
+		mDerivativeDiskCache = derivativeDiskCache;
+		mFileDimensionsIndex = fileDimensionsIndex;
+		mPackedBlobStore = new PackedBlobStore(mDiskManager, PACKED_IMAGES_DIRECTORY, mMaintenanceExecutor);
+		mUriLog = new UriLog(mDiskManager, URI_LOG_DIRECTORY);
+		mConsistencyScanner = new DiskConsistencyScanner(mDiskManager, mPackedBlobStore, mMaintenanceExecutor, mScanObserver, PACKED_IMAGES_DIRECTORY, URI_LOG_DIRECTORY, DiskManager.TEMPORARY_DIRECTORY);
+
+		// The index may ask for a rebuild from the files on disk while it is being created, so it must be created last.
+		mIndexExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				loadDiskIndex();
+			}
+		});
+	}
+
+	/**
+	 * Reading the whole index can take hundreds of milliseconds for a large cache, so it is done in the background rather than when the image system is first accessed.
+	 */
+	private void loadDiskIndex() {
+		long startTime = SystemClock.uptimeMillis();
+		try {
+			// Nothing can be downloaded until the index has loaded, so no temporary file or packed image is in use yet.
+			mDiskManager.deleteTemporaryFiles();
+
+			DiskIndex diskIndex = openDiskIndex();
+			retainIndexedPackedImages(diskIndex);
+			mDiskIndex = new SwappableDiskIndex(diskIndex);
+		} catch (RuntimeException e) {
+			Log.w(ImageLoader.TAG, "Unable to load the disk cache index. Message: " + e.getMessage());
+			synchronized (mIndexLoadLock) {
+				mIndexLoadFailureTime = SystemClock.uptimeMillis();
+			}
+		} finally {
+			mIndexLoadTime = SystemClock.uptimeMillis() - startTime;
+			mIndexLoadedLatch.countDown();
+		}
+
+		if (mDiskIndex != null) {
+			onDiskIndexLoaded();
+		}
+	}
+
+	/**
+	 * Loads the index again after the initial load failed. Downloads may already be in progress at this point, so the temporary files and packed images are left alone.
+	 * 
+	 * @return The index, or null if it still could not be loaded.
+	 */
+	private DiskIndex reloadDiskIndex() {
+		synchronized (mIndexLoadLock) {
+			if (mDiskIndex != null) {
+				return mDiskIndex;
+			}
+
+			long now = SystemClock.uptimeMillis();
+			if (now - mIndexLoadFailureTime < INDEX_LOAD_RETRY_INTERVAL_MS) {
+				return null;
+			}
+
+			try {
+				mDiskIndex = new SwappableDiskIndex(openDiskIndex());
+			} catch (RuntimeException e) {
+				Log.w(ImageLoader.TAG, "Unable to load the disk cache index. Message: " + e.getMessage());
+				mIndexLoadFailureTime = now;
+				return null;
+			}
+		}
+
+		onDiskIndexLoaded();
+		return mDiskIndex;
+	}
+
+	private DiskIndex openDiskIndex() {
+		if (JournalDiskIndex.getJournalFile(mAppContext, mPartitionName).exists()) {
+			return createDiskIndex(DiskIndexType.JOURNAL);
+		} else {
+			return createDiskIndex(DiskIndexType.SQLITE);
+		}
+	}
+
+	private void onDiskIndexLoaded() {
+		DiskIndex diskIndex = mDiskIndex;
+		mMayHaveUnshardedFiles = mDiskManager.hasUnshardedFiles();
+
+		// Requests that arrive from now on bump the index directly, which can only reorder images that were accessed moments apart.
+		List<String> pendingBumps;
+		synchronized (mPendingBumps) {
+			pendingBumps = new ArrayList<String>(mPendingBumps.keySet());
+			mPendingBumps.clear();
+		}
+		for (String uri : pendingBumps) {
+			diskIndex.updateFile(uri);
+		}
+
+		// The maximum size may have been lowered while the index was loading.
+		updateAdaptiveDiskCacheSize();
+		scheduleEvictionIfNeeded();
+		mConsistencyScanner.scan(diskIndex, CONSISTENCY_SCAN_DELAY_MS);
+	}
+
+	/**
+	 * Drops packed images that the index does not know about, such as an image that was packed right before the app was killed.
+	 */
+	private void retainIndexedPackedImages(DiskIndex diskIndex) {
+		Collection<FileEntry> entries = diskIndex.getAllEntries();
+		List<String> uris = new ArrayList<String>(entries.size());
+		for (FileEntry entry : entries) {
+			uris.add(entry.getUri());
+		}
+		mPackedBlobStore.retainAll(uris);
+	}
+
+	/**
+	 * Blocks until the index has been loaded. Requests that need the index are run on background threads, so they simply queue up here while the index is loading. If the load failed, it is retried.
+	 */
+	private DiskIndex getDiskIndex() {
+		DiskIndex diskIndex = mDiskIndex;
+		if (diskIndex != null) {
+			return diskIndex;
+		}
+
+		boolean interrupted = false;
+		while (mIndexLoadedLatch.getCount() > 0) {
+			try {
+				mIndexLoadedLatch.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		diskIndex = mDiskIndex;
+		if (diskIndex == null) {
+			diskIndex = reloadDiskIndex();
+		}
+		if (diskIndex == null) {
+			throw new IllegalStateException("The disk cache index could not be loaded.");
+		}
+		return diskIndex;
+	}
+
+	@Override
+	public boolean isIndexLoaded(CacheRequest cacheRequest) {
+		return isIndexLoaded();
+	}
+
+	public boolean isIndexLoaded() {
+		return mDiskIndex != null;
+	}
+
+	@Override
+	public long getIndexLoadTime() {
+		return mDiskIndex != null ? mIndexLoadTime : -1;
+	}
+
+	private DiskIndex createDiskIndex(DiskIndexType diskIndexType) {
+		switch (diskIndexType) {
+		case JOURNAL:
+			return new JournalDiskIndex(mAppContext, mPartitionName, mDiskIndexObserver);
+		case SQLITE:
+		default:
+			return new DiskDatabaseHelper(mAppContext, mPartitionName, mDiskIndexObserver);
+		}
+	}
+
+	/**
+	 * Moves the entries of the current index into a new index of the given type in the background, then deletes the old index. Changes made while the entries are being moved are carried over to the new index.
+	 */
+	@Override
+	public void setDiskIndexType(final DiskIndexType diskIndexType) {
+		mIndexExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				SwappableDiskIndex diskIndex = mDiskIndex;
+				if (diskIndex == null || getDiskIndexType(diskIndex.getDiskIndex()) == diskIndexType) {
+					return;
+				}
+
+				diskIndex.migrateTo(createDiskIndex(diskIndexType));
+				// Evictions are skipped while the entries are being moved.
+				scheduleEvictionIfNeeded();
+			}
+		});
+	}
+
+	@Override
+	public void flush() {
+		DiskIndex diskIndex = mDiskIndex;
+		if (diskIndex != null) {
+			diskIndex.flush();
+		}
+	}
+
+	private static DiskIndexType getDiskIndexType(DiskIndex diskIndex) {
+		return diskIndex instanceof JournalDiskIndex ? DiskIndexType.JOURNAL : DiskIndexType.SQLITE;
 	}
 
 	// TODO This method is very slow. It could be due to synchronized blocks. See if performance can be improved.
@@ -59,12 +412,15 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 		boolean isCached;
 		String uri = cacheRequest.getUri();
 		if (cacheRequest.isFileSystemRequest()) {
-			isCached = mPermanentStorageMap.containsKey(uri);
-			if (isCached) {
-				mPermanentStorageMap.get(uri);
+			// The stat that validates the entry is kept off the UI thread. Requests that reach a background thread are validated there.
+			isCached = mFileDimensionsIndex.contains(uri);
+			if (isCached && !ThreadChecker.isOnUiThread()) {
+				isCached = validateFileDimensions(uri);
 			}
 		} else {
-			isCached = mDatabaseHelper.isCached(uri);
+			// An image on a volume that has been unmounted is downloaded again rather than failing to decode. Its entry is kept for when the volume comes back.
+			FileEntry fileEntry = getDiskIndex().getFileEntryFromCache(uri);
+			isCached = fileEntry != null && (fileEntry.getStorageRoot() == null || mDiskManager.isAvailable(fileEntry.getStorageRoot()));
 		}
 
 		return isCached;
@@ -110,18 +466,59 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 
 				if (!failed) {
 					mImageDiskObserver.onImageDecoded(decodeSignature, bitmap, imageReturnedFrom);
+					if (imageReturnedFrom == ImageReturnedFrom.DISK && !cacheRequest.isFileSystemRequest()) {
+						revalidateIfExpired(cacheRequest);
+					}
 				} else if (cacheRequest.isFileSystemRequest()) {
-					mPermanentStorageMap.remove(decodeSignature.uri);
+					mFileDimensionsIndex.remove(decodeSignature.uri);
 					mImageDiskObserver.onImageDecodeFailed(decodeSignature, errorMessage);
 				} else {
-					mDiskManager.deleteFile(encode(decodeSignature.uri));
-					mDatabaseHelper.deleteEntry(decodeSignature.uri);
+					mEncodedImageCache.remove(decodeSignature.uri);
+					if (isStorageAvailable(decodeSignature.uri)) {
+						deleteFile(decodeSignature.uri);
+						getDiskIndex().deleteEntry(decodeSignature.uri);
+					}
 					mImageDiskObserver.onImageDecodeFailed(decodeSignature, errorMessage);
 				}
 			}
 		};
 	}
 
+	/**
+	 * Expired images are still returned, as an outdated image is better than none. The observer is told so that a newer version can be fetched in the background, unless a recent attempt to do so failed.
+	 */
+	@Override
+	public void revalidateIfExpired(CacheRequest cacheRequest) {
+		if (cacheRequest.isFileSystemRequest() || !isIndexLoaded()) {
+			return;
+		}
+
+		String uri = cacheRequest.getUri();
+		long now = System.currentTimeMillis();
+		FileEntry fileEntry = getDiskIndex().getFileEntryFromCache(uri);
+		if (fileEntry == null || !fileEntry.isExpired(now)) {
+			return;
+		}
+
+		synchronized (mRevalidationRetryTimes) {
+			Long retryTime = mRevalidationRetryTimes.get(uri);
+			if (retryTime != null) {
+				if (now < retryTime) {
+					return;
+				}
+				mRevalidationRetryTimes.remove(uri);
+			}
+		}
+		mImageDiskObserver.onCachedImageExpired(cacheRequest, fileEntry.getValidators());
+	}
+
+	@Override
+	public void onRevalidationFailed(CacheRequest cacheRequest) {
+		synchronized (mRevalidationRetryTimes) {
+			mRevalidationRetryTimes.put(cacheRequest.getUri(), System.currentTimeMillis() + REVALIDATION_RETRY_DELAY_MS);
+		}
+	}
+
 	void cacheImageDetails(CacheRequest cacheRequest) {
 		String uri = cacheRequest.getUri();
 		try {
@@ -139,37 +536,357 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 	public void calculateAndSaveImageDetails(CacheRequest cacheRequest) throws URISyntaxException, FileNotFoundException {
 		File file;
 		String uri = cacheRequest.getUri();
+		StorageRoot storageRoot = null;
 
 		if (cacheRequest.isFileSystemRequest()) {
 			file = new File(new URI(uri.replace(" ", "%20")).getPath());
 		} else {
-			file = getFile(uri);
+			// The image has just been saved to the current volume, which may not be the volume recorded for an earlier copy of it.
+			String shardedFileName = DiskManager.getShardedFileName(uri);
+			storageRoot = mDiskManager.findStorageRoot(shardedFileName);
+			file = storageRoot != null ? mDiskManager.getFile(shardedFileName, storageRoot) : getFile(uri);
 		}
 
-		Dimensions dimensions = getImageDimensionsFromDisk(file);
+		Dimensions dimensions;
+		byte[] bytes = null;
+		if (!cacheRequest.isFileSystemRequest()) {
+			bytes = mEncodedImageCache.get(uri);
+			if (bytes == null) {
+				bytes = mPackedBlobStore.get(uri);
+			}
+		}
+		if (bytes != null) {
+			dimensions = getImageDimensionsFromBytes(bytes);
+		} else {
+			dimensions = getImageDimensionsFromDisk(file);
+		}
 
 		if (cacheRequest.isFileSystemRequest()) {
-			mPermanentStorageMap.put(uri, dimensions);
+			mFileDimensionsIndex.put(uri, file, dimensions);
 		} else {
-			mDatabaseHelper.addOrUpdateFile(uri, file.length(), dimensions.width, dimensions.height);
-			clearLeastUsedFilesInCache();
+			int packedLength = mPackedBlobStore.getLength(uri);
+			DiskIndex diskIndex = getDiskIndex();
+			diskIndex.addOrUpdateFile(uri, packedLength >= 0 ? packedLength : file.length(), dimensions.width, dimensions.height);
+			if (storageRoot != null) {
+				diskIndex.setStorageRoot(uri, storageRoot);
+			}
+
+			HttpCacheHeaders cacheHeaders;
+			synchronized (mPendingCacheHeaders) {
+				cacheHeaders = mPendingCacheHeaders.remove(uri);
+			}
+			if (cacheHeaders != null) {
+				diskIndex.setCacheHeaders(uri, cacheHeaders.getETag(), cacheHeaders.getLastModified(), getExpirationTime(cacheHeaders));
+			}
+			scheduleEvictionIfNeeded();
 		}
 	}
 
+	/**
+	 * @return The time at which an image with the given headers expires, or 0 if it never does.
+	 */
+	private static long getExpirationTime(HttpCacheHeaders cacheHeaders) {
+		if (cacheHeaders == null || cacheHeaders.getMaxAge() == HttpCacheHeaders.NO_MAX_AGE) {
+			return 0;
+		}
+		return System.currentTimeMillis() + Math.max(cacheHeaders.getMaxAge() * 1000, MINIMUM_FRESHNESS_MS);
+	}
+
 	@Override
-	public void downloadImageFromInputStream(String uri, InputStream inputStream) throws IOException {
-		mDiskManager.loadStreamToFile(inputStream, encode(uri));
+	public void downloadImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+		String uri = cacheRequest.getUri();
+		synchronized (mPendingCacheHeaders) {
+			if (cacheHeaders != null) {
+				mPendingCacheHeaders.put(uri, cacheHeaders);
+			} else {
+				mPendingCacheHeaders.remove(uri);
+			}
+		}
+
+		int packedImageThreshold = mPackedImageThreshold;
+		if (packedImageThreshold > 0 && PackedBlobStore.canStore(uri)) {
+			byte[] bytes = readUpTo(inputStream, packedImageThreshold + 1);
+			if (bytes.length <= packedImageThreshold) {
+				closeQuietly(inputStream);
+				mPackedBlobStore.put(uri, bytes);
+				mDiskManager.deleteFile(DiskManager.getShardedFileName(uri));
+				mEncodedImageCache.put(uri, bytes);
+				return;
+			}
+
+			// The image is too large to be packed. The bytes that have already been read are written out ahead of the rest of the stream.
+			inputStream = new SequenceInputStream(new ByteArrayInputStream(bytes), inputStream);
+		}
+
+		mPackedBlobStore.remove(uri);
+		mUriLog.add(uri);
+		if (mEncodedImageCache.isEnabled()) {
+			CapturingInputStream capturingInputStream = mEncodedImageCache.capture(inputStream);
+			mDiskManager.loadStreamToFile(capturingInputStream, DiskManager.getShardedFileName(uri));
+
+			byte[] bytes = capturingInputStream.getCapturedBytes();
+			if (bytes != null) {
+				mEncodedImageCache.put(uri, bytes);
+			}
+		} else {
+			mDiskManager.loadStreamToFile(inputStream, DiskManager.getShardedFileName(uri));
+		}
+	}
+
+	@Override
+	public void replaceImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+		// The new version may be too large to be captured, in which case the old bytes would otherwise be decoded in its place.
+		mEncodedImageCache.remove(cacheRequest.getUri());
+		downloadImageFromInputStream(cacheRequest, inputStream, cacheHeaders);
+		try {
+			calculateAndSaveImageDetails(cacheRequest);
+		} catch (URISyntaxException e) {
+			throw new IOException("Bad URI: " + cacheRequest.getUri());
+		}
+	}
+
+	@Override
+	public void onImageNotModified(CacheRequest cacheRequest, HttpCacheHeaders cacheHeaders) {
+		String uri = cacheRequest.getUri();
+		DiskIndex diskIndex = getDiskIndex();
+		FileEntry fileEntry = diskIndex.getFileEntryFromCache(uri);
+		if (fileEntry == null) {
+			return;
+		}
+
+		// A 304 response only has to repeat the validators that changed, so the ones it leaves out are kept.
+		String eTag = fileEntry.getETag();
+		String lastModified = fileEntry.getLastModified();
+		if (cacheHeaders != null) {
+			eTag = cacheHeaders.getETag() != null ? cacheHeaders.getETag() : eTag;
+			lastModified = cacheHeaders.getLastModified() != null ? cacheHeaders.getLastModified() : lastModified;
+		}
+
+		long expirationTime;
+		if (cacheHeaders != null && cacheHeaders.getMaxAge() != HttpCacheHeaders.NO_MAX_AGE) {
+			expirationTime = getExpirationTime(cacheHeaders);
+		} else {
+			// The original max-age is not stored, so without a new one the image is renewed for the minimum period.
+			expirationTime = System.currentTimeMillis() + MINIMUM_FRESHNESS_MS;
+		}
+		diskIndex.setCacheHeaders(uri, eTag, lastModified, expirationTime);
+	}
+
+	@Override
+	public void setPackedImageThreshold(int maximumSizeInBytes) {
+		mPackedImageThreshold = maximumSizeInBytes;
+	}
+
+	/**
+	 * @return Up to the given number of bytes from the stream. Fewer bytes are returned only if the stream ended first.
+	 */
+	private static byte[] readUpTo(InputStream inputStream, int maximumLength) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[Math.min(maximumLength, 8 * 1024)];
+		int remaining = maximumLength;
+		int bytesRead;
+		try {
+			while (remaining > 0 && (bytesRead = inputStream.read(buffer, 0, Math.min(buffer.length, remaining))) > 0) {
+				outputStream.write(buffer, 0, bytesRead);
+				remaining -= bytesRead;
+			}
+		} catch (IOException e) {
+			closeQuietly(inputStream);
+			throw e;
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static void closeQuietly(InputStream inputStream) {
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	@Override
 	public void bumpOnDisk(String uri) {
-		mDatabaseHelper.updateFile(uri);
+		DiskIndex diskIndex = mDiskIndex;
+		if (diskIndex == null) {
+			synchronized (mPendingBumps) {
+				// The index may have finished loading since it was checked, in which case the queued bumps may already have been applied.
+				diskIndex = mDiskIndex;
+				if (diskIndex == null) {
+					mPendingBumps.put(uri, Boolean.TRUE);
+					return;
+				}
+			}
+		}
+		diskIndex.updateFile(uri);
 	}
 
 	@Override
 	public void setDiskCacheSize(long sizeInBytes) {
+		setAdaptiveDiskCacheSize(null);
 		mMaximumCacheSizeInBytes = sizeInBytes;
-		clearLeastUsedFilesInCache();
+		scheduleEvictionIfNeeded();
+	}
+
+	@Override
+	public void setDiskCacheSize(String partitionName, long sizeInBytes) {
+		if (isPartition(partitionName)) {
+			setDiskCacheSize(sizeInBytes);
+		}
+	}
+
+	@Override
+	public void setAdaptiveDiskCacheSize(String partitionName, AdaptiveDiskCacheSize adaptiveDiskCacheSize) {
+		if (isPartition(partitionName)) {
+			setAdaptiveDiskCacheSize(adaptiveDiskCacheSize);
+		}
+	}
+
+	/**
+	 * The first check runs right away. Until it completes, the previous maximum size stays in effect.
+	 * 
+	 * @param adaptiveDiskCacheSize
+	 *            The policy, or null to keep the current maximum size from now on.
+	 */
+	synchronized void setAdaptiveDiskCacheSize(AdaptiveDiskCacheSize adaptiveDiskCacheSize) {
+		mAdaptiveDiskCacheSize = adaptiveDiskCacheSize;
+		if (mAdaptiveSizeCheckFuture != null) {
+			mAdaptiveSizeCheckFuture.cancel(false);
+			mAdaptiveSizeCheckFuture = null;
+		}
+
+		if (adaptiveDiskCacheSize != null) {
+			mAdaptiveSizeCheckFuture = mMaintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					updateAdaptiveDiskCacheSize();
+				}
+			}, 0, ADAPTIVE_SIZE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Recalculates the maximum size from the free space, and evicts in a batch if the cache no longer fits. Does nothing until the index has loaded, as the size of the cache is not known before then. The load
+	 * calls this again once it completes.
+	 */
+	void updateAdaptiveDiskCacheSize() {
+		AdaptiveDiskCacheSize adaptiveDiskCacheSize = mAdaptiveDiskCacheSize;
+		DiskIndex diskIndex = mDiskIndex;
+		if (adaptiveDiskCacheSize == null || diskIndex == null) {
+			return;
+		}
+
+		long availableBytes = mDiskManager.getAvailableBytes();
+		if (availableBytes < 0) {
+			return;
+		}
+
+		long maximumSize = adaptiveDiskCacheSize.calculateMaximumSize(availableBytes, diskIndex.getTotalSizeOnDisk());
+		mMaximumCacheSizeInBytes = maximumSize;
+		scheduleEvictionIfNeeded();
+	}
+
+	long getMaximumCacheSize() {
+		return mMaximumCacheSizeInBytes;
+	}
+
+	private boolean isPartition(String partitionName) {
+		return partitionName == null ? mPartitionName == null : partitionName.equals(mPartitionName);
+	}
+
+	@Override
+	public long getSizeOnDisk() {
+		DiskIndex diskIndex = mDiskIndex;
+		return diskIndex != null ? diskIndex.getTotalSizeOnDisk() : 0;
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return mEvictionCount.get();
+	}
+
+	@Override
+	public long getOrphanedFileCount() {
+		return mOrphanedFileCount.get();
+	}
+
+	@Override
+	public long getDanglingEntryCount() {
+		return mDanglingEntryCount.get();
+	}
+
+	@Override
+	public void setDiskCacheScanListener(DiskCacheScanListener diskCacheScanListener) {
+		mDiskCacheScanListener = diskCacheScanListener;
+	}
+
+	@Override
+	public void setInternalStorageHotImageCount(int count) {
+		mInternalStorageHotImageCount = count;
+		if (count > 0 && mHotImageCheckScheduled.compareAndSet(false, true)) {
+			mMaintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					moveHotImagesToInternalStorage();
+				}
+			}, HOT_IMAGE_CHECK_INTERVAL_MS, HOT_IMAGE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * New images are saved to whichever volume is current from now on. Images that were saved to a volume that has gone away are downloaded again as they are requested, and the images that are still on it are found
+	 * again once it comes back.
+	 */
+	@Override
+	public void onStorageStateChanged() {
+		mDiskManager.onStorageStateChanged();
+
+		// The cache has moved to a volume with a different amount of free space.
+		if (mAdaptiveDiskCacheSize != null) {
+			mMaintenanceExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					updateAdaptiveDiskCacheSize();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies the most recently used images that are on external storage to internal storage, so that they load quickly and keep loading if external storage is unmounted. Runs on the maintenance thread.
+	 */
+	void moveHotImagesToInternalStorage() {
+		int count = mInternalStorageHotImageCount;
+		DiskIndex diskIndex = mDiskIndex;
+		if (count <= 0 || diskIndex == null || !mDiskManager.isAvailable(StorageRoot.EXTERNAL)) {
+			return;
+		}
+
+		List<FileEntry> entries = new ArrayList<FileEntry>(diskIndex.getAllEntries());
+		Collections.sort(entries, Collections.reverseOrder(FileEntry.LAST_ACCESS_TIME_COMPARATOR));
+		StorageRoot currentStorageRoot = mDiskManager.getStorageRoot();
+		for (FileEntry entry : entries.subList(0, Math.min(count, entries.size()))) {
+			String uri = entry.getUri();
+			StorageRoot storageRoot = entry.getStorageRoot() != null ? entry.getStorageRoot() : currentStorageRoot;
+			if (storageRoot != StorageRoot.EXTERNAL || mPackedBlobStore.contains(uri)) {
+				continue;
+			}
+
+			String shardedFileName = DiskManager.getShardedFileName(uri);
+			try {
+				mDiskManager.copyFile(shardedFileName, StorageRoot.EXTERNAL, StorageRoot.INTERNAL);
+			} catch (IOException e) {
+				Log.w(ImageLoader.TAG, "Unable to move an image to internal storage. URI: " + uri + ", Message: " + e.getMessage());
+				continue;
+			}
+
+			// Reads switch over to the copy before the original is deleted.
+			diskIndex.setStorageRoot(uri, StorageRoot.INTERNAL);
+			File externalFile = mDiskManager.getFile(shardedFileName, StorageRoot.EXTERNAL);
+			if (externalFile != null) {
+				externalFile.delete();
+			}
+		}
 	}
 
 	@Override
@@ -177,9 +894,9 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 		String uri = cacheRequest.getUri();
 		Dimensions dimensions;
 		if (cacheRequest.isFileSystemRequest()) {
-			dimensions = mPermanentStorageMap.get(uri);
+			dimensions = mFileDimensionsIndex.get(uri);
 		} else {
-			FileEntry fileEntry = mDatabaseHelper.getFileEntryFromCache(uri);
+			FileEntry fileEntry = getDiskIndex().getFileEntryFromCache(uri);
 			if (fileEntry != null) {
 				dimensions = fileEntry.getDimensions();
 			} else {
@@ -192,7 +909,26 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 
 	@Override
 	public void invalidateFileSystemUri(String uri) {
-		mPermanentStorageMap.remove(uri);
+		mFileDimensionsIndex.remove(uri);
+		mEncodedImageCache.remove(uri);
+	}
+
+	/**
+	 * @return False if the file has changed since its dimensions were read, in which case its dimensions have to be read again.
+	 */
+	private boolean validateFileDimensions(String uri) {
+		File file;
+		try {
+			file = new File(new URI(uri.replace(" ", "%20")).getPath());
+		} catch (URISyntaxException e) {
+			return false;
+		}
+
+		if (!mFileDimensionsIndex.validate(uri, file)) {
+			mEncodedImageCache.remove(uri);
+			return false;
+		}
+		return true;
 	}
 
 	@Override
@@ -202,6 +938,7 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 		Bitmap.Config bitmapConfig = decodeSignature.bitmapConfig;
 
 		File file = null;
+		byte[] packedBytes = null;
 		if (cacheRequest.isFileSystemRequest()) {
 			try {
 				file = new File(new URI(uri).getPath());
@@ -210,45 +947,256 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 			}
 		} else {
 			file = getFile(uri);
+			if (!mEncodedImageCache.contains(uri)) {
+				packedBytes = mPackedBlobStore.get(uri);
+				if (packedBytes == null && !isFileComplete(uri, file)) {
+					file.delete();
+					throw new FileFormatException();
+				}
+			}
 		}
-		FileInputStream fileInputStream = null;
-		fileInputStream = new FileInputStream(file);
-		BitmapFactory.Options opts = new BitmapFactory.Options();
-		opts.inSampleSize = sampleSize;
-		opts.inPreferredConfig = bitmapConfig;
-		Bitmap bitmap = BitmapFactory.decodeStream(fileInputStream, null, opts);
-		if (fileInputStream != null) {
-			try {
-				fileInputStream.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+
+		String derivativeKey = null;
+		if (sampleSize > 1 && mDerivativeDiskCache.isEnabled()) {
+			if (cacheRequest.isFileSystemRequest()) {
+				derivativeKey = DerivativeDiskCache.getKey(decodeSignature, file.length(), file.lastModified());
+			} else {
+				// Network images may be packed rather than stored in a file of their own, so the size recorded in the index is used instead of a stat.
+				FileEntry fileEntry = getDiskIndex().getFileEntryFromCache(uri);
+				// The content version stands in for the modification time, so that a revalidated image does not reuse the derivatives of the version it replaced.
+				derivativeKey = DerivativeDiskCache.getKey(decodeSignature, fileEntry != null ? fileEntry.getSize() : 0, fileEntry != null ? fileEntry.getContentVersion() : 0);
+			}
+			Bitmap bitmap = decodeDerivative(derivativeKey, cacheRequest, decodeSignature);
+			if (bitmap != null) {
+				return bitmap;
 			}
 		}
+
+		// Local files can change without the cache knowing, so their bytes are never cached.
+		byte[] bytes = packedBytes != null || cacheRequest.isFileSystemRequest() ? packedBytes : getEncodedBytes(uri, file);
+		BitmapFactory.Options opts = mBitmapPool.getDecodeOptions(getImageDimensions(cacheRequest), sampleSize, bitmapConfig);
+		Bitmap bitmap;
+		try {
+			bitmap = decode(bytes, file, opts);
+		} catch (IllegalArgumentException e) {
+			// The pooled bitmap could not be reused for this image. Fall back to allocating a new bitmap.
+			opts.inBitmap = null;
+			bitmap = decode(bytes, file, opts);
+		}
 		if (bitmap == null) {
+			mEncodedImageCache.remove(uri);
 			file.delete();
 			throw new FileFormatException();
 		}
+
+		if (derivativeKey != null) {
+			saveDerivativeInBackground(derivativeKey, bitmap);
+		}
 		return bitmap;
 	}
 
-	private void clearLeastUsedFilesInCache() {
-		mDatabaseHelper.removeLeastUsedFileFromCache(mMaximumCacheSizeInBytes);
+	/**
+	 * Re-encoding the bitmap takes about as long as the decode itself, so it is done on the maintenance thread rather than holding up the next decode. The bitmap is held until it has been compressed, so that the
+	 * bitmap pool cannot hand it to the decoder in the meantime.
+	 */
+	private void saveDerivativeInBackground(final String derivativeKey, final Bitmap bitmap) {
+		mBitmapPool.retain(bitmap);
+		mMaintenanceExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!bitmap.isRecycled()) {
+						mDerivativeDiskCache.put(derivativeKey, bitmap);
+					}
+				} finally {
+					mBitmapPool.release(bitmap);
+				}
+			}
+		});
 	}
 
-	private File getFile(String uri) {
-		return mDiskManager.getFile(encode(uri));
+	/**
+	 * @return The downsampled bitmap, or null if there is no usable derivative for this signature.
+	 */
+	private Bitmap decodeDerivative(String derivativeKey, CacheRequest cacheRequest, DecodeSignature decodeSignature) {
+		File derivativeFile = mDerivativeDiskCache.get(derivativeKey);
+		if (derivativeFile == null) {
+			return null;
+		}
+
+		// The derivative has already been downsampled, so it is decoded at full size into a bitmap of the same size as the downsampled original.
+		BitmapFactory.Options opts = mBitmapPool.getDecodeOptions(getImageDimensions(cacheRequest), decodeSignature.sampleSize, decodeSignature.bitmapConfig);
+		opts.inSampleSize = 1;
+		Bitmap bitmap;
+		try {
+			try {
+				bitmap = decodeFile(derivativeFile, opts);
+			} catch (IllegalArgumentException e) {
+				opts.inBitmap = null;
+				bitmap = decodeFile(derivativeFile, opts);
+			}
+		} catch (FileNotFoundException e) {
+			bitmap = null;
+		}
+
+		if (bitmap == null) {
+			mDerivativeDiskCache.remove(derivativeKey);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Files are renamed into place only once they have been fully written, but they can still be truncated by something outside of the cache. Comparing the length against the size recorded in the index catches this
+	 * without a decode attempt.
+	 */
+	private boolean isFileComplete(String uri, File file) {
+		FileEntry fileEntry = getDiskIndex().getFileEntryFromCache(uri);
+		return fileEntry == null || fileEntry.getSize() == file.length();
 	}
 
-	private static String encode(String uri) {
+	/**
+	 * @return The encoded bytes of the image if they are cached, or if the file is small enough to be read into the cache. Null otherwise, in which case the file should be streamed to the decoder.
+	 */
+	private byte[] getEncodedBytes(String uri, File file) {
+		byte[] bytes = mEncodedImageCache.get(uri);
+		if (bytes == null && mEncodedImageCache.isEnabled()) {
+			try {
+				bytes = mEncodedImageCache.readFile(uri, file);
+			} catch (IOException e) {
+				bytes = null;
+			}
+		}
+		return bytes;
+	}
+
+	private static Bitmap decode(byte[] bytes, File file, BitmapFactory.Options opts) throws FileNotFoundException {
+		if (bytes != null) {
+			return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, opts);
+		}
+		return decodeFile(file, opts);
+	}
+
+	private static Bitmap decodeFile(File file, BitmapFactory.Options opts) throws FileNotFoundException {
+		FileInputStream fileInputStream = new FileInputStream(file);
 		try {
-			return URLEncoder.encode(uri, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+			return BitmapFactory.decodeStream(fileInputStream, null, opts);
+		} finally {
+			try {
+				fileInputStream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Evictions delete files and index entries, so they are kept off the threads that are loading images. Does nothing until the index has been loaded. The load applies the current maximum size once it completes.
+	 */
+	private void scheduleEvictionIfNeeded() {
+		DiskIndex diskIndex = mDiskIndex;
+		if (diskIndex == null || diskIndex.getTotalSizeOnDisk() <= mMaximumCacheSizeInBytes) {
+			return;
+		}
+
+		if (mEvictionScheduled.compareAndSet(false, true)) {
+			mMaintenanceExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mEvictionScheduled.set(false);
+					mDiskIndex.removeLeastUsedFileFromCache((long) (mMaximumCacheSizeInBytes * EVICTION_LOW_WATERMARK));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Blocks until any scheduled eviction has completed.
+	 */
+	void waitForEvictions() {
+		Future<?> future = mMaintenanceExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.w(ImageLoader.TAG, "Unable to wait for disk cache evictions.");
+		}
+	}
+
+	String getPartitionName() {
+		return mPartitionName;
+	}
+
+	/**
+	 * Unlike {@link #isCached(CacheRequest)}, also finds an image that has been downloaded but whose details have not been saved to the index yet. Checks the disk, so must not be called on the UI thread.
+	 */
+	boolean containsImage(String uri) {
+		return getDiskIndex().isCached(uri) || mPackedBlobStore.contains(uri) || getFile(uri).exists();
+	}
+
+	/**
+	 * Images are looked up on the volume recorded in their entry. If that volume is not available, or was not recorded, the current volume is used.
+	 */
+	private File getFile(String uri) {
+		StorageRoot storageRoot = getStorageRoot(uri);
+		if (storageRoot != null) {
+			File file = mDiskManager.getFile(DiskManager.getShardedFileName(uri), storageRoot);
+			if (file != null) {
+				return file;
+			}
+		}
+
+		File file = mDiskManager.getFile(DiskManager.getShardedFileName(uri));
+		if (mMayHaveUnshardedFiles && !file.exists()) {
+			File unshardedFile = mDiskManager.getFile(DiskManager.getUnshardedFileName(uri));
+			if (unshardedFile.exists()) {
+				file.getParentFile().mkdirs();
+				if (!unshardedFile.renameTo(file)) {
+					return unshardedFile;
+				}
+				mUriLog.add(uri);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * The entry of the image may already have been removed, so the file is deleted from every volume that is available.
+	 */
+	private void deleteFile(String uri) {
+		mPackedBlobStore.remove(uri);
+		String shardedFileName = DiskManager.getShardedFileName(uri);
+		for (StorageRoot storageRoot : StorageRoot.values()) {
+			File file = mDiskManager.getFile(shardedFileName, storageRoot);
+			if (file != null) {
+				file.delete();
+			}
+		}
+		if (mMayHaveUnshardedFiles) {
+			mDiskManager.deleteFile(DiskManager.getUnshardedFileName(uri));
 		}
-		return null;
 	}
 
-	private static Dimensions getImageDimensionsFromDisk(File file) throws FileNotFoundException {
+	/**
+	 * @return The volume that the image was saved to, or null if it is not known.
+	 */
+	private StorageRoot getStorageRoot(String uri) {
+		DiskIndex diskIndex = mDiskIndex;
+		FileEntry fileEntry = diskIndex != null ? diskIndex.getFileEntryFromCache(uri) : null;
+		return fileEntry != null ? fileEntry.getStorageRoot() : null;
+	}
+
+	private boolean isStorageAvailable(String uri) {
+		StorageRoot storageRoot = getStorageRoot(uri);
+		return storageRoot == null || mDiskManager.isAvailable(storageRoot);
+	}
+
+	static Dimensions getImageDimensionsFromDisk(File file) throws FileNotFoundException {
 		FileInputStream fileInputStream = null;
 		try {
 			fileInputStream = new FileInputStream(file);
@@ -270,6 +1218,13 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 		}
 	}
 
+	static Dimensions getImageDimensionsFromBytes(byte[] bytes) {
+		BitmapFactory.Options o = new BitmapFactory.Options();
+		o.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(bytes, 0, bytes.length, o);
+		return new Dimensions(o.outWidth, o.outHeight);
+	}
+
 	public static class FileFormatException extends Exception {
 		/**
 		 * 
@@ -277,15 +1232,44 @@ class DiskLRUCacher implements ImageDiskCacherInterface {
 		private static final long serialVersionUID = -2180782787028503586L;
 	}
 
-	private final DiskDatabaseHelperObserver mDiskDatabaseHelperObserver = new DiskDatabaseHelperObserver() {
+	private final DiskIndexObserver mDiskIndexObserver = new DiskIndexObserver() {
 		@Override
-		public void onDatabaseWiped() {
-			mDiskManager.clearDirectory();
+		public Collection<FileEntry> onIndexRebuildRequired(Collection<String> knownUris) {
+			long startTime = SystemClock.uptimeMillis();
+			List<FileEntry> entries = new DiskIndexRebuilder(mDiskManager, mPackedBlobStore, mUriLog).rebuild(knownUris);
+			Log.w(ImageLoader.TAG, "Rebuilt the disk cache index from " + entries.size() + " images on disk in " + (SystemClock.uptimeMillis() - startTime) + "ms.");
+			return entries;
 		}
 
 		@Override
 		public void onImageEvicted(String uri) {
-			mDiskManager.deleteFile(encode(uri));
+			mEvictionCount.incrementAndGet();
+			mEncodedImageCache.remove(uri);
+			deleteFile(uri);
+		}
+	};
+
+	private final DiskConsistencyScanner.ScanObserver mScanObserver = new DiskConsistencyScanner.ScanObserver() {
+		@Override
+		public void onScanComplete(int orphanedFileCount, int danglingEntryCount) {
+			mOrphanedFileCount.addAndGet(orphanedFileCount);
+			mDanglingEntryCount.addAndGet(danglingEntryCount);
+			if (orphanedFileCount > 0 || danglingEntryCount > 0) {
+				Log.w(ImageLoader.TAG, "Disk cache consistency scan deleted " + orphanedFileCount + " orphaned files and " + danglingEntryCount + " index entries without images.");
+			}
+
+			// URIs are only ever appended to the log, so it is trimmed back to the index once the scan has dropped the entries without images.
+			Collection<FileEntry> entries = mDiskIndex.getAllEntries();
+			List<String> uris = new ArrayList<String>(entries.size());
+			for (FileEntry entry : entries) {
+				uris.add(entry.getUri());
+			}
+			mUriLog.compact(uris);
+
+			DiskCacheScanListener diskCacheScanListener = mDiskCacheScanListener;
+			if (diskCacheScanListener != null) {
+				diskCacheScanListener.onDiskCacheScanned(orphanedFileCount, danglingEntryCount);
+			}
 		}
 	};
 
@@ -17,23 +17,58 @@
 package com.xtremelabs.imageutils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.os.Environment;
+import android.os.StatFs;
 
 /**
  * Provides access to basic disk operations.
  * 
+ * New files are saved to the {@link StorageRoot#EXTERNAL} volume while it is mounted, and to the {@link StorageRoot#INTERNAL} volume otherwise. Files that were saved to a particular volume can be accessed through
+ * the methods that take a {@link StorageRoot}.
+ * 
  * This class is not thread safe.
  */
 class DiskManager {
 	private static final int MAXIMUM_CACHE_DIR_ATTEMPTS = 3;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	static final String TEMPORARY_DIRECTORY = "tmp";
+	private static final int BUFFER_SIZE = 32 * 1024;
+	private static final int MAXIMUM_POOLED_BUFFERS = 4;
+
+	/*
+	 * Shared by all instances and guarded by its own monitor. Downloads run on several threads at once, so a few buffers are kept around rather than allocating a new one per file.
+	 */
+	private static final ArrayList<ByteBuffer> BUFFER_POOL = new ArrayList<ByteBuffer>();
+
+	private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
 	private final String subDirectory;
 	private final Context appContext;
 	private File cacheDir; // Do not access this variable directly. It can disappear at any time. Use "getCacheDir()" instead.
+	private StorageRoot cacheDirStorageRoot;
 
 	public DiskManager(String subDirectory, Context appContext) {
 		this.subDirectory = subDirectory;
@@ -49,24 +84,140 @@ class DiskManager {
 		return new File(getCacheDir(), filename);
 	}
 
-	public void loadStreamToFile(InputStream inputStream, String filename) throws IOException {
-		File file = new File(getCacheDir(), filename);
+	/**
+	 * @param storageRoot
+	 *            The volume the file was saved to, or null if it is not known, in which case the file is looked up on the current volume.
+	 * @return The file, or null if the volume is not available.
+	 */
+	public File getFile(String filename, StorageRoot storageRoot) {
+		if (storageRoot == null) {
+			return getFile(filename);
+		}
+
+		File directory = getDirectory(storageRoot);
+		return directory != null ? new File(directory, filename) : null;
+	}
+
+	/**
+	 * @return The volume that new files are saved to.
+	 */
+	public StorageRoot getStorageRoot() {
+		getCacheDir();
+		synchronized (this) {
+			return cacheDirStorageRoot;
+		}
+	}
+
+	public boolean isAvailable(StorageRoot storageRoot) {
+		return storageRoot == StorageRoot.INTERNAL || isExternalStorageMounted();
+	}
+
+	/**
+	 * @return The volume that the file is on, looking at the current volume first, or null if the file is on neither.
+	 */
+	public StorageRoot findStorageRoot(String filename) {
+		StorageRoot currentStorageRoot = getStorageRoot();
+		if (isOnDisk(filename)) {
+			return currentStorageRoot;
+		}
+
+		for (StorageRoot storageRoot : StorageRoot.values()) {
+			if (storageRoot != currentStorageRoot) {
+				File file = getFile(filename, storageRoot);
+				if (file != null && file.exists()) {
+					return storageRoot;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Makes the next access pick the volume for new files again. Called when external storage is mounted or unmounted.
+	 */
+	public synchronized void onStorageStateChanged() {
+		cacheDir = null;
+		cacheDirStorageRoot = null;
+	}
+
+	/**
+	 * Copies a file from one volume to another. As with {@link #loadStreamToFile(InputStream, String)}, the copy only appears once it is complete.
+	 */
+	public void copyFile(String filename, StorageRoot from, StorageRoot to) throws IOException {
+		File source = getFile(filename, from);
+		File directory = getDirectory(to);
+		if (source == null || directory == null) {
+			throw new IOException("The storage volume is not available.");
+		}
+		loadStreamToFile(new FileInputStream(source), directory, filename);
+	}
+
+	/**
+	 * @return The cache directory on the given volume, or null if the volume is not available.
+	 */
+	private File getDirectory(StorageRoot storageRoot) {
+		File root;
+		if (storageRoot == StorageRoot.EXTERNAL) {
+			root = isExternalStorageMounted() ? appContext.getExternalCacheDir() : null;
+		} else {
+			root = appContext.getCacheDir();
+		}
+		return root != null ? new File(root, subDirectory) : null;
+	}
+
+	private static boolean isExternalStorageMounted() {
+		return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+	}
+
+	/**
+	 * The stream is written to a temporary file, which is only renamed to the given file name once the whole stream has been written. If the process is killed part way through, the file name is never left pointing
+	 * at a truncated file.
+	 * 
+	 * @return The number of bytes written.
+	 */
+	public long loadStreamToFile(InputStream inputStream, String filename) throws IOException {
+		return loadStreamToFile(inputStream, getCacheDir(), filename);
+	}
+
+	private long loadStreamToFile(InputStream inputStream, File cacheDir, String filename) throws IOException {
+		File file = new File(cacheDir, filename);
+		File temporaryFile = null;
 		FileOutputStream fileOutputStream = null;
+		ByteBuffer buffer = null;
+		boolean succeeded = false;
 
 		try {
-			fileOutputStream = new FileOutputStream(file);
-			byte[] buffer = new byte[1024];
+			createDirectory(file.getParentFile());
+			File temporaryDirectory = new File(cacheDir, TEMPORARY_DIRECTORY);
+			createDirectory(temporaryDirectory);
+			temporaryFile = File.createTempFile("img", null, temporaryDirectory);
+
+			fileOutputStream = new FileOutputStream(temporaryFile);
+			FileChannel channel = fileOutputStream.getChannel();
+			buffer = obtainBuffer();
+			byte[] bytes = buffer.array();
+			long bytesWritten = 0;
 			int bytesRead;
-			while ((bytesRead = inputStream.read(buffer)) > 0) {
-				fileOutputStream.write(buffer, 0, bytesRead);
+			while ((bytesRead = inputStream.read(bytes, 0, bytes.length)) > 0) {
+				buffer.clear();
+				buffer.limit(bytesRead);
+				while (buffer.hasRemaining()) {
+					bytesWritten += channel.write(buffer);
+				}
 			}
-		} catch (IOException e) {
-			file.delete();
-			throw e;
-		} catch (OutOfMemoryError e) {
-			file.delete();
-			throw e;
+			fileOutputStream.close();
+			fileOutputStream = null;
+
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("Was unable to move the downloaded file to " + file);
+			}
+			succeeded = true;
+			return bytesWritten;
 		} finally {
+			if (buffer != null) {
+				releaseBuffer(buffer);
+			}
+
 			try {
 				if (fileOutputStream != null) {
 					fileOutputStream.close();
@@ -75,6 +226,10 @@ class DiskManager {
 				e.printStackTrace();
 			}
 
+			if (!succeeded && temporaryFile != null) {
+				temporaryFile.delete();
+			}
+
 			try {
 				if (inputStream != null) {
 					inputStream.close();
@@ -85,6 +240,20 @@ class DiskManager {
 		}
 	}
 
+	/**
+	 * @return The free space on the volume that holds the cache directory, or -1 if it could not be read.
+	 */
+	@SuppressWarnings("deprecation")
+	public long getAvailableBytes() {
+		try {
+			StatFs statFs = new StatFs(getCacheDir().getAbsolutePath());
+			return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+		} catch (IllegalArgumentException e) {
+			// The volume was unmounted after the cache directory was picked.
+			return -1;
+		}
+	}
+
 	private File getCacheDir() {
 		boolean cacheDirExists = false;
 		int attempts = 0;
@@ -102,12 +271,16 @@ class DiskManager {
 					if (Environment.MEDIA_MOUNTED.equals(state) && appContext.getExternalCacheDir() != null) {
 						String directory = appContext.getExternalCacheDir().getAbsolutePath() + File.separatorChar + subDirectory;
 						cacheDir = new File(directory);
+						cacheDirStorageRoot = StorageRoot.EXTERNAL;
 					} else {
 						String directory = appContext.getCacheDir().getAbsolutePath() + File.separatorChar + subDirectory;
 						cacheDir = new File(directory);
+						cacheDirStorageRoot = StorageRoot.INTERNAL;
 					}
 
 					cacheDirExists = !(cacheDir == null || (!cacheDir.exists() && !cacheDir.mkdirs()));
+				} else {
+					cacheDirExists = true;
 				}
 			}
 		} while (attempts++ < MAXIMUM_CACHE_DIR_ATTEMPTS && !cacheDirExists);
@@ -118,6 +291,128 @@ class DiskManager {
 		return cacheDir;
 	}
 
+	/**
+	 * Adds every file in the cache directory and its sub-directories to the list, except for temporary files.
+	 */
+	public void collectFiles(List<File> files) {
+		File cacheDir = getCacheDir();
+		File[] children = cacheDir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (!child.getName().equals(TEMPORARY_DIRECTORY)) {
+					collectFiles(child, files);
+				}
+			}
+		}
+	}
+
+	static void collectFiles(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					collectFiles(child, files);
+				}
+			}
+		} else {
+			files.add(file);
+		}
+	}
+
+	/**
+	 * @return The files and directories directly inside the cache directory, or null if it could not be listed.
+	 */
+	public File[] listFiles() {
+		return getCacheDir().listFiles();
+	}
+
+	/**
+	 * @return The name of a file in the cache directory, relative to the cache directory, as it would be passed to {@link #getFile(String)}.
+	 */
+	public String getFileName(File file) {
+		return getCacheDir().toURI().relativize(file.toURI()).getPath();
+	}
+
+	/**
+	 * Deletes any temporary files left behind by downloads that were interrupted when the process was killed.
+	 */
+	public void deleteTemporaryFiles() {
+		deleteFile(TEMPORARY_DIRECTORY);
+	}
+
+	/**
+	 * @return True if there are files directly inside the cache directory. Files used to be stored there before the sharded layout of {@link #getShardedFileName(String)} was introduced.
+	 */
+	public boolean hasUnshardedFiles() {
+		File[] files = getCacheDir().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Maps a key of any length to a fixed-length name inside a two-level directory structure, such as "3f/a2/3fa2...". Keeping the directories small keeps lookups fast once tens of thousands of files are cached.
+	 */
+	public static String getShardedFileName(String key) {
+		byte[] hash;
+		try {
+			hash = DIGEST.get().digest(key.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+
+		StringBuilder builder = new StringBuilder(hex.length + 6);
+		builder.append(hex, 0, 2).append(File.separatorChar);
+		builder.append(hex, 2, 2).append(File.separatorChar);
+		builder.append(hex);
+		return builder.toString();
+	}
+
+	/**
+	 * The naming scheme that came before {@link #getShardedFileName(String)}. Files named this way are found directly inside the cache directory.
+	 */
+	public static String getUnshardedFileName(String key) {
+		try {
+			return URLEncoder.encode(key, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void createDirectory(File directory) throws IOException {
+		if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+			throw new IOException("Was unable to create the directory " + directory);
+		}
+	}
+
+	private static ByteBuffer obtainBuffer() {
+		synchronized (BUFFER_POOL) {
+			if (!BUFFER_POOL.isEmpty()) {
+				return BUFFER_POOL.remove(BUFFER_POOL.size() - 1);
+			}
+		}
+		return ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	private static void releaseBuffer(ByteBuffer buffer) {
+		synchronized (BUFFER_POOL) {
+			if (BUFFER_POOL.size() < MAXIMUM_POOLED_BUFFERS) {
+				BUFFER_POOL.add(buffer);
+			}
+		}
+	}
+
 	public void clearDirectory() {
 		deleteDirectory(getCacheDir());
 	}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A byte-bounded LRU cache of the encoded (compressed) bytes of recently downloaded or read images. Decoding from these bytes avoids reading the file from flash again, and the encoded bytes of an image are usually a
+ * fraction of the size of the decoded bitmap.
+ * 
+ * The bytes may optionally be kept in direct {@link ByteBuffer}s, outside of the Java heap. They then have to be copied back into an array before they can be decoded.
+ * 
+ * Reading a file into the cache costs a copy into the heap that streaming it to the decoder does not, so the cache only pays off for images that are decoded again before they are evicted. It is disabled by
+ * default. Only images in the disk cache are cached here. Local files are keyed by their URI alone and could change underneath the cache.
+ */
+class EncodedImageCache {
+	private static final int MAXIMUM_ENTRY_FRACTION = 4;
+
+	private long mMaximumSizeInBytes = 0; // Disabled by default.
+	private volatile long mSize = 0;
+	private boolean mUseDirectBuffers = false;
+
+	private final LinkedHashMap<String, ByteBuffer> mCache = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+
+	private volatile long mHitCount = 0;
+	private volatile long mMissCount = 0;
+
+	/**
+	 * @return The encoded bytes of the image, or null if they are not cached.
+	 */
+	public synchronized byte[] get(String uri) {
+		ByteBuffer buffer = mCache.get(uri);
+		if (buffer == null) {
+			mMissCount++;
+			return null;
+		}
+
+		mHitCount++;
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity()) {
+			return buffer.array();
+		}
+
+		byte[] bytes = new byte[buffer.capacity()];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.clear();
+		duplicate.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Unlike {@link #get(String)}, does not count as a hit or a miss, and does not affect the eviction order.
+	 */
+	public synchronized boolean contains(String uri) {
+		return mCache.containsKey(uri);
+	}
+
+	public synchronized void put(String uri, byte[] bytes) {
+		if (!canCache(bytes.length)) {
+			return;
+		}
+
+		ByteBuffer buffer;
+		if (mUseDirectBuffers) {
+			buffer = ByteBuffer.allocateDirect(bytes.length);
+			buffer.put(bytes);
+		} else {
+			buffer = ByteBuffer.wrap(bytes);
+		}
+
+		remove(uri);
+		mCache.put(uri, buffer);
+		mSize += bytes.length;
+		performEvictions();
+	}
+
+	/**
+	 * Reads a whole file and caches its bytes.
+	 * 
+	 * @return The bytes of the file, or null if the file is too large to be cached.
+	 */
+	public byte[] readFile(String uri, File file) throws IOException {
+		long length = file.length();
+		if (!canCache(length)) {
+			return null;
+		}
+
+		byte[] bytes = new byte[(int) length];
+		FileInputStream fileInputStream = new FileInputStream(file);
+		try {
+			int offset = 0;
+			int bytesRead;
+			while (offset < bytes.length && (bytesRead = fileInputStream.read(bytes, offset, bytes.length - offset)) > 0) {
+				offset += bytesRead;
+			}
+			if (offset < bytes.length) {
+				throw new IOException("The file was shorter than expected.");
+			}
+		} finally {
+			try {
+				fileInputStream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		put(uri, bytes);
+		return bytes;
+	}
+
+	/**
+	 * Wraps a stream so that the bytes read through it are captured. Once the stream has been read to the end, {@link CapturingInputStream#getCapturedBytes()} returns them, unless the image turned out to be too large
+	 * to cache.
+	 */
+	public CapturingInputStream capture(InputStream inputStream) {
+		long limit;
+		synchronized (this) {
+			limit = mMaximumSizeInBytes / MAXIMUM_ENTRY_FRACTION;
+		}
+		return new CapturingInputStream(inputStream, limit);
+	}
+
+	public synchronized void remove(String uri) {
+		ByteBuffer buffer = mCache.remove(uri);
+		if (buffer != null) {
+			mSize -= buffer.capacity();
+		}
+	}
+
+	public synchronized void clear() {
+		mCache.clear();
+		mSize = 0;
+	}
+
+	public synchronized void setMaximumSize(long maxSizeInBytes) {
+		mMaximumSizeInBytes = maxSizeInBytes;
+		performEvictions();
+	}
+
+	/**
+	 * Switching between direct and heap buffers clears the cache.
+	 */
+	public synchronized void setUseDirectBuffers(boolean useDirectBuffers) {
+		if (mUseDirectBuffers != useDirectBuffers) {
+			mUseDirectBuffers = useDirectBuffers;
+			clear();
+		}
+	}
+
+	public synchronized long getMaximumSize() {
+		return mMaximumSizeInBytes;
+	}
+
+	public synchronized boolean isEnabled() {
+		return mMaximumSizeInBytes > 0;
+	}
+
+	public long getSize() {
+		return mSize;
+	}
+
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * A single image may only take up a fraction of the cache, so that one large image cannot flush every other entry.
+	 */
+	private synchronized boolean canCache(long length) {
+		return length > 0 && length <= mMaximumSizeInBytes / MAXIMUM_ENTRY_FRACTION;
+	}
+
+	private void performEvictions() {
+		Iterator<Map.Entry<String, ByteBuffer>> iterator = mCache.entrySet().iterator();
+		while (mSize > mMaximumSizeInBytes && iterator.hasNext()) {
+			mSize -= iterator.next().getValue().capacity();
+			iterator.remove();
+		}
+	}
+
+	static class CapturingInputStream extends FilterInputStream {
+		private final long mLimit;
+		private ByteArrayOutputStream mCapturedBytes = new ByteArrayOutputStream();
+
+		CapturingInputStream(InputStream inputStream, long limit) {
+			super(inputStream);
+			mLimit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				capture(new byte[] { (byte) b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int bytesRead = super.read(buffer, offset, count);
+			if (bytesRead > 0) {
+				capture(buffer, offset, bytesRead);
+			}
+			return bytesRead;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			// Skipped bytes cannot be captured.
+			mCapturedBytes = null;
+			return super.skip(count);
+		}
+
+		/**
+		 * @return The bytes that were read, or null if there were too many of them.
+		 */
+		public byte[] getCapturedBytes() {
+			return mCapturedBytes != null ? mCapturedBytes.toByteArray() : null;
+		}
+
+		private void capture(byte[] buffer, int offset, int count) {
+			if (mCapturedBytes == null) {
+				return;
+			}
+
+			if (mCapturedBytes.size() + count > mLimit) {
+				mCapturedBytes = null;
+			} else {
+				mCapturedBytes.write(buffer, offset, count);
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Remembers the dimensions of images on the file system, so that their headers do not have to be read again every time they are requested.
+ * 
+ * Each entry also records the length and modification time of the file when its dimensions were read. An entry is only trusted once a stat of the file shows that neither has changed.
+ * 
+ * The most recently used entries are kept in memory, and are saved to a snapshot file a few seconds after they change. The snapshot is read in the background when the index is created. Until it has been read,
+ * lookups simply miss.
+ */
+class FileDimensionsIndex {
+	private static final String SNAPSHOT_FILE_NAME = "imageDimensions";
+	private static final int MAGIC = 0x584c4944;
+	private static final int VERSION = 1;
+
+	private static final int MAXIMUM_ENTRIES = 1000;
+	private static final long SAVE_DELAY_MS = 5000;
+
+	private final File mSnapshotFile;
+	private final LRUMap<String, Entry> mEntries = new LRUMap<String, Entry>(64, MAXIMUM_ENTRIES);
+	private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+	private boolean mSaveScheduled = false;
+
+	public FileDimensionsIndex(Context context) {
+		this(new File(context.getFilesDir(), SNAPSHOT_FILE_NAME));
+	}
+
+	FileDimensionsIndex(File snapshotFile) {
+		mSnapshotFile = snapshotFile;
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				readSnapshot();
+			}
+		});
+	}
+
+	/**
+	 * Does not check whether the file has changed, so this is safe to call on the UI thread.
+	 * 
+	 * @return True if the dimensions of the file are known.
+	 */
+	public synchronized boolean contains(String uri) {
+		return mEntries.containsKey(uri);
+	}
+
+	/**
+	 * Does not check whether the file has changed, so this is safe to call on the UI thread.
+	 */
+	public synchronized Dimensions get(String uri) {
+		Entry entry = mEntries.get(uri);
+		return entry != null ? entry.dimensions : null;
+	}
+
+	/**
+	 * Stats the file, and drops the entry if the file has changed since its dimensions were read.
+	 * 
+	 * @return True if the entry is still valid.
+	 */
+	public boolean validate(String uri, File file) {
+		Entry entry;
+		synchronized (this) {
+			entry = mEntries.get(uri);
+		}
+		if (entry == null) {
+			return false;
+		}
+
+		if (entry.length == file.length() && entry.lastModified == file.lastModified()) {
+			return true;
+		}
+
+		synchronized (this) {
+			if (mEntries.get(uri) == entry) {
+				mEntries.remove(uri);
+				scheduleSave();
+			}
+		}
+		return false;
+	}
+
+	public void put(String uri, File file, Dimensions dimensions) {
+		Entry entry = new Entry(file.length(), file.lastModified(), dimensions);
+		synchronized (this) {
+			mEntries.put(uri, entry);
+			scheduleSave();
+		}
+	}
+
+	public synchronized void remove(String uri) {
+		if (mEntries.remove(uri) != null) {
+			scheduleSave();
+		}
+	}
+
+	void saveAndWait() {
+		Future<?> future = mExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				writeSnapshot();
+			}
+		});
+
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.w(ImageLoader.TAG, "Unable to save the image dimensions index.");
+		}
+	}
+
+	private void scheduleSave() {
+		if (!mSaveScheduled) {
+			mSaveScheduled = true;
+			mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					writeSnapshot();
+				}
+			}, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*
+	 * ******************
+	 * 
+	 * Executor thread only
+	 * 
+	 * ******************
+	 */
+
+	private void readSnapshot() {
+		if (!mSnapshotFile.exists()) {
+			return;
+		}
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unrecognized image dimensions index.");
+			}
+
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				String uri = in.readUTF();
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				int width = in.readInt();
+				int height = in.readInt();
+				entries.put(uri, new Entry(length, lastModified, new Dimensions(width, height)));
+			}
+		} catch (IOException e) {
+			Log.w(ImageLoader.TAG, "Unable to read the image dimensions index. It will be rebuilt.");
+			entries.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		synchronized (this) {
+			// Entries added since startup are more recent than the ones in the snapshot, and take precedence over them.
+			List<Map.Entry<String, Entry>> currentEntries = new ArrayList<Map.Entry<String, Entry>>(mEntries.entrySet());
+			mEntries.clear();
+			mEntries.putAll(entries);
+			for (Map.Entry<String, Entry> entry : currentEntries) {
+				mEntries.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void writeSnapshot() {
+		List<Map.Entry<String, Entry>> entries;
+		synchronized (this) {
+			mSaveScheduled = false;
+			entries = new ArrayList<Map.Entry<String, Entry>>(mEntries.entrySet());
+		}
+
+		File tempFile = new File(mSnapshotFile.getPath() + ".tmp");
+		try {
+			DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				writer.writeInt(MAGIC);
+				writer.writeInt(VERSION);
+				writer.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries) {
+					Entry value = entry.getValue();
+					writer.writeUTF(entry.getKey());
+					writer.writeLong(value.length);
+					writer.writeLong(value.lastModified);
+					writer.writeInt(value.dimensions.width);
+					writer.writeInt(value.dimensions.height);
+				}
+			} finally {
+				writer.close();
+			}
+
+			if (!tempFile.renameTo(mSnapshotFile)) {
+				throw new IOException("Unable to replace the image dimensions index.");
+			}
+		} catch (IOException e) {
+			Log.w(ImageLoader.TAG, "Unable to save the image dimensions index.");
+			tempFile.delete();
+		}
+	}
+
+	private static class Entry {
+		final long length;
+		final long lastModified;
+		final Dimensions dimensions;
+
+		Entry(long length, long lastModified, Dimensions dimensions) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.dimensions = dimensions;
+		}
+	}
+}
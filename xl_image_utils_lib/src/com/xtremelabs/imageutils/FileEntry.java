@@ -16,11 +16,34 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.Comparator;
+
 class FileEntry {
+	/**
+	 * Orders entries from the least to the most recently accessed.
+	 */
+	static final Comparator<FileEntry> LAST_ACCESS_TIME_COMPARATOR = new Comparator<FileEntry>() {
+		@Override
+		public int compare(FileEntry lhs, FileEntry rhs) {
+			long difference = lhs.getLastAccessTime() - rhs.getLastAccessTime();
+			if (difference < 0) {
+				return -1;
+			} else if (difference > 0) {
+				return 1;
+			} else {
+				return 0;
+			}
+		}
+	};
+
 	private final String url;
 	private long lastAccessTime;
 	private final Dimensions dimensions;
 	private final long size;
+	private String eTag;
+	private String lastModified;
+	private long expirationTime;
+	private StorageRoot storageRoot;
 
 	public FileEntry(String url, long size, int width, int height, long lastAccessTime) {
 		this.url = url;
@@ -48,4 +71,71 @@ class FileEntry {
 	public void setLastAccessTime(long lastAccessTime) {
 		this.lastAccessTime = lastAccessTime;
 	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return The time at which the image has to be revalidated, or 0 if it never expires.
+	 */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	public void setCacheHeaders(String eTag, String lastModified, long expirationTime) {
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.expirationTime = expirationTime;
+	}
+
+	public boolean hasCacheHeaders() {
+		return eTag != null || lastModified != null || expirationTime != 0;
+	}
+
+	public boolean isExpired(long now) {
+		return expirationTime != 0 && now >= expirationTime;
+	}
+
+	/**
+	 * @return The validators of the image, to be sent with a conditional request, or null if there are none.
+	 */
+	public HttpCacheHeaders getValidators() {
+		if (eTag == null && lastModified == null) {
+			return null;
+		}
+		return new HttpCacheHeaders(eTag, lastModified, HttpCacheHeaders.NO_MAX_AGE);
+	}
+
+	/**
+	 * Changes whenever the image is replaced by a different version of it, so that data derived from the image can be told apart from data derived from an earlier version.
+	 */
+	public long getContentVersion() {
+		return (eTag != null ? eTag.hashCode() : 0) * 31L + (lastModified != null ? lastModified.hashCode() : 0);
+	}
+
+	/**
+	 * @return The volume that the image was saved to, or null if it was saved before volumes were recorded.
+	 */
+	public StorageRoot getStorageRoot() {
+		return storageRoot;
+	}
+
+	public void setStorageRoot(StorageRoot storageRoot) {
+		this.storageRoot = storageRoot;
+	}
+
+	/**
+	 * @return A copy of the entry with a different access time.
+	 */
+	public FileEntry copy(long lastAccessTime) {
+		FileEntry entry = new FileEntry(url, size, dimensions.width, dimensions.height, lastAccessTime);
+		entry.setCacheHeaders(eTag, lastModified, expirationTime);
+		entry.setStorageRoot(storageRoot);
+		return entry;
+	}
 }
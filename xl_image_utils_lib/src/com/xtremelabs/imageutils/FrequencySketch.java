@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * A count-min sketch that estimates how often a key has been seen recently, using 4-bit counters packed sixteen to a long.
+ *
+ * Each key maps to one counter in each of four rows, and its frequency is the smallest of those counters. Once enough increments have been recorded, every counter is halved so that the estimates favour recent
+ * activity. Estimates never exceed 15.
+ *
+ * This class is not thread safe.
+ */
+class FrequencySketch {
+	private static final int[] SEEDS = { 0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xcbf29ce5 };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAXIMUM_FREQUENCY = 15;
+
+	private final long[] mTable;
+	private final int mTableMask;
+	private final int mSampleSize;
+	private int mNumIncrements = 0;
+
+	/**
+	 * @param expectedNumKeys
+	 *            The number of distinct keys the sketch should be able to tell apart. Larger values reduce the error of the estimates at the cost of memory (8 bytes per key).
+	 */
+	public FrequencySketch(int expectedNumKeys) {
+		int size = 16;
+		while (size < expectedNumKeys) {
+			size <<= 1;
+		}
+
+		mTable = new long[size];
+		mTableMask = size - 1;
+		mSampleSize = 10 * size;
+	}
+
+	public void increment(int hash) {
+		boolean incremented = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int spreadHash = spread(hash, i);
+			int index = spreadHash & mTableMask;
+			int offset = (spreadHash >>> 28) << 2;
+
+			long counter = (mTable[index] >>> offset) & 0xfL;
+			if (counter < MAXIMUM_FREQUENCY) {
+				mTable[index] += 1L << offset;
+				incremented = true;
+			}
+		}
+
+		if (incremented && ++mNumIncrements >= mSampleSize) {
+			reset();
+		}
+	}
+
+	public int getFrequency(int hash) {
+		int frequency = MAXIMUM_FREQUENCY;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int spreadHash = spread(hash, i);
+			int index = spreadHash & mTableMask;
+			int offset = (spreadHash >>> 28) << 2;
+
+			frequency = Math.min(frequency, (int) ((mTable[index] >>> offset) & 0xfL));
+		}
+		return frequency;
+	}
+
+	public void clear() {
+		for (int i = 0; i < mTable.length; i++) {
+			mTable[i] = 0;
+		}
+		mNumIncrements = 0;
+	}
+
+	/**
+	 * Halves every counter.
+	 */
+	private void reset() {
+		for (int i = 0; i < mTable.length; i++) {
+			mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+		}
+		mNumIncrements /= 2;
+	}
+
+	private static int spread(int hash, int row) {
+		int h = (hash + row) * SEEDS[row];
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Locale;
+
+/**
+ * The caching headers of an HTTP response: its validators (ETag and Last-Modified) and how long it may be used for (the max-age of its Cache-Control header). A {@link CachingNetworkRequestCreator} reports them
+ * with each response, and they are sent back as If-None-Match and If-Modified-Since to revalidate the image once it has expired.
+ */
+public final class HttpCacheHeaders {
+	/**
+	 * Returned by {@link #getMaxAge()} when the response did not say how long it may be used for.
+	 */
+	public static final long NO_MAX_AGE = -1;
+
+	private final String mETag;
+	private final String mLastModified;
+	private final long mMaxAge;
+
+	/**
+	 * @param eTag
+	 *            The value of the ETag header, or null.
+	 * @param lastModified
+	 *            The value of the Last-Modified header, or null.
+	 * @param cacheControl
+	 *            The value of the Cache-Control header, or null. Only max-age, no-cache and no-store are understood. The latter two are treated as a max-age of 0.
+	 */
+	public HttpCacheHeaders(String eTag, String lastModified, String cacheControl) {
+		this(eTag, lastModified, parseMaxAge(cacheControl));
+	}
+
+	HttpCacheHeaders(String eTag, String lastModified, long maxAge) {
+		mETag = GeneralUtils.isStringBlank(eTag) ? null : eTag;
+		mLastModified = GeneralUtils.isStringBlank(lastModified) ? null : lastModified;
+		mMaxAge = maxAge;
+	}
+
+	public String getETag() {
+		return mETag;
+	}
+
+	public String getLastModified() {
+		return mLastModified;
+	}
+
+	/**
+	 * @return The number of seconds that the response may be used for, or {@link #NO_MAX_AGE}.
+	 */
+	public long getMaxAge() {
+		return mMaxAge;
+	}
+
+	/**
+	 * @return True if the response can be revalidated with a conditional request.
+	 */
+	public boolean hasValidators() {
+		return mETag != null || mLastModified != null;
+	}
+
+	static long parseMaxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return NO_MAX_AGE;
+		}
+
+		long maxAge = NO_MAX_AGE;
+		for (String directive : cacheControl.split(",")) {
+			directive = directive.trim().toLowerCase(Locale.US);
+			if (directive.equals("no-cache") || directive.equals("no-store")) {
+				return 0;
+			} else if (directive.startsWith("max-age=")) {
+				try {
+					maxAge = Math.max(0, Long.parseLong(directive.substring("max-age=".length()).replace("\"", "")));
+				} catch (NumberFormatException e) {
+				}
+			}
+		}
+		return maxAge;
+	}
+
+	@Override
+	public String toString() {
+		return "ETag: " + mETag + ", Last-Modified: " + mLastModified + ", max-age: " + mMaxAge;
+	}
+}
@@ -18,6 +18,11 @@ package com.xtremelabs.imageutils;
 
 import java.io.FileNotFoundException;
 import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -28,34 +33,76 @@ import android.util.Log;
 import com.xtremelabs.imageutils.AsyncOperationsMaps.AsyncOperationState;
 import com.xtremelabs.imageutils.AsyncOperationsMaps.OperationsObserver;
 import com.xtremelabs.imageutils.DiskLRUCacher.FileFormatException;
+import com.xtremelabs.imageutils.ImageLoader.DiskIndexType;
+import com.xtremelabs.imageutils.ImageLoader.MemoryCachePolicy;
+import com.xtremelabs.imageutils.ImageMemoryCacherInterface.EvictionObserver;
 import com.xtremelabs.imageutils.ImageResponse.ImageResponseStatus;
+import com.xtremelabs.imageutils.MemoryTrimmer.TrimObserver;
 
 /**
  * This class defensively handles requests from four locations: LifecycleReferenceManager, ImageMemoryCacherInterface, ImageDiskCacherInterface, ImageNetworkInterface and the AsyncOperationsMaps.
  * 
  * The job of this class is to "route" messages appropriately in order to ensure synchronized handling of image downloading and caching operations.
  */
-class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, OperationsObserver {
+class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, OperationsObserver, EvictionObserver, TrimObserver {
 	private static ImageCacher mImageCacher;
 
 	private ImageDiskCacherInterface mDiskCache;
-	private ImageMemoryCacherInterface mMemoryCache;
+	private volatile ImageMemoryCacherInterface mMemoryCache;
+	private final MemoryTrimmer mMemoryTrimmer = new MemoryTrimmer(this);
+
+	/*
+	 * The sizes requested for the memory cache and bitmap pool. The sizes in effect may be smaller while the caches are trimmed.
+	 */
+	private long mMaximumMemCacheSize;
+	private long mMaximumBitmapPoolSize = 0;
+	private long mMaximumEncodedImageCacheSize;
 	private ImageNetworkInterface mNetworkInterface;
+	private final BitmapPool mBitmapPool = new BitmapPool();
+	private final WeakBitmapCache mWeakBitmapCache = new WeakBitmapCache(mBitmapPool);
+	private final EncodedImageCache mEncodedImageCache = new EncodedImageCache();
+	private final DerivativeDiskCache mDerivativeDiskCache;
+	private final MemoryCacheQuotas mMemoryCacheQuotas = new MemoryCacheQuotas();
+	private final CacheStatsRecorder mCacheStatsRecorder = new CacheStatsRecorder();
+
+	private final ScheduledThreadPoolExecutor mScalingExecutor = new ScheduledThreadPoolExecutor(1);
+	private final Set<DecodeSignature> mPendingScales = new HashSet<DecodeSignature>();
 
 	private AsyncOperationsMaps mAsyncOperationsMap;
 
 	private ImageCacher(Context appContext) {
-		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
-			mMemoryCache = new SizeEstimatingMemoryLRUCacher();
-		} else {
-			mMemoryCache = new AdvancedMemoryLRUCacher();
+		mMemoryCache = createMemoryCache(MemoryCachePolicy.LRU);
+		mMemoryCache.setEvictionObserver(this);
+		long defaultMemCacheSize = MemoryCacheSizeCalculationUtility.getDefaultMemoryCacheSize(appContext, new DisplayUtility());
+		if (defaultMemCacheSize > 0) {
+			mMemoryCache.setMaximumCacheSize(defaultMemCacheSize);
 		}
-
-		mDiskCache = new DiskLRUCacher(appContext, this);
+		mMaximumMemCacheSize = mMemoryCache.getMaximumCacheSize();
+		mMemoryTrimmer.register(appContext);
+
+		mMaximumEncodedImageCacheSize = mEncodedImageCache.getMaximumSize();
+		mDerivativeDiskCache = new DerivativeDiskCache(appContext);
+		PartitionedDiskCacher diskCache = new PartitionedDiskCacher(appContext, this, mBitmapPool, mEncodedImageCache, mDerivativeDiskCache);
+		diskCache.registerStorageStateReceiver(appContext);
+		mDiskCache = diskCache;
 		mNetworkInterface = new ImageDownloader(mDiskCache, this);
 		mAsyncOperationsMap = new AsyncOperationsMaps(this);
 	}
 
+	private static ImageMemoryCacherInterface createMemoryCache(MemoryCachePolicy memoryCachePolicy) {
+		switch (memoryCachePolicy) {
+		case TINY_LFU:
+			return new TinyLfuMemoryCacher();
+		case LRU:
+		default:
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+				return new SizeEstimatingMemoryLRUCacher();
+			} else {
+				return new StripedMemoryLRUCacher();
+			}
+		}
+	}
+
 	public static synchronized ImageCacher getInstance(Context context) {
 		if (mImageCacher == null) {
 			mImageCacher = new ImageCacher(context.getApplicationContext());
@@ -66,14 +113,16 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 	public ImageResponse getBitmap(CacheRequest cacheRequest, ImageCacherListener imageCacherListener) {
 		String uri = cacheRequest.getUri();
 		throwExceptionIfNeeded(cacheRequest, imageCacherListener);
+		mMemoryTrimmer.onImageRequested();
 
-		if (!cacheRequest.isPrecacheRequest()) {
+		// Checking a network image against the disk index would block the UI thread until the index has been loaded.
+		if (!cacheRequest.isPrecacheRequest() && (cacheRequest.isFileSystemRequest() || mDiskCache.isIndexLoaded(cacheRequest))) {
 			int sampleSize = getSampleSize(cacheRequest);
 			boolean isCached = mDiskCache.isCached(cacheRequest);
 			if (isCached && sampleSize != -1) {
 				Bitmap bitmap;
 				DecodeSignature decodeSignature = new DecodeSignature(uri, sampleSize, cacheRequest.getOptions().preferedConfig);
-				bitmap = mMemoryCache.getBitmap(decodeSignature);
+				bitmap = getBitmapFromMemory(cacheRequest, decodeSignature);
 				if (bitmap != null)
 					return new ImageResponse(bitmap, ImageReturnedFrom.MEMORY, ImageResponseStatus.SUCCESS);
 			}
@@ -108,7 +157,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 			if (isCached && sampleSize != -1) {
 				DecodeSignature decodeSignature = new DecodeSignature(uri, sampleSize, cacheRequest.getOptions().preferedConfig);
 				Bitmap bitmap;
-				if ((bitmap = mMemoryCache.getBitmap(decodeSignature)) != null) {
+				if ((bitmap = getBitmapFromMemory(cacheRequest, decodeSignature)) != null) {
 					return new ImageResponse(bitmap, ImageReturnedFrom.MEMORY, ImageResponseStatus.SUCCESS);
 				} else {
 					return getBitmapSynchronouslyFromDisk(cacheRequest, decodeSignature);
@@ -137,12 +186,118 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 		return null;
 	}
 
+	/**
+	 * Looks up the exact decode signature in the memory cache, then among the evicted bitmaps that are still in memory. On a miss, and if the request's options allow it, a higher resolution variant of the same image is returned instead.
+	 * The returned bitmap is held for the caller until it is released, unless the request is a precache request.<br>
+	 * <br>
+	 * A bitmap that stays in memory is never decoded again, so a hit is also checked against the expiry time in the disk index.
+	 */
+	private Bitmap getBitmapFromMemory(CacheRequest cacheRequest, DecodeSignature decodeSignature) {
+		Bitmap bitmap = mMemoryCache.getBitmap(decodeSignature);
+		if (bitmap != null) {
+			retainForCaller(cacheRequest, bitmap);
+			mCacheStatsRecorder.memoryHitCount.incrementAndGet();
+			mDiskCache.revalidateIfExpired(cacheRequest);
+			return bitmap;
+		}
+
+		bitmap = mWeakBitmapCache.remove(decodeSignature);
+		if (bitmap != null) {
+			retainForCaller(cacheRequest, bitmap);
+			mMemoryCache.cacheBitmap(bitmap, decodeSignature);
+			mCacheStatsRecorder.memoryHitCount.incrementAndGet();
+			mDiskCache.revalidateIfExpired(cacheRequest);
+			return bitmap;
+		}
+
+		bitmap = getLargerVariantFromMemory(cacheRequest, decodeSignature);
+		if (bitmap != null) {
+			retainForCaller(cacheRequest, bitmap);
+			mCacheStatsRecorder.memoryHitCount.incrementAndGet();
+			mCacheStatsRecorder.largerVariantHitCount.incrementAndGet();
+			mDiskCache.revalidateIfExpired(cacheRequest);
+		} else {
+			mCacheStatsRecorder.memoryMissCount.incrementAndGet();
+		}
+		return bitmap;
+	}
+
+	private Bitmap getLargerVariantFromMemory(CacheRequest cacheRequest, DecodeSignature decodeSignature) {
+		if (!cacheRequest.getOptions().useLargerCachedVariants) {
+			return null;
+		}
+
+		DecodeSignature variantSignature = mMemoryCache.getLargerVariant(decodeSignature);
+		if (variantSignature == null) {
+			return null;
+		}
+
+		Bitmap bitmap = mMemoryCache.getBitmap(variantSignature);
+		if (bitmap != null && cacheRequest.getOptions().scaleLargerCachedVariants) {
+			scaleVariantInBackground(bitmap, variantSignature, decodeSignature);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Scales a cached variant down to the size the decoder would have produced for the requested signature, and caches the result under that signature. The variant is held for as long as the job runs, so that it
+	 * cannot reach the bitmap pool and be overwritten by a decode while it is being scaled.
+	 */
+	private void scaleVariantInBackground(final Bitmap variant, DecodeSignature variantSignature, final DecodeSignature decodeSignature) {
+		final int scale = BitmapPool.getPowerOfTwoSampleSize(decodeSignature.sampleSize) / BitmapPool.getPowerOfTwoSampleSize(variantSignature.sampleSize);
+		if (scale <= 1) {
+			// The decoder would have produced a bitmap of the same size, so there is nothing to gain by scaling.
+			return;
+		}
+
+		synchronized (mPendingScales) {
+			if (!mPendingScales.add(decodeSignature)) {
+				return;
+			}
+		}
+
+		mBitmapPool.retain(variant);
+		mScalingExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (variant.isRecycled() || mMemoryCache.getBitmap(decodeSignature) != null) {
+						return;
+					}
+
+					int width = Math.max(1, (variant.getWidth() + scale - 1) / scale);
+					int height = Math.max(1, (variant.getHeight() + scale - 1) / scale);
+					Bitmap bitmap = Bitmap.createScaledBitmap(variant, width, height, true);
+					mMemoryCache.cacheBitmap(bitmap, decodeSignature);
+				} catch (OutOfMemoryError e) {
+					Log.w(ImageLoader.TAG, "Unable to scale down a cached image. Out of memory.");
+				} finally {
+					mBitmapPool.release(variant);
+					synchronized (mPendingScales) {
+						mPendingScales.remove(decodeSignature);
+					}
+				}
+			}
+		});
+	}
+
 	private ImageResponse getBitmapSynchronouslyFromDisk(CacheRequest cacheRequest, DecodeSignature decodeSignature) throws FileNotFoundException, FileFormatException {
+		mCacheStatsRecorder.diskHitCount.incrementAndGet();
 		Bitmap bitmap;
 		bitmap = mDiskCache.getBitmapSynchronouslyFromDisk(cacheRequest, decodeSignature);
+		retainForCaller(cacheRequest, bitmap);
 		return new ImageResponse(bitmap, ImageReturnedFrom.DISK, ImageResponseStatus.SUCCESS);
 	}
 
+	/**
+	 * Precache requests drop the bitmaps they are given, so only the bitmaps handed to other requests are held until they are released.
+	 */
+	private void retainForCaller(CacheRequest cacheRequest, Bitmap bitmap) {
+		if (!cacheRequest.isPrecacheRequest()) {
+			mBitmapPool.retain(bitmap);
+		}
+	}
+
 	// TODO This method is VERY slow. Find ways to improve performance.
 	@Override
 	public int getSampleSize(CacheRequest imageRequest) {
@@ -159,16 +314,131 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 	public void clearMemCache() {
 		mMemoryCache.clearCache();
+		mMemoryCacheQuotas.clear();
+		mWeakBitmapCache.clear();
+		mBitmapPool.clear();
+		mEncodedImageCache.clear();
+	}
+
+	public synchronized void setMaximumMemCacheSize(long size) {
+		mMaximumMemCacheSize = size;
+		applyTrimFraction(mMemoryTrimmer.getFraction());
+	}
+
+	/**
+	 * Replaces the memory cache with one that uses the given policy. The images in the current memory cache are dropped.
+	 */
+	public synchronized void setMemoryCachePolicy(MemoryCachePolicy memoryCachePolicy) {
+		ImageMemoryCacherInterface memoryCache = createMemoryCache(memoryCachePolicy);
+		memoryCache.setMaximumCacheSize((long) (mMaximumMemCacheSize * mMemoryTrimmer.getFraction()));
+		memoryCache.setEvictionObserver(this);
+
+		ImageMemoryCacherInterface oldMemoryCache = mMemoryCache;
+		mMemoryCache = memoryCache;
+		oldMemoryCache.clearCache();
+		mMemoryCacheQuotas.clear();
+	}
+
+	public void setMemoryCacheQuota(Object lifecycleKey, long maxSizeInBytes) {
+		removeFromMemoryCache(mMemoryCacheQuotas.setQuota(lifecycleKey, maxSizeInBytes));
+	}
+
+	public void removeMemoryCacheQuota(Object lifecycleKey) {
+		mMemoryCacheQuotas.removeQuota(lifecycleKey);
+	}
+
+	/**
+	 * Used when a lifecycle key goes over its memory cache quota. The removed bitmaps are likely still on screen, so they are kept in the weak reference tier. They only reach the bitmap pool once every caller has
+	 * released them.
+	 */
+	private void removeFromMemoryCache(List<DecodeSignature> decodeSignatures) {
+		for (DecodeSignature decodeSignature : decodeSignatures) {
+			Bitmap bitmap = mMemoryCache.removeBitmap(decodeSignature);
+			if (bitmap != null) {
+				mBitmapPool.onBitmapEvicted(bitmap);
+				mWeakBitmapCache.put(decodeSignature, bitmap);
+			}
+		}
+	}
+
+	public void releaseBitmap(Bitmap bitmap) {
+		mBitmapPool.release(bitmap);
+	}
+
+	public synchronized void setMaximumBitmapPoolSize(long size) {
+		mMaximumBitmapPoolSize = size;
+		applyTrimFraction(mMemoryTrimmer.getFraction());
+	}
+
+	public synchronized void setMaximumEncodedImageCacheSize(long size, boolean useDirectBuffers) {
+		mMaximumEncodedImageCacheSize = size;
+		mEncodedImageCache.setUseDirectBuffers(useDirectBuffers);
+		applyTrimFraction(mMemoryTrimmer.getFraction());
+	}
+
+	public void setMemoryTrimFraction(int trimLevel, float fraction) {
+		mMemoryTrimmer.setTrimFraction(trimLevel, fraction);
+	}
+
+	public void setMemoryTrimListener(MemoryTrimListener memoryTrimListener) {
+		mMemoryTrimmer.setMemoryTrimListener(memoryTrimListener);
+	}
+
+	@Override
+	public void onTrimFractionChanged(float fraction) {
+		applyTrimFraction(fraction);
+	}
+
+	/**
+	 * The app may be killed soon after it is trimmed, so index changes that are still queued in memory are written out.
+	 */
+	@Override
+	public void onTrimMemory(int level) {
+		mDiskCache.flush();
+	}
+
+	public void flushDiskCache() {
+		mDiskCache.flush();
 	}
 
-	public void setMaximumMemCacheSize(long size) {
-		mMemoryCache.setMaximumCacheSize(size);
+	private synchronized void applyTrimFraction(float fraction) {
+		mMemoryCache.setMaximumCacheSize((long) (mMaximumMemCacheSize * fraction));
+		mBitmapPool.setMaximumPoolSize((long) (mMaximumBitmapPoolSize * fraction));
+		mEncodedImageCache.setMaximumSize((long) (mMaximumEncodedImageCacheSize * fraction));
 	}
 
 	public void setMaximumDiskCacheSize(long maxSizeInBytes) {
 		mDiskCache.setDiskCacheSize(maxSizeInBytes);
 	}
 
+	public void setMaximumDiskCacheSize(String partitionName, long maxSizeInBytes) {
+		mDiskCache.setDiskCacheSize(partitionName, maxSizeInBytes);
+	}
+
+	public void setAdaptiveDiskCacheSize(String partitionName, float fractionOfFreeSpace, long minSizeInBytes, long maxSizeInBytes) {
+		mDiskCache.setAdaptiveDiskCacheSize(partitionName, new AdaptiveDiskCacheSize(fractionOfFreeSpace, minSizeInBytes, maxSizeInBytes));
+	}
+
+	public void setMaximumDerivativeDiskCacheSize(long maxSizeInBytes) {
+		mDerivativeDiskCache.setMaximumSize(maxSizeInBytes);
+	}
+
+	public void setPackedImageThreshold(int maximumSizeInBytes) {
+		mDiskCache.setPackedImageThreshold(maximumSizeInBytes);
+	}
+
+	public void setDiskCacheScanListener(DiskCacheScanListener diskCacheScanListener) {
+		mDiskCache.setDiskCacheScanListener(diskCacheScanListener);
+	}
+
+	public void setInternalStorageHotImageCount(int count) {
+		mDiskCache.setInternalStorageHotImageCount(count);
+	}
+
+	public void setDiskIndexType(DiskIndexType diskIndexType) {
+		mDiskCache.setDiskIndexType(diskIndexType);
+	}
+
 	public void cancelRequestForBitmap(final ImageCacherListener imageCacherListener) {
 		new AsyncTask<Void, Void, Void>() {
 			@Override
@@ -180,6 +450,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 	}
 
 	private void downloadImageFromNetwork(CacheRequest imageRequest, ImageCacherListener imageCacherListener) {
+		mCacheStatsRecorder.diskMissCount.incrementAndGet();
 		mAsyncOperationsMap.registerNetworkRequest(imageRequest, imageCacherListener);
 	}
 
@@ -188,6 +459,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 	}
 
 	private void decodeBitmapFromDisk(CacheRequest cacheRequest, DecodeSignature decodeSignature, ImageCacherListener imageCacherListener) {
+		mCacheStatsRecorder.diskHitCount.incrementAndGet();
 		mAsyncOperationsMap.registerDecodeRequest(cacheRequest, decodeSignature, imageCacherListener, ImageReturnedFrom.DISK);
 	}
 
@@ -213,12 +485,47 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 	@Override
 	public void onImageDecoded(DecodeSignature decodeSignature, Bitmap bitmap, ImageReturnedFrom returnedFrom) {
-		mMemoryCache.cacheBitmap(bitmap, decodeSignature);
-		mAsyncOperationsMap.onDecodeSuccess(bitmap, returnedFrom, decodeSignature);
+		// The bitmap may be evicted as soon as it is cached, so it is pinned until it has been handed to the waiting listeners.
+		mBitmapPool.retain(bitmap);
+		try {
+			mMemoryCache.cacheBitmap(bitmap, decodeSignature);
+			removeFromMemoryCache(mMemoryCacheQuotas.onBitmapCached(decodeSignature, BitmapPool.getAllocationSize(bitmap)));
+			mAsyncOperationsMap.onDecodeSuccess(bitmap, returnedFrom, decodeSignature);
+		} finally {
+			mBitmapPool.release(bitmap);
+		}
+	}
+
+	@Override
+	public void onBitmapDelivered(Bitmap bitmap) {
+		mBitmapPool.retain(bitmap);
+	}
+
+	@Override
+	public void onDecodeCancelled(DecodeSignature decodeSignature) {
+		mMemoryCacheQuotas.onDecodeCancelled(decodeSignature);
+	}
+
+	@Override
+	public void onBitmapEvicted(DecodeSignature decodeSignature, Bitmap bitmap) {
+		mCacheStatsRecorder.memoryEvictionCount.incrementAndGet();
+		mMemoryCacheQuotas.onBitmapRemoved(decodeSignature);
+		mBitmapPool.onBitmapEvicted(bitmap);
+		mWeakBitmapCache.put(decodeSignature, bitmap);
+	}
+
+	public long getEvictedBitmapHitCount() {
+		return mWeakBitmapCache.getHitCount();
+	}
+
+	public CacheStats getCacheStats() {
+		return new CacheStats(mCacheStatsRecorder, mMemoryCache, mWeakBitmapCache, mBitmapPool, mEncodedImageCache, mDiskCache, mDerivativeDiskCache, mAsyncOperationsMap);
 	}
 
 	@Override
 	public void onImageDecodeFailed(DecodeSignature decodeSignature, String message) {
+		mCacheStatsRecorder.decodeFailureCount.incrementAndGet();
+		mMemoryCacheQuotas.onDecodeFailed(decodeSignature);
 		mAsyncOperationsMap.onDecodeFailed(decodeSignature, message);
 	}
 
@@ -234,14 +541,31 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 	@Override
 	public void onImageDownloaded(String uri) {
+		mCacheStatsRecorder.downloadCount.incrementAndGet();
 		mAsyncOperationsMap.onDownloadComplete(uri);
 	}
 
 	@Override
 	public void onImageDownloadFailed(String uri, String message) {
+		mCacheStatsRecorder.downloadFailureCount.incrementAndGet();
 		mAsyncOperationsMap.onDownloadFailed(uri, message);
 	}
 
+	@Override
+	public void onCachedImageExpired(CacheRequest cacheRequest, HttpCacheHeaders validators) {
+		mNetworkInterface.revalidate(cacheRequest, validators);
+	}
+
+	/**
+	 * The bitmaps of the old version stay on screen, but are no longer returned from memory. The next request decodes the new version.
+	 */
+	@Override
+	public void onImageReplaced(String uri) {
+		mMemoryCache.removeAllImagesForUri(uri);
+		mWeakBitmapCache.removeAllForUri(uri);
+		mMemoryCacheQuotas.removeAllForUri(uri);
+	}
+
 	@Override
 	public Prioritizable getNetworkRunnable(CacheRequest cacheRequest) {
 		return mNetworkInterface.getNetworkPrioritizable(cacheRequest);
@@ -254,6 +578,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 	@Override
 	public Prioritizable getDecodeRunnable(CacheRequest cacheRequest, DecodeSignature decodeSignature, ImageReturnedFrom imageReturnedFrom) {
+		mMemoryCacheQuotas.onDecodeScheduled(decodeSignature, cacheRequest.getLifecycleKey());
 		return mDiskCache.getDecodePrioritizable(cacheRequest, decodeSignature, imageReturnedFrom);
 	}
 
@@ -263,6 +588,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 	void stubMemCache(ImageMemoryCacherInterface memoryCache) {
 		mMemoryCache = memoryCache;
+		mMemoryCache.setEvictionObserver(this);
 	}
 
 	void stubDiskCache(ImageDiskCacherInterface imageDiskCacherInterface) {
@@ -284,6 +610,19 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 	public void invalidateFileSystemUri(String uri) {
 		mDiskCache.invalidateFileSystemUri(uri);
 		mMemoryCache.removeAllImagesForUri(uri);
+		mWeakBitmapCache.removeAllForUri(uri);
+		mMemoryCacheQuotas.removeAllForUri(uri);
+	}
+
+	public void invalidateFileSystemUris(Collection<String> uris) {
+		for (String uri : uris) {
+			mDiskCache.invalidateFileSystemUri(uri);
+		}
+		mMemoryCache.removeAllImagesForUris(uris);
+		mWeakBitmapCache.removeAllForUris(uris);
+		for (String uri : uris) {
+			mMemoryCacheQuotas.removeAllForUri(uri);
+		}
 	}
 
 	public void notifyDirectionSwapped(CacheKey cacheKey) {
@@ -325,7 +664,7 @@ class ImageCacher implements ImageDownloadObserver, ImageDiskObserver, Operation
 
 				DecodeSignature decodeSignature = new DecodeSignature(cacheRequest.getUri(), sampleSize, cacheRequest.getOptions().preferedConfig);
 				Bitmap bitmap;
-				if ((bitmap = mMemoryCache.getBitmap(decodeSignature)) != null) {
+				if ((bitmap = getBitmapFromMemory(cacheRequest, decodeSignature)) != null) {
 					imageCacherListener.onImageAvailable(new ImageResponse(bitmap, ImageReturnedFrom.DISK, ImageResponseStatus.SUCCESS));
 				} else {
 					decodeBitmapFromDisk(cacheRequest, decodeSignature, imageCacherListener);
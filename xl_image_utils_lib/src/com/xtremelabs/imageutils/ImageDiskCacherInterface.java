@@ -22,6 +22,7 @@ import java.net.URISyntaxException;
 import android.graphics.Bitmap;
 
 import com.xtremelabs.imageutils.DiskLRUCacher.FileFormatException;
+import com.xtremelabs.imageutils.ImageLoader.DiskIndexType;
 
 /**
  * This interface defines the mechanisms that the ImageCacher uses to interract with the Disk Cache.
@@ -35,6 +36,80 @@ interface ImageDiskCacherInterface extends NetworkToDiskInterface {
 
 	void setDiskCacheSize(long sizeInBytes);
 
+	/**
+	 * Sets the maximum size of a named partition. A null name refers to the default partition, as does {@link #setDiskCacheSize(long)}.
+	 */
+	void setDiskCacheSize(String partitionName, long sizeInBytes);
+
+	/**
+	 * Sizes a partition from the free space on its volume, re-checking periodically. A null name refers to the default partition. Setting a fixed size afterwards turns the adaptive size off again.
+	 */
+	void setAdaptiveDiskCacheSize(String partitionName, AdaptiveDiskCacheSize adaptiveDiskCacheSize);
+
+	/**
+	 * Images no larger than the given size are packed into shared segment files instead of getting files of their own. 0 disables packing.
+	 */
+	void setPackedImageThreshold(int maximumSizeInBytes);
+
+	/**
+	 * Selects how the cache keeps track of the images it holds. The entries of the current index are migrated to the new one in the background.
+	 */
+	void setDiskIndexType(DiskIndexType diskIndexType);
+
+	/**
+	 * Starts writing out any index changes that have not been persisted yet. Must not block.
+	 */
+	void flush();
+
+	/**
+	 * Must not block, as it is read for cache statistics.
+	 */
+	long getSizeOnDisk();
+
+	/**
+	 * @return The number of images that have been deleted to keep the cache within its maximum size.
+	 */
+	long getEvictionCount();
+
+	/**
+	 * @return The number of files that consistency scans have deleted because the index did not know about them.
+	 */
+	long getOrphanedFileCount();
+
+	/**
+	 * @return The number of index entries that consistency scans have dropped because their images were missing.
+	 */
+	long getDanglingEntryCount();
+
+	void setDiskCacheScanListener(DiskCacheScanListener diskCacheScanListener);
+
+	/**
+	 * Keeps up to the given number of the most recently used images on internal storage, moving them off external storage in the background. 0 disables the policy.
+	 */
+	void setInternalStorageHotImageCount(int count);
+
+	/**
+	 * Called when external storage is mounted or unmounted.
+	 */
+	void onStorageStateChanged();
+
+	/**
+	 * Must not block. Until the index has been loaded, any call that needs it will block.
+	 * 
+	 * @return True if every index that a lookup of the request reads has been loaded.
+	 */
+	boolean isIndexLoaded(CacheRequest cacheRequest);
+
+	/**
+	 * Starts a revalidation of the image if its cached version has expired. Used for images returned from memory, which are otherwise never checked. Must not block: nothing is done until the index has been loaded.
+	 */
+	void revalidateIfExpired(CacheRequest cacheRequest);
+
+	/**
+	 * @return The number of milliseconds it took to load the index, or -1 if it is still loading.
+	 */
+	long getIndexLoadTime();
+
 	Dimensions getImageDimensions(CacheRequest cacheRequest);
 
 	void invalidateFileSystemUri(String uri);
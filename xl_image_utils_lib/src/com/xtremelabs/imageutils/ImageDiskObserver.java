@@ -26,4 +26,9 @@ interface ImageDiskObserver {
 	public void onImageDetailsRequestFailed(String uri, String errorMessage);
 
 	public void onImageDetailsRetrieved(String uri);
+
+	/**
+	 * Called after an expired image has been returned from the disk cache, so that it can be revalidated.
+	 */
+	public void onCachedImageExpired(CacheRequest cacheRequest, HttpCacheHeaders validators);
 }
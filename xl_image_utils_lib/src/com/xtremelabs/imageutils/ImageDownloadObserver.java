@@ -20,4 +20,9 @@ interface ImageDownloadObserver {
 	public void onImageDownloaded(String url);
 
 	public void onImageDownloadFailed(String url, String error);
+
+	/**
+	 * Called once a revalidation has replaced an image on disk with a newer version, so that the old version can be dropped from memory.
+	 */
+	public void onImageReplaced(String url);
 }
@@ -18,9 +18,14 @@ package com.xtremelabs.imageutils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.util.Log;
 
+import com.xtremelabs.imageutils.CachingNetworkRequestCreator.CachingInputStreamListener;
 import com.xtremelabs.imageutils.NetworkRequestCreator.InputStreamListener;
 
 class ImageDownloader implements ImageNetworkInterface {
@@ -31,6 +36,12 @@ class ImageDownloader implements ImageNetworkInterface {
 	private final ImageDownloadObserver mImageDownloadObserver;
 	private NetworkRequestCreator mNetworkRequestCreator = new DefaultNetworkRequestCreator();
 
+	/*
+	 * Revalidations are not urgent, as the expired image has already been returned. They are made one at a time, so that they never compete with downloads for more than one connection.
+	 */
+	private final ExecutorService mRevalidationExecutor = Executors.newSingleThreadExecutor();
+	private final Set<String> mRevalidatingUris = new HashSet<String>();
+
 	public ImageDownloader(NetworkToDiskInterface networkToDiskInterface, ImageDownloadObserver imageDownloadObserver) {
 		mNetworkToDiskInterface = networkToDiskInterface;
 		mImageDownloadObserver = imageDownloadObserver;
@@ -50,6 +61,74 @@ class ImageDownloader implements ImageNetworkInterface {
 		}
 	}
 
+	@Override
+	public void revalidate(final CacheRequest cacheRequest, final HttpCacheHeaders validators) {
+		final NetworkRequestCreator networkRequestCreator;
+		synchronized (this) {
+			networkRequestCreator = mNetworkRequestCreator;
+		}
+		if (!(networkRequestCreator instanceof CachingNetworkRequestCreator)) {
+			return;
+		}
+
+		final String uri = cacheRequest.getUri();
+		synchronized (mRevalidatingUris) {
+			if (!mRevalidatingUris.add(uri)) {
+				return;
+			}
+		}
+
+		mRevalidationExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					((CachingNetworkRequestCreator) networkRequestCreator).getInputStream(uri, validators, new CachingInputStreamListener() {
+						@Override
+						public void onInputStreamReady(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
+							try {
+								mNetworkToDiskInterface.replaceImageFromInputStream(cacheRequest, inputStream, cacheHeaders);
+								mImageDownloadObserver.onImageReplaced(uri);
+							} catch (IOException e) {
+								Log.w(ImageLoader.TAG, "Unable to save the revalidated image. URI: " + uri + ", Message: " + e.getMessage());
+								mNetworkToDiskInterface.onRevalidationFailed(cacheRequest);
+							} finally {
+								closeQuietly(inputStream);
+							}
+						}
+
+						@Override
+						public void onNotModified(HttpCacheHeaders cacheHeaders) {
+							mNetworkToDiskInterface.onImageNotModified(cacheRequest, cacheHeaders);
+						}
+
+						@Override
+						public void onFailure(String errorMessage) {
+							// The expired image is kept, and will be revalidated again the next time it is returned once the back-off has passed.
+							Log.w(ImageLoader.TAG, "Unable to revalidate image. URI: " + uri + ", Message: " + errorMessage);
+							mNetworkToDiskInterface.onRevalidationFailed(cacheRequest);
+						}
+					});
+				} catch (IllegalStateException e) {
+					Log.w(ImageLoader.TAG, "Unable to revalidate image. URI: " + uri + ", Message: " + e.getMessage());
+					mNetworkToDiskInterface.onRevalidationFailed(cacheRequest);
+				} finally {
+					synchronized (mRevalidatingUris) {
+						mRevalidatingUris.remove(uri);
+					}
+				}
+			}
+		});
+	}
+
+	private static void closeQuietly(InputStream inputStream) {
+		try {
+			if (inputStream != null) {
+				inputStream.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
 	class ImageDownloadingRunnable extends DefaultPrioritizable {
 		public ImageDownloadingRunnable(CacheRequest cacheRequest) {
 			super(cacheRequest, new Request<String>(cacheRequest.getUri()));
@@ -57,28 +136,56 @@ class ImageDownloader implements ImageNetworkInterface {
 
 		@Override
 		public void execute() {
+			NetworkRequestCreator networkRequestCreator;
+			synchronized (ImageDownloader.this) {
+				networkRequestCreator = mNetworkRequestCreator;
+			}
+
 			try {
-				mNetworkRequestCreator.getInputStream(mCacheRequest.getUri(), new InputStreamListener() {
-					@Override
-					public void onInputStreamReady(InputStream inputStream) {
-						String errorMessage = loadInputStreamToDisk(inputStream);
-						if (errorMessage != null) {
+				if (networkRequestCreator instanceof CachingNetworkRequestCreator) {
+					((CachingNetworkRequestCreator) networkRequestCreator).getInputStream(mCacheRequest.getUri(), null, new CachingInputStreamListener() {
+						@Override
+						public void onInputStreamReady(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
+							onDownloadComplete(inputStream, cacheHeaders);
+						}
+
+						@Override
+						public void onNotModified(HttpCacheHeaders cacheHeaders) {
+							mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), "Unexpected 304 response for an unconditional request.");
+						}
+
+						@Override
+						public void onFailure(String errorMessage) {
 							mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), errorMessage);
-						} else {
-							mImageDownloadObserver.onImageDownloaded(mCacheRequest.getUri());
 						}
-					}
+					});
+				} else {
+					networkRequestCreator.getInputStream(mCacheRequest.getUri(), new InputStreamListener() {
+						@Override
+						public void onInputStreamReady(InputStream inputStream) {
+							onDownloadComplete(inputStream, null);
+						}
 
-					@Override
-					public void onFailure(String errorMessage) {
-						mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), errorMessage);
-					}
-				});
+						@Override
+						public void onFailure(String errorMessage) {
+							mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), errorMessage);
+						}
+					});
+				}
 			} catch (IllegalStateException e) {
 				reportIllegalStateExceptionLoadFailure(e);
 			}
 		}
 
+		private void onDownloadComplete(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
+			String errorMessage = loadInputStreamToDisk(inputStream, cacheHeaders);
+			if (errorMessage != null) {
+				mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), errorMessage);
+			} else {
+				mImageDownloadObserver.onImageDownloaded(mCacheRequest.getUri());
+			}
+		}
+
 		private void reportIllegalStateExceptionLoadFailure(IllegalStateException e) {
 			/*
 			 * NOTE: If a bad URL is passed in (for example, mUrl = "N/A", the client.execute() call will throw an IllegalStateException. We do not want this exception to crash the app. Rather, we want to log the error
@@ -90,11 +197,11 @@ class ImageDownloader implements ImageNetworkInterface {
 			mImageDownloadObserver.onImageDownloadFailed(mCacheRequest.getUri(), errorMessage);
 		}
 
-		private String loadInputStreamToDisk(InputStream inputStream) {
+		private String loadInputStreamToDisk(InputStream inputStream, HttpCacheHeaders cacheHeaders) {
 			String errorMessage = null;
 			if (inputStream != null) {
 				try {
-					mNetworkToDiskInterface.downloadImageFromInputStream(mCacheRequest.getUri(), inputStream);
+					mNetworkToDiskInterface.downloadImageFromInputStream(mCacheRequest, inputStream, cacheHeaders);
 				} catch (IOException e) {
 					errorMessage = "IOException when downloading image: " + mCacheRequest.getUri() + ", Exception type: " + e.getClass().getName() + ", Exception message: " + e.getMessage();
 				} catch (IllegalArgumentException e) {
@@ -17,6 +17,7 @@
 package com.xtremelabs.imageutils;
 
 import java.lang.ref.WeakReference;
+import java.util.Collection;
 import java.util.List;
 
 import android.annotation.SuppressLint;
@@ -127,12 +128,21 @@ public class ImageLoader implements AbstractImageLoader {
 			mDestroyed = true;
 		}
 
+		ImageCacher imageCacher = ImageCacher.getInstance(mContext);
+		imageCacher.removeMemoryCacheQuota(mKey);
+		imageCacher.flushDiskCache();
+
 		List<ImageManagerListener> listeners = mReferenceManager.cancelRequestsForKey(mKey);
 		if (listeners != null) {
 			for (ImageManagerListener listener : listeners) {
 				mViewMapper.removeImageView(listener);
 			}
 		}
+
+		// The views of a destroyed Activity or Fragment are no longer drawn.
+		for (Bitmap bitmap : mViewMapper.unbindAllBitmaps()) {
+			imageCacher.releaseBitmap(bitmap);
+		}
 	}
 
 	public void notifyConfigurationChanged() {
@@ -344,6 +354,7 @@ public class ImageLoader implements AbstractImageLoader {
 
 				mViewMapper.removeListener(imageView);
 				imageView.setImageResource(resourceId);
+				releaseBoundBitmap(imageView);
 			}
 		} else {
 			new Handler(mContext.getMainLooper()).post(new Runnable() {
@@ -392,6 +403,18 @@ public class ImageLoader implements AbstractImageLoader {
 		ImageCacher.getInstance(context).invalidateFileSystemUri(uri);
 	}
 
+	/**
+	 * This method will remove all information regarding these images from the cache. It is equivalent to calling {@link #invalidateFileSystemUri(Context, String)} for each URI, but is much faster when invalidating
+	 * many images at once.
+	 * 
+	 * @param uris
+	 *            The file system URIs to remove.
+	 */
+	public static void invalidateFileSystemUris(Context context, Collection<String> uris) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).invalidateFileSystemUris(uris);
+	}
+
 	/**
 	 * Forces the memory cache to release all references to bitmaps.
 	 * 
@@ -408,7 +431,10 @@ public class ImageLoader implements AbstractImageLoader {
 	 * WARNING: Setting the memory cache size value too high will result in OutOfMemory exceptions. Developers should test their apps thoroughly and modify the value set using this method based on memory consumption and
 	 * app performance. A larger cache size means better performance but worse memory usage. A smaller cache size means worse performance but better memory usage.<br>
 	 * <br>
-	 * The image system will only violate the maximum size specified if a single image is loaded that is larger than the specified maximum size.
+	 * The image system will only violate the maximum size specified if a single image is loaded that is larger than the specified maximum size.<br>
+	 * <br>
+	 * By default, the memory cache takes an eighth of the app's heap limit (the large heap limit if android:largeHeap is set). It is raised to hold at least three screens worth of full-screen images, but never takes
+	 * more than a quarter of the heap.
 	 * 
 	 * @param maxSizeInBytes
 	 */
@@ -422,7 +448,10 @@ public class ImageLoader implements AbstractImageLoader {
 	 * WARNING: Setting the memory cache size value too high will result in OutOfMemory exceptions. Developers should test their apps thoroughly and modify the value set using this method based on memory consumption and
 	 * app performance. A larger cache size means better performance but worse memory usage. A smaller cache size means worse performance but better memory usage.<br>
 	 * <br>
-	 * The image system will only violate the maximum size specified if a single image is loaded that is larger than the specified maximum size.
+	 * The image system will only violate the maximum size specified if a single image is loaded that is larger than the specified maximum size.<br>
+	 * <br>
+	 * By default, the memory cache takes an eighth of the app's heap limit (the large heap limit if android:largeHeap is set). It is raised to hold at least three screens worth of full-screen images, but never takes
+	 * more than a quarter of the heap.
 	 * 
 	 * @param maxSizeInBytes
 	 */
@@ -431,6 +460,135 @@ public class ImageLoader implements AbstractImageLoader {
 		ImageCacher.getInstance(context).setMaximumMemCacheSize(maxSizeInBytes);
 	}
 
+	/**
+	 * When the system reports that it is running low on memory, the memory cache, bitmap pool and encoded image cache are trimmed to a fraction of their maximum sizes. The deeper the trim level, the smaller the fraction. Once images are
+	 * requested again, the caches gradually grow back to their maximum sizes. Trimming requires Ice Cream Sandwich or above.<br>
+	 * <br>
+	 * Default fractions: 0.75 for TRIM_MEMORY_RUNNING_MODERATE, 0.5 for TRIM_MEMORY_RUNNING_LOW, 0.25 for TRIM_MEMORY_RUNNING_CRITICAL, 0.5 for TRIM_MEMORY_UI_HIDDEN, 0.25 for TRIM_MEMORY_BACKGROUND, 0.1 for
+	 * TRIM_MEMORY_MODERATE and 0 for TRIM_MEMORY_COMPLETE.
+	 * 
+	 * @param trimLevel
+	 *            One of the TRIM_MEMORY constants in {@link android.content.ComponentCallbacks2}.
+	 * @param fraction
+	 *            A value between 0 and 1.
+	 */
+	public static void setMemoryTrimFraction(Context context, int trimLevel, float fraction) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMemoryTrimFraction(trimLevel, fraction);
+	}
+
+	/**
+	 * Replaces the listener that is notified when the memory caches are trimmed or regrown. Pass null to stop listening.
+	 */
+	public static void setMemoryTrimListener(Context context, MemoryTrimListener memoryTrimListener) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMemoryTrimListener(memoryTrimListener);
+	}
+
+	/**
+	 * Bitmaps that are evicted from the memory cache while they are still displayed remain in memory. Such bitmaps are handed out again instead of being decoded from disk a second time.
+	 * 
+	 * @return The number of decodes that have been avoided this way since the app started.
+	 */
+	public static long getEvictedBitmapHitCount(Context context) {
+		context = context.getApplicationContext();
+		return ImageCacher.getInstance(context).getEvictedBitmapHitCount();
+	}
+
+	/**
+	 * Takes a snapshot of the hit, miss and eviction counters of every cache tier, along with their current sizes and the number of pending operations. This is cheap enough to call on every frame, as it never
+	 * waits for the threads that are loading images.
+	 */
+	public static CacheStats getCacheStats(Context context) {
+		context = context.getApplicationContext();
+		return ImageCacher.getInstance(context).getCacheStats();
+	}
+
+	/**
+	 * Sets the maximum size, in bytes, of the cache that holds the encoded (compressed) bytes of recently downloaded or read images. When an image's bytes are in this cache, it can be decoded without reading it from
+	 * disk. Encoded images are usually much smaller than decoded bitmaps, so this cache can hold many more images than the memory cache for the same amount of memory. A single image may use at most a quarter of this
+	 * cache.<br>
+	 * <br>
+	 * Reading an image into this cache copies the whole file into memory, which costs more than streaming it to the decoder. Only enable it if the same images are decoded again soon, for example because the memory
+	 * cache is small compared to the images that are scrolled through. Images loaded from the local file system are never cached here.<br>
+	 * <br>
+	 * Default value: 0 (disabled).
+	 * 
+	 * @param maxSizeInBytes
+	 *            Set to 0 to disable the cache.
+	 * @param useDirectBuffers
+	 *            If true, the bytes are stored in direct ByteBuffers outside of the Java heap. They are then copied to a temporary array whenever an image is decoded. Changing this setting clears the cache.
+	 */
+	public static void setMaximumEncodedImageCacheSize(Context context, long maxSizeInBytes, boolean useDirectBuffers) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMaximumEncodedImageCacheSize(maxSizeInBytes, useDirectBuffers);
+	}
+
+	/**
+	 * Selects the eviction policy of the memory cache. The images currently in the memory cache are dropped when the policy is changed, so this should be called once, early in the app's lifecycle. The maximum memory
+	 * cache size is carried over to the new cache.<br>
+	 * <br>
+	 * See {@link MemoryCachePolicy} for the available policies. Defaults to {@link MemoryCachePolicy#LRU}.
+	 */
+	public static void setMemoryCachePolicy(Context context, MemoryCachePolicy memoryCachePolicy) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMemoryCachePolicy(memoryCachePolicy);
+	}
+
+	/**
+	 * Selects how the disk cache keeps track of the images it holds. When the type is changed, the entries of the current index are migrated to the new one, so the images already on disk are kept. The migration
+	 * runs in the background, but it reads and writes the whole index, so it should be done early in the app's lifecycle.<br>
+	 * <br>
+	 * The selection is remembered: once the journal has been selected, it is used from then on, until {@link DiskIndexType#SQLITE} is selected again.<br>
+	 * <br>
+	 * See {@link DiskIndexType} for the available types. Defaults to {@link DiskIndexType#SQLITE}.
+	 */
+	public static void setDiskIndexType(Context context, DiskIndexType diskIndexType) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setDiskIndexType(diskIndexType);
+	}
+
+	/**
+	 * Limits how much of the memory cache the images loaded by this ImageLoader may use. Once the limit is reached, the oldest images decoded for this ImageLoader are removed from the memory cache first, rather than
+	 * the images of other screens. This prevents an image-heavy screen from flushing the memory cache for the rest of the app.<br>
+	 * <br>
+	 * By default, ImageLoaders have no quota and only the overall memory cache limit applies. The quota is released when {@link #destroy()} is called.
+	 * 
+	 * @param maxSizeInBytes
+	 */
+	public void setMemoryCacheQuota(long maxSizeInBytes) {
+		ImageCacher.getInstance(mContext).setMemoryCacheQuota(mKey, maxSizeInBytes);
+	}
+
+	/**
+	 * Sets the maximum size, in bytes, of the pool of bitmaps that are recycled by the decoder once they have been evicted from the memory cache. Reusing the memory of evicted bitmaps greatly reduces the number of
+	 * garbage collections that occur while scrolling through image-heavy screens. This pool is separate from the memory cache, so the total memory used for bitmaps is the sum of both sizes.<br>
+	 * <br>
+	 * The pool is disabled by default. Bitmap reuse requires Honeycomb or above. Prior to KitKat, a bitmap can only be reused for an image of exactly the same dimensions that is not being scaled down.<br>
+	 * <br>
+	 * A bitmap that the image system has loaded into an ImageView is released once that view is given another image, or once its ImageLoader is destroyed. A bitmap that was handed to an
+	 * {@link ImageLoaderListener} is only reused once your app has passed it to {@link #releaseBitmap(Context, Bitmap)}. In both cases, the bitmap must also have been evicted from the memory cache. Bitmaps that
+	 * are never released are never overwritten.
+	 * 
+	 * @param maxSizeInBytes
+	 *            Set to 0 to disable bitmap reuse.
+	 */
+	public static void setMaximumBitmapPoolSize(Context context, long maxSizeInBytes) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMaximumBitmapPoolSize(maxSizeInBytes);
+	}
+
+	/**
+	 * Tells the image system that a bitmap it handed to your {@link ImageLoaderListener} is no longer drawn, for example because the ImageView showing it has been given another image. Release a bitmap once for
+	 * each time it was handed to you. Bitmaps that the image system loaded into an ImageView itself are released automatically. Once every holder has released it and it has been evicted from the memory cache, the bitmap pool may overwrite its pixels, so it must not be drawn again.<br>
+	 * <br>
+	 * Only has an effect if the bitmap pool is enabled. See {@link #setMaximumBitmapPoolSize(Context, long)}.
+	 */
+	public static void releaseBitmap(Context context, Bitmap bitmap) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).releaseBitmap(bitmap);
+	}
+
 	/**
 	 * Sets the maximum disk cache size. This value defaults to 50MB. Most applications will probably need much less space.
 	 * 
@@ -453,6 +611,95 @@ public class ImageLoader implements AbstractImageLoader {
 		ImageCacher.getInstance(context).setMaximumDiskCacheSize(maxSizeInBytes);
 	}
 
+	/**
+	 * Sets the maximum size of a named disk cache partition. See {@link Options#diskCachePartition}. This value defaults to 50MB for every partition.<br>
+	 * <br>
+	 * You should only be using this method in the onCreate method of your Application object.
+	 * 
+	 * @param partitionName
+	 *            The name of the partition, or null for the default partition.
+	 */
+	public static void setMaximumDiskCacheSize(Context context, String partitionName, long maxSizeInBytes) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMaximumDiskCacheSize(partitionName, maxSizeInBytes);
+	}
+
+	/**
+	 * Sizes the disk cache as a fraction of the free space on the storage it is kept on, instead of using a fixed maximum size. The space the cache already takes up counts as free. The free space is checked again
+	 * every few minutes, and when the storage is mounted or unmounted. If the device fills up and the cache no longer fits, the least recently used images are evicted.<br>
+	 * <br>
+	 * A later call to {@link #setMaximumDiskCacheSize(Context, long)} switches back to a fixed size.<br>
+	 * <br>
+	 * You should only be using this method in the onCreate method of your Application object.
+	 * 
+	 * @param fractionOfFreeSpace
+	 *            A value greater than 0 and no greater than 1, such as 0.1f.
+	 * @param minSizeInBytes
+	 *            The cache is never made smaller than this, however little space is free.
+	 * @param maxSizeInBytes
+	 *            The cache is never made larger than this, however much space is free.
+	 */
+	public static void setAdaptiveDiskCacheSize(Context context, float fractionOfFreeSpace, long minSizeInBytes, long maxSizeInBytes) {
+		setAdaptiveDiskCacheSize(context, null, fractionOfFreeSpace, minSizeInBytes, maxSizeInBytes);
+	}
+
+	/**
+	 * Sizes a named disk cache partition from the free space on its storage. See {@link #setAdaptiveDiskCacheSize(Context, float, long, long)}. Each partition takes its fraction of the same free space.
+	 * 
+	 * @param partitionName
+	 *            The name of the partition, or null for the default partition.
+	 */
+	public static void setAdaptiveDiskCacheSize(Context context, String partitionName, float fractionOfFreeSpace, long minSizeInBytes, long maxSizeInBytes) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setAdaptiveDiskCacheSize(partitionName, fractionOfFreeSpace, minSizeInBytes, maxSizeInBytes);
+	}
+
+	/**
+	 * Sets the maximum size, in bytes, of the on-disk cache of downsampled images. When an image is decoded with a sample size greater than one, the downsampled result is re-encoded and saved, so the next decode of the
+	 * image at that size reads the small saved copy instead of the full original. This applies to both network and file system images.<br>
+	 * <br>
+	 * Opaque images are saved as JPEGs, so their derivatives are not pixel-identical to a fresh decode of the original.<br>
+	 * <br>
+	 * Default value: 0 (disabled). Setting the size to 0 deletes all saved derivatives.
+	 */
+	public static void setMaximumDerivativeDiskCacheSize(Context context, long maxSizeInBytes) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setMaximumDerivativeDiskCacheSize(maxSizeInBytes);
+	}
+
+	/**
+	 * Downloaded images that are no larger than the given size are appended to a few large segment files in the disk cache, rather than each being written to a file of its own. This suits apps that mostly load small
+	 * thumbnails: it saves a file system block per image, and images are read from a memory mapping without opening a file. Segments are compacted in the background as their images are evicted.<br>
+	 * <br>
+	 * Larger images are still stored in files of their own. Images that have already been packed remain readable if packing is disabled later.<br>
+	 * <br>
+	 * Default value: 0 (disabled).
+	 */
+	public static void setPackedImageThreshold(Context context, int maximumSizeInBytes) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setPackedImageThreshold(maximumSizeInBytes);
+	}
+
+	/**
+	 * When the disk cache is on external storage, the given number of the most recently used images are periodically moved to internal storage. Those images then load faster on devices with slow SD cards, and are
+	 * still available while external storage is unmounted.<br>
+	 * <br>
+	 * Default value: 0 (disabled).
+	 */
+	public static void setInternalStorageHotImageCount(Context context, int count) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setInternalStorageHotImageCount(count);
+	}
+
+	/**
+	 * Sets the listener that is notified on a background thread after the disk cache has been checked against its index. A check runs in small steps shortly after the cache is first accessed. It deletes files that
+	 * the index does not know about, and forgets images whose files have gone missing so that they are downloaded again. The totals are also available from {@link #getCacheStats(Context)}.
+	 */
+	public static void setDiskCacheScanListener(Context context, DiskCacheScanListener diskCacheScanListener) {
+		context = context.getApplicationContext();
+		ImageCacher.getInstance(context).setDiskCacheScanListener(diskCacheScanListener);
+	}
+
 	/**
 	 * Caches the image at the provided URI into the disk cache. This call is asynchronous and cannot be cancelled once called.<br>
 	 * <br>
@@ -555,6 +802,9 @@ public class ImageLoader implements AbstractImageLoader {
 		o.autoDetectBounds = options.autoDetectBounds;
 		o.overrideSampleSize = options.overrideSampleSize;
 		o.preferedConfig = options.preferedConfig;
+		o.useLargerCachedVariants = options.useLargerCachedVariants;
+		o.scaleLargerCachedVariants = options.scaleLargerCachedVariants;
+		o.diskCachePartition = options.diskCachePartition;
 		o.scalingPreference = options.scalingPreference;
 		o.useScreenSizeAsBounds = options.useScreenSizeAsBounds;
 		o.widthBounds = bounds.width;
@@ -626,13 +876,35 @@ public class ImageLoader implements AbstractImageLoader {
 		mReferenceManager.getBitmap(mKey, cacheRequest, imageManagerListener);
 	}
 
-	private static void setPreLoadImage(ImageView imageView, Options options) {
+	private void setPreLoadImage(ImageView imageView, Options options) {
 		if (imageView != null && options.wipeOldImageOnPreload) {
 			if (options.placeholderImageResourceId != null) {
 				imageView.setImageResource(options.placeholderImageResourceId);
 			} else {
 				imageView.setImageBitmap(null);
 			}
+			releaseBoundBitmap(imageView);
+		}
+	}
+
+	/**
+	 * Loads a bitmap that the image system is holding for this loader into the view. The bitmap that the view showed before is released, so that the bitmap pool may reuse it once it has been evicted.
+	 */
+	private void bindBitmap(ImageView imageView, Bitmap bitmap) {
+		imageView.setImageBitmap(bitmap);
+		Bitmap previousBitmap = mViewMapper.bindBitmap(imageView, bitmap);
+		if (previousBitmap != null) {
+			ImageCacher.getInstance(mContext).releaseBitmap(previousBitmap);
+		}
+	}
+
+	/**
+	 * Must be called once the view no longer shows the bitmap that the image system last loaded into it.
+	 */
+	private void releaseBoundBitmap(ImageView imageView) {
+		Bitmap bitmap = mViewMapper.unbindBitmap(imageView);
+		if (bitmap != null) {
+			ImageCacher.getInstance(mContext).releaseBitmap(bitmap);
 		}
 	}
 
@@ -708,6 +980,7 @@ public class ImageLoader implements AbstractImageLoader {
 				ImageView imageView = mViewMapper.removeImageView(this);
 				if (imageView != null && options.unsuccessfulLoadResourceId != null) {
 					imageView.setImageResource(options.unsuccessfulLoadResourceId);
+					releaseBoundBitmap(imageView);
 				}
 			}
 
@@ -715,7 +988,9 @@ public class ImageLoader implements AbstractImageLoader {
 			public void onImageReceived(ImageResponse imageResponse) {
 				ImageView imageView = mViewMapper.removeImageView(this);
 				if (imageView != null) {
-					imageView.setImageBitmap(imageResponse.getBitmap());
+					bindBitmap(imageView, imageResponse.getBitmap());
+				} else {
+					ImageCacher.getInstance(mContext).releaseBitmap(imageResponse.getBitmap());
 				}
 			}
 		};
@@ -735,6 +1010,7 @@ public class ImageLoader implements AbstractImageLoader {
 				ImageView imageView = mViewMapper.removeImageView(this);
 				if (imageView != null && listenerOptions.unsuccessfulLoadResourceId != null) {
 					imageView.setImageResource(listenerOptions.unsuccessfulLoadResourceId);
+					releaseBoundBitmap(imageView);
 				}
 				listener.onImageLoadError(error);
 			}
@@ -747,6 +1023,30 @@ public class ImageLoader implements AbstractImageLoader {
 		};
 	}
 
+	/**
+	 * {@link MemoryCachePolicy#LRU}<br>
+	 * Evicts the least recently used images first.<br>
+	 * <br>
+	 * {@link MemoryCachePolicy#TINY_LFU}<br>
+	 * Keeps track of how often each image has been requested recently, and only lets a new image push older images out of the cache if it has been requested more often than them. This prevents precaching and fast
+	 * scrolling through images that are only shown once from evicting images that are reused on many screens, such as avatars and headers.
+	 */
+	public static enum MemoryCachePolicy {
+		LRU, TINY_LFU
+	}
+
+	/**
+	 * {@link DiskIndexType#SQLITE}<br>
+	 * Keeps the index of the disk cache in a SQLite database. Every time an image is read from the disk cache, its last access time is updated in the database.<br>
+	 * <br>
+	 * {@link DiskIndexType#JOURNAL}<br>
+	 * Keeps the index of the disk cache in memory, and records every change to it by appending to a journal file. Reads are recorded in batches, so scrolling through cached images causes very few writes to flash
+	 * storage. The journal is compacted once most of its records are out of date, and is replayed to rebuild the index when the app starts.
+	 */
+	public static enum DiskIndexType {
+		SQLITE, JOURNAL
+	}
+
 	/**
 	 * This class provides all the options that can be set when making loadImage calls.
 	 * 
@@ -853,5 +1153,31 @@ public class ImageLoader implements AbstractImageLoader {
 		 * Default value: null.
 		 */
 		public Bitmap.Config preferedConfig = null;
+
+		/**
+		 * If set to true and the requested image is not in the memory cache at the requested sample size, a higher resolution copy of the same image that is in the memory cache will be returned instead of decoding the
+		 * image from disk again.<br>
+		 * <br>
+		 * Default value: true.
+		 */
+		public boolean useLargerCachedVariants = true;
+
+		/**
+		 * If set to true, a higher resolution copy returned because of {@link #useLargerCachedVariants} will also be scaled down in the background and added to the memory cache at the requested sample size, so that
+		 * later requests are exact matches.<br>
+		 * <br>
+		 * Default value: true.
+		 */
+		public boolean scaleLargerCachedVariants = true;
+
+		/**
+		 * The name of the disk cache partition that a downloaded image is saved into. Each partition has its own size limit and is evicted independently, so that, for example, a burst of large "fullsize" images
+		 * cannot evict the small "avatars" that should be kept for months. The size of a partition is set with {@link ImageLoader#setMaximumDiskCacheSize(Context, String, long)}, and defaults to 50MB.<br>
+		 * <br>
+		 * An image that is already cached in another partition is read from there rather than downloaded again. Names may only contain letters, digits and underscores. Images on the file system are not affected.<br>
+		 * <br>
+		 * Default value: null (the default partition).
+		 */
+		public String diskCachePartition = null;
 	}
 }
@@ -16,6 +16,8 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.Collection;
+
 import android.graphics.Bitmap;
 
 interface ImageMemoryCacherInterface {
@@ -23,9 +25,48 @@ interface ImageMemoryCacherInterface {
 
 	void cacheBitmap(Bitmap bitmap, DecodeSignature decodeSignature);
 
+	/**
+	 * Removes a single bitmap from the cache. The removal is not reported to the {@link EvictionObserver}.
+	 * 
+	 * @return The removed bitmap, or null if it was not cached.
+	 */
+	Bitmap removeBitmap(DecodeSignature decodeSignature);
+
 	void clearCache();
 
 	void setMaximumCacheSize(long size);
 
+	long getMaximumCacheSize();
+
+	/**
+	 * Must not block, as it is read for cache statistics while other threads are using the cache.
+	 * 
+	 * @return The number of bytes currently held by the cache.
+	 */
+	long getSize();
+
 	void removeAllImagesForUri(String uri);
+
+	/**
+	 * Equivalent to calling {@link #removeAllImagesForUri(String)} for each URI, but the removals are performed in a single pass.
+	 */
+	void removeAllImagesForUris(Collection<String> uris);
+
+	/**
+	 * Looks for a cached variant of the image that was decoded at a higher resolution than the one requested. The variant will have the same URI and bitmap config, and the largest sample size that is still
+	 * smaller than the requested one.
+	 * 
+	 * @return The signature of the variant, or null if no such variant is cached.
+	 */
+	DecodeSignature getLargerVariant(DecodeSignature decodeSignature);
+
+	void setEvictionObserver(EvictionObserver evictionObserver);
+
+	/**
+	 * Notified when a bitmap is dropped from the cache to make room for other bitmaps. Bitmaps removed through {@link ImageMemoryCacherInterface#clearCache()},
+	 * {@link ImageMemoryCacherInterface#removeBitmap(DecodeSignature)} or {@link ImageMemoryCacherInterface#removeAllImagesForUri(String)} are not reported.
+	 */
+	static interface EvictionObserver {
+		void onBitmapEvicted(DecodeSignature decodeSignature, Bitmap bitmap);
+	}
 }
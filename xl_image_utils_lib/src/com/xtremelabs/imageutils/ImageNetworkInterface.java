@@ -20,4 +20,12 @@ interface ImageNetworkInterface {
 	void setNetworkRequestCreator(NetworkRequestCreator networkRequestImplementer);
 
 	Prioritizable getNetworkPrioritizable(CacheRequest imageRequest);
+
+	/**
+	 * Makes a conditional request for an expired image in the background. Does nothing if the network implementation cannot make conditional requests, or if the image is already being revalidated.
+	 * 
+	 * @param validators
+	 *            The validators of the cached copy of the image. May be null.
+	 */
+	void revalidate(CacheRequest cacheRequest, HttpCacheHeaders validators);
 }
\ No newline at end of file
@@ -16,13 +16,21 @@
 
 package com.xtremelabs.imageutils;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
 import android.widget.ImageView;
 
 /**
  * This class is responsible for mapping responses from the LifecycleReferenceManager back to the ImageViews that were originally passed in.
+ * 
+ * It also remembers the bitmap that the image system last loaded into each ImageView, so that the bitmap can be released once the view shows something else.
  */
 class ImageViewReferenceMapper {
 	private final TwoWayHashMap<ImageView, ImageManagerListener> map = new TwoWayHashMap<ImageView, ImageManagerListener>();
+	private final WeakHashMap<ImageView, Bitmap> boundBitmaps = new WeakHashMap<ImageView, Bitmap>();
 
 	public synchronized void registerRequest(ImageView view, ImageManagerListener listener) {
 		map.put(view, listener);
@@ -36,4 +44,24 @@ class ImageViewReferenceMapper {
 	public synchronized ImageManagerListener removeListener(ImageView view) {
 		return map.removePrimaryItem(view);
 	}
+
+	/**
+	 * @return The bitmap that the view was previously bound to, or null if there was none.
+	 */
+	public synchronized Bitmap bindBitmap(ImageView view, Bitmap bitmap) {
+		return boundBitmaps.put(view, bitmap);
+	}
+
+	/**
+	 * @return The bitmap that the view was bound to, or null if there was none.
+	 */
+	public synchronized Bitmap unbindBitmap(ImageView view) {
+		return boundBitmaps.remove(view);
+	}
+
+	public synchronized List<Bitmap> unbindAllBitmaps() {
+		List<Bitmap> bitmaps = new ArrayList<Bitmap>(boundBitmaps.values());
+		boundBitmaps.clear();
+		return bitmaps;
+	}
 }
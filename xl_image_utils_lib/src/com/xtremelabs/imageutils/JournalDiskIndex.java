@@ -0,0 +1,617 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * A disk cache index that is held in memory and persisted to an append-only journal of ADD, READ, REMOVE, HEADERS and STORAGE_ROOT records.
+ * 
+ * Unlike the SQLite index, marking an image as accessed does not cause a random write: READ records are appended to a buffer that is written out at most once per {@link #READ_FLUSH_DELAY_MS}. ADD and REMOVE records
+ * are written out right away, as losing them would leave files on disk that the index does not know about.
+ * 
+ * Once most of the journal's records are out of date, it is compacted by writing a single ADD record per entry to a temporary file and renaming it over the journal. At startup, the journal is replayed to rebuild
+ * the index.
+ * 
+ * All file access happens on a single background thread.
+ */
+class JournalDiskIndex implements DiskIndex {
+	private static final String JOURNAL_FILE_NAME = "imageCacheJournal";
+	private static final int MAGIC = 0x584c494a;
+	private static final int VERSION = 1;
+
+	private static final byte RECORD_ADD = 1;
+	private static final byte RECORD_READ = 2;
+	private static final byte RECORD_REMOVE = 3;
+	private static final byte RECORD_HEADERS = 4;
+	private static final byte RECORD_STORAGE_ROOT = 5;
+
+	private static final int MINIMUM_REDUNDANT_RECORDS_FOR_COMPACTION = 2000;
+	private static final long READ_FLUSH_DELAY_MS = 1000;
+
+	private final File mJournalFile;
+	private final DiskIndexObserver mObserver;
+	private final DatabaseCache mDatabaseCache = new DatabaseCache();
+	private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+	private volatile boolean mDeleted = false;
+
+	/*
+	 * Only accessed on the executor's thread.
+	 */
+	private DataOutputStream mJournalWriter;
+	private int mNumRecords = 0;
+	private boolean mRewriteRequired = false;
+	private boolean mFlushScheduled = false;
+
+	public JournalDiskIndex(Context context, DiskIndexObserver observer) {
+		this(context, null, observer);
+	}
+
+	/**
+	 * @param partitionName
+	 *            The disk cache partition that the index belongs to, or null for the default partition. Each partition is kept in a journal of its own.
+	 */
+	public JournalDiskIndex(Context context, String partitionName, DiskIndexObserver observer) {
+		this(getJournalFile(context, partitionName), observer);
+	}
+
+	JournalDiskIndex(File journalFile, DiskIndexObserver observer) {
+		mJournalFile = journalFile;
+		mObserver = observer;
+		readJournal();
+	}
+
+	static File getJournalFile(Context context, String partitionName) {
+		return new File(context.getFilesDir(), partitionName == null ? JOURNAL_FILE_NAME : JOURNAL_FILE_NAME + "-" + partitionName);
+	}
+
+	@Override
+	public boolean isCached(String uri) {
+		return mDatabaseCache.isCached(uri);
+	}
+
+	@Override
+	public FileEntry getFileEntryFromCache(String uri) {
+		return mDatabaseCache.getFileEntry(uri);
+	}
+
+	@Override
+	public void addOrUpdateFile(String url, long size, int width, int height) {
+		if (GeneralUtils.isStringBlank(url)) {
+			throw new IllegalArgumentException("Cannot add a null URL to the database.");
+		}
+
+		FileEntry entry = new FileEntry(url, size, width, height, System.currentTimeMillis());
+		mDatabaseCache.put(url, entry);
+		append(RECORD_ADD, url, entry);
+	}
+
+	@Override
+	public void updateFile(String uri) {
+		if (GeneralUtils.isStringBlank(uri)) {
+			throw new IllegalArgumentException("Cannot add a null URL to the database.");
+		}
+
+		FileEntry entry = mDatabaseCache.getFileEntry(uri);
+		if (entry != null) {
+			mDatabaseCache.updateTime(uri, System.currentTimeMillis());
+			append(RECORD_READ, uri, entry);
+		}
+	}
+
+	@Override
+	public void setCacheHeaders(String uri, String eTag, String lastModified, long expirationTime) {
+		FileEntry entry = mDatabaseCache.setCacheHeaders(uri, eTag, lastModified, expirationTime);
+		if (entry != null) {
+			append(RECORD_HEADERS, uri, entry);
+		}
+	}
+
+	@Override
+	public void setStorageRoot(String uri, StorageRoot storageRoot) {
+		FileEntry entry = mDatabaseCache.setStorageRoot(uri, storageRoot);
+		if (entry != null) {
+			append(RECORD_STORAGE_ROOT, uri, entry);
+		}
+	}
+
+	@Override
+	public void deleteEntry(String uri) {
+		mDatabaseCache.remove(uri);
+		append(RECORD_REMOVE, uri, null);
+	}
+
+	@Override
+	public void removeLeastUsedFileFromCache(long targetSize) {
+		List<String> uris = mDatabaseCache.removeLRUs(targetSize);
+		if (uris.isEmpty()) {
+			return;
+		}
+
+		appendRemoves(uris);
+		for (String uri : uris) {
+			mObserver.onImageEvicted(uri);
+		}
+	}
+
+	@Override
+	public long getTotalSizeOnDisk() {
+		return mDatabaseCache.getTotalSizeOnDisk();
+	}
+
+	@Override
+	public Collection<FileEntry> getAllEntries() {
+		return mDatabaseCache.getAllEntries();
+	}
+
+	@Override
+	public void replaceAllEntries(Collection<FileEntry> entries) {
+		List<FileEntry> sortedEntries = new ArrayList<FileEntry>(entries);
+		Collections.sort(sortedEntries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
+
+		for (FileEntry entry : mDatabaseCache.getAllEntries()) {
+			mDatabaseCache.remove(entry.getUri());
+		}
+		for (FileEntry entry : sortedEntries) {
+			mDatabaseCache.put(entry.getUri(), entry);
+		}
+
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				mRewriteRequired = true;
+				getJournalWriter();
+			}
+		});
+		flushAndWait();
+	}
+
+	@Override
+	public void deleteIndex() {
+		mDeleted = true;
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				closeJournalWriter();
+				mJournalFile.delete();
+			}
+		});
+		mExecutor.shutdown();
+	}
+
+	@Override
+	public void flush() {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				flushJournalWriter();
+			}
+		});
+	}
+
+	/**
+	 * Blocks until every record appended so far has been written to the journal file.
+	 */
+	void flushAndWait() {
+		Future<?> future = submit(new Runnable() {
+			@Override
+			public void run() {
+				flushJournalWriter();
+			}
+		});
+
+		if (future != null) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Log.w(ImageLoader.TAG, "Unable to flush the disk cache journal.");
+			}
+		}
+	}
+
+	/*
+	 * ******************
+	 * 
+	 * Reading at startup
+	 * 
+	 * ******************
+	 */
+
+	private void readJournal() {
+		if (!mJournalFile.exists()) {
+			mRewriteRequired = true;
+			return;
+		}
+
+		Map<String, FileEntry> entries = new LinkedHashMap<String, FileEntry>();
+		boolean rebuilt = false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unrecognized disk cache journal.");
+			}
+
+			while (readRecord(in, entries)) {
+				mNumRecords++;
+			}
+		} catch (EOFException e) {
+			/*
+			 * The app was killed while a record was being written. Every record up to that one is intact, so only the partial record is lost. The journal is rewritten, as new records cannot be appended after it.
+			 */
+			mRewriteRequired = true;
+		} catch (IOException e) {
+			// The records that were read may have been misread, so only their URIs are trusted.
+			Log.w(ImageLoader.TAG, "Unable to read the disk cache journal. It will be rebuilt from the images on disk.");
+			List<String> uris = new ArrayList<String>(entries.keySet());
+			entries.clear();
+			for (FileEntry entry : mObserver.onIndexRebuildRequired(uris)) {
+				entries.put(entry.getUri(), entry);
+			}
+			mRewriteRequired = true;
+			rebuilt = true;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		for (FileEntry entry : entries.values()) {
+			mDatabaseCache.put(entry.getUri(), entry);
+		}
+
+		if (rebuilt) {
+			// Rebuilding is slow, so the journal is rewritten right away rather than with the next change.
+			submit(new Runnable() {
+				@Override
+				public void run() {
+					getJournalWriter();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return False once the end of the journal has been reached.
+	 */
+	private static boolean readRecord(DataInputStream in, Map<String, FileEntry> entries) throws IOException {
+		int recordType = in.read();
+		if (recordType == -1) {
+			return false;
+		}
+
+		String uri = in.readUTF();
+		switch (recordType) {
+		case RECORD_ADD:
+			long size = in.readLong();
+			int width = in.readInt();
+			int height = in.readInt();
+			long lastAccessTime = in.readLong();
+			entries.remove(uri);
+			entries.put(uri, new FileEntry(uri, size, width, height, lastAccessTime));
+			break;
+		case RECORD_READ:
+			long accessTime = in.readLong();
+			FileEntry entry = entries.remove(uri);
+			if (entry != null) {
+				entry.setLastAccessTime(accessTime);
+				entries.put(uri, entry);
+			}
+			break;
+		case RECORD_REMOVE:
+			entries.remove(uri);
+			break;
+		case RECORD_HEADERS:
+			String eTag = in.readUTF();
+			String lastModified = in.readUTF();
+			long expirationTime = in.readLong();
+			FileEntry headersEntry = entries.get(uri);
+			if (headersEntry != null) {
+				headersEntry.setCacheHeaders(eTag.length() > 0 ? eTag : null, lastModified.length() > 0 ? lastModified : null, expirationTime);
+			}
+			break;
+		case RECORD_STORAGE_ROOT:
+			StorageRoot storageRoot = StorageRoot.fromCode(in.readByte());
+			FileEntry storageRootEntry = entries.get(uri);
+			if (storageRootEntry != null) {
+				storageRootEntry.setStorageRoot(storageRoot);
+			}
+			break;
+		default:
+			throw new IOException("Unknown record type in the disk cache journal: " + recordType);
+		}
+		return true;
+	}
+
+	/*
+	 * *****************************************
+	 * 
+	 * Writing. Only called on the executor.
+	 * 
+	 * *****************************************
+	 */
+
+	private void append(final byte recordType, final String uri, FileEntry entry) {
+		final long size;
+		final int width;
+		final int height;
+		final long lastAccessTime;
+		final String eTag;
+		final String lastModified;
+		final long expirationTime;
+		final int storageRootCode;
+		if (entry != null) {
+			Dimensions dimensions = entry.getDimensions();
+			size = entry.getSize();
+			width = dimensions.width;
+			height = dimensions.height;
+			lastAccessTime = entry.getLastAccessTime();
+			eTag = entry.getETag();
+			lastModified = entry.getLastModified();
+			expirationTime = entry.getExpirationTime();
+			storageRootCode = StorageRoot.toCode(entry.getStorageRoot());
+		} else {
+			size = 0;
+			width = 0;
+			height = 0;
+			lastAccessTime = 0;
+			eTag = null;
+			lastModified = null;
+			expirationTime = 0;
+			storageRootCode = 0;
+		}
+
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				DataOutputStream writer = getJournalWriter();
+				if (writer == null) {
+					return;
+				}
+
+				try {
+					writer.writeByte(recordType);
+					writer.writeUTF(uri);
+					if (recordType == RECORD_ADD) {
+						writer.writeLong(size);
+						writer.writeInt(width);
+						writer.writeInt(height);
+						writer.writeLong(lastAccessTime);
+					} else if (recordType == RECORD_READ) {
+						writer.writeLong(lastAccessTime);
+					} else if (recordType == RECORD_HEADERS) {
+						writeHeaders(writer, eTag, lastModified, expirationTime);
+					} else if (recordType == RECORD_STORAGE_ROOT) {
+						writer.writeByte(storageRootCode);
+					}
+					mNumRecords++;
+
+					if (recordType == RECORD_READ) {
+						scheduleFlush();
+					} else {
+						writer.flush();
+					}
+				} catch (IOException e) {
+					Log.w(ImageLoader.TAG, "Unable to write to the disk cache journal.");
+					closeJournalWriter();
+					mRewriteRequired = true;
+					return;
+				}
+
+				compactIfNeeded();
+			}
+		});
+	}
+
+	/**
+	 * Appends a REMOVE record for each URI, and writes them out together.
+	 */
+	private void appendRemoves(final List<String> uris) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				DataOutputStream writer = getJournalWriter();
+				if (writer == null) {
+					return;
+				}
+
+				try {
+					for (String uri : uris) {
+						writer.writeByte(RECORD_REMOVE);
+						writer.writeUTF(uri);
+						mNumRecords++;
+					}
+					writer.flush();
+				} catch (IOException e) {
+					Log.w(ImageLoader.TAG, "Unable to write to the disk cache journal.");
+					closeJournalWriter();
+					mRewriteRequired = true;
+					return;
+				}
+
+				compactIfNeeded();
+			}
+		});
+	}
+
+	private static void writeHeaders(DataOutputStream writer, String eTag, String lastModified, long expirationTime) throws IOException {
+		writer.writeUTF(eTag != null ? eTag : "");
+		writer.writeUTF(lastModified != null ? lastModified : "");
+		writer.writeLong(expirationTime);
+	}
+
+	private void compactIfNeeded() {
+		int numRedundantRecords = mNumRecords - mDatabaseCache.size();
+		if (numRedundantRecords >= MINIMUM_REDUNDANT_RECORDS_FOR_COMPACTION && numRedundantRecords >= mDatabaseCache.size()) {
+			mRewriteRequired = true;
+			getJournalWriter();
+		}
+	}
+
+	/**
+	 * Opens the journal for appending, compacting it first if required.
+	 * 
+	 * @return The writer, or null if the journal could not be opened or has been deleted.
+	 */
+	private DataOutputStream getJournalWriter() {
+		if (mDeleted) {
+			return null;
+		}
+
+		try {
+			if (mRewriteRequired) {
+				closeJournalWriter();
+				compact();
+				mRewriteRequired = false;
+			}
+
+			if (mJournalWriter == null) {
+				mJournalWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mJournalFile, true)));
+			}
+		} catch (IOException e) {
+			Log.w(ImageLoader.TAG, "Unable to open the disk cache journal.");
+			closeJournalWriter();
+		}
+		return mJournalWriter;
+	}
+
+	/**
+	 * Writes the current entries to a temporary file, in order of last access, then renames it over the journal.
+	 * 
+	 * Records that are still queued on the executor were made against entries that may already be in the snapshot. They are appended after the compacted entries. Replaying them is harmless, as every record simply
+	 * sets the state of one entry.
+	 */
+	private void compact() throws IOException {
+		List<FileEntry> entries = new ArrayList<FileEntry>(mDatabaseCache.getAllEntries());
+		Collections.sort(entries, FileEntry.LAST_ACCESS_TIME_COMPARATOR);
+
+		File tempFile = new File(mJournalFile.getPath() + ".tmp");
+		int numRecords = 0;
+		DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			writer.writeInt(MAGIC);
+			writer.writeInt(VERSION);
+			for (FileEntry entry : entries) {
+				Dimensions dimensions = entry.getDimensions();
+				writer.writeByte(RECORD_ADD);
+				writer.writeUTF(entry.getUri());
+				writer.writeLong(entry.getSize());
+				writer.writeInt(dimensions.width);
+				writer.writeInt(dimensions.height);
+				writer.writeLong(entry.getLastAccessTime());
+				numRecords++;
+
+				if (entry.hasCacheHeaders()) {
+					writer.writeByte(RECORD_HEADERS);
+					writer.writeUTF(entry.getUri());
+					writeHeaders(writer, entry.getETag(), entry.getLastModified(), entry.getExpirationTime());
+					numRecords++;
+				}
+
+				if (entry.getStorageRoot() != null) {
+					writer.writeByte(RECORD_STORAGE_ROOT);
+					writer.writeUTF(entry.getUri());
+					writer.writeByte(StorageRoot.toCode(entry.getStorageRoot()));
+					numRecords++;
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		if (!tempFile.renameTo(mJournalFile)) {
+			tempFile.delete();
+			throw new IOException("Unable to replace the disk cache journal.");
+		}
+		mNumRecords = numRecords;
+	}
+
+	private void scheduleFlush() {
+		if (!mFlushScheduled) {
+			mFlushScheduled = true;
+			mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					mFlushScheduled = false;
+					flushJournalWriter();
+				}
+			}, READ_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flushJournalWriter() {
+		if (mJournalWriter != null) {
+			try {
+				mJournalWriter.flush();
+			} catch (IOException e) {
+				Log.w(ImageLoader.TAG, "Unable to write to the disk cache journal.");
+				closeJournalWriter();
+				mRewriteRequired = true;
+			}
+		}
+	}
+
+	private void closeJournalWriter() {
+		if (mJournalWriter != null) {
+			try {
+				mJournalWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mJournalWriter = null;
+		}
+	}
+
+	/**
+	 * @return The future of the task, or null if the index has been deleted.
+	 */
+	private Future<?> submit(Runnable runnable) {
+		try {
+			return mExecutor.submit(runnable);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+}
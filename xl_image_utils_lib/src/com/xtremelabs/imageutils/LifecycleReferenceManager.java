@@ -70,6 +70,7 @@ class LifecycleReferenceManager implements ReferenceManager {
 			return;
 		}
 
+		cacheRequest.setLifecycleKey(key);
 		boolean isPrecacheRequest = cacheRequest.isPrecacheRequest();
 
 		ImageCacherListener cacheListener;
@@ -113,8 +114,12 @@ class LifecycleReferenceManager implements ReferenceManager {
 	}
 
 	private void returnImageIfValid(ImageManagerListener listener, ImageResponse imageResponse) {
-		if (imageResponse.getImageResponseStatus() == ImageResponseStatus.SUCCESS && mListenerHelper.unregisterListener(listener) != null) {
-			listener.onImageReceived(imageResponse);
+		if (imageResponse.getImageResponseStatus() == ImageResponseStatus.SUCCESS) {
+			if (mListenerHelper.unregisterListener(listener) != null) {
+				listener.onImageReceived(imageResponse);
+			} else {
+				mImageCacher.releaseBitmap(imageResponse.getBitmap());
+			}
 		}
 	}
 
@@ -128,6 +133,9 @@ class LifecycleReferenceManager implements ReferenceManager {
 
 					if (listener != null) {
 						listener.onImageReceived(imageResponse);
+					} else if (imageResponse.getBitmap() != null) {
+						// The request was cancelled after the bitmap was handed over, so nothing will draw it.
+						mImageCacher.releaseBitmap(imageResponse.getBitmap());
 					}
 				}
 			});
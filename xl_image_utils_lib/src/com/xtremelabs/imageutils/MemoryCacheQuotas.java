@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Limits how much of the memory cache each lifecycle key (usually an Activity or Fragment) may fill, so that a single image-heavy screen cannot flush the images of the rest of the app.
+ * 
+ * A bitmap is charged to the key whose request caused it to be decoded. When a key goes over its quota, its oldest bitmaps are removed from the memory cache. Keys without a quota are not tracked. Keys are held
+ * weakly.
+ */
+class MemoryCacheQuotas {
+	/*
+	 * Decodes that are cancelled or whose bitmaps never reach the memory cache are not always reported, so the pending owners are bounded, and those whose keys are gone are dropped as new decodes are scheduled.
+	 */
+	private static final int MAXIMUM_PENDING_OWNERS = 256;
+
+	private final Map<Object, Quota> mQuotas = new WeakHashMap<Object, Quota>();
+	private final Map<DecodeSignature, Quota> mOwners = new HashMap<DecodeSignature, Quota>();
+	private final VariantIndex mOwnedVariants = new VariantIndex();
+	private final Map<DecodeSignature, WeakReference<Object>> mPendingOwners = new LinkedHashMap<DecodeSignature, WeakReference<Object>>() {
+		private static final long serialVersionUID = -3790429431547011863L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<DecodeSignature, WeakReference<Object>> eldest) {
+			return size() > MAXIMUM_PENDING_OWNERS;
+		}
+	};
+
+	/**
+	 * @return The signatures that must be removed from the memory cache for the key to fit inside its new quota.
+	 */
+	public synchronized List<DecodeSignature> setQuota(Object key, long maxSizeInBytes) {
+		Quota quota = mQuotas.get(key);
+		if (quota == null) {
+			quota = new Quota();
+			mQuotas.put(key, quota);
+		}
+		quota.maxSizeInBytes = maxSizeInBytes;
+		return trim(quota, null);
+	}
+
+	public synchronized void removeQuota(Object key) {
+		Quota quota = mQuotas.remove(key);
+		if (quota != null) {
+			for (DecodeSignature decodeSignature : quota.signatures.keySet()) {
+				mOwners.remove(decodeSignature);
+				mOwnedVariants.remove(decodeSignature);
+			}
+		}
+
+		for (Iterator<WeakReference<Object>> iterator = mPendingOwners.values().iterator(); iterator.hasNext();) {
+			if (iterator.next().get() == key) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remembers which key requested the decode, so that the bitmap can be charged to it once it is cached.
+	 */
+	public synchronized void onDecodeScheduled(DecodeSignature decodeSignature, Object key) {
+		if (key != null && mQuotas.containsKey(key) && !mPendingOwners.containsKey(decodeSignature)) {
+			removeCollectedPendingOwners();
+			mPendingOwners.put(decodeSignature, new WeakReference<Object>(key));
+		}
+	}
+
+	public synchronized void onDecodeFailed(DecodeSignature decodeSignature) {
+		mPendingOwners.remove(decodeSignature);
+	}
+
+	/**
+	 * Called once no request is waiting for the decode any more.
+	 */
+	public synchronized void onDecodeCancelled(DecodeSignature decodeSignature) {
+		mPendingOwners.remove(decodeSignature);
+	}
+
+	/**
+	 * @return The signatures that must be removed from the memory cache because the owner of the new bitmap went over its quota. The new bitmap itself is never included.
+	 */
+	public synchronized List<DecodeSignature> onBitmapCached(DecodeSignature decodeSignature, long size) {
+		WeakReference<Object> keyReference = mPendingOwners.remove(decodeSignature);
+		Object key = keyReference != null ? keyReference.get() : null;
+		Quota quota = key != null ? mQuotas.get(key) : null;
+		if (quota == null) {
+			return new ArrayList<DecodeSignature>(0);
+		}
+
+		onBitmapRemoved(decodeSignature);
+		quota.signatures.put(decodeSignature, size);
+		quota.size += size;
+		mOwners.put(decodeSignature, quota);
+		mOwnedVariants.add(decodeSignature);
+		return trim(quota, decodeSignature);
+	}
+
+	public synchronized void onBitmapRemoved(DecodeSignature decodeSignature) {
+		Quota quota = mOwners.remove(decodeSignature);
+		if (quota != null) {
+			mOwnedVariants.remove(decodeSignature);
+			Long size = quota.signatures.remove(decodeSignature);
+			if (size != null) {
+				quota.size -= size;
+			}
+		}
+	}
+
+	public synchronized void removeAllForUri(String uri) {
+		for (DecodeSignature decodeSignature : mOwnedVariants.removeAll(uri)) {
+			onBitmapRemoved(decodeSignature);
+		}
+	}
+
+	/**
+	 * Forgets which bitmaps are charged to which keys. The quotas themselves are kept.
+	 */
+	public synchronized void clear() {
+		for (Quota quota : mQuotas.values()) {
+			quota.signatures.clear();
+			quota.size = 0;
+		}
+		mOwners.clear();
+		mOwnedVariants.clear();
+	}
+
+	public synchronized long getSize(Object key) {
+		Quota quota = mQuotas.get(key);
+		return quota != null ? quota.size : 0;
+	}
+
+	synchronized int getNumPendingOwners() {
+		return mPendingOwners.size();
+	}
+
+	private void removeCollectedPendingOwners() {
+		for (Iterator<WeakReference<Object>> iterator = mPendingOwners.values().iterator(); iterator.hasNext();) {
+			Object key = iterator.next().get();
+			if (key == null || !mQuotas.containsKey(key)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private List<DecodeSignature> trim(Quota quota, DecodeSignature protectedSignature) {
+		List<DecodeSignature> signaturesToRemove = new ArrayList<DecodeSignature>();
+		Iterator<Map.Entry<DecodeSignature, Long>> iterator = quota.signatures.entrySet().iterator();
+		while (quota.size > quota.maxSizeInBytes && iterator.hasNext()) {
+			Map.Entry<DecodeSignature, Long> entry = iterator.next();
+			if (entry.getKey().equals(protectedSignature)) {
+				continue;
+			}
+
+			iterator.remove();
+			mOwners.remove(entry.getKey());
+			mOwnedVariants.remove(entry.getKey());
+			quota.size -= entry.getValue();
+			signaturesToRemove.add(entry.getKey());
+		}
+		return signaturesToRemove;
+	}
+
+	private static class Quota {
+		long maxSizeInBytes;
+		long size = 0;
+		final LinkedHashMap<DecodeSignature, Long> signatures = new LinkedHashMap<DecodeSignature, Long>();
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+
+/**
+ * Picks a default memory cache size that suits the device, based on the app's heap limit and the size of the screen.
+ */
+class MemoryCacheSizeCalculationUtility {
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+	private static final int BYTES_PER_PIXEL = 4;
+	private static final int MINIMUM_SCREENS_CACHED = 3;
+
+	/**
+	 * @return The default memory cache size in bytes, or -1 if the memory class of the device could not be determined.
+	 */
+	public static long getDefaultMemoryCacheSize(Context appContext, DisplayUtility displayUtility) {
+		int memoryClass = getMemoryClass(appContext);
+		if (memoryClass <= 0) {
+			return -1;
+		}
+
+		Dimensions displaySize = displayUtility.getDisplaySize(appContext);
+		long screenPixels = (long) displaySize.width * displaySize.height;
+		return calculateMemoryCacheSize(memoryClass, screenPixels);
+	}
+
+	/**
+	 * The cache is given an eighth of the heap. It is grown to hold at least a few screens worth of full-screen ARGB_8888 images, as any less would cause images that are on screen to be evicted while scrolling, but
+	 * it never takes more than a quarter of the heap.
+	 * 
+	 * @param memoryClass
+	 *            The heap limit of the app in megabytes.
+	 * @param screenPixels
+	 *            The number of pixels on the screen.
+	 */
+	static long calculateMemoryCacheSize(int memoryClass, long screenPixels) {
+		long heapSize = memoryClass * BYTES_PER_MEGABYTE;
+
+		long size = heapSize / 8;
+		size = Math.max(size, MINIMUM_SCREENS_CACHED * screenPixels * BYTES_PER_PIXEL);
+		size = Math.min(size, heapSize / 4);
+		return size;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static int getMemoryClass(Context appContext) {
+		ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+		if (activityManager == null) {
+			return -1;
+		}
+
+		ApplicationInfo applicationInfo = appContext.getApplicationInfo();
+		boolean largeHeap = applicationInfo != null && (applicationInfo.flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+		if (largeHeap && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			return activityManager.getLargeMemoryClass();
+		}
+		return activityManager.getMemoryClass();
+	}
+}
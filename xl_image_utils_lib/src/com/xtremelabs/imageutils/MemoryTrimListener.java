@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * Notified whenever the ImageLoader shrinks its memory caches because the system is running low on memory, and whenever the caches grow back. See {@link ImageLoader#setMemoryTrimListener(android.content.Context, MemoryTrimListener)}.
+ */
+public interface MemoryTrimListener {
+	/**
+	 * @param level
+	 *            The level passed to {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+	 * @param fraction
+	 *            The fraction of their maximum sizes that the memory cache and bitmap pool have been trimmed to.
+	 */
+	public void onMemoryTrimmed(int level, float fraction);
+
+	/**
+	 * @param fraction
+	 *            The fraction of their maximum sizes that the memory cache and bitmap pool are now allowed to use. This reaches 1 once the caches have fully regrown.
+	 */
+	public void onMemoryRegrown(float fraction);
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+/**
+ * Translates the system's memory trim callbacks into the fraction of their maximum sizes that the memory caches may use.
+ * 
+ * Each trim level maps to a fraction. A trim only ever lowers the current fraction. Once images are requested again, the fraction is raised back to 1 in small steps, so that the caches regrow gradually instead
+ * of immediately reclaiming all of the memory that was just released.
+ */
+class MemoryTrimmer {
+	private static final float REGROW_STEP = 0.25f;
+	private static final long REGROW_INTERVAL_MS = 2000;
+
+	private final TrimObserver mObserver;
+	private final TreeMap<Integer, Float> mTrimFractions = new TreeMap<Integer, Float>();
+	private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+
+	private volatile float mFraction = 1f;
+	private ScheduledFuture<?> mRegrowFuture;
+	private MemoryTrimListener mMemoryTrimListener;
+
+	public MemoryTrimmer(TrimObserver observer) {
+		mObserver = observer;
+
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, 0.75f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, 0.5f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, 0.25f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 0.5f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, 0.25f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_MODERATE, 0.1f);
+		mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 0f);
+	}
+
+	/**
+	 * Registers for the system's memory trim callbacks. These are only available on Ice Cream Sandwich and above.
+	 */
+	public void register(Context appContext) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			appContext.registerComponentCallbacks(new TrimCallbacks());
+		}
+	}
+
+	public synchronized void onTrimMemory(int level) {
+		mObserver.onTrimMemory(level);
+
+		Map.Entry<Integer, Float> entry = mTrimFractions.floorEntry(level);
+		if (entry == null || entry.getValue() >= mFraction) {
+			return;
+		}
+
+		cancelRegrow();
+		mFraction = entry.getValue();
+		mObserver.onTrimFractionChanged(mFraction);
+		if (mMemoryTrimListener != null) {
+			mMemoryTrimListener.onMemoryTrimmed(level, mFraction);
+		}
+	}
+
+	/**
+	 * Called whenever the app requests an image. If the caches have been trimmed, this is taken as a sign that the app is in use again and the caches start to regrow.
+	 */
+	public void onImageRequested() {
+		if (mFraction < 1f) {
+			startRegrow();
+		}
+	}
+
+	/**
+	 * @param trimLevel
+	 *            One of the TRIM_MEMORY constants in {@link ComponentCallbacks2}. The fraction will be used for this level and any higher levels that do not have a fraction of their own.
+	 * @param fraction
+	 *            A value between 0 and 1.
+	 */
+	public synchronized void setTrimFraction(int trimLevel, float fraction) {
+		if (fraction < 0f || fraction > 1f) {
+			throw new IllegalArgumentException("The trim fraction must be between 0 and 1.");
+		}
+		mTrimFractions.put(trimLevel, fraction);
+	}
+
+	public synchronized void setMemoryTrimListener(MemoryTrimListener memoryTrimListener) {
+		mMemoryTrimListener = memoryTrimListener;
+	}
+
+	public float getFraction() {
+		return mFraction;
+	}
+
+	private synchronized void startRegrow() {
+		if (mRegrowFuture != null || mFraction >= 1f) {
+			return;
+		}
+
+		mRegrowFuture = mExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				regrow();
+			}
+		}, REGROW_INTERVAL_MS, REGROW_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void regrow() {
+		mFraction = Math.min(1f, mFraction + REGROW_STEP);
+		mObserver.onTrimFractionChanged(mFraction);
+		if (mMemoryTrimListener != null) {
+			mMemoryTrimListener.onMemoryRegrown(mFraction);
+		}
+
+		if (mFraction >= 1f) {
+			cancelRegrow();
+		}
+	}
+
+	private void cancelRegrow() {
+		if (mRegrowFuture != null) {
+			mRegrowFuture.cancel(false);
+			mRegrowFuture = null;
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private class TrimCallbacks implements ComponentCallbacks2 {
+		@Override
+		public void onTrimMemory(int level) {
+			MemoryTrimmer.this.onTrimMemory(level);
+		}
+
+		@Override
+		public void onLowMemory() {
+			MemoryTrimmer.this.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig) {
+		}
+	}
+
+	static interface TrimObserver {
+		void onTrimFractionChanged(float fraction);
+
+		/**
+		 * Called for every trim callback from the system, including those that do not change the fraction.
+		 */
+		void onTrimMemory(int level);
+	}
+}
@@ -20,5 +20,29 @@ import java.io.IOException;
 import java.io.InputStream;
 
 interface NetworkToDiskInterface {
-	public void downloadImageFromInputStream(String url, InputStream inputStream) throws IOException;
+	/**
+	 * Saves the downloaded image into the disk cache partition selected by the request. The caching headers are recorded once the details of the image have been saved.
+	 * 
+	 * @param cacheHeaders
+	 *            The caching headers of the response, or null if they are not known.
+	 */
+	public void downloadImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException;
+
+	/**
+	 * Replaces an expired image with the newer version that a revalidation returned, and saves its details and caching headers right away.
+	 */
+	public void replaceImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException;
+
+	/**
+	 * Renews an expired image that a revalidation found to be unchanged.
+	 * 
+	 * @param cacheHeaders
+	 *            The caching headers of the "304 Not Modified" response. May be null.
+	 */
+	public void onImageNotModified(CacheRequest cacheRequest, HttpCacheHeaders cacheHeaders);
+
+	/**
+	 * Called when an expired image could not be revalidated. The image is not revalidated again for a while, so that it is not requested on every hit while the server or network is unavailable.
+	 */
+	public void onRevalidationFailed(CacheRequest cacheRequest);
 }
@@ -25,11 +25,17 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 	private final Map<OPERATION_KEY, List<OPERATION_LIST_VALUE>> mOperationKeyToValueList = new HashMap<OPERATION_KEY, List<OPERATION_LIST_VALUE>>();
 	private final Map<KEY_REFERENCE, OPERATION_KEY> mReferenceToOperation = new HashMap<KEY_REFERENCE, OPERATION_KEY>();
 
+	/*
+	 * Mirrors the size of mOperationKeyToValueList so that the number of pending operations can be read without taking the tracker's lock.
+	 */
+	private volatile int mNumPendingOperations = 0;
+
 	public synchronized void register(OPERATION_KEY operationKey, OPERATION_LIST_VALUE operationListValue, KEY_REFERENCE keyReference) {
 		List<OPERATION_LIST_VALUE> list = mOperationKeyToValueList.get(operationKey);
 		if (list == null) {
 			list = new ArrayList<OPERATION_LIST_VALUE>();
 			mOperationKeyToValueList.put(operationKey, list);
+			onPendingOperationsChanged();
 		}
 		list.add(operationListValue);
 
@@ -47,6 +53,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 					mReferenceToOperation.remove(keyReferenceProvider.getKeyReference(key, value));
 					if (valueList.size() == 0) {
 						mOperationKeyToValueList.remove(key);
+						onPendingOperationsChanged();
 					}
 					break;
 				}
@@ -58,8 +65,8 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 		return mOperationKeyToValueList.containsKey(operationKey);
 	}
 
-	public synchronized int getNumPendingOperations() {
-		return mOperationKeyToValueList.size();
+	public int getNumPendingOperations() {
+		return mNumPendingOperations;
 	}
 
 	public synchronized int getNumListValues() {
@@ -77,6 +84,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 		List<KEY_REFERENCE> keyReferences;
 		synchronized (this) {
 			operationValueList = mOperationKeyToValueList.remove(operationKey);
+			onPendingOperationsChanged();
 			keyReferences = getAndRemoveKeyReferences(operationKey, operationValueList, keyReferenceProvider);
 		}
 
@@ -96,6 +104,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 
 	private synchronized void initializeList(OPERATION_KEY operationKey) {
 		mOperationKeyToValueList.put(operationKey, new ArrayList<OPERATION_LIST_VALUE>());
+		onPendingOperationsChanged();
 	}
 
 	public void transferOperation(OPERATION_KEY operationKey, OperationTransferer<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> operationTransferer,
@@ -105,6 +114,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 		List<KEY_REFERENCE> keyReferences;
 		synchronized (this) {
 			list = mOperationKeyToValueList.remove(operationKey);
+			onPendingOperationsChanged();
 			keyReferences = getAndRemoveKeyReferences(operationKey, list, keyReferenceProvider);
 		}
 
@@ -130,6 +140,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 
 	public synchronized List<OPERATION_LIST_VALUE> removeList(OPERATION_KEY operationKey, KeyReferenceProvider<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> keyReferenceProvider) {
 		List<OPERATION_LIST_VALUE> list = mOperationKeyToValueList.remove(operationKey);
+		onPendingOperationsChanged();
 
 		if (list != null) {
 			for (OPERATION_LIST_VALUE value : list) {
@@ -153,6 +164,7 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 
 					if (deleteMapIfEmpty && list.isEmpty()) {
 						mOperationKeyToValueList.remove(operationKey);
+						onPendingOperationsChanged();
 					}
 				}
 			}
@@ -161,6 +173,10 @@ class OperationTracker<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> {
 		return valueToRemove;
 	}
 
+	private void onPendingOperationsChanged() {
+		mNumPendingOperations = mOperationKeyToValueList.size();
+	}
+
 	private OPERATION_LIST_VALUE findOperationListValueToRemove(KEY_REFERENCE keyReference, KeyReferenceProvider<OPERATION_KEY, OPERATION_LIST_VALUE, KEY_REFERENCE> keyReferenceProvider, OPERATION_KEY operationKey,
 			List<OPERATION_LIST_VALUE> list) {
 		OPERATION_LIST_VALUE valueToRemove = null;
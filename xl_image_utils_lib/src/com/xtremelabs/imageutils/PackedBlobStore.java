@@ -0,0 +1,538 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import android.util.Log;
+
+/**
+ * Stores small images by appending them to a few large segment files, rather than writing one file per image. This saves a file system block per image and an open and close on every read.
+ * 
+ * Each record in a segment holds the URI, the length and the bytes of one image. A removal is recorded by appending a record with a length of -1. The segments are replayed in order the first time the store is used
+ * to rebuild the offset/length index, and reads go through a read-only memory mapping of the segment. The length of a URI is stored in two bytes, so images with longer URIs cannot be packed.
+ * 
+ * Once most of the bytes in a full segment belong to removed images, the segment is compacted in the background: its live records are appended to the current segment, and the old segment is deleted.
+ */
+class PackedBlobStore {
+	private static final int MAGIC = 0x584c4950;
+	private static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	private static final int REMOVED = -1;
+	private static final int MAXIMUM_URI_LENGTH = Short.MAX_VALUE;
+
+	static final long MAXIMUM_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final float COMPACTION_THRESHOLD = 0.5f;
+
+	private final DiskManager mDiskManager;
+	private final String mDirectoryName;
+	private File mDirectory;
+	private final ExecutorService mCompactionExecutor;
+	private boolean mIsLoaded = false;
+	private boolean mIsReplaying = false;
+
+	private final Map<String, Location> mLocations = new HashMap<String, Location>();
+	private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+	private Segment mCurrentSegment;
+
+	/**
+	 * The segments are kept in a sub-directory of the disk manager's directory. It is only looked up the first time the store is used, which is never on the UI thread.
+	 * 
+	 * @param compactionExecutor
+	 *            Runs the compactions. Should be a low priority thread that the store shares with the rest of the cache's maintenance.
+	 */
+	public PackedBlobStore(DiskManager diskManager, String directoryName, ExecutorService compactionExecutor) {
+		mDiskManager = diskManager;
+		mDirectoryName = directoryName;
+		mCompactionExecutor = compactionExecutor;
+	}
+
+	/**
+	 * @return False if the URI is too long to be stored in a record. Such images have to be saved as files of their own.
+	 */
+	public static boolean canStore(String uri) {
+		return getBytes(uri).length <= MAXIMUM_URI_LENGTH;
+	}
+
+	public synchronized boolean contains(String uri) {
+		loadIfNeeded();
+		return mLocations.containsKey(uri);
+	}
+
+	/**
+	 * @return The length of the stored image, or -1 if it is not stored.
+	 */
+	public synchronized int getLength(String uri) {
+		loadIfNeeded();
+		Location location = mLocations.get(uri);
+		return location != null ? location.length : -1;
+	}
+
+	/**
+	 * @return The bytes of the image, or null if it is not stored or could not be read.
+	 */
+	public byte[] get(String uri) {
+		ByteBuffer buffer;
+		synchronized (this) {
+			loadIfNeeded();
+			Location location = mLocations.get(uri);
+			if (location == null) {
+				return null;
+			}
+
+			try {
+				buffer = location.segment.map(location.offset + location.length).duplicate();
+			} catch (IOException e) {
+				Log.w(ImageLoader.TAG, "Unable to map a packed image segment.");
+				return null;
+			}
+			buffer.position((int) location.offset);
+			buffer.limit((int) (location.offset + location.length));
+		}
+
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	public synchronized void put(String uri, byte[] bytes) throws IOException {
+		loadIfNeeded();
+		byte[] uriBytes = getBytes(uri);
+		if (uriBytes.length > MAXIMUM_URI_LENGTH) {
+			throw new IllegalArgumentException("The URI is too long to be packed. URI: " + uri);
+		}
+
+		prepareCurrentSegment(getRecordSize(uriBytes, bytes.length));
+		long offset = mCurrentSegment.append(uriBytes, bytes);
+		setLocation(uri, new Location(mCurrentSegment, offset, bytes.length));
+	}
+
+	public synchronized void remove(String uri) {
+		loadIfNeeded();
+		Location location = mLocations.get(uri);
+		if (location == null) {
+			return;
+		}
+
+		try {
+			byte[] uriBytes = getBytes(uri);
+			prepareCurrentSegment(getRecordSize(uriBytes, 0));
+			mCurrentSegment.append(uriBytes, null);
+			setLocation(uri, null);
+		} catch (IOException e) {
+			Log.w(ImageLoader.TAG, "Unable to record the removal of a packed image.");
+		}
+	}
+
+	/**
+	 * Removes every image that is not in the given collection. Compaction only copies live images, so a removal record can be deleted before the record it removes. Images that come back this way, or that were stored
+	 * right before the app was killed, are not in the disk cache index, and are dropped here.
+	 */
+	public synchronized void retainAll(Collection<String> uris) {
+		loadIfNeeded();
+		Set<String> urisToKeep = new HashSet<String>(uris);
+		for (String uri : new ArrayList<String>(mLocations.keySet())) {
+			if (!urisToKeep.contains(uri)) {
+				remove(uri);
+			}
+		}
+	}
+
+	/**
+	 * @return A copy of the URIs of the images in the store.
+	 */
+	public synchronized Collection<String> getUris() {
+		loadIfNeeded();
+		return new ArrayList<String>(mLocations.keySet());
+	}
+
+	public synchronized void clear() {
+		loadIfNeeded();
+		for (Segment segment : mSegments.values()) {
+			segment.close();
+		}
+		mSegments.clear();
+		mLocations.clear();
+		mCurrentSegment = null;
+
+		File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of bytes taken up by the segment files.
+	 */
+	public synchronized long getSizeOnDisk() {
+		long size = 0;
+		for (Segment segment : mSegments.values()) {
+			size += segment.length;
+		}
+		return size;
+	}
+
+	/*
+	 * ******************
+	 * 
+	 * Must hold the lock
+	 * 
+	 * ******************
+	 */
+
+	private void setLocation(String uri, Location location) {
+		Location previousLocation = location != null ? mLocations.put(uri, location) : mLocations.remove(uri);
+		if (location != null) {
+			location.segment.liveBytes += location.length;
+		}
+		if (previousLocation != null) {
+			Segment segment = previousLocation.segment;
+			segment.liveBytes -= previousLocation.length;
+			if (!mIsReplaying && segment != mCurrentSegment && !segment.compactionScheduled && segment.liveBytes < segment.length * COMPACTION_THRESHOLD) {
+				scheduleCompaction(segment);
+			}
+		}
+	}
+
+	/**
+	 * Starts a new segment if the current one cannot take a record of the given size.
+	 */
+	private void prepareCurrentSegment(long recordSize) throws IOException {
+		if (mCurrentSegment == null || mCurrentSegment.length + recordSize > MAXIMUM_SEGMENT_SIZE) {
+			startNewSegment();
+		}
+	}
+
+	private void startNewSegment() throws IOException {
+		int id = mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1;
+		if (!mDirectory.exists() && !mDirectory.mkdirs() && !mDirectory.exists()) {
+			throw new IOException("Was unable to create the directory " + mDirectory);
+		}
+
+		Segment segment = new Segment(id, new File(mDirectory, "segment" + id));
+		segment.create();
+		mSegments.put(id, segment);
+		mCurrentSegment = segment;
+	}
+
+	private void loadIfNeeded() {
+		if (mIsLoaded) {
+			return;
+		}
+		mIsLoaded = true;
+		mDirectory = mDiskManager.getFile(mDirectoryName);
+
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith("segment")) {
+				try {
+					int id = Integer.parseInt(name.substring("segment".length()));
+					mSegments.put(id, new Segment(id, file));
+				} catch (NumberFormatException e) {
+					file.delete();
+				}
+			} else {
+				file.delete();
+			}
+		}
+
+		mIsReplaying = true;
+		Iterator<Segment> iterator = mSegments.values().iterator();
+		while (iterator.hasNext()) {
+			Segment segment = iterator.next();
+			try {
+				readSegment(segment);
+			} catch (IOException e) {
+				Log.w(ImageLoader.TAG, "Unable to read a packed image segment. Its images will be downloaded again.");
+				for (Iterator<Location> locations = mLocations.values().iterator(); locations.hasNext();) {
+					if (locations.next().segment == segment) {
+						locations.remove();
+					}
+				}
+				segment.delete();
+				iterator.remove();
+			}
+		}
+		mIsReplaying = false;
+
+		if (!mSegments.isEmpty()) {
+			mCurrentSegment = mSegments.lastEntry().getValue();
+		}
+		for (Segment segment : new ArrayList<Segment>(mSegments.values())) {
+			if (segment != mCurrentSegment && segment.liveBytes < segment.length * COMPACTION_THRESHOLD) {
+				scheduleCompaction(segment);
+			}
+		}
+	}
+
+	/**
+	 * Replays the records of a segment. If the app was killed while a record was being written, the segment is truncated after the last complete record. A torn write can leave any bytes where the lengths of the
+	 * record should be, so a length that no complete record could have is treated the same way.
+	 */
+	private void readSegment(Segment segment) throws IOException {
+		long fileLength = segment.file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+		long position = 0;
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unrecognized packed image segment.");
+			}
+			position = HEADER_SIZE;
+
+			while (position < fileLength) {
+				int uriLength = in.readUnsignedShort();
+				if (uriLength > MAXIMUM_URI_LENGTH) {
+					throw new EOFException();
+				}
+				byte[] uriBytes = new byte[uriLength];
+				in.readFully(uriBytes);
+				int length = in.readInt();
+				if (length < 0 && length != REMOVED) {
+					throw new EOFException();
+				}
+				long dataOffset = position + 2 + uriLength + 4;
+				if (length > 0) {
+					if (dataOffset + length > fileLength) {
+						throw new EOFException();
+					}
+					skipFully(in, length);
+				}
+
+				String uri = new String(uriBytes, "UTF-8");
+				setLocation(uri, length == REMOVED ? null : new Location(segment, dataOffset, length));
+				position = dataOffset + Math.max(length, 0);
+			}
+		} catch (EOFException e) {
+			// Only the partial record at the end is lost.
+		} finally {
+			in.close();
+		}
+
+		segment.length = position;
+		if (position < fileLength) {
+			segment.truncate(position);
+		}
+	}
+
+	private void scheduleCompaction(final Segment segment) {
+		segment.compactionScheduled = true;
+		mCompactionExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				compact(segment);
+			}
+		});
+	}
+
+	/**
+	 * Runs on the compaction thread. The lock is released between records, so reads and writes are only held up for as long as a single image is copied.
+	 */
+	private void compact(Segment segment) {
+		List<String> uris = new ArrayList<String>();
+		synchronized (this) {
+			if (!mSegments.containsKey(segment.id)) {
+				return;
+			}
+			if (segment == mCurrentSegment) {
+				segment.compactionScheduled = false;
+				return;
+			}
+			for (Map.Entry<String, Location> entry : mLocations.entrySet()) {
+				if (entry.getValue().segment == segment) {
+					uris.add(entry.getKey());
+				}
+			}
+		}
+
+		for (String uri : uris) {
+			synchronized (this) {
+				Location location = mLocations.get(uri);
+				if (location == null || location.segment != segment) {
+					continue;
+				}
+
+				byte[] bytes = get(uri);
+				if (bytes != null) {
+					try {
+						put(uri, bytes);
+					} catch (IOException e) {
+						Log.w(ImageLoader.TAG, "Unable to compact a packed image segment.");
+						segment.compactionScheduled = false;
+						return;
+					}
+				}
+			}
+		}
+
+		synchronized (this) {
+			// The segment is only deleted once nothing refers to it. Readers that already mapped it keep a valid mapping.
+			if (segment.liveBytes == 0 && segment != mCurrentSegment) {
+				mSegments.remove(segment.id);
+				segment.delete();
+			} else {
+				segment.compactionScheduled = false;
+			}
+		}
+	}
+
+	private static void skipFully(DataInputStream in, int count) throws IOException {
+		int remaining = count;
+		while (remaining > 0) {
+			int skipped = in.skipBytes(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining -= skipped;
+		}
+	}
+
+	private static long getRecordSize(byte[] uriBytes, int length) {
+		return 2 + uriBytes.length + 4 + Math.max(length, 0);
+	}
+
+	private static byte[] getBytes(String uri) {
+		try {
+			return uri.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class Location {
+		final Segment segment;
+		final long offset;
+		final int length;
+
+		Location(Segment segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class Segment {
+		final int id;
+		final File file;
+		long length = 0;
+		long liveBytes = 0;
+		boolean compactionScheduled = false;
+		private RandomAccessFile mWriter;
+		private MappedByteBuffer mMapping;
+
+		Segment(int id, File file) {
+			this.id = id;
+			this.file = file;
+		}
+
+		void create() throws IOException {
+			RandomAccessFile writer = getWriter();
+			writer.setLength(0);
+			writer.writeInt(MAGIC);
+			writer.writeInt(VERSION);
+			length = HEADER_SIZE;
+		}
+
+		/**
+		 * Appends a record in a single write. A null array records a removal.
+		 * 
+		 * @return The offset of the bytes in the segment.
+		 */
+		long append(byte[] uriBytes, byte[] bytes) throws IOException {
+			int dataLength = bytes != null ? bytes.length : 0;
+			ByteBuffer record = ByteBuffer.allocate((int) getRecordSize(uriBytes, dataLength));
+			record.putShort((short) uriBytes.length);
+			record.put(uriBytes);
+			record.putInt(bytes != null ? bytes.length : REMOVED);
+			if (bytes != null) {
+				record.put(bytes);
+			}
+
+			RandomAccessFile writer = getWriter();
+			writer.seek(length);
+			writer.write(record.array());
+			long dataOffset = length + 2 + uriBytes.length + 4;
+			length += record.capacity();
+			return dataOffset;
+		}
+
+		/**
+		 * The mapping is only extended when a read needs bytes beyond its end, so a segment that is still being appended to is not remapped on every read.
+		 */
+		MappedByteBuffer map(long requiredLength) throws IOException {
+			if (mMapping == null || mMapping.capacity() < requiredLength) {
+				FileChannel channel = getWriter().getChannel();
+				mMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			}
+			return mMapping;
+		}
+
+		void truncate(long newLength) throws IOException {
+			getWriter().setLength(newLength);
+		}
+
+		void close() {
+			if (mWriter != null) {
+				try {
+					mWriter.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				mWriter = null;
+			}
+			mMapping = null;
+		}
+
+		void delete() {
+			close();
+			file.delete();
+		}
+
+		private RandomAccessFile getWriter() throws IOException {
+			if (mWriter == null) {
+				mWriter = new RandomAccessFile(file, "rw");
+			}
+			return mWriter;
+		}
+	}
+}
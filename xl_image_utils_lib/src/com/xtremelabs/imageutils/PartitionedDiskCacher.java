@@ -0,0 +1,414 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+
+import com.xtremelabs.imageutils.DiskLRUCacher.FileFormatException;
+import com.xtremelabs.imageutils.ImageLoader.DiskIndexType;
+
+/**
+ * Splits the disk cache into named partitions, selected through {@link ImageLoader.Options#diskCachePartition}. Each partition is a {@link DiskLRUCacher} of its own, with its own directory, index, size limit and
+ * eviction thread, so that a burst of large images in one partition cannot evict the images of another. The memory caches, the downloader and the coalescing of requests are shared.<br>
+ * <br>
+ * New images are saved to the partition of the request that downloaded them. An image that is already cached in another partition is read from there rather than downloaded again. Partitions are opened when they
+ * are first used or configured, so images in a partition that has not been opened yet are not found.
+ */
+class PartitionedDiskCacher implements ImageDiskCacherInterface {
+	private static final Pattern PARTITION_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+	private final Context mAppContext;
+	private final ImageDiskObserver mImageDiskObserver;
+	private final BitmapPool mBitmapPool;
+	private final EncodedImageCache mEncodedImageCache;
+	private final DerivativeDiskCache mDerivativeDiskCache;
+	private final FileDimensionsIndex mFileDimensionsIndex;
+
+	private final DiskLRUCacher mDefaultPartition;
+	private final Map<String, DiskLRUCacher> mPartitions = new HashMap<String, DiskLRUCacher>();
+	private final ExecutorService mPartitionOpeningExecutor = Executors.newSingleThreadExecutor();
+
+	/*
+	 * Settings that apply to every partition, kept so that they can be applied to partitions that are opened later.
+	 */
+	private int mPackedImageThreshold = 0;
+	private DiskIndexType mDiskIndexType;
+	private DiskCacheScanListener mDiskCacheScanListener;
+	private int mInternalStorageHotImageCount = 0;
+
+	public PartitionedDiskCacher(Context appContext, ImageDiskObserver imageDiskObserver, BitmapPool bitmapPool, EncodedImageCache encodedImageCache, DerivativeDiskCache derivativeDiskCache) {
+		mAppContext = appContext;
+		mImageDiskObserver = imageDiskObserver;
+		mBitmapPool = bitmapPool;
+		mEncodedImageCache = encodedImageCache;
+		mDerivativeDiskCache = derivativeDiskCache;
+		mFileDimensionsIndex = new FileDimensionsIndex(appContext);
+
+		mDefaultPartition = createPartition(null);
+	}
+
+	private DiskLRUCacher createPartition(String partitionName) {
+		return new DiskLRUCacher(mAppContext, partitionName, mImageDiskObserver, mBitmapPool, mEncodedImageCache, mDerivativeDiskCache, mFileDimensionsIndex);
+	}
+
+	/**
+	 * Images on the file system are not copied into the cache, so they always belong to the default partition.
+	 */
+	private DiskLRUCacher getPartition(CacheRequest cacheRequest) {
+		if (cacheRequest.isFileSystemRequest()) {
+			return mDefaultPartition;
+		}
+		return getPartition(cacheRequest.getOptions().diskCachePartition);
+	}
+
+	synchronized DiskLRUCacher getPartition(String partitionName) {
+		if (partitionName == null) {
+			return mDefaultPartition;
+		}
+
+		DiskLRUCacher partition = mPartitions.get(partitionName);
+		if (partition == null) {
+			checkPartitionName(partitionName);
+			partition = createPartition(partitionName);
+			partition.setPackedImageThreshold(mPackedImageThreshold);
+			if (mDiskIndexType != null) {
+				partition.setDiskIndexType(mDiskIndexType);
+			}
+			partition.setDiskCacheScanListener(mDiskCacheScanListener);
+			partition.setInternalStorageHotImageCount(mInternalStorageHotImageCount);
+			mPartitions.put(partitionName, partition);
+		}
+		return partition;
+	}
+
+	private synchronized boolean isPartitionOpen(String partitionName) {
+		return partitionName == null || mPartitions.containsKey(partitionName);
+	}
+
+	/**
+	 * Opening a partition starts threads and creates its directory, so it is kept off the UI thread.
+	 */
+	private void openPartitionInBackground(final String partitionName) {
+		mPartitionOpeningExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				getPartition(partitionName);
+			}
+		});
+	}
+
+	private static void checkPartitionName(String partitionName) {
+		if (!PARTITION_NAME_PATTERN.matcher(partitionName).matches()) {
+			throw new IllegalArgumentException("Disk cache partition names may only contain letters, digits and underscores: " + partitionName);
+		}
+	}
+
+	private synchronized List<DiskLRUCacher> getPartitions() {
+		List<DiskLRUCacher> partitions = new ArrayList<DiskLRUCacher>(mPartitions.size() + 1);
+		partitions.add(mDefaultPartition);
+		partitions.addAll(mPartitions.values());
+		return partitions;
+	}
+
+	/**
+	 * @return The partition of the request if it holds the image, otherwise any other partition that does. Only the indexes are checked.
+	 */
+	private DiskLRUCacher getPartitionHoldingImage(CacheRequest cacheRequest) {
+		DiskLRUCacher partition = getPartition(cacheRequest);
+		if (cacheRequest.isFileSystemRequest() || partition.isCached(cacheRequest)) {
+			return partition;
+		}
+
+		for (DiskLRUCacher otherPartition : getPartitions()) {
+			if (otherPartition != partition && otherPartition.isCached(cacheRequest)) {
+				return otherPartition;
+			}
+		}
+		return partition;
+	}
+
+	/**
+	 * Requests for the same image are coalesced into a single download, whichever partitions they ask for. Their details are saved by the partition that the image was downloaded into.
+	 */
+	private DiskLRUCacher getPartitionContainingImage(CacheRequest cacheRequest) {
+		DiskLRUCacher partition = getPartition(cacheRequest);
+		if (cacheRequest.isFileSystemRequest() || partition.containsImage(cacheRequest.getUri())) {
+			return partition;
+		}
+
+		for (DiskLRUCacher otherPartition : getPartitions()) {
+			if (otherPartition != partition && otherPartition.containsImage(cacheRequest.getUri())) {
+				return otherPartition;
+			}
+		}
+		return partition;
+	}
+
+	@Override
+	public void downloadImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+		getPartition(cacheRequest).downloadImageFromInputStream(cacheRequest, inputStream, cacheHeaders);
+	}
+
+	/**
+	 * Revalidated images are replaced in whichever partition they were returned from.
+	 */
+	@Override
+	public void replaceImageFromInputStream(CacheRequest cacheRequest, InputStream inputStream, HttpCacheHeaders cacheHeaders) throws IOException {
+		getPartitionHoldingImage(cacheRequest).replaceImageFromInputStream(cacheRequest, inputStream, cacheHeaders);
+	}
+
+	@Override
+	public void onImageNotModified(CacheRequest cacheRequest, HttpCacheHeaders cacheHeaders) {
+		getPartitionHoldingImage(cacheRequest).onImageNotModified(cacheRequest, cacheHeaders);
+	}
+
+	@Override
+	public void onRevalidationFailed(CacheRequest cacheRequest) {
+		getPartitionHoldingImage(cacheRequest).onRevalidationFailed(cacheRequest);
+	}
+
+	@Override
+	public boolean isCached(CacheRequest cacheRequest) {
+		return getPartitionHoldingImage(cacheRequest).isCached(cacheRequest);
+	}
+
+	@Override
+	public int getSampleSize(CacheRequest cacheRequest) {
+		return getPartitionHoldingImage(cacheRequest).getSampleSize(cacheRequest);
+	}
+
+	@Override
+	public void bumpOnDisk(String uri) {
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.bumpOnDisk(uri);
+		}
+	}
+
+	@Override
+	public void setDiskCacheSize(long sizeInBytes) {
+		mDefaultPartition.setDiskCacheSize(sizeInBytes);
+	}
+
+	@Override
+	public void setDiskCacheSize(String partitionName, long sizeInBytes) {
+		getPartition(partitionName).setDiskCacheSize(sizeInBytes);
+	}
+
+	@Override
+	public void setAdaptiveDiskCacheSize(String partitionName, AdaptiveDiskCacheSize adaptiveDiskCacheSize) {
+		getPartition(partitionName).setAdaptiveDiskCacheSize(adaptiveDiskCacheSize);
+	}
+
+	@Override
+	public synchronized void setPackedImageThreshold(int maximumSizeInBytes) {
+		mPackedImageThreshold = maximumSizeInBytes;
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.setPackedImageThreshold(maximumSizeInBytes);
+		}
+	}
+
+	@Override
+	public synchronized void setDiskIndexType(DiskIndexType diskIndexType) {
+		mDiskIndexType = diskIndexType;
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.setDiskIndexType(diskIndexType);
+		}
+	}
+
+	@Override
+	public void flush() {
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.flush();
+		}
+	}
+
+	@Override
+	public long getSizeOnDisk() {
+		long size = 0;
+		for (DiskLRUCacher partition : getPartitions()) {
+			size += partition.getSizeOnDisk();
+		}
+		return size;
+	}
+
+	@Override
+	public long getEvictionCount() {
+		long count = 0;
+		for (DiskLRUCacher partition : getPartitions()) {
+			count += partition.getEvictionCount();
+		}
+		return count;
+	}
+
+	@Override
+	public long getOrphanedFileCount() {
+		long count = 0;
+		for (DiskLRUCacher partition : getPartitions()) {
+			count += partition.getOrphanedFileCount();
+		}
+		return count;
+	}
+
+	@Override
+	public long getDanglingEntryCount() {
+		long count = 0;
+		for (DiskLRUCacher partition : getPartitions()) {
+			count += partition.getDanglingEntryCount();
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void setDiskCacheScanListener(DiskCacheScanListener diskCacheScanListener) {
+		mDiskCacheScanListener = diskCacheScanListener;
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.setDiskCacheScanListener(diskCacheScanListener);
+		}
+	}
+
+	@Override
+	public synchronized void setInternalStorageHotImageCount(int count) {
+		mInternalStorageHotImageCount = count;
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.setInternalStorageHotImageCount(count);
+		}
+	}
+
+	@Override
+	public void onStorageStateChanged() {
+		for (DiskLRUCacher partition : getPartitions()) {
+			partition.onStorageStateChanged();
+		}
+	}
+
+	/**
+	 * Registers for the system's media broadcasts, so that the cache switches volumes when external storage is mounted or unmounted.
+	 */
+	public void registerStorageStateReceiver(Context appContext) {
+		IntentFilter intentFilter = new IntentFilter();
+		intentFilter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+		intentFilter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+		intentFilter.addAction(Intent.ACTION_MEDIA_REMOVED);
+		intentFilter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+		intentFilter.addAction(Intent.ACTION_MEDIA_EJECT);
+		intentFilter.addAction(Intent.ACTION_MEDIA_SHARED);
+		// Media broadcasts are only delivered to filters that declare the "file" scheme.
+		intentFilter.addDataScheme("file");
+		appContext.registerReceiver(new StorageStateReceiver(), intentFilter);
+	}
+
+	private class StorageStateReceiver extends BroadcastReceiver {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onStorageStateChanged();
+		}
+	}
+
+	/**
+	 * Reads of an image may look in any partition, so every partition that has been opened must have loaded its index. A partition that has not been opened yet is opened in the background, and its requests are
+	 * treated as misses until its index has loaded.
+	 */
+	@Override
+	public boolean isIndexLoaded(CacheRequest cacheRequest) {
+		String partitionName = cacheRequest.isFileSystemRequest() ? null : cacheRequest.getOptions().diskCachePartition;
+		if (!isPartitionOpen(partitionName)) {
+			checkPartitionName(partitionName);
+			openPartitionInBackground(partitionName);
+			return false;
+		}
+
+		return areIndexesLoaded();
+	}
+
+	/**
+	 * The image may be held by a partition other than the request's own, and finding it reads every index, so nothing is done until they have all been loaded.
+	 */
+	@Override
+	public void revalidateIfExpired(CacheRequest cacheRequest) {
+		if (!cacheRequest.isFileSystemRequest() && isPartitionOpen(cacheRequest.getOptions().diskCachePartition) && areIndexesLoaded()) {
+			getPartitionHoldingImage(cacheRequest).revalidateIfExpired(cacheRequest);
+		}
+	}
+
+	private boolean areIndexesLoaded() {
+		for (DiskLRUCacher partition : getPartitions()) {
+			if (!partition.isIndexLoaded()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public long getIndexLoadTime() {
+		return mDefaultPartition.getIndexLoadTime();
+	}
+
+	@Override
+	public Dimensions getImageDimensions(CacheRequest cacheRequest) {
+		return getPartitionHoldingImage(cacheRequest).getImageDimensions(cacheRequest);
+	}
+
+	@Override
+	public void invalidateFileSystemUri(String uri) {
+		mDefaultPartition.invalidateFileSystemUri(uri);
+	}
+
+	@Override
+	public Bitmap getBitmapSynchronouslyFromDisk(CacheRequest cacheRequest, DecodeSignature decodeSignature) throws FileNotFoundException, FileFormatException {
+		return getPartitionHoldingImage(cacheRequest).getBitmapSynchronouslyFromDisk(cacheRequest, decodeSignature);
+	}
+
+	@Override
+	public void calculateAndSaveImageDetails(CacheRequest cacheRequest) throws URISyntaxException, FileNotFoundException {
+		getPartitionContainingImage(cacheRequest).calculateAndSaveImageDetails(cacheRequest);
+	}
+
+	/**
+	 * The partition is chosen when the details are calculated, as the image may not have been saved yet when the request is queued.
+	 */
+	@Override
+	public Prioritizable getDetailsPrioritizable(final CacheRequest cacheRequest) {
+		return new DefaultPrioritizable(cacheRequest, new Request<String>(cacheRequest.getUri())) {
+			@Override
+			public void execute() {
+				getPartitionContainingImage(cacheRequest).cacheImageDetails(cacheRequest);
+			}
+		};
+	}
+
+	@Override
+	public Prioritizable getDecodePrioritizable(CacheRequest cacheRequest, DecodeSignature decodeSignature, ImageReturnedFrom imageReturnedFrom) {
+		return getPartitionHoldingImage(cacheRequest).getDecodePrioritizable(cacheRequest, decodeSignature, imageReturnedFrom);
+	}
+}
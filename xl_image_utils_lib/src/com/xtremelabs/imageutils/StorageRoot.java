@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+/**
+ * The volumes that the disk cache can keep its files on. Each disk cache index entry records the volume that its image was saved to, so that the image is still found after the cache has switched volumes.
+ */
+enum StorageRoot {
+	/**
+	 * The app's cache directory on external storage, such as an SD card. Preferred while it is mounted, but can disappear at any time.
+	 */
+	EXTERNAL(1),
+
+	/**
+	 * The app's cache directory on internal storage. Always available.
+	 */
+	INTERNAL(2);
+
+	/**
+	 * The value that is persisted in the index. 0 is used for entries that were saved before volumes were recorded.
+	 */
+	final int code;
+
+	private StorageRoot(int code) {
+		this.code = code;
+	}
+
+	/**
+	 * @return The volume with the given code, or null if the volume was not recorded.
+	 */
+	static StorageRoot fromCode(int code) {
+		for (StorageRoot storageRoot : values()) {
+			if (storageRoot.code == code) {
+				return storageRoot;
+			}
+		}
+		return null;
+	}
+
+	static int toCode(StorageRoot storageRoot) {
+		return storageRoot != null ? storageRoot.code : 0;
+	}
+}
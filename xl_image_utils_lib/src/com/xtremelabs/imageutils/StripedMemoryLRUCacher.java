@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+/**
+ * A memory cache that splits its entries across a fixed number of segments, each guarded by its own lock.
+ *
+ * Lookups never lock: each segment keeps its entries in a {@link ConcurrentHashMap}, and a hit only sets the entry's "referenced" flag and access stamp. Inserts and removals lock a single segment. Evictions follow
+ * an approximate global LRU: within a segment, the CLOCK algorithm picks a candidate that has not been used since the clock hand last passed it, and of the candidates of all segments, the one used least recently is
+ * evicted.
+ *
+ * Access stamps are read from a clock that only advances when a bitmap is cached, so hits never write to shared state. Entries used between the same two inserts share a stamp, which is precise enough to order
+ * evictions.
+ */
+class StripedMemoryLRUCacher implements ImageMemoryCacherInterface {
+	private static final int DEFAULT_NUM_SEGMENTS = 16;
+
+	private volatile long mMaximumSizeInBytes = 20 * 1024 * 1024; // 20MB default
+	private final AtomicLong mSize = new AtomicLong(0);
+
+	private final Segment[] mSegments;
+	private final int mSegmentMask;
+	private final AtomicLong mAccessClock = new AtomicLong(0);
+	private volatile EvictionObserver mEvictionObserver;
+
+	/*
+	 * Shared by all segments and guarded by its own monitor. Segments may lock the index while holding their own lock, but never the other way around.
+	 */
+	private final VariantIndex mVariantIndex = new VariantIndex();
+
+	public StripedMemoryLRUCacher() {
+		this(DEFAULT_NUM_SEGMENTS);
+	}
+
+	/**
+	 * @param numSegments
+	 *            Will be rounded up to the nearest power of two.
+	 */
+	public StripedMemoryLRUCacher(int numSegments) {
+		int size = 1;
+		while (size < numSegments) {
+			size <<= 1;
+		}
+
+		mSegments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			mSegments[i] = new Segment();
+		}
+		mSegmentMask = size - 1;
+	}
+
+	@Override
+	public Bitmap getBitmap(DecodeSignature decodeSignature) {
+		Entry entry = getSegment(decodeSignature).mMap.get(decodeSignature);
+		if (entry != null) {
+			entry.referenced = true;
+			entry.accessStamp = mAccessClock.get();
+			return entry.bitmap;
+		}
+		return null;
+	}
+
+	@Override
+	public void cacheBitmap(Bitmap bitmap, DecodeSignature decodeSignature) {
+		Entry entry = new Entry(decodeSignature, bitmap, BitmapPool.getAllocationSize(bitmap), mAccessClock.incrementAndGet());
+		getSegment(decodeSignature).put(entry);
+		performEvictions(decodeSignature);
+	}
+
+	@Override
+	public Bitmap removeBitmap(DecodeSignature decodeSignature) {
+		return getSegment(decodeSignature).remove(decodeSignature);
+	}
+
+	@Override
+	public void clearCache() {
+		for (Segment segment : mSegments) {
+			segment.clear();
+		}
+		synchronized (mVariantIndex) {
+			mVariantIndex.clear();
+		}
+	}
+
+	@Override
+	public void setMaximumCacheSize(long size) {
+		mMaximumSizeInBytes = size;
+		performEvictions(null);
+	}
+
+	@Override
+	public long getMaximumCacheSize() {
+		return mMaximumSizeInBytes;
+	}
+
+	@Override
+	public void removeAllImagesForUri(String uri) {
+		List<DecodeSignature> signatures;
+		synchronized (mVariantIndex) {
+			signatures = mVariantIndex.removeAll(uri);
+		}
+		removeAll(signatures);
+	}
+
+	@Override
+	public void removeAllImagesForUris(Collection<String> uris) {
+		List<DecodeSignature> signatures = new ArrayList<DecodeSignature>();
+		synchronized (mVariantIndex) {
+			for (String uri : uris) {
+				signatures.addAll(mVariantIndex.removeAll(uri));
+			}
+		}
+		removeAll(signatures);
+	}
+
+	@Override
+	public DecodeSignature getLargerVariant(DecodeSignature decodeSignature) {
+		synchronized (mVariantIndex) {
+			return mVariantIndex.getLargerVariant(decodeSignature);
+		}
+	}
+
+	@Override
+	public void setEvictionObserver(EvictionObserver evictionObserver) {
+		mEvictionObserver = evictionObserver;
+	}
+
+	public int getNumImagesInCache() {
+		int count = 0;
+		for (Segment segment : mSegments) {
+			count += segment.mMap.size();
+		}
+		return count;
+	}
+
+	@Override
+	public long getSize() {
+		return mSize.get();
+	}
+
+	/**
+	 * Segments are locked one at a time, so an inserting thread never holds more than one segment lock while evicting. A candidate may be used or removed between being picked and being evicted, in which case the
+	 * segment evicts its next candidate instead.
+	 *
+	 * @param cachedSignature
+	 *            The signature of the bitmap that is currently being cached, if any. That bitmap will not be evicted, as it is about to be handed back to the caller.
+	 */
+	private void performEvictions(DecodeSignature cachedSignature) {
+		while (mSize.get() > mMaximumSizeInBytes) {
+			Segment eldestSegment = getEldestSegment(cachedSignature);
+			if (eldestSegment == null) {
+				return;
+			}
+
+			Entry evicted = eldestSegment.evictOne(cachedSignature);
+			if (evicted != null) {
+				EvictionObserver evictionObserver = mEvictionObserver;
+				if (evictionObserver != null) {
+					evictionObserver.onBitmapEvicted(evicted.decodeSignature, evicted.bitmap);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The segment whose eviction candidate was used least recently, or null if no segment has anything left to evict.
+	 */
+	private Segment getEldestSegment(DecodeSignature protectedSignature) {
+		Segment eldestSegment = null;
+		long eldestStamp = Long.MAX_VALUE;
+		for (Segment segment : mSegments) {
+			Entry candidate = segment.findCandidate(protectedSignature);
+			if (candidate != null && candidate.accessStamp < eldestStamp) {
+				eldestSegment = segment;
+				eldestStamp = candidate.accessStamp;
+			}
+		}
+		return eldestSegment;
+	}
+
+	private void removeAll(List<DecodeSignature> signatures) {
+		for (DecodeSignature signature : signatures) {
+			getSegment(signature).remove(signature);
+		}
+	}
+
+	private Segment getSegment(DecodeSignature decodeSignature) {
+		int hash = decodeSignature.hashCode();
+		hash ^= (hash >>> 16);
+		return mSegments[hash & mSegmentMask];
+	}
+
+	private static class Entry {
+		final DecodeSignature decodeSignature;
+		final Bitmap bitmap;
+		final long size;
+		volatile boolean referenced = true;
+		volatile long accessStamp;
+		int clockIndex;
+
+		Entry(DecodeSignature decodeSignature, Bitmap bitmap, long size, long accessStamp) {
+			this.decodeSignature = decodeSignature;
+			this.bitmap = bitmap;
+			this.size = size;
+			this.accessStamp = accessStamp;
+		}
+	}
+
+	private class Segment {
+		final ConcurrentHashMap<DecodeSignature, Entry> mMap = new ConcurrentHashMap<DecodeSignature, Entry>(16, 0.75f, 1);
+		private final ArrayList<Entry> mClock = new ArrayList<Entry>();
+		private int mHand = 0;
+
+		synchronized void put(Entry entry) {
+			Entry previous = mMap.put(entry.decodeSignature, entry);
+			if (previous != null) {
+				removeFromClock(previous);
+				mSize.addAndGet(-previous.size);
+			} else {
+				synchronized (mVariantIndex) {
+					mVariantIndex.add(entry.decodeSignature);
+				}
+			}
+
+			entry.clockIndex = mClock.size();
+			mClock.add(entry);
+			mSize.addAndGet(entry.size);
+		}
+
+		/**
+		 * Advances the clock hand to the next entry that has not been used since the hand last passed it, without removing it.
+		 */
+		synchronized Entry findCandidate(DecodeSignature protectedSignature) {
+			int numEntries = mClock.size();
+			for (int i = 0; i < numEntries * 2; i++) {
+				if (mHand >= mClock.size()) {
+					mHand = 0;
+				}
+
+				Entry entry = mClock.get(mHand);
+				if (entry.decodeSignature.equals(protectedSignature)) {
+					mHand++;
+				} else if (entry.referenced) {
+					entry.referenced = false;
+					mHand++;
+				} else {
+					return entry;
+				}
+			}
+			return null;
+		}
+
+		synchronized Entry evictOne(DecodeSignature protectedSignature) {
+			Entry entry = findCandidate(protectedSignature);
+			if (entry != null) {
+				remove(entry);
+			}
+			return entry;
+		}
+
+		synchronized Bitmap remove(DecodeSignature decodeSignature) {
+			Entry entry = mMap.get(decodeSignature);
+			if (entry != null) {
+				remove(entry);
+				return entry.bitmap;
+			}
+			return null;
+		}
+
+		synchronized void clear() {
+			for (Entry entry : mClock) {
+				mSize.addAndGet(-entry.size);
+			}
+			mMap.clear();
+			mClock.clear();
+			mHand = 0;
+		}
+
+		private void remove(Entry entry) {
+			mMap.remove(entry.decodeSignature);
+			removeFromClock(entry);
+			mSize.addAndGet(-entry.size);
+			synchronized (mVariantIndex) {
+				mVariantIndex.remove(entry.decodeSignature);
+			}
+		}
+
+		/**
+		 * Swaps the last entry of the clock into the removed entry's slot. This keeps removals O(1) at the cost of slightly reordering the clock, which CLOCK tolerates.
+		 */
+		private void removeFromClock(Entry entry) {
+			Entry last = mClock.remove(mClock.size() - 1);
+			if (last != entry) {
+				mClock.set(entry.clockIndex, last);
+				last.clockIndex = entry.clockIndex;
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Forwards to an index that can be replaced by an index of another type without losing the changes made while the entries are being copied.<br>
+ * <br>
+ * Once a migration has started, every change is applied to the current index and also recorded. The entries are then copied to the new index without blocking anyone, and only replaying the recorded changes and
+ * switching over happen under the exclusive lock. Changes are made under the shared lock, so none can be made to the old index once the new one has taken over. Evictions are skipped while a migration is running,
+ * as the entries they would remove from the new index are not known. The caller evicts again once the migration has completed.
+ */
+class SwappableDiskIndex implements DiskIndex {
+	private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+	private volatile DiskIndex mDiskIndex;
+	private List<IndexChange> mRecordedChanges; // Guarded by mLock.
+
+	public SwappableDiskIndex(DiskIndex diskIndex) {
+		mDiskIndex = diskIndex;
+	}
+
+	public DiskIndex getDiskIndex() {
+		return mDiskIndex;
+	}
+
+	/**
+	 * Moves the entries into the given index, then deletes the persisted old index. Does disk I/O, and must not be called again before it has returned.
+	 */
+	public void migrateTo(DiskIndex newIndex) {
+		mLock.writeLock().lock();
+		try {
+			mRecordedChanges = new ArrayList<IndexChange>();
+		} finally {
+			mLock.writeLock().unlock();
+		}
+
+		DiskIndex oldIndex = mDiskIndex;
+		newIndex.replaceAllEntries(oldIndex.getAllEntries());
+
+		mLock.writeLock().lock();
+		try {
+			// Changes recorded before the entries were read are already among them. Replaying them again is harmless, as every change simply sets the state of one entry.
+			for (IndexChange change : mRecordedChanges) {
+				change.applyTo(newIndex);
+			}
+			mRecordedChanges = null;
+			mDiskIndex = newIndex;
+		} finally {
+			mLock.writeLock().unlock();
+		}
+		oldIndex.deleteIndex();
+	}
+
+	@Override
+	public boolean isCached(String uri) {
+		return mDiskIndex.isCached(uri);
+	}
+
+	@Override
+	public FileEntry getFileEntryFromCache(String uri) {
+		return mDiskIndex.getFileEntryFromCache(uri);
+	}
+
+	@Override
+	public void addOrUpdateFile(final String url, final long size, final int width, final int height) {
+		applyChange(new IndexChange() {
+			@Override
+			public void applyTo(DiskIndex diskIndex) {
+				diskIndex.addOrUpdateFile(url, size, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void updateFile(final String uri) {
+		applyChange(new IndexChange() {
+			@Override
+			public void applyTo(DiskIndex diskIndex) {
+				diskIndex.updateFile(uri);
+			}
+		});
+	}
+
+	@Override
+	public void setCacheHeaders(final String uri, final String eTag, final String lastModified, final long expirationTime) {
+		applyChange(new IndexChange() {
+			@Override
+			public void applyTo(DiskIndex diskIndex) {
+				diskIndex.setCacheHeaders(uri, eTag, lastModified, expirationTime);
+			}
+		});
+	}
+
+	@Override
+	public void setStorageRoot(final String uri, final StorageRoot storageRoot) {
+		applyChange(new IndexChange() {
+			@Override
+			public void applyTo(DiskIndex diskIndex) {
+				diskIndex.setStorageRoot(uri, storageRoot);
+			}
+		});
+	}
+
+	@Override
+	public void deleteEntry(final String uri) {
+		applyChange(new IndexChange() {
+			@Override
+			public void applyTo(DiskIndex diskIndex) {
+				diskIndex.deleteEntry(uri);
+			}
+		});
+	}
+
+	@Override
+	public void removeLeastUsedFileFromCache(long targetSize) {
+		mLock.readLock().lock();
+		try {
+			if (mRecordedChanges == null) {
+				mDiskIndex.removeLeastUsedFileFromCache(targetSize);
+			}
+		} finally {
+			mLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getTotalSizeOnDisk() {
+		return mDiskIndex.getTotalSizeOnDisk();
+	}
+
+	@Override
+	public Collection<FileEntry> getAllEntries() {
+		return mDiskIndex.getAllEntries();
+	}
+
+	@Override
+	public void flush() {
+		mDiskIndex.flush();
+	}
+
+	@Override
+	public void replaceAllEntries(Collection<FileEntry> entries) {
+		mDiskIndex.replaceAllEntries(entries);
+	}
+
+	@Override
+	public void deleteIndex() {
+		mDiskIndex.deleteIndex();
+	}
+
+	/**
+	 * Changes to the same entry are recorded in the order in which they were applied.
+	 */
+	private void applyChange(IndexChange change) {
+		mLock.readLock().lock();
+		try {
+			List<IndexChange> recordedChanges = mRecordedChanges;
+			if (recordedChanges == null) {
+				change.applyTo(mDiskIndex);
+			} else {
+				synchronized (recordedChanges) {
+					change.applyTo(mDiskIndex);
+					recordedChanges.add(change);
+				}
+			}
+		} finally {
+			mLock.readLock().unlock();
+		}
+	}
+
+	private static interface IndexChange {
+		void applyTo(DiskIndex diskIndex);
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.graphics.Bitmap;
+
+/**
+ * A memory cache that uses a simplified W-TinyLFU policy to resist scans, such as precaching or flinging through a long list of images that will never be shown again.
+ *
+ * New bitmaps enter a small LRU "window". When the window overflows, its least recently used bitmap becomes a candidate for the main LRU area. If the main area is full, the candidate is only admitted if a
+ * {@link FrequencySketch} estimates that it has been requested more often than the least recently used bitmap of the main area. Otherwise the candidate is evicted without touching the main area, and frequently
+ * reused images such as avatars and headers stay cached.
+ */
+class TinyLfuMemoryCacher implements ImageMemoryCacherInterface {
+	private static final int WINDOW_PERCENTAGE = 20;
+	private static final int DEFAULT_SKETCH_SIZE = 1024;
+
+	private long mMaximumSizeInBytes = 20 * 1024 * 1024; // 20MB default
+	private volatile long mWindowSize = 0;
+	private volatile long mMainSize = 0;
+
+	private final Map<DecodeSignature, Entry> mCache = new HashMap<DecodeSignature, Entry>();
+	private final Set<DecodeSignature> mWindow = new LinkedHashSet<DecodeSignature>();
+	private final Set<DecodeSignature> mMain = new LinkedHashSet<DecodeSignature>();
+	private final VariantIndex mVariantIndex = new VariantIndex();
+	private final FrequencySketch mSketch;
+	private EvictionObserver mEvictionObserver;
+
+	public TinyLfuMemoryCacher() {
+		this(DEFAULT_SKETCH_SIZE);
+	}
+
+	/**
+	 * @param sketchSize
+	 *            The number of distinct images whose request frequency can be tracked accurately.
+	 */
+	public TinyLfuMemoryCacher(int sketchSize) {
+		mSketch = new FrequencySketch(sketchSize);
+	}
+
+	@Override
+	public synchronized Bitmap getBitmap(DecodeSignature decodeSignature) {
+		mSketch.increment(decodeSignature.hashCode());
+
+		Entry entry = mCache.get(decodeSignature);
+		if (entry != null) {
+			Set<DecodeSignature> segment = entry.inWindow ? mWindow : mMain;
+			segment.remove(decodeSignature);
+			segment.add(decodeSignature);
+			return entry.bitmap;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void cacheBitmap(Bitmap bitmap, DecodeSignature decodeSignature) {
+		if (mCache.containsKey(decodeSignature)) {
+			remove(decodeSignature);
+		}
+
+		Entry entry = new Entry(bitmap, BitmapPool.getAllocationSize(bitmap));
+		mCache.put(decodeSignature, entry);
+		mWindow.add(decodeSignature);
+		mWindowSize += entry.size;
+		mVariantIndex.add(decodeSignature);
+
+		performEvictions(decodeSignature);
+	}
+
+	@Override
+	public synchronized Bitmap removeBitmap(DecodeSignature decodeSignature) {
+		Entry entry = mCache.get(decodeSignature);
+		if (entry == null) {
+			return null;
+		}
+		remove(decodeSignature);
+		return entry.bitmap;
+	}
+
+	@Override
+	public synchronized void clearCache() {
+		mCache.clear();
+		mWindow.clear();
+		mMain.clear();
+		mVariantIndex.clear();
+		mWindowSize = 0;
+		mMainSize = 0;
+	}
+
+	@Override
+	public synchronized void setMaximumCacheSize(long size) {
+		mMaximumSizeInBytes = size;
+		performEvictions(null);
+	}
+
+	@Override
+	public synchronized long getMaximumCacheSize() {
+		return mMaximumSizeInBytes;
+	}
+
+	@Override
+	public synchronized void removeAllImagesForUri(String uri) {
+		for (DecodeSignature signature : mVariantIndex.removeAll(uri)) {
+			remove(signature);
+		}
+	}
+
+	@Override
+	public synchronized void removeAllImagesForUris(Collection<String> uris) {
+		for (String uri : uris) {
+			removeAllImagesForUri(uri);
+		}
+	}
+
+	@Override
+	public synchronized DecodeSignature getLargerVariant(DecodeSignature decodeSignature) {
+		return mVariantIndex.getLargerVariant(decodeSignature);
+	}
+
+	@Override
+	public synchronized void setEvictionObserver(EvictionObserver evictionObserver) {
+		mEvictionObserver = evictionObserver;
+	}
+
+	public synchronized int getNumImagesInCache() {
+		return mCache.size();
+	}
+
+	@Override
+	public long getSize() {
+		return mWindowSize + mMainSize;
+	}
+
+	/**
+	 * @param cachedSignature
+	 *            The signature of the bitmap that is currently being cached, if any. That bitmap is about to be handed back to the caller, so its eviction is not reported to the {@link EvictionObserver}.
+	 */
+	private void performEvictions(DecodeSignature cachedSignature) {
+		long maximumWindowSize = mMaximumSizeInBytes * WINDOW_PERCENTAGE / 100;
+		long maximumMainSize = mMaximumSizeInBytes - maximumWindowSize;
+
+		while (mWindowSize > maximumWindowSize && !mWindow.isEmpty()) {
+			DecodeSignature candidate = getFirst(mWindow);
+			Entry entry = mCache.get(candidate);
+			mWindow.remove(candidate);
+			mWindowSize -= entry.size;
+
+			if (admit(candidate, entry, maximumMainSize)) {
+				entry.inWindow = false;
+				mMain.add(candidate);
+				mMainSize += entry.size;
+			} else {
+				evict(candidate, entry, cachedSignature);
+			}
+		}
+
+		while (mMainSize > maximumMainSize && !mMain.isEmpty()) {
+			DecodeSignature victim = getFirst(mMain);
+			Entry entry = mCache.get(victim);
+			mMain.remove(victim);
+			mMainSize -= entry.size;
+			evict(victim, entry, cachedSignature);
+		}
+	}
+
+	/**
+	 * Decides before anything is evicted, so that a rejected candidate never costs the main area a bitmap. Once admitted, the candidate makes room for itself by evicting the least recently used bitmaps of the main
+	 * area.
+	 * 
+	 * @return True if the candidate should be added to the main area.
+	 */
+	private boolean admit(DecodeSignature candidate, Entry candidateEntry, long maximumMainSize) {
+		if (mMainSize + candidateEntry.size <= maximumMainSize || mMain.isEmpty()) {
+			return true;
+		}
+
+		DecodeSignature victim = getFirst(mMain);
+		return mSketch.getFrequency(candidate.hashCode()) > mSketch.getFrequency(victim.hashCode());
+	}
+
+	private void evict(DecodeSignature decodeSignature, Entry entry, DecodeSignature cachedSignature) {
+		mCache.remove(decodeSignature);
+		mVariantIndex.remove(decodeSignature);
+
+		if (mEvictionObserver != null && !decodeSignature.equals(cachedSignature)) {
+			mEvictionObserver.onBitmapEvicted(decodeSignature, entry.bitmap);
+		}
+	}
+
+	private void remove(DecodeSignature decodeSignature) {
+		Entry entry = mCache.remove(decodeSignature);
+		if (entry == null) {
+			return;
+		}
+
+		if (entry.inWindow) {
+			mWindow.remove(decodeSignature);
+			mWindowSize -= entry.size;
+		} else {
+			mMain.remove(decodeSignature);
+			mMainSize -= entry.size;
+		}
+		mVariantIndex.remove(decodeSignature);
+	}
+
+	private static DecodeSignature getFirst(Set<DecodeSignature> set) {
+		return set.iterator().next();
+	}
+
+	private static class Entry {
+		final Bitmap bitmap;
+		final long size;
+		boolean inWindow = true;
+
+		Entry(Bitmap bitmap, long size) {
+			this.bitmap = bitmap;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Records the URI of every image that is saved under a hashed file name, so that the index can still be rebuilt from the files on disk if it is lost. The index is the only other place that knows which URI a file
+ * belongs to.
+ * 
+ * URIs are appended as they are saved and never removed, so the log is compacted down to the URIs of the index after each consistency scan. A URI that is too long to be recorded is skipped, and its image is lost
+ * along with the index.
+ */
+class UriLog {
+	private static final String LOG_FILE_NAME = "uris";
+	private static final String COMPACTED_FILE_NAME = "uris.tmp";
+
+	private final DiskManager mDiskManager;
+	private final String mDirectoryName;
+
+	public UriLog(DiskManager diskManager, String directoryName) {
+		mDiskManager = diskManager;
+		mDirectoryName = directoryName;
+	}
+
+	/**
+	 * Does disk I/O.
+	 */
+	public synchronized void add(String uri) {
+		DataOutputStream out = null;
+		try {
+			File directory = mDiskManager.getFile(mDirectoryName);
+			directory.mkdirs();
+			out = new DataOutputStream(new FileOutputStream(new File(directory, LOG_FILE_NAME), true));
+			// The record is written in a single write, so a process that is killed part way through leaves at most one partial record at the end of the log.
+			out.writeUTF(uri);
+		} catch (UTFDataFormatException e) {
+			// The URI is too long to be recorded.
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Does disk I/O.
+	 * 
+	 * @return Every URI that has been recorded since the last compaction, in the order in which they were first recorded. A partial record at the end of the log is ignored.
+	 */
+	public synchronized Set<String> getUris() {
+		Set<String> uris = new LinkedHashSet<String>();
+		File file = new File(mDiskManager.getFile(mDirectoryName), LOG_FILE_NAME);
+		if (!file.isFile()) {
+			return uris;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			while (true) {
+				uris.add(in.readUTF());
+			}
+		} catch (EOFException e) {
+			// The end of the log, or a partial record.
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			closeQuietly(in);
+		}
+		return uris;
+	}
+
+	/**
+	 * Rewrites the log with only the URIs of the given images, and of images that have been saved so recently that they may not have been added to the index yet. Does disk I/O.
+	 */
+	public synchronized void compact(Collection<String> indexedUris) {
+		Set<String> retainedUris = new LinkedHashSet<String>(indexedUris);
+		long now = System.currentTimeMillis();
+		for (String uri : getUris()) {
+			File file = mDiskManager.getFile(DiskManager.getShardedFileName(uri));
+			if (now - file.lastModified() < DiskConsistencyScanner.ORPHAN_MINIMUM_AGE_MS) {
+				retainedUris.add(uri);
+			}
+		}
+
+		File directory = mDiskManager.getFile(mDirectoryName);
+		directory.mkdirs();
+		File compactedFile = new File(directory, COMPACTED_FILE_NAME);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+			for (String uri : retainedUris) {
+				try {
+					out.writeUTF(uri);
+				} catch (UTFDataFormatException e) {
+					// The URI is too long to be recorded.
+				}
+			}
+			out.close();
+			out = null;
+			if (!compactedFile.renameTo(new File(directory, LOG_FILE_NAME))) {
+				compactedFile.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			compactedFile.delete();
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks every cached {@link DecodeSignature} by URI, so that the memory caches can find the other variants of an image without scanning all of their entries.
+ *
+ * This class is not thread safe. Callers are expected to guard it with the same lock that guards the cache it indexes.
+ */
+class VariantIndex {
+	private final Map<String, List<DecodeSignature>> mVariants = new HashMap<String, List<DecodeSignature>>();
+
+	public void add(DecodeSignature decodeSignature) {
+		List<DecodeSignature> variants = mVariants.get(decodeSignature.uri);
+		if (variants == null) {
+			variants = new ArrayList<DecodeSignature>(2);
+			mVariants.put(decodeSignature.uri, variants);
+		}
+
+		if (!variants.contains(decodeSignature)) {
+			variants.add(decodeSignature);
+		}
+	}
+
+	public void remove(DecodeSignature decodeSignature) {
+		List<DecodeSignature> variants = mVariants.get(decodeSignature.uri);
+		if (variants != null) {
+			variants.remove(decodeSignature);
+			if (variants.isEmpty()) {
+				mVariants.remove(decodeSignature.uri);
+			}
+		}
+	}
+
+	/**
+	 * @return The signatures that were indexed for the URI. Never null.
+	 */
+	public List<DecodeSignature> removeAll(String uri) {
+		List<DecodeSignature> variants = mVariants.remove(uri);
+		if (variants == null) {
+			return new ArrayList<DecodeSignature>(0);
+		}
+		return variants;
+	}
+
+	public void clear() {
+		mVariants.clear();
+	}
+
+	/**
+	 * Finds the indexed variant that is closest in size to the requested signature while still being at least as large. The variant must share the URI and bitmap config of the request, and must have been decoded
+	 * with a smaller sample size.
+	 *
+	 * @return The signature of the variant, or null if no suitable variant has been indexed.
+	 */
+	public DecodeSignature getLargerVariant(DecodeSignature decodeSignature) {
+		List<DecodeSignature> variants = mVariants.get(decodeSignature.uri);
+		if (variants == null) {
+			return null;
+		}
+
+		DecodeSignature closestVariant = null;
+		for (DecodeSignature variant : variants) {
+			if (variant.bitmapConfig == decodeSignature.bitmapConfig && variant.sampleSize < decodeSignature.sampleSize) {
+				if (closestVariant == null || variant.sampleSize > closestVariant.sampleSize) {
+					closestVariant = variant;
+				}
+			}
+		}
+		return closestVariant;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Xtreme Labs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xtremelabs.imageutils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * Holds weak references to bitmaps that have been evicted from the memory cache. As long as a bitmap is still displayed, for example by an ImageView, it will not be garbage collected and can be handed out again
+ * instead of being decoded from disk a second time.
+ *
+ * Bitmaps that have since been given to the {@link BitmapPool} are only handed out if the decoder has not reused them, since that overwrites their pixels.
+ */
+class WeakBitmapCache {
+	private final BitmapPool mBitmapPool;
+
+	private final Map<DecodeSignature, BitmapReference> mReferences = new HashMap<DecodeSignature, BitmapReference>();
+	private final ReferenceQueue<Bitmap> mReferenceQueue = new ReferenceQueue<Bitmap>();
+	private final VariantIndex mVariantIndex = new VariantIndex();
+
+	private volatile long mHitCount = 0;
+	private volatile long mMissCount = 0;
+
+	public WeakBitmapCache(BitmapPool bitmapPool) {
+		mBitmapPool = bitmapPool;
+	}
+
+	public synchronized void put(DecodeSignature decodeSignature, Bitmap bitmap) {
+		purgeClearedReferences();
+
+		mReferences.put(decodeSignature, new BitmapReference(decodeSignature, bitmap, mBitmapPool.getReuseCount(bitmap), mReferenceQueue));
+		mVariantIndex.add(decodeSignature);
+	}
+
+	/**
+	 * Removes the bitmap from this cache and returns it, if it is still in memory and its pixels are still intact.
+	 */
+	public synchronized Bitmap remove(DecodeSignature decodeSignature) {
+		BitmapReference reference = mReferences.remove(decodeSignature);
+		if (reference == null) {
+			mMissCount++;
+			return null;
+		}
+		mVariantIndex.remove(decodeSignature);
+
+		Bitmap bitmap = reference.get();
+		if (bitmap == null || bitmap.isRecycled() || !mBitmapPool.reclaim(bitmap, reference.reuseCount)) {
+			mMissCount++;
+			return null;
+		}
+
+		mHitCount++;
+		return bitmap;
+	}
+
+	public synchronized void removeAllForUri(String uri) {
+		for (DecodeSignature decodeSignature : mVariantIndex.removeAll(uri)) {
+			mReferences.remove(decodeSignature);
+		}
+	}
+
+	public synchronized void removeAllForUris(Collection<String> uris) {
+		for (String uri : uris) {
+			removeAllForUri(uri);
+		}
+	}
+
+	public synchronized void clear() {
+		mReferences.clear();
+		mVariantIndex.clear();
+	}
+
+	public synchronized int getNumReferences() {
+		purgeClearedReferences();
+		return mReferences.size();
+	}
+
+	/**
+	 * @return The number of times a bitmap was served from this cache instead of being decoded again.
+	 */
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	private void purgeClearedReferences() {
+		BitmapReference reference;
+		while ((reference = (BitmapReference) mReferenceQueue.poll()) != null) {
+			if (mReferences.get(reference.decodeSignature) == reference) {
+				mReferences.remove(reference.decodeSignature);
+				mVariantIndex.remove(reference.decodeSignature);
+			}
+		}
+	}
+
+	private static class BitmapReference extends WeakReference<Bitmap> {
+		final DecodeSignature decodeSignature;
+		final int reuseCount;
+
+		BitmapReference(DecodeSignature decodeSignature, Bitmap bitmap, int reuseCount, ReferenceQueue<Bitmap> referenceQueue) {
+			super(bitmap, referenceQueue);
+			this.decodeSignature = decodeSignature;
+			this.reuseCount = reuseCount;
+		}
+	}
+}